@@ -0,0 +1,66 @@
+package impl;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * ArenaText is a handle to text held in a {@link NotesArena}: the arena, the offset and the
+ * length of its UTF-8 bytes. The text is copied out and decoded only when it is read.
+ *
+ * <p>The arena belongs to the running process, so the handle is written to a snapshot as a
+ * {@link CompactText} holding the text itself.
+ *
+ * @author Alexander Worton.
+ */
+final class ArenaText extends EncodedText implements Serializable {
+  /**
+   * serialVersionUID holds the version for serialization. Increment when changes
+   * to the data model occur.
+   */
+  private static final long serialVersionUID = Long.MIN_VALUE;
+
+  private final transient NotesArena arena;
+  private final long offset;
+  private final int length;
+  private final int hash;
+
+  /**
+   * Constructor for the handle.
+   * @param suppliedArena the arena holding the text
+   * @param suppliedOffset the offset of the text in the arena
+   * @param suppliedLength the number of UTF-8 bytes
+   * @param suppliedHash the hash of the UTF-8 bytes
+   */
+  ArenaText(final NotesArena suppliedArena, final long suppliedOffset,
+            final int suppliedLength, final int suppliedHash) {
+    this.arena = suppliedArena;
+    this.offset = suppliedOffset;
+    this.length = suppliedLength;
+    this.hash = suppliedHash;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  byte[] getEncoded() {
+    return this.arena.read(this.offset, this.length);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int hashCode() {
+    return this.hash;
+  }
+
+  /**
+   * Write the text itself to a snapshot in place of the handle.
+   * @return a copy of the text on the heap
+   * @throws ObjectStreamException never
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    return new CompactText(getEncoded());
+  }
+}
@@ -0,0 +1,141 @@
+package impl;
+
+import java.io.Closeable;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import spec.Contact;
+import spec.FutureMeeting;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * AsyncContactManager mirrors every method of {@link spec.ContactManager} without blocking the
+ * caller. Each method returns at once with a future completed with the result, or
+ * exceptionally with the exception the blocking method would have thrown.
+ *
+ * <p>Writes are applied one at a time in the order they were made and return a
+ * {@link WriteFuture}, which signals separately when the write has been applied in memory and
+ * when it has become durable. A read made after a write's future completes sees the write;
+ * a read made while a write is still queued may not.
+ *
+ * @author Alexander Worton.
+ */
+public interface AsyncContactManager extends Closeable {
+
+  /**
+   * Add a new meeting to be held in the future.
+   * @param contacts a set of contacts that will participate in the meeting
+   * @param date the date on which the meeting will take place
+   * @return the write, completed with the id of the meeting
+   * @see spec.ContactManager#addFutureMeeting(Set, Calendar)
+   */
+  WriteFuture<Integer> addFutureMeeting(Set<Contact> contacts, Calendar date);
+
+  /**
+   * Find the past meeting with the requested id.
+   * @param id the id of the meeting
+   * @return a future completed with the meeting, or null if there is none with the id
+   * @see spec.ContactManager#getPastMeeting(int)
+   */
+  CompletableFuture<PastMeeting> getPastMeeting(int id);
+
+  /**
+   * Find the future meeting with the requested id.
+   * @param id the id of the meeting
+   * @return a future completed with the meeting, or null if there is none with the id
+   * @see spec.ContactManager#getFutureMeeting(int)
+   */
+  CompletableFuture<FutureMeeting> getFutureMeeting(int id);
+
+  /**
+   * Find the meeting with the requested id.
+   * @param id the id of the meeting
+   * @return a future completed with the meeting, or null if there is none with the id
+   * @see spec.ContactManager#getMeeting(int)
+   */
+  CompletableFuture<Meeting> getMeeting(int id);
+
+  /**
+   * List the future meetings scheduled with a contact, in date order.
+   * @param contact one of the user's contacts
+   * @return a future completed with the meetings
+   * @see spec.ContactManager#getFutureMeetingList(Contact)
+   */
+  CompletableFuture<List<Meeting>> getFutureMeetingList(Contact contact);
+
+  /**
+   * List the meetings taking place on a date, in date order.
+   * @param date the date
+   * @return a future completed with the meetings
+   * @see spec.ContactManager#getMeetingListOn(Calendar)
+   */
+  CompletableFuture<List<Meeting>> getMeetingListOn(Calendar date);
+
+  /**
+   * List the past meetings in which a contact participated, in date order.
+   * @param contact one of the user's contacts
+   * @return a future completed with the meetings
+   * @see spec.ContactManager#getPastMeetingListFor(Contact)
+   */
+  CompletableFuture<List<PastMeeting>> getPastMeetingListFor(Contact contact);
+
+  /**
+   * Create a new record for a meeting that took place in the past.
+   * @param contacts a set of participants
+   * @param date the date on which the meeting took place
+   * @param text messages to be added about the meeting
+   * @return the write, completed with the id of the meeting
+   * @see spec.ContactManager#addNewPastMeeting(Set, Calendar, String)
+   */
+  WriteFuture<Integer> addNewPastMeeting(Set<Contact> contacts, Calendar date, String text);
+
+  /**
+   * Add notes to a meeting.
+   * @param id the id of the meeting
+   * @param text messages to be added about the meeting
+   * @return the write, completed with the meeting with its notes
+   * @see spec.ContactManager#addMeetingNotes(int, String)
+   */
+  WriteFuture<PastMeeting> addMeetingNotes(int id, String text);
+
+  /**
+   * Create a new contact.
+   * @param name the name of the contact
+   * @param notes notes to be added about the contact
+   * @return the write, completed with the id of the contact
+   * @see spec.ContactManager#addNewContact(String, String)
+   */
+  WriteFuture<Integer> addNewContact(String name, String notes);
+
+  /**
+   * Find the contacts with a name, or every contact if the name is empty.
+   * @param name the name to search for
+   * @return a future completed with the contacts
+   * @see spec.ContactManager#getContacts(String)
+   */
+  CompletableFuture<Set<Contact>> getContacts(String name);
+
+  /**
+   * Find the contacts with the supplied ids.
+   * @param ids any number of contact ids
+   * @return a future completed with the contacts
+   * @see spec.ContactManager#getContacts(int...)
+   */
+  CompletableFuture<Set<Contact>> getContacts(int... ids);
+
+  /**
+   * Save all data to disk, after every write made before it.
+   * @return a future completed once the data has been saved
+   * @see spec.ContactManager#flush()
+   */
+  CompletableFuture<Void> flush();
+
+  /**
+   * Stop accepting writes. Writes already made are still applied.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,259 @@
+package impl;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import spec.Contact;
+import spec.FutureMeeting;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * AsyncContactManagerImpl runs the methods of a {@link ContactManagerImpl} off the caller's
+ * thread. Reads run on an executor supplied by the caller. Writes, including flushes, run one
+ * at a time on a single writer thread owned by this manager, which never waits for a write to
+ * become durable: with a journal enabled durability follows its group commit, and otherwise
+ * the next flush.
+ *
+ * <p>Write futures are completed on the writer thread once applied, and their durable futures
+ * on the read executor, so work depending on them that may block should use the async stages
+ * of the futures.
+ *
+ * <p>Arguments are copied before a write is queued, as the caller may change them before it
+ * runs.
+ *
+ * @author Alexander Worton.
+ */
+public final class AsyncContactManagerImpl implements AsyncContactManager {
+
+  private final ContactManagerImpl manager;
+  private final Executor readExecutor;
+  private final ExecutorService writer;
+
+  /**
+   * Constructor for an asynchronous view of a manager.
+   * @param suppliedManager the manager
+   * @param suppliedReadExecutor the executor reads and durable completions run on
+   */
+  public AsyncContactManagerImpl(final ContactManagerImpl suppliedManager,
+                                 final Executor suppliedReadExecutor) {
+    Validation.validateObjectNotNull(suppliedManager, "Manager");
+    Validation.validateObjectNotNull(suppliedReadExecutor, "Executor");
+    this.manager = suppliedManager;
+    this.readExecutor = suppliedReadExecutor;
+    this.writer = Executors.newSingleThreadExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "async-contact-manager-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public WriteFuture<Integer> addFutureMeeting(final Set<Contact> contacts,
+                                               final Calendar date) {
+    final Set<Contact> copiedContacts = copy(contacts);
+    final Calendar copiedDate = copy(date);
+    return write(() -> this.manager.addFutureMeeting(copiedContacts, copiedDate));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<PastMeeting> getPastMeeting(final int id) {
+    return read(() -> this.manager.getPastMeeting(id));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<FutureMeeting> getFutureMeeting(final int id) {
+    return read(() -> this.manager.getFutureMeeting(id));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<Meeting> getMeeting(final int id) {
+    return read(() -> this.manager.getMeeting(id));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<List<Meeting>> getFutureMeetingList(final Contact contact) {
+    return read(() -> this.manager.getFutureMeetingList(contact));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<List<Meeting>> getMeetingListOn(final Calendar date) {
+    final Calendar copiedDate = copy(date);
+    return read(() -> this.manager.getMeetingListOn(copiedDate));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<List<PastMeeting>> getPastMeetingListFor(final Contact contact) {
+    return read(() -> this.manager.getPastMeetingListFor(contact));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public WriteFuture<Integer> addNewPastMeeting(final Set<Contact> contacts,
+                                                final Calendar date,
+                                                final String text) {
+    final Set<Contact> copiedContacts = copy(contacts);
+    final Calendar copiedDate = copy(date);
+    return write(() -> this.manager.addNewPastMeeting(copiedContacts, copiedDate, text));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public WriteFuture<PastMeeting> addMeetingNotes(final int id, final String text) {
+    return write(() -> this.manager.addMeetingNotes(id, text));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public WriteFuture<Integer> addNewContact(final String name, final String notes) {
+    return write(() -> this.manager.addNewContact(name, notes));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<Set<Contact>> getContacts(final String name) {
+    return read(() -> this.manager.getContacts(name));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<Set<Contact>> getContacts(final int... ids) {
+    final int[] copiedIds = ids == null ? null : ids.clone();
+    return read(() -> this.manager.getContacts(copiedIds));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CompletableFuture<Void> flush() {
+    final CompletableFuture<Void> flushed = new CompletableFuture<>();
+    try {
+      this.writer.execute(() -> {
+        try {
+          this.manager.flush();
+          flushed.complete(null);
+        } catch (RuntimeException e) {
+          flushed.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      flushed.completeExceptionally(e);
+    }
+    return flushed;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void close() {
+    this.writer.shutdown();
+  }
+
+  /**
+   * Run a read on the read executor.
+   * @param query the read
+   * @param <T> the type of the result
+   * @return a future completed with the result
+   */
+  private <T> CompletableFuture<T> read(final Supplier<T> query) {
+    return CompletableFuture.supplyAsync(query, this.readExecutor);
+  }
+
+  /**
+   * Queue a write on the writer thread.
+   * @param mutation the write, made through a public method of the manager
+   * @param <T> the type of the result
+   * @return the write's future
+   */
+  private <T> WriteFuture<T> write(final Supplier<T> mutation) {
+    final WriteFuture<T> write = new WriteFuture<>();
+    try {
+      this.writer.execute(() -> apply(write, mutation));
+    } catch (RejectedExecutionException e) {
+      write.fail(e);
+    }
+    return write;
+  }
+
+  /**
+   * Apply a write on the writer thread and arrange for its durable future to be completed.
+   * @param write the write's future
+   * @param mutation the write
+   * @param <T> the type of the result
+   */
+  private <T> void apply(final WriteFuture<T> write, final Supplier<T> mutation) {
+    final CompletableFuture<Void> durable;
+    try {
+      durable = this.manager.applyDeferred(mutation, write::complete);
+    } catch (RuntimeException e) {
+      write.fail(e);
+      return;
+    }
+    durable.whenCompleteAsync((ignored, failure) -> {
+      if (failure == null) {
+        write.durable().complete(write.join());
+      } else {
+        write.durable().completeExceptionally(failure);
+      }
+    }, this.readExecutor);
+  }
+
+  /**
+   * Copy a set of contacts.
+   * @param contacts the contacts, which may be null
+   * @return the copy, or null
+   */
+  private static Set<Contact> copy(final Set<Contact> contacts) {
+    return contacts == null ? null : new HashSet<>(contacts);
+  }
+
+  /**
+   * Copy a date.
+   * @param date the date, which may be null
+   * @return the copy, or null
+   */
+  private static Calendar copy(final Calendar date) {
+    return date == null ? null : (Calendar) date.clone();
+  }
+}
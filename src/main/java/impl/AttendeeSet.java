@@ -0,0 +1,111 @@
+package impl;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import spec.Contact;
+
+/**
+ * AttendeeSet is an immutable set of contacts stored as an {@link IdBitmap} of contact ids, with
+ * the contacts themselves looked up in the owning manager's contact map.
+ *
+ * <p>Membership is a bitmap lookup followed by a check that the contact is the one the manager
+ * holds under that id, which keeps the identity semantics of the sets it replaces. Only the
+ * bitmap is serialized, so the manager binds the set to its contact map again after a restore
+ * rather than relying on contact identity surviving serialization. Sets are created through an
+ * {@link AttendeeSetPool}, so meetings with the same attendees share one instance.
+ *
+ * @author Alexander Worton.
+ */
+public final class AttendeeSet extends AbstractSet<Contact> implements Serializable {
+  /**
+   * serialVersionUID holds the version for serialization. Increment when changes
+   * to the data model occur.
+   */
+  private static final long serialVersionUID = Long.MIN_VALUE;
+
+  private final IdBitmap ids;
+  private transient Map<Integer, Contact> directory;
+
+  /**
+   * Constructor for the set.
+   * @param suppliedIds the contact ids, which are not copied
+   * @param suppliedDirectory the contacts by id
+   */
+  AttendeeSet(final IdBitmap suppliedIds, final Map<Integer, Contact> suppliedDirectory) {
+    this.ids = suppliedIds;
+    this.directory = suppliedDirectory;
+  }
+
+  /**
+   * Bind the set to the contact map of its manager after a restore.
+   * @param suppliedDirectory the contacts by id
+   */
+  void bind(final Map<Integer, Contact> suppliedDirectory) {
+    this.directory = suppliedDirectory;
+  }
+
+  /**
+   * Getter for the contact ids.
+   * @return the ids, which must not be modified
+   */
+  IdBitmap getIds() {
+    return this.ids;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean contains(final Object obj) {
+    if (!(obj instanceof Contact)) {
+      return false;
+    }
+    final Contact contact = (Contact) obj;
+    return this.ids.contains(contact.getId())
+        && contact.equals(this.directory.get(contact.getId()));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int size() {
+    return this.ids.cardinality();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean isEmpty() {
+    return this.ids.isEmpty();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Iterator<Contact> iterator() {
+    final int[] held = this.ids.toArray();
+    return new Iterator<Contact>() {
+      private int position;
+
+      @Override
+      public boolean hasNext() {
+        return this.position < held.length;
+      }
+
+      @Override
+      public Contact next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return directory.get(held[this.position++]);
+      }
+    };
+  }
+}
@@ -0,0 +1,151 @@
+package impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import spec.Contact;
+
+/**
+ * AttendeeSetPool interns attendee sets so that meetings with the same attendees, such as a
+ * recurring team meeting, share one {@link AttendeeSet} rather than holding a copy each.
+ *
+ * <p>Sets are filed under a hash of their sorted contact ids and compared by content. The pool
+ * holds them through weak references, so a set is dropped once no meeting uses it; cleared
+ * references are purged on the next call. Because meetings share the canonical instance, a
+ * snapshot writes each distinct set once and refers back to it for every other meeting.
+ *
+ * <p>The pool is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class AttendeeSetPool {
+
+  private final Map<Integer, Contact> directory;
+  private final Map<Integer, List<Entry>> entries;
+  private final ReferenceQueue<AttendeeSet> cleared;
+
+  /**
+   * A weakly held set together with the hash it is filed under.
+   */
+  private static final class Entry extends WeakReference<AttendeeSet> {
+    private final int hash;
+
+    /**
+     * Constructor for an entry.
+     * @param set the set
+     * @param suppliedHash the hash of its ids
+     * @param queue the queue to enqueue on once the set is collected
+     */
+    Entry(final AttendeeSet set, final int suppliedHash,
+          final ReferenceQueue<AttendeeSet> queue) {
+      super(set, queue);
+      this.hash = suppliedHash;
+    }
+  }
+
+  /**
+   * Constructor for an empty pool.
+   * @param suppliedDirectory the contacts by id that interned sets resolve against
+   */
+  public AttendeeSetPool(final Map<Integer, Contact> suppliedDirectory) {
+    Validation.validateObjectNotNull(suppliedDirectory, "Directory");
+    this.directory = suppliedDirectory;
+    this.entries = new HashMap<>();
+    this.cleared = new ReferenceQueue<>();
+  }
+
+  /**
+   * Find the canonical set holding the same contacts, adding one if there is none. An
+   * {@link AttendeeSet} with no canonical equal becomes canonical itself, after being bound to
+   * this pool's contacts.
+   * @param contacts the contacts, all of which must be held in the directory
+   * @return the canonical set
+   */
+  public AttendeeSet intern(final Set<Contact> contacts) {
+    Validation.validateObjectNotNull(contacts, "Contacts");
+    if (contacts instanceof AttendeeSet) {
+      return intern(((AttendeeSet) contacts).getIds(), (AttendeeSet) contacts);
+    }
+    final IdBitmap ids = new IdBitmap();
+    contacts.forEach(contact -> ids.add(contact.getId()));
+    return intern(ids, null);
+  }
+
+  /**
+   * Find the canonical set holding the contacts with the supplied ids, adding one if there is
+   * none.
+   * @param ids the contact ids, all of which must be held in the directory; not copied
+   * @return the canonical set
+   */
+  AttendeeSet intern(final IdBitmap ids) {
+    return intern(ids, null);
+  }
+
+  /**
+   * Find the canonical set holding the supplied ids, adding one if there is none.
+   * @param ids the contact ids
+   * @param candidate a set holding the ids to make canonical if there is none, or null to
+   *     create one
+   * @return the canonical set
+   */
+  private AttendeeSet intern(final IdBitmap ids, final AttendeeSet candidate) {
+    purge();
+    final int hash = ids.hashCode();
+    final List<Entry> bucket = this.entries.computeIfAbsent(hash, key -> new ArrayList<>(1));
+    for (final Entry entry : bucket) {
+      final AttendeeSet held = entry.get();
+      if (held != null && held.getIds().equals(ids)) {
+        return held;
+      }
+    }
+    final AttendeeSet canonical;
+    if (candidate == null) {
+      canonical = new AttendeeSet(ids.runOptimize(), this.directory);
+    } else {
+      canonical = candidate;
+      canonical.bind(this.directory);
+    }
+    bucket.add(new Entry(canonical, hash, this.cleared));
+    return canonical;
+  }
+
+  /**
+   * Getter for the number of sets still held by the pool.
+   * @return the number of live canonical sets
+   */
+  public int size() {
+    purge();
+    int live = 0;
+    for (final List<Entry> bucket : this.entries.values()) {
+      for (final Entry entry : bucket) {
+        if (entry.get() != null) {
+          live++;
+        }
+      }
+    }
+    return live;
+  }
+
+  /**
+   * Remove the entries of sets that have been collected.
+   */
+  private void purge() {
+    Reference<? extends AttendeeSet> reference;
+    while ((reference = this.cleared.poll()) != null) {
+      final Entry entry = (Entry) reference;
+      final List<Entry> bucket = this.entries.get(entry.hash);
+      if (bucket != null) {
+        bucket.remove(entry);
+        if (bucket.isEmpty()) {
+          this.entries.remove(entry.hash);
+        }
+      }
+    }
+  }
+}
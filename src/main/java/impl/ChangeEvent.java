@@ -0,0 +1,111 @@
+package impl;
+
+import spec.Contact;
+import spec.Meeting;
+
+/**
+ * ChangeEvent describes a single mutation of a contact manager. Every event carries a sequence
+ * number that increases by one with each mutation, so a subscriber can resume from the last
+ * sequence it has applied.
+ *
+ * @author Alexander Worton.
+ */
+public final class ChangeEvent {
+
+  /**
+   * The kinds of mutation reported by the change feed.
+   */
+  public enum Type {
+    /** A contact was added. */
+    CONTACT_ADDED,
+    /** The notes of an existing contact were replaced. */
+    CONTACT_NOTES_CHANGED,
+    /** A past or future meeting was added. */
+    MEETING_ADDED,
+    /** Notes were added to a meeting, replacing it with a past meeting. */
+    MEETING_NOTES_ADDED
+  }
+
+  private final long sequence;
+  private final Type type;
+  private final int id;
+  private final Contact contact;
+  private final Meeting meeting;
+  private final String notes;
+
+  /**
+   * Constructor for the event.
+   * @param suppliedSequence the sequence number of the mutation
+   * @param suppliedType the kind of mutation
+   * @param suppliedContact the contact concerned, or null for meeting events
+   * @param suppliedMeeting the meeting concerned, or null for contact events
+   * @param suppliedNotes the notes at the time of the mutation, or null for future meetings
+   */
+  ChangeEvent(final long suppliedSequence, final Type suppliedType,
+              final Contact suppliedContact, final Meeting suppliedMeeting,
+              final String suppliedNotes) {
+    this.sequence = suppliedSequence;
+    this.type = suppliedType;
+    this.id = suppliedContact == null ? suppliedMeeting.getId() : suppliedContact.getId();
+    this.contact = suppliedContact;
+    this.meeting = suppliedMeeting;
+    this.notes = suppliedNotes;
+  }
+
+  /**
+   * Getter for the sequence number.
+   * @return the sequence number of the mutation
+   */
+  public long getSequence() {
+    return this.sequence;
+  }
+
+  /**
+   * Getter for the type.
+   * @return the kind of mutation
+   */
+  public Type getType() {
+    return this.type;
+  }
+
+  /**
+   * Getter for the id of the contact or meeting concerned.
+   * @return the contact id for contact events, the meeting id otherwise
+   */
+  public int getId() {
+    return this.id;
+  }
+
+  /**
+   * Getter for the contact.
+   * @return the contact concerned, or null for meeting events
+   */
+  public Contact getContact() {
+    return this.contact;
+  }
+
+  /**
+   * Getter for the meeting.
+   * @return the meeting concerned, or null for contact events
+   */
+  public Meeting getMeeting() {
+    return this.meeting;
+  }
+
+  /**
+   * Getter for the notes as they were when the mutation happened. Contact notes may change
+   * again later, so mirrors should apply these rather than reading the live contact.
+   * @return the notes, or null for a future meeting
+   */
+  public String getNotes() {
+    return this.notes;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public String toString() {
+    return this.sequence + ":" + this.type + ":" + this.id;
+  }
+}
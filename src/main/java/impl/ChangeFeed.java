@@ -0,0 +1,230 @@
+package impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import spec.Contact;
+import spec.Meeting;
+
+/**
+ * ChangeFeed holds the most recent change events of a contact manager in a fixed size ring and
+ * delivers them to subscribers in batches.
+ *
+ * <p>Publishing never waits on a subscriber: the ring simply overwrites its oldest event. Each
+ * subscription reads the ring from its own cursor on its own daemon thread, so a slow
+ * subscriber only falls behind. If it falls further behind than the ring holds it is told
+ * through {@link ChangeListener#onOverflow(long, long)} and carries on from the oldest event
+ * still held.
+ *
+ * @author Alexander Worton.
+ */
+public final class ChangeFeed {
+
+  /** Number of events retained when no capacity is supplied. */
+  public static final int DEFAULT_CAPACITY = 16_384;
+  /** Largest batch delivered when no batch size is supplied. */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private final ChangeEvent[] ring;
+  private final long firstSequence;
+  private long nextSequence;
+
+  /**
+   * Constructor for the feed.
+   * @param capacity the number of events retained for slow or resuming subscribers
+   * @param suppliedFirstSequence the sequence number given to the first event published
+   */
+  ChangeFeed(final int capacity, final long suppliedFirstSequence) {
+    Validation.validateIdPositive(capacity);
+    this.ring = new ChangeEvent[capacity];
+    this.firstSequence = suppliedFirstSequence;
+    this.nextSequence = suppliedFirstSequence;
+  }
+
+  /**
+   * Getter for the sequence of the most recent event.
+   * @return the last sequence published, or one less than the first sequence if none has been
+   */
+  public synchronized long getLastSequence() {
+    return this.nextSequence - 1;
+  }
+
+  /**
+   * Getter for the sequence of the oldest event still held.
+   * @return the oldest sequence a subscriber can resume from without overflowing
+   */
+  public synchronized long getOldestSequence() {
+    return Math.max(this.firstSequence, this.nextSequence - this.ring.length);
+  }
+
+  /**
+   * Record a contact mutation.
+   * @param type the kind of mutation
+   * @param contact the contact concerned
+   */
+  void publish(final ChangeEvent.Type type, final Contact contact) {
+    synchronized (this) {
+      append(new ChangeEvent(this.nextSequence, type, contact, null, contact.getNotes()));
+    }
+  }
+
+  /**
+   * Record a meeting mutation.
+   * @param type the kind of mutation
+   * @param meeting the meeting concerned
+   * @param notes the notes of the meeting, or null for a future meeting
+   */
+  void publish(final ChangeEvent.Type type, final Meeting meeting, final String notes) {
+    synchronized (this) {
+      append(new ChangeEvent(this.nextSequence, type, null, meeting, notes));
+    }
+  }
+
+  /**
+   * Store the event in the ring and wake any waiting subscribers. Must be called holding the
+   * feed's lock.
+   * @param event the event to store
+   */
+  private void append(final ChangeEvent event) {
+    this.ring[slot(this.nextSequence)] = event;
+    this.nextSequence++;
+    notifyAll();
+  }
+
+  /**
+   * Map a sequence number to its position in the ring.
+   * @param sequence the sequence number
+   * @return the index of the ring slot
+   */
+  private int slot(final long sequence) {
+    return (int) Math.floorMod(sequence, (long) this.ring.length);
+  }
+
+  /**
+   * Subscribe to events from the supplied sequence onwards.
+   * @param fromSequence the first sequence to deliver, one more than the last sequence applied
+   * @param maxBatchSize the largest number of events handed to the listener at once
+   * @param listener the listener to deliver to
+   * @return the subscription, which must be cancelled when no longer needed
+   */
+  public Subscription subscribe(final long fromSequence, final int maxBatchSize,
+                                final ChangeListener listener) {
+    Validation.validateObjectNotNull(listener, "Listener");
+    Validation.validateIdPositive(maxBatchSize);
+    synchronized (this) {
+      if (fromSequence < 1 || fromSequence > this.nextSequence) {
+        throw new IllegalArgumentException("Sequence supplied is not a valid resume point");
+      }
+    }
+    final Subscription subscription = new Subscription(fromSequence, maxBatchSize, listener);
+    final Thread thread = new Thread(subscription::deliver, "change-feed-subscriber");
+    thread.setDaemon(true);
+    thread.start();
+    return subscription;
+  }
+
+  /**
+   * Subscription is a single subscriber's cursor into the feed.
+   */
+  public final class Subscription {
+    private final int maxBatchSize;
+    private final ChangeListener listener;
+    private long cursor;
+    private volatile long lastDelivered;
+    private volatile boolean active;
+
+    /**
+     * Constructor for the subscription.
+     * @param fromSequence the first sequence to deliver
+     * @param suppliedMaxBatchSize the largest batch to deliver
+     * @param suppliedListener the listener to deliver to
+     */
+    private Subscription(final long fromSequence, final int suppliedMaxBatchSize,
+                         final ChangeListener suppliedListener) {
+      this.cursor = fromSequence;
+      this.lastDelivered = fromSequence - 1;
+      this.maxBatchSize = suppliedMaxBatchSize;
+      this.listener = suppliedListener;
+      this.active = true;
+    }
+
+    /**
+     * Getter for the sequence of the last event handed to the listener.
+     * @return the last delivered sequence
+     */
+    public long getLastDelivered() {
+      return this.lastDelivered;
+    }
+
+    /**
+     * Getter for whether the subscription is still delivering.
+     * @return true until the subscription is cancelled
+     */
+    public boolean isActive() {
+      return this.active;
+    }
+
+    /**
+     * Stop delivering events. A batch already being delivered is completed.
+     */
+    public void cancel() {
+      this.active = false;
+      synchronized (ChangeFeed.this) {
+        ChangeFeed.this.notifyAll();
+      }
+    }
+
+    /**
+     * Delivery loop run on the subscription's thread.
+     */
+    private void deliver() {
+      while (this.active) {
+        final List<ChangeEvent> batch;
+        long firstMissed = -1;
+        synchronized (ChangeFeed.this) {
+          while (this.active && this.cursor >= nextSequence) {
+            try {
+              ChangeFeed.this.wait();
+            } catch (InterruptedException e) {
+              this.active = false;
+            }
+          }
+          if (!this.active) {
+            return;
+          }
+          final long oldest = getOldestSequence();
+          if (this.cursor < oldest) {
+            firstMissed = this.cursor;
+            this.cursor = oldest;
+          }
+          final long end = Math.min(nextSequence, this.cursor + this.maxBatchSize);
+          batch = new ArrayList<>((int) (end - this.cursor));
+          for (long sequence = this.cursor; sequence < end; sequence++) {
+            batch.add(ring[slot(sequence)]);
+          }
+          this.cursor = end;
+        }
+        notifyListener(firstMissed, batch);
+      }
+    }
+
+    /**
+     * Hand an overflow, if any, and a batch to the listener. A failing listener does not stop
+     * the subscription.
+     * @param firstMissed the first missed sequence, or -1 if nothing was missed
+     * @param batch the batch to deliver
+     */
+    private void notifyListener(final long firstMissed, final List<ChangeEvent> batch) {
+      this.lastDelivered = batch.get(batch.size() - 1).getSequence();
+      try {
+        if (firstMissed >= 0) {
+          this.listener.onOverflow(firstMissed, batch.get(0).getSequence());
+        }
+        this.listener.onChanges(Collections.unmodifiableList(batch));
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package impl;
+
+import java.util.List;
+
+/**
+ * ChangeListener receives batches of change events from a contact manager's change feed.
+ * Batches are delivered in sequence order on a thread owned by the subscription, never on the
+ * thread performing the mutation.
+ *
+ * @author Alexander Worton.
+ */
+@FunctionalInterface
+public interface ChangeListener {
+
+  /**
+   * Called with the next batch of events, in sequence order and without gaps.
+   * @param batch the events, never empty
+   */
+  void onChanges(List<ChangeEvent> batch);
+
+  /**
+   * Called when the subscriber fell so far behind that events it had not yet received were
+   * dropped from the feed. Delivery continues from the oldest event still held, so the
+   * subscriber should rebuild its mirror from a full read before applying further batches.
+   * @param firstMissed the sequence of the first event that was missed
+   * @param resumedAt the sequence delivery continues from
+   */
+  default void onOverflow(final long firstMissed, final long resumedAt) {
+    //ignored by default
+  }
+}
@@ -0,0 +1,461 @@
+package impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import spec.Contact;
+import spec.ContactManager;
+import spec.FutureMeeting;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ClusterContactManager is a thin client for a cluster of {@link ClusterNode}s. It keeps no
+ * contacts or meetings of its own: each call is forwarded over {@link ClusterProtocol} to the
+ * node a {@link ConsistentHashRing} assigns the id to, and queries that are not by id are sent
+ * to every node at once and the results merged.
+ *
+ * <p>New contacts and meetings are spread over the nodes in turn, and each node gives them an
+ * id it owns. Before a meeting is added its attendees are looked up on the nodes that own them,
+ * so a meeting cannot refer to a contact the cluster does not know.
+ *
+ * <p>Contacts and meetings are copies made from the nodes' responses, so a contact is
+ * recognised by its id and name rather than by identity. Whether a meeting is future, past or
+ * awaiting notes is worked out from its date when it is read. IO failures are thrown as
+ * {@link UncheckedIOException}.
+ *
+ * @author Alexander Worton.
+ */
+public final class ClusterContactManager implements ContactManager, Closeable {
+
+  private final ConsistentHashRing ring;
+  private final Connection[] connections;
+  private final AtomicInteger nextNode;
+
+  /**
+   * Writes the arguments of a request.
+   */
+  private interface Request {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Reads the result of a request.
+   * @param <T> the type of the result
+   */
+  private interface Response<T> {
+    T read(DataInputStream in) throws IOException;
+  }
+
+  /**
+   * A connection to one node, used by one request at a time. A connection that fails partway
+   * through a request is closed, since the bytes left in its streams belong to no request, and
+   * the next request opens a new one.
+   */
+  private static final class Connection {
+    private final InetSocketAddress address;
+    private volatile Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for a connection.
+     * @param address the address of the node
+     * @throws IOException if the node cannot be reached
+     */
+    private Connection(final InetSocketAddress address) throws IOException {
+      this.address = address;
+      open();
+    }
+
+    /**
+     * Connect to the node.
+     * @throws IOException if the node cannot be reached
+     */
+    private void open() throws IOException {
+      this.socket = new Socket(this.address.getAddress(), this.address.getPort());
+      this.socket.setTcpNoDelay(true);
+      this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+    }
+
+    /**
+     * Send a request and wait for its response, reconnecting first if the last request failed.
+     * @param operation the operation code
+     * @param request writes the arguments
+     * @param response reads the result
+     * @param <T> the type of the result
+     * @return the result
+     */
+    private synchronized <T> T call(final byte operation, final Request request,
+                                    final Response<T> response) {
+      try {
+        if (this.closed) {
+          throw new IOException("Connection to " + this.address + " is closed");
+        }
+        if (this.socket == null) {
+          open();
+        }
+        this.out.writeByte(operation);
+        request.write(this.out);
+        this.out.flush();
+        ClusterProtocol.readStatus(this.in);
+        return response.read(this.in);
+      } catch (IOException e) {
+        fail();
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Close a connection that failed partway through a request.
+     */
+    private void fail() {
+      final Socket failed = this.socket;
+      this.socket = null;
+      if (failed != null) {
+        try {
+          failed.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+    /**
+     * Close the connection for good, which fails a request waiting on it.
+     */
+    private void close() {
+      this.closed = true;
+      final Socket open = this.socket;
+      if (open != null) {
+        try {
+          open.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Constructor for a client, which connects to every node.
+   * @param nodes the addresses of every node in the cluster, in the order the nodes were given
+   * @throws IOException if a node cannot be reached
+   */
+  public ClusterContactManager(final List<InetSocketAddress> nodes) throws IOException {
+    Validation.validateObjectNotNull(nodes, "Nodes");
+    this.ring = new ConsistentHashRing(nodes.stream()
+        .map(ClusterNode::nameOf)
+        .collect(Collectors.toList()));
+    this.connections = new Connection[nodes.size()];
+    try {
+      for (int node = 0; node < this.connections.length; node++) {
+        this.connections[node] = new Connection(nodes.get(node));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    this.nextNode = new AtomicInteger();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addFutureMeeting(final Set<Contact> contacts, final Calendar date) {
+    Validation.validateObjectNotNull(contacts, "Contacts");
+    Validation.validateSetPopulated(contacts, "Contacts");
+    Validation.validateObjectNotNull(date, "Date");
+    Validation.validateDateInFuture(date);
+    return addMeeting(contacts, date, null);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting getPastMeeting(final int id) {
+    final Meeting meeting = getMeeting(id);
+    if (meeting == null || meeting instanceof PastMeeting) {
+      return (PastMeeting) meeting;
+    }
+    Validation.validateStateInPast(meeting.getDate());
+    //the meeting has taken place but has not been given notes
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(final int id) {
+    final Meeting meeting = getMeeting(id);
+    if (meeting == null) {
+      return null;
+    }
+    if (meeting instanceof PastMeeting) {
+      throw new IllegalStateException("Supplied date is not in the future");
+    }
+    Validation.validateStateInFuture(meeting.getDate());
+    return (FutureMeeting) meeting;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Meeting getMeeting(final int id) {
+    return owner(id).call(ClusterProtocol.GET_MEETING,
+        out -> out.writeInt(id),
+        in -> in.readBoolean() ? ClusterProtocol.readMeeting(in) : null);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(final Contact contact) {
+    Validation.validateObjectNotNull(contact, "Contact");
+    validateContactsKnown(new HashSet<>(Arrays.asList(contact)));
+    final Calendar now = Calendar.getInstance();
+    return meetingsFor(contact).stream()
+        .filter(meeting -> !(meeting instanceof PastMeeting) && meeting.getDate().after(now))
+        .sorted(Comparator.comparing(Meeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getMeetingListOn(final Calendar date) {
+    Validation.validateObjectNotNull(date);
+    final Calendar start = (Calendar) date.clone();
+    start.set(Calendar.HOUR_OF_DAY, 0);
+    start.set(Calendar.MINUTE, 0);
+    start.set(Calendar.SECOND, 0);
+    start.set(Calendar.MILLISECOND, 0);
+    final Calendar end = (Calendar) start.clone();
+    end.add(Calendar.DAY_OF_MONTH, 1);
+    return scatter(ClusterProtocol.MEETINGS_BETWEEN,
+        out -> {
+          out.writeLong(start.getTimeInMillis());
+          out.writeLong(end.getTimeInMillis());
+        },
+        ClusterProtocol::readMeetings).stream()
+        .sorted(Comparator.comparing(Meeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingListFor(final Contact contact) {
+    Validation.validateObjectNotNull(contact);
+    validateContactsKnown(new HashSet<>(Arrays.asList(contact)));
+    return meetingsFor(contact).stream()
+        .filter(meeting -> meeting instanceof PastMeeting)
+        .map(meeting -> (PastMeeting) meeting)
+        .sorted(Comparator.comparing(PastMeeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewPastMeeting(final Set<Contact> contacts, final Calendar date,
+                               final String text) {
+    Validation.validateObjectNotNull(contacts, "Contacts");
+    Validation.validateSetPopulated(contacts, "Contacts");
+    Validation.validateObjectNotNull(date, "Date");
+    Validation.validateDateInPast(date);
+    Validation.validateObjectNotNull(text, "Text");
+    return addMeeting(contacts, date, text);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting addMeetingNotes(final int id, final String text) {
+    Validation.validateObjectNotNull(text, "Text");
+    return (PastMeeting) owner(id).call(ClusterProtocol.ADD_MEETING_NOTES,
+        out -> {
+          out.writeInt(id);
+          MeetingCodec.writeText(out, text);
+        },
+        ClusterProtocol::readMeeting);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewContact(final String name, final String notes) {
+    Validation.validateStringNotNullOrEmpty(name, "name");
+    Validation.validateStringNotNullOrEmpty(notes, "notes");
+    return nextNode().call(ClusterProtocol.ADD_CONTACT,
+        out -> {
+          MeetingCodec.writeText(out, name);
+          MeetingCodec.writeText(out, notes);
+        },
+        DataInputStream::readInt);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final String name) {
+    Validation.validateObjectNotNull(name, "Name");
+    return new HashSet<>(scatter(ClusterProtocol.FIND_CONTACTS,
+        out -> MeetingCodec.writeText(out, name),
+        ClusterProtocol::readContacts));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final int... ids) {
+    Validation.validateSetPopulated(ids, "Contact Ids array");
+    final Set<Contact> result = new HashSet<>();
+    final Map<Integer, List<Integer>> byNode = IntStream.of(ids).distinct().boxed()
+        .collect(Collectors.groupingBy(this.ring::nodeFor));
+    byNode.forEach((node, nodeIds) -> result.addAll(
+        this.connections[node].call(ClusterProtocol.GET_CONTACTS,
+            out -> {
+              out.writeInt(nodeIds.size());
+              for (final int id : nodeIds) {
+                out.writeInt(id);
+              }
+            },
+            ClusterProtocol::readContacts)));
+    Validation.validateArgumentSizeMatch(ids.length, result.size());
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}.
+   * Every node writes its partition at once.
+   */
+  @Override
+  public void flush() {
+    scatter(ClusterProtocol.FLUSH, out -> { }, in -> new ArrayList<>());
+  }
+
+  /**
+   * Close the connections to the nodes. The nodes keep running.
+   */
+  @Override
+  public void close() {
+    for (final Connection connection : this.connections) {
+      if (connection != null) {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Check the attendees of a meeting are known, then add it on the next node in turn.
+   * @param contacts the attendees
+   * @param date the date of the meeting
+   * @param notes the notes of a past meeting, or null for a future meeting
+   * @return the id of the meeting
+   */
+  private int addMeeting(final Set<Contact> contacts, final Calendar date, final String notes) {
+    validateContactsKnown(contacts);
+    return nextNode().call(ClusterProtocol.ADD_MEETING,
+        out -> {
+          out.writeLong(date.getTimeInMillis());
+          ClusterProtocol.writeContacts(out, contacts);
+          ClusterProtocol.writeNotes(out, notes);
+        },
+        DataInputStream::readInt);
+  }
+
+  /**
+   * Check that every contact is owned by a node under the same id and name.
+   * @param contacts the contacts
+   */
+  private void validateContactsKnown(final Set<Contact> contacts) {
+    final Set<Contact> known = getContacts(contacts.stream()
+        .mapToInt(Contact::getId)
+        .toArray());
+    for (final Contact contact : contacts) {
+      if (known.stream().noneMatch(match -> match.getId() == contact.getId()
+          && match.getName().equals(contact.getName()))) {
+        throw new IllegalArgumentException("Contact not known");
+      }
+    }
+  }
+
+  /**
+   * Ask every node for the meetings a contact attends.
+   * @param contact the contact
+   * @return the meetings
+   */
+  private List<Meeting> meetingsFor(final Contact contact) {
+    return scatter(ClusterProtocol.MEETINGS_FOR,
+        out -> out.writeInt(contact.getId()),
+        ClusterProtocol::readMeetings);
+  }
+
+  /**
+   * Send a request to every node at once and merge their results.
+   * @param operation the operation code
+   * @param request writes the arguments
+   * @param response reads each node's result
+   * @param <T> the type of the elements of the results
+   * @return the merged results
+   */
+  private <T> List<T> scatter(final byte operation, final Request request,
+                              final Response<? extends Collection<T>> response) {
+    return Arrays.stream(this.connections)
+        .parallel()
+        .flatMap(connection -> connection.call(operation, request, response).stream())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Find the connection to the node that owns an id.
+   * @param id the id of a contact or meeting
+   * @return the connection
+   */
+  private Connection owner(final int id) {
+    return this.connections[this.ring.nodeFor(id)];
+  }
+
+  /**
+   * Pick the node to add the next contact or meeting to, in turn.
+   * @return the connection
+   */
+  private Connection nextNode() {
+    return this.connections[Math.floorMod(this.nextNode.getAndIncrement(),
+                                          this.connections.length)];
+  }
+}
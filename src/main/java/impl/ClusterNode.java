@@ -0,0 +1,515 @@
+package impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ClusterNode is one process of a partitioned cluster. It owns the contacts and meetings whose
+ * ids a {@link ConsistentHashRing} of every node in the cluster assigns to it, and serves them
+ * over {@link ClusterProtocol} to {@link ClusterContactManager}s.
+ *
+ * <p>A node hands out only ids it owns, so ids are unique across the cluster without the nodes
+ * talking to each other. Each node stores a meeting together with its attendees, wherever they
+ * are owned; checking that the attendees exist is left to the client, which asks their owners.
+ *
+ * <p>The node's partition is written to a file in its directory on each flush and read back
+ * when the node is started again with the same nodes.
+ *
+ * @author Alexander Worton.
+ */
+public final class ClusterNode implements Closeable {
+
+  private static final String PARTITION_FILE = "partition.bin";
+
+  private final Path file;
+  private final ConsistentHashRing ring;
+  private final int index;
+  private final ServerSocket server;
+  private final Thread acceptor;
+  private final List<Socket> connections;
+  private final Map<Integer, Contact> contacts;
+  private final Map<Integer, Meeting> meetings;
+  private final Map<Integer, IdBitmap> meetingsByContact;
+  private final TreeMap<Long, IdBitmap> meetingsByTime;
+  private int lastContactId;
+  private int lastMeetingId;
+  private volatile boolean running;
+
+  /**
+   * Constructor for a node, which restores its partition and starts serving on its address.
+   * @param directory the directory holding the node's partition file
+   * @param nodes the addresses of every node in the cluster, in the same order for each
+   * @param suppliedIndex the index of this node's address
+   * @throws IOException if the partition cannot be read or the address bound
+   */
+  public ClusterNode(final Path directory, final List<InetSocketAddress> nodes,
+                     final int suppliedIndex) throws IOException {
+    Validation.validateObjectNotNull(directory, "Directory");
+    Validation.validateObjectNotNull(nodes, "Nodes");
+    if (suppliedIndex < 0 || suppliedIndex >= nodes.size()) {
+      throw new IllegalArgumentException("Index is not that of a node");
+    }
+    this.file = Files.createDirectories(directory).resolve(PARTITION_FILE);
+    this.ring = new ConsistentHashRing(nodes.stream()
+        .map(ClusterNode::nameOf)
+        .collect(Collectors.toList()));
+    this.index = suppliedIndex;
+    this.connections = new ArrayList<>();
+    this.contacts = new HashMap<>();
+    this.meetings = new HashMap<>();
+    this.meetingsByContact = new HashMap<>();
+    this.meetingsByTime = new TreeMap<>();
+    restore();
+    this.server = new ServerSocket();
+    this.server.setReuseAddress(true);
+    this.server.bind(nodes.get(suppliedIndex));
+    this.running = true;
+    this.acceptor = new Thread(this::accept, "cluster-node-acceptor");
+    this.acceptor.setDaemon(true);
+    this.acceptor.start();
+  }
+
+  /**
+   * Run a node until the process is stopped, flushing its partition as it stops. Prints a line
+   * once the node is serving.
+   * @param args the directory, the index of this node, then the host:port of every node
+   * @throws IOException if the partition cannot be read or the address bound
+   * @throws InterruptedException if interrupted while serving
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    if (args.length < 3) {
+      System.err.println("Usage: ClusterNode <directory> <index> <host:port>...");
+      return;
+    }
+    final List<InetSocketAddress> nodes = new ArrayList<>();
+    for (int arg = 2; arg < args.length; arg++) {
+      nodes.add(addressOf(args[arg]));
+    }
+    final ClusterNode node = new ClusterNode(Paths.get(args[0]), nodes,
+                                             Integer.parseInt(args[1]));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      node.flush();
+      node.close();
+    }));
+    System.out.println("Serving " + nameOf(nodes.get(node.index)));
+    System.out.flush();
+    node.acceptor.join();
+  }
+
+  /**
+   * Work out the name a node is known by on the ring.
+   * @param address the node's address
+   * @return the name
+   */
+  static String nameOf(final InetSocketAddress address) {
+    return address.getHostString() + ":" + address.getPort();
+  }
+
+  /**
+   * Parse the address of a node.
+   * @param hostAndPort the address as host:port
+   * @return the address
+   */
+  public static InetSocketAddress addressOf(final String hostAndPort) {
+    final int colon = hostAndPort.lastIndexOf(':');
+    if (colon < 1) {
+      throw new IllegalArgumentException("Address is not host:port: " + hostAndPort);
+    }
+    return new InetSocketAddress(hostAndPort.substring(0, colon),
+                                 Integer.parseInt(hostAndPort.substring(colon + 1)));
+  }
+
+  /**
+   * Getter for the number of contacts this node owns.
+   * @return the number of contacts
+   */
+  public synchronized int getContactCount() {
+    return this.contacts.size();
+  }
+
+  /**
+   * Getter for the number of meetings this node owns.
+   * @return the number of meetings
+   */
+  public synchronized int getMeetingCount() {
+    return this.meetings.size();
+  }
+
+  /**
+   * Write the partition to a new file which then replaces the old one.
+   */
+  public synchronized void flush() {
+    final Path temp = this.file.resolveSibling(PARTITION_FILE + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(this.lastContactId);
+        out.writeInt(this.lastMeetingId);
+        ClusterProtocol.writeContacts(out, this.contacts.values());
+        ClusterProtocol.writeMeetings(out, this.meetings.values());
+      }
+      Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stop serving and drop every connection. The partition is not flushed.
+   */
+  @Override
+  public void close() {
+    this.running = false;
+    try {
+      this.server.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    synchronized (this.connections) {
+      for (final Socket socket : this.connections) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+      this.connections.clear();
+    }
+    try {
+      this.acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Acceptor loop run on the node's thread: serve each connection on a thread of its own.
+   */
+  private void accept() {
+    while (this.running) {
+      try {
+        final Socket socket = this.server.accept();
+        socket.setTcpNoDelay(true);
+        synchronized (this.connections) {
+          this.connections.add(socket);
+        }
+        final Thread handler = new Thread(() -> serve(socket), "cluster-node-connection");
+        handler.setDaemon(true);
+        handler.start();
+      } catch (IOException e) {
+        if (this.running) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Answer the requests on a connection until the client closes it.
+   * @param socket the connection
+   */
+  private void serve(final Socket socket) {
+    try (DataInputStream in = new DataInputStream(
+             new BufferedInputStream(socket.getInputStream()));
+         DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(socket.getOutputStream()))) {
+      while (true) {
+        final byte operation = in.readByte();
+        handle(operation, in, out);
+        out.flush();
+      }
+    } catch (EOFException | SocketException e) {
+      //the client or the node closed the connection
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      synchronized (this.connections) {
+        this.connections.remove(socket);
+      }
+    }
+  }
+
+  /**
+   * Read the arguments of a request, carry it out and write the response.
+   * @param operation the operation code
+   * @param in the input to read the arguments from
+   * @param out the output to write the response to
+   * @throws IOException if the connection fails
+   */
+  private void handle(final byte operation, final DataInputStream in,
+                      final DataOutputStream out) throws IOException {
+    switch (operation) {
+      case ClusterProtocol.ADD_CONTACT: {
+        final String name = MeetingCodec.readText(in);
+        final String notes = MeetingCodec.readText(in);
+        try {
+          final int id = addContact(name, notes);
+          out.writeByte(ClusterProtocol.OK);
+          out.writeInt(id);
+        } catch (RuntimeException e) {
+          ClusterProtocol.writeFailure(out, e);
+        }
+        break;
+      }
+      case ClusterProtocol.GET_CONTACTS: {
+        final int[] ids = new int[in.readInt()];
+        for (int id = 0; id < ids.length; id++) {
+          ids[id] = in.readInt();
+        }
+        out.writeByte(ClusterProtocol.OK);
+        ClusterProtocol.writeContacts(out, getContacts(ids));
+        break;
+      }
+      case ClusterProtocol.FIND_CONTACTS: {
+        final String name = MeetingCodec.readText(in);
+        out.writeByte(ClusterProtocol.OK);
+        ClusterProtocol.writeContacts(out, findContacts(name));
+        break;
+      }
+      case ClusterProtocol.ADD_MEETING: {
+        final Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(in.readLong());
+        final Set<Contact> attendees = ClusterProtocol.readContacts(in);
+        final String notes = ClusterProtocol.readNotes(in);
+        try {
+          final int id = addMeeting(date, attendees, notes);
+          out.writeByte(ClusterProtocol.OK);
+          out.writeInt(id);
+        } catch (RuntimeException e) {
+          ClusterProtocol.writeFailure(out, e);
+        }
+        break;
+      }
+      case ClusterProtocol.GET_MEETING: {
+        final Meeting meeting = getMeeting(in.readInt());
+        out.writeByte(ClusterProtocol.OK);
+        out.writeBoolean(meeting != null);
+        if (meeting != null) {
+          ClusterProtocol.writeMeeting(out, meeting);
+        }
+        break;
+      }
+      case ClusterProtocol.MEETINGS_FOR: {
+        final List<Meeting> found = meetingsFor(in.readInt());
+        out.writeByte(ClusterProtocol.OK);
+        ClusterProtocol.writeMeetings(out, found);
+        break;
+      }
+      case ClusterProtocol.MEETINGS_BETWEEN: {
+        final List<Meeting> found = meetingsBetween(in.readLong(), in.readLong());
+        out.writeByte(ClusterProtocol.OK);
+        ClusterProtocol.writeMeetings(out, found);
+        break;
+      }
+      case ClusterProtocol.ADD_MEETING_NOTES: {
+        final int id = in.readInt();
+        final String text = MeetingCodec.readText(in);
+        try {
+          final Meeting meeting = addNotes(id, text);
+          out.writeByte(ClusterProtocol.OK);
+          ClusterProtocol.writeMeeting(out, meeting);
+        } catch (RuntimeException e) {
+          ClusterProtocol.writeFailure(out, e);
+        }
+        break;
+      }
+      case ClusterProtocol.FLUSH:
+        flush();
+        out.writeByte(ClusterProtocol.OK);
+        break;
+      default:
+        throw new IOException("Unknown operation " + operation);
+    }
+  }
+
+  /**
+   * Add a contact under the next id this node owns.
+   * @param name the name of the contact
+   * @param notes notes about the contact
+   * @return the id of the contact
+   */
+  private synchronized int addContact(final String name, final String notes) {
+    Validation.validateStringNotNullOrEmpty(name, "name");
+    Validation.validateStringNotNullOrEmpty(notes, "notes");
+    this.lastContactId = nextOwnedId(this.lastContactId);
+    this.contacts.put(this.lastContactId, new ContactImpl(this.lastContactId, name, notes));
+    return this.lastContactId;
+  }
+
+  /**
+   * Find contacts this node owns by id.
+   * @param ids the ids
+   * @return the contacts found
+   */
+  private synchronized List<Contact> getContacts(final int[] ids) {
+    final List<Contact> found = new ArrayList<>();
+    for (final int id : ids) {
+      final Contact contact = this.contacts.get(id);
+      if (contact != null) {
+        found.add(contact);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Find contacts this node owns by name.
+   * @param name the exact name, or an empty string for every contact
+   * @return the contacts found
+   */
+  private synchronized List<Contact> findContacts(final String name) {
+    return this.contacts.values().stream()
+        .filter(contact -> name.isEmpty() || contact.getName().equals(name))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Add a meeting under the next id this node owns.
+   * @param date the date of the meeting
+   * @param attendees the attendees
+   * @param notes the notes of a past meeting, or null for a future meeting
+   * @return the id of the meeting
+   */
+  private synchronized int addMeeting(final Calendar date, final Set<Contact> attendees,
+                                      final String notes) {
+    Validation.validateSetPopulated(attendees, "Contacts");
+    if (notes == null) {
+      Validation.validateDateInFuture(date);
+    } else {
+      Validation.validateDateInPast(date);
+    }
+    this.lastMeetingId = nextOwnedId(this.lastMeetingId);
+    putMeeting(notes == null
+        ? new FutureMeetingImpl(this.lastMeetingId, date, attendees)
+        : new PastMeetingImpl(this.lastMeetingId, date, attendees, notes));
+    return this.lastMeetingId;
+  }
+
+  /**
+   * Find a meeting this node owns.
+   * @param id the id of the meeting
+   * @return the meeting, or null if there is none with the id
+   */
+  private synchronized Meeting getMeeting(final int id) {
+    return this.meetings.get(id);
+  }
+
+  /**
+   * Find the meetings this node owns that a contact attends.
+   * @param contactId the id of the contact
+   * @return the meetings
+   */
+  private synchronized List<Meeting> meetingsFor(final int contactId) {
+    final IdBitmap ids = this.meetingsByContact.get(contactId);
+    final List<Meeting> found = new ArrayList<>();
+    if (ids != null) {
+      ids.forEach(id -> found.add(this.meetings.get(id)));
+    }
+    return found;
+  }
+
+  /**
+   * Find the meetings this node owns that take place in a period.
+   * @param from the start of the period in milliseconds, inclusive
+   * @param to the end of the period in milliseconds, exclusive
+   * @return the meetings
+   */
+  private synchronized List<Meeting> meetingsBetween(final long from, final long to) {
+    final List<Meeting> found = new ArrayList<>();
+    for (final IdBitmap ids : this.meetingsByTime.subMap(from, to).values()) {
+      ids.forEach(id -> found.add(this.meetings.get(id)));
+    }
+    return found;
+  }
+
+  /**
+   * Replace a meeting this node owns with a past meeting holding notes.
+   * @param id the id of the meeting
+   * @param text the notes
+   * @return the past meeting
+   */
+  private synchronized PastMeeting addNotes(final int id, final String text) {
+    final Meeting meeting = this.meetings.get(id);
+    Validation.validateArgumentNotNull(meeting, "Meeting");
+    if (!(meeting instanceof PastMeeting)) {
+      Validation.validateStateInPast(meeting.getDate());
+    }
+    final PastMeeting withNotes = new PastMeetingImpl(id, meeting.getDate(),
+                                                      meeting.getContacts(), text);
+    this.meetings.put(id, withNotes);
+    return withNotes;
+  }
+
+  /**
+   * Store a meeting and index it by attendee and time.
+   * @param meeting the meeting
+   */
+  private void putMeeting(final Meeting meeting) {
+    this.meetings.put(meeting.getId(), meeting);
+    for (final Contact contact : meeting.getContacts()) {
+      this.meetingsByContact.computeIfAbsent(contact.getId(), id -> new IdBitmap())
+          .add(meeting.getId());
+    }
+    this.meetingsByTime.computeIfAbsent(meeting.getDate().getTimeInMillis(),
+        time -> new IdBitmap()).add(meeting.getId());
+  }
+
+  /**
+   * Find the first id after another that the ring assigns to this node.
+   * @param last the last id handed out
+   * @return the next id this node owns
+   */
+  private int nextOwnedId(final int last) {
+    int id = last + 1;
+    while (this.ring.nodeFor(id) != this.index) {
+      id++;
+    }
+    return id;
+  }
+
+  /**
+   * Restore the partition from the node's file, if it has one.
+   * @throws IOException if the file cannot be read
+   */
+  private void restore() throws IOException {
+    if (!Files.exists(this.file)) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(
+             new BufferedInputStream(Files.newInputStream(this.file)))) {
+      this.lastContactId = in.readInt();
+      this.lastMeetingId = in.readInt();
+      for (final Contact contact : ClusterProtocol.readContacts(in)) {
+        this.contacts.put(contact.getId(), contact);
+      }
+      for (final Meeting meeting : ClusterProtocol.readMeetings(in)) {
+        putMeeting(meeting);
+      }
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ClusterProtocol is the compact binary protocol spoken between a {@link ClusterContactManager}
+ * and the {@link ClusterNode}s it routes to. A request is an operation code followed by its
+ * arguments; a response is a status code followed by the result, or by the message of the
+ * exception the node threw, which the client throws again.
+ *
+ * <p>Meetings are sent with their attendees inline, as a meeting's attendees may be owned by
+ * other nodes than the meeting.
+ *
+ * @author Alexander Worton.
+ */
+final class ClusterProtocol {
+
+  static final byte ADD_CONTACT = 1;
+  static final byte GET_CONTACTS = 2;
+  static final byte FIND_CONTACTS = 3;
+  static final byte ADD_MEETING = 4;
+  static final byte GET_MEETING = 5;
+  static final byte MEETINGS_FOR = 6;
+  static final byte MEETINGS_BETWEEN = 7;
+  static final byte ADD_MEETING_NOTES = 8;
+  static final byte FLUSH = 9;
+
+  static final byte OK = 0;
+  static final byte ILLEGAL_ARGUMENT = 1;
+  static final byte ILLEGAL_STATE = 2;
+  static final byte NULL_POINTER = 3;
+
+  private static final int NO_NOTES = -1;
+
+  private ClusterProtocol() {
+  }
+
+  /**
+   * Write a contact.
+   * @param out the output to write to
+   * @param contact the contact
+   * @throws IOException if the output cannot be written
+   */
+  static void writeContact(final DataOutput out, final Contact contact) throws IOException {
+    out.writeInt(contact.getId());
+    MeetingCodec.writeText(out, contact.getName());
+    MeetingCodec.writeText(out, contact.getNotes());
+  }
+
+  /**
+   * Read a contact.
+   * @param in the input to read from
+   * @return the contact
+   * @throws IOException if the input cannot be read
+   */
+  static Contact readContact(final DataInput in) throws IOException {
+    final int id = in.readInt();
+    return new ContactImpl(id, MeetingCodec.readText(in), MeetingCodec.readText(in));
+  }
+
+  /**
+   * Write a number of contacts.
+   * @param out the output to write to
+   * @param contacts the contacts
+   * @throws IOException if the output cannot be written
+   */
+  static void writeContacts(final DataOutput out, final Collection<Contact> contacts)
+      throws IOException {
+    out.writeInt(contacts.size());
+    for (final Contact contact : contacts) {
+      writeContact(out, contact);
+    }
+  }
+
+  /**
+   * Read a number of contacts.
+   * @param in the input to read from
+   * @return the contacts
+   * @throws IOException if the input cannot be read
+   */
+  static Set<Contact> readContacts(final DataInput in) throws IOException {
+    final int count = in.readInt();
+    final Set<Contact> contacts = new HashSet<>();
+    for (int index = 0; index < count; index++) {
+      contacts.add(readContact(in));
+    }
+    return contacts;
+  }
+
+  /**
+   * Write a meeting with its attendees: id, date in milliseconds, attendees, then the notes
+   * with a length of -1 for a meeting that has none.
+   * @param out the output to write to
+   * @param meeting the meeting
+   * @throws IOException if the output cannot be written
+   */
+  static void writeMeeting(final DataOutput out, final Meeting meeting) throws IOException {
+    out.writeInt(meeting.getId());
+    out.writeLong(meeting.getDate().getTimeInMillis());
+    writeContacts(out, meeting.getContacts());
+    writeNotes(out, meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null);
+  }
+
+  /**
+   * Read a meeting: a past meeting if it was written with notes, otherwise a future meeting.
+   * The date is in the zone of this JVM.
+   * @param in the input to read from
+   * @return the meeting
+   * @throws IOException if the input cannot be read
+   */
+  static Meeting readMeeting(final DataInput in) throws IOException {
+    final int id = in.readInt();
+    final Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(in.readLong());
+    final Set<Contact> contacts = readContacts(in);
+    final String notes = readNotes(in);
+    return notes == null
+        ? new FutureMeetingImpl(id, date, contacts)
+        : new PastMeetingImpl(id, date, contacts, notes);
+  }
+
+  /**
+   * Write the notes of a meeting, which may have none.
+   * @param out the output to write to
+   * @param notes the notes, or null if the meeting has none
+   * @throws IOException if the output cannot be written
+   */
+  static void writeNotes(final DataOutput out, final String notes) throws IOException {
+    if (notes == null) {
+      out.writeInt(NO_NOTES);
+    } else {
+      MeetingCodec.writeText(out, notes);
+    }
+  }
+
+  /**
+   * Read the notes of a meeting.
+   * @param in the input to read from
+   * @return the notes, or null if the meeting has none
+   * @throws IOException if the input cannot be read
+   */
+  static String readNotes(final DataInput in) throws IOException {
+    final int length = in.readInt();
+    if (length == NO_NOTES) {
+      return null;
+    }
+    final byte[] notes = new byte[length];
+    in.readFully(notes);
+    return new String(notes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write a number of meetings.
+   * @param out the output to write to
+   * @param meetings the meetings
+   * @throws IOException if the output cannot be written
+   */
+  static void writeMeetings(final DataOutput out, final Collection<Meeting> meetings)
+      throws IOException {
+    out.writeInt(meetings.size());
+    for (final Meeting meeting : meetings) {
+      writeMeeting(out, meeting);
+    }
+  }
+
+  /**
+   * Read a number of meetings.
+   * @param in the input to read from
+   * @return the meetings
+   * @throws IOException if the input cannot be read
+   */
+  static List<Meeting> readMeetings(final DataInput in) throws IOException {
+    final int count = in.readInt();
+    final List<Meeting> meetings = new ArrayList<>(count);
+    for (int index = 0; index < count; index++) {
+      meetings.add(readMeeting(in));
+    }
+    return meetings;
+  }
+
+  /**
+   * Write the status of a request that was rejected.
+   * @param out the output to write to
+   * @param failure the exception the request was rejected with
+   * @throws IOException if the output cannot be written
+   */
+  static void writeFailure(final DataOutput out, final RuntimeException failure)
+      throws IOException {
+    if (failure instanceof NullPointerException) {
+      out.writeByte(NULL_POINTER);
+    } else if (failure instanceof IllegalStateException) {
+      out.writeByte(ILLEGAL_STATE);
+    } else {
+      out.writeByte(ILLEGAL_ARGUMENT);
+    }
+    MeetingCodec.writeText(out, String.valueOf(failure.getMessage()));
+  }
+
+  /**
+   * Read the status of a response, throwing the exception the node threw if it was rejected.
+   * @param in the input to read from
+   * @throws IOException if the input cannot be read
+   */
+  static void readStatus(final DataInput in) throws IOException {
+    final byte status = in.readByte();
+    if (status == OK) {
+      return;
+    }
+    final String message = MeetingCodec.readText(in);
+    switch (status) {
+      case NULL_POINTER:
+        throw new NullPointerException(message);
+      case ILLEGAL_STATE:
+        throw new IllegalStateException(message);
+      default:
+        throw new IllegalArgumentException(message);
+    }
+  }
+}
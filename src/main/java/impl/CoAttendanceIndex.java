@@ -0,0 +1,136 @@
+package impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * CoAttendanceIndex records which meetings each contact attended and how often each pair of
+ * contacts met, so that shared meetings and frequent collaborators can be read without
+ * scanning every meeting.
+ *
+ * <p>Each contact keeps the ids of the meetings it attended in an {@link IdBitmap}. Shared
+ * meetings are found by intersecting two bitmaps a container at a time: sparse containers use
+ * a galloping intersection, costing time in proportion to the smaller container times the log
+ * of the gap between matches, and dense ones a word at a time. The number of meetings each pair
+ * shares is kept as a weighted adjacency map.
+ *
+ * <p>The index is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class CoAttendanceIndex {
+
+  private final Map<Integer, IdBitmap> meetingsByContact;
+  private final Map<Integer, Map<Integer, Integer>> weights;
+
+  /**
+   * Constructor for an empty index.
+   */
+  public CoAttendanceIndex() {
+    this.meetingsByContact = new HashMap<>();
+    this.weights = new HashMap<>();
+  }
+
+  /**
+   * Record the attendees of a meeting. A meeting already recorded, such as one replaced when
+   * its notes are added, is ignored.
+   * @param meetingId the meeting id
+   * @param contactIds the ids of the contacts who attended
+   * @return true if the meeting was recorded, false if it was already known
+   */
+  public boolean add(final int meetingId, final int[] contactIds) {
+    if (contactIds.length == 0 || attended(contactIds[0], meetingId)) {
+      return false;
+    }
+    for (final int contactId : contactIds) {
+      this.meetingsByContact.computeIfAbsent(contactId, id -> new IdBitmap()).add(meetingId);
+    }
+    for (final int contactId : contactIds) {
+      final Map<Integer, Integer> neighbours =
+          this.weights.computeIfAbsent(contactId, id -> new HashMap<>());
+      for (final int otherId : contactIds) {
+        if (otherId != contactId) {
+          neighbours.merge(otherId, 1, Integer::sum);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Getter for the meetings attended by a contact.
+   * @param contactId the contact id
+   * @return the meeting ids in increasing order
+   */
+  public int[] getMeetingIds(final int contactId) {
+    final IdBitmap held = this.meetingsByContact.get(contactId);
+    return held == null ? new int[0] : held.toArray();
+  }
+
+  /**
+   * Find the meetings attended by both contacts.
+   * @param firstContactId the first contact id
+   * @param secondContactId the second contact id
+   * @return the shared meeting ids in increasing order
+   */
+  public int[] getCommonMeetingIds(final int firstContactId, final int secondContactId) {
+    final IdBitmap first = this.meetingsByContact.get(firstContactId);
+    final IdBitmap second = this.meetingsByContact.get(secondContactId);
+    if (first == null || second == null) {
+      return new int[0];
+    }
+    return first.and(second).toArray();
+  }
+
+  /**
+   * Find the contacts who shared the most meetings with a contact.
+   * @param contactId the contact id
+   * @param limit the largest number of contacts to return
+   * @return contact ids, most shared meetings first, ties broken by lower id
+   */
+  public int[] getTopCollaborators(final int contactId, final int limit) {
+    Validation.validateIdPositive(limit);
+    final Map<Integer, Integer> neighbours = this.weights.get(contactId);
+    if (neighbours == null) {
+      return new int[0];
+    }
+    final PriorityQueue<Map.Entry<Integer, Integer>> best = new PriorityQueue<>(
+        (left, right) -> left.getValue().equals(right.getValue())
+            ? Integer.compare(right.getKey(), left.getKey())
+            : Integer.compare(left.getValue(), right.getValue()));
+    for (final Map.Entry<Integer, Integer> entry : neighbours.entrySet()) {
+      best.add(entry);
+      if (best.size() > limit) {
+        best.poll();
+      }
+    }
+    final int[] result = new int[best.size()];
+    for (int index = result.length - 1; index >= 0; index--) {
+      result[index] = best.poll().getKey();
+    }
+    return result;
+  }
+
+  /**
+   * Getter for the number of meetings two contacts shared.
+   * @param firstContactId the first contact id
+   * @param secondContactId the second contact id
+   * @return the number of shared meetings
+   */
+  public int getWeight(final int firstContactId, final int secondContactId) {
+    final Map<Integer, Integer> neighbours = this.weights.get(firstContactId);
+    return neighbours == null ? 0 : neighbours.getOrDefault(secondContactId, 0);
+  }
+
+  /**
+   * Check whether a contact is recorded as attending a meeting.
+   * @param contactId the contact id
+   * @param meetingId the meeting id
+   * @return true if the contact attended
+   */
+  private boolean attended(final int contactId, final int meetingId) {
+    final IdBitmap held = this.meetingsByContact.get(contactId);
+    return held != null && held.contains(meetingId);
+  }
+}
@@ -0,0 +1,57 @@
+package impl;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+/**
+ * CompactText holds a long piece of text as UTF-8 bytes on the heap. Instances are created and
+ * shared by {@link StringStore}.
+ *
+ * @author Alexander Worton.
+ */
+final class CompactText extends EncodedText implements Serializable {
+  /**
+   * serialVersionUID holds the version for serialization. Increment when changes
+   * to the data model occur.
+   */
+  private static final long serialVersionUID = Long.MIN_VALUE;
+
+  private final byte[] utf8;
+  private transient int hash;
+
+  /**
+   * Constructor for the text.
+   * @param encoded the UTF-8 bytes, which are not copied
+   */
+  CompactText(final byte[] encoded) {
+    this.utf8 = encoded;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  byte[] getEncoded() {
+    return this.utf8;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int hashCode() {
+    if (this.hash == 0) {
+      this.hash = hash(this.utf8);
+    }
+    return this.hash;
+  }
+
+  /**
+   * Replace a deserialized copy with the shared instance holding the same text.
+   * @return the shared instance
+   * @throws ObjectStreamException never
+   */
+  private Object readResolve() throws ObjectStreamException {
+    return StringStore.shared().store(this);
+  }
+}
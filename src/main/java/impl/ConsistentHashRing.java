@@ -0,0 +1,107 @@
+package impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ConsistentHashRing decides which node of a cluster owns an id. Each node is placed on a ring
+ * of hashes at a number of points derived from its name, and an id is owned by the first node
+ * point at or after the hash of the id, wrapping round the ring.
+ *
+ * <p>Because the points depend only on node names, every process given the same names agrees
+ * on the owner of every id without talking to the others, and adding a node takes ownership of
+ * only about its share of the ids from the existing nodes.
+ *
+ * @author Alexander Worton.
+ */
+public final class ConsistentHashRing {
+
+  /** The number of points each node is placed at unless another number is given. */
+  public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+  private final List<String> nodes;
+  private final TreeMap<Integer, Integer> ring;
+
+  /**
+   * Constructor for a ring with the default number of points per node.
+   * @param suppliedNodes the names of the nodes, in the order their indexes are reported
+   */
+  public ConsistentHashRing(final List<String> suppliedNodes) {
+    this(suppliedNodes, DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Constructor for a ring.
+   * @param suppliedNodes the names of the nodes, in the order their indexes are reported
+   * @param virtualNodes the number of points each node is placed at
+   */
+  public ConsistentHashRing(final List<String> suppliedNodes, final int virtualNodes) {
+    Validation.validateObjectNotNull(suppliedNodes, "Nodes");
+    Validation.validateIdPositive(suppliedNodes.size());
+    if (suppliedNodes.stream().distinct().count() != suppliedNodes.size()) {
+      throw new IllegalArgumentException("Node names must be distinct");
+    }
+    Validation.validateIdPositive(virtualNodes);
+    this.nodes = Collections.unmodifiableList(new ArrayList<>(suppliedNodes));
+    this.ring = new TreeMap<>();
+    for (int node = 0; node < this.nodes.size(); node++) {
+      final byte[] name = this.nodes.get(node).getBytes(StandardCharsets.UTF_8);
+      for (int point = 0; point < virtualNodes; point++) {
+        //a later node never displaces an earlier one at the same point, so order decides ties
+        this.ring.putIfAbsent(mix(hash(name) * 31 + point), node);
+      }
+    }
+  }
+
+  /**
+   * Getter for the names of the nodes.
+   * @return the names, indexed as reported by {@link #nodeFor(int)}
+   */
+  public List<String> getNodes() {
+    return this.nodes;
+  }
+
+  /**
+   * Find the node that owns an id.
+   * @param id the id of a contact or meeting
+   * @return the index of the node
+   */
+  public int nodeFor(final int id) {
+    final Map.Entry<Integer, Integer> point = this.ring.ceilingEntry(mix(id));
+    return point == null ? this.ring.firstEntry().getValue() : point.getValue();
+  }
+
+  /**
+   * Hash a node name, independently of the JVM's string hashing.
+   * @param bytes the name as UTF-8
+   * @return the hash
+   */
+  private static int hash(final byte[] bytes) {
+    //FNV-1a
+    int hash = 0x811c9dc5;
+    for (final byte b : bytes) {
+      hash = (hash ^ (b & 0xff)) * 0x01000193;
+    }
+    return hash;
+  }
+
+  /**
+   * Spread the bits of a value over the ring, so that consecutive ids land far apart.
+   * @param value the value
+   * @return the position on the ring
+   */
+  private static int mix(final int value) {
+    //finalisation step of MurmurHash3
+    int hash = value;
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
@@ -0,0 +1,496 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import spec.Contact;
+import spec.ContactManager;
+import spec.FutureMeeting;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ContactClient is a {@link ContactManager} backed by a {@link ContactServer}. Every call is
+ * sent over one connection as a {@link ServerProtocol} request, and the calling thread waits
+ * for its response.
+ *
+ * <p>Any number of threads may share a client. Their requests are pipelined on the connection
+ * without waiting for earlier responses, and a reader thread hands each response to the thread
+ * that sent the request, whatever order the server answers in. Requests are written from, and
+ * responses read into, direct buffers the client reuses.
+ *
+ * <p>Contacts and meetings are copies made from the server's responses: a contact is sent back
+ * to the server by id, and adding notes to a copy does not change the server's contact. If the
+ * connection fails every waiting call, and every later one, throws
+ * {@link UncheckedIOException}.
+ *
+ * <p>A client may keep a {@link NearCache} of the meetings, contacts and future meeting lists
+ * it has read, answering {@link #getMeeting(int)}, {@link #getContacts(int...)} and
+ * {@link #getFutureMeetingList(Contact)} from it without a round trip. The client subscribes
+ * to the server's invalidations, which its reader thread applies in order with the responses,
+ * so the cache never serves a change the server has reported. A change made through the client
+ * itself is invalidated before the call that made it returns.
+ *
+ * @author Alexander Worton.
+ */
+public final class ContactClient implements ContactManager, Closeable {
+
+  private static final int BUFFER_BYTES = 64 * 1_024;
+
+  private final SocketChannel channel;
+  private final Map<Integer, Pending<?>> pending;
+  private final AtomicInteger nextRequestId;
+  private final Thread reader;
+  private final Object writeLock;
+  private final NearCache cache;
+  private ByteBuffer out;
+  private volatile IOException failure;
+
+  /**
+   * Writes the arguments of a request.
+   */
+  private interface Arguments {
+    void encode(ByteBuffer out);
+  }
+
+  /**
+   * Reads the result of a request.
+   * @param <T> the type of the result
+   */
+  private interface Result<T> {
+    T decode(ByteBuffer in);
+  }
+
+  /**
+   * A request waiting for its response.
+   * @param <T> the type of the result
+   */
+  private static final class Pending<T> {
+    private final Result<T> result;
+    private final CompletableFuture<T> future;
+
+    /**
+     * Constructor for a waiting request.
+     * @param suppliedResult reads the result
+     */
+    private Pending(final Result<T> suppliedResult) {
+      this.result = suppliedResult;
+      this.future = new CompletableFuture<>();
+    }
+
+    /**
+     * Complete the request from its response.
+     * @param status the status of the response
+     * @param in the buffer positioned at the result
+     */
+    private void complete(final byte status, final ByteBuffer in) {
+      if (status == ServerProtocol.OK) {
+        this.future.complete(this.result.decode(in));
+      } else {
+        this.future.completeExceptionally(ServerProtocol.getFailure(status, in));
+      }
+    }
+  }
+
+  /**
+   * Constructor for a client without a near cache.
+   * @param address the address of the server
+   * @throws IOException if the server cannot be reached
+   */
+  public ContactClient(final InetSocketAddress address) throws IOException {
+    this(address, 0);
+  }
+
+  /**
+   * Constructor for a client, which connects to the server and starts its reader thread.
+   * @param address the address of the server
+   * @param cacheCapacity the most meetings, contacts and future meeting lists each kept in the
+   *     near cache, or 0 for no near cache
+   * @throws IOException if the server cannot be reached
+   */
+  public ContactClient(final InetSocketAddress address, final int cacheCapacity)
+      throws IOException {
+    Validation.validateObjectNotNull(address, "Address");
+    if (cacheCapacity < 0) {
+      throw new IllegalArgumentException("Cache capacity must not be negative");
+    }
+    this.channel = SocketChannel.open(address);
+    this.channel.socket().setTcpNoDelay(true);
+    this.pending = new ConcurrentHashMap<>();
+    this.nextRequestId = new AtomicInteger();
+    this.writeLock = new Object();
+    this.out = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    this.cache = cacheCapacity == 0 ? null : new NearCache(cacheCapacity);
+    this.reader = new Thread(this::read, "contact-client-reader");
+    this.reader.setDaemon(true);
+    this.reader.start();
+    if (this.cache != null) {
+      call(ServerProtocol.SUBSCRIBE, out -> { }, in -> null);
+    }
+  }
+
+  /**
+   * Getter for the number of reads answered from the near cache.
+   * @return the number of hits, always 0 without a near cache
+   */
+  public long getNearCacheHits() {
+    return this.cache == null ? 0 : this.cache.getHits();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addFutureMeeting(final Set<Contact> contacts, final Calendar date) {
+    return call(ServerProtocol.ADD_FUTURE_MEETING,
+        out -> {
+          ServerProtocol.putContactIds(out, contacts);
+          ServerProtocol.putDate(out, date);
+        },
+        ByteBuffer::getInt);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting getPastMeeting(final int id) {
+    return (PastMeeting) call(ServerProtocol.GET_PAST_MEETING, out -> out.putInt(id),
+        ServerProtocol::getMeeting);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(final int id) {
+    return (FutureMeeting) call(ServerProtocol.GET_FUTURE_MEETING, out -> out.putInt(id),
+        ServerProtocol::getMeeting);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Meeting getMeeting(final int id) {
+    if (this.cache == null) {
+      return call(ServerProtocol.GET_MEETING, out -> out.putInt(id), ServerProtocol::getMeeting);
+    }
+    final Meeting cached = this.cache.getMeeting(id);
+    if (cached != null) {
+      return cached;
+    }
+    final long sentAt = this.cache.getVersion();
+    return call(ServerProtocol.GET_MEETING, out -> out.putInt(id), in -> {
+      final Meeting meeting = ServerProtocol.getMeeting(in);
+      this.cache.putMeeting(meeting, sentAt);
+      return meeting;
+    });
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(final Contact contact) {
+    if (this.cache == null || contact == null) {
+      return call(ServerProtocol.GET_FUTURE_MEETING_LIST, out -> putContact(out, contact),
+          ServerProtocol::getMeetings);
+    }
+    final List<Meeting> cached = this.cache.getFutureMeetingList(contact.getId());
+    if (cached != null) {
+      return cached;
+    }
+    final long sentAt = this.cache.getVersion();
+    return call(ServerProtocol.GET_FUTURE_MEETING_LIST, out -> putContact(out, contact), in -> {
+      final List<Meeting> meetings = ServerProtocol.getMeetings(in);
+      this.cache.putFutureMeetingList(contact.getId(), meetings, sentAt);
+      return meetings;
+    });
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getMeetingListOn(final Calendar date) {
+    return call(ServerProtocol.GET_MEETING_LIST_ON, out -> ServerProtocol.putDate(out, date),
+        ServerProtocol::getMeetings);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingListFor(final Contact contact) {
+    return call(ServerProtocol.GET_PAST_MEETING_LIST_FOR, out -> putContact(out, contact),
+        in -> ServerProtocol.getMeetings(in).stream()
+            .map(meeting -> (PastMeeting) meeting)
+            .collect(Collectors.toList()));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewPastMeeting(final Set<Contact> contacts, final Calendar date,
+                               final String text) {
+    return call(ServerProtocol.ADD_NEW_PAST_MEETING,
+        out -> {
+          ServerProtocol.putContactIds(out, contacts);
+          ServerProtocol.putDate(out, date);
+          ServerProtocol.putText(out, text);
+        },
+        ByteBuffer::getInt);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting addMeetingNotes(final int id, final String text) {
+    return (PastMeeting) call(ServerProtocol.ADD_MEETING_NOTES,
+        out -> {
+          out.putInt(id);
+          ServerProtocol.putText(out, text);
+        },
+        ServerProtocol::getMeeting);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewContact(final String name, final String notes) {
+    return call(ServerProtocol.ADD_NEW_CONTACT,
+        out -> {
+          ServerProtocol.putText(out, name);
+          ServerProtocol.putText(out, notes);
+        },
+        ByteBuffer::getInt);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final String name) {
+    return call(ServerProtocol.GET_CONTACTS_BY_NAME, out -> ServerProtocol.putText(out, name),
+        ServerProtocol::getContacts);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final int... ids) {
+    if (this.cache == null || ids == null || ids.length == 0) {
+      return getContactsFromServer(ids, -1);
+    }
+    final Set<Contact> cached = this.cache.getContacts(ids);
+    if (cached != null) {
+      return cached;
+    }
+    return getContactsFromServer(ids, this.cache.getVersion());
+  }
+
+  /**
+   * Request contacts by id, caching them if the client has a near cache.
+   * @param ids the ids of the contacts
+   * @param sentAt the near cache's version, or -1 not to cache them
+   * @return the contacts
+   */
+  private Set<Contact> getContactsFromServer(final int[] ids, final long sentAt) {
+    return call(ServerProtocol.GET_CONTACTS_BY_ID,
+        out -> {
+          if (ids == null) {
+            out.putInt(-1);
+            return;
+          }
+          out.putInt(ids.length);
+          for (final int id : ids) {
+            out.putInt(id);
+          }
+        },
+        in -> {
+          final Set<Contact> contacts = ServerProtocol.getContacts(in);
+          if (sentAt >= 0) {
+            this.cache.putContacts(contacts, sentAt);
+          }
+          return contacts;
+        });
+  }
+
+  /**
+   * {@inheritDoc}.
+   * The server's manager is flushed.
+   */
+  @Override
+  public void flush() {
+    call(ServerProtocol.FLUSH, out -> { }, in -> null);
+  }
+
+  /**
+   * Close the connection. Calls still waiting throw {@link UncheckedIOException}.
+   */
+  @Override
+  public void close() {
+    try {
+      this.channel.close();
+      this.reader.join();
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Put a single contact argument by id.
+   * @param out the buffer to put to
+   * @param contact the contact, which may be null
+   */
+  private static void putContact(final ByteBuffer out, final Contact contact) {
+    if (contact == null) {
+      out.putInt(-1);
+    } else {
+      out.putInt(1);
+      out.putInt(contact.getId());
+    }
+  }
+
+  /**
+   * Send a request and wait for its response.
+   * @param operation the operation code
+   * @param arguments writes the arguments
+   * @param result reads the result
+   * @param <T> the type of the result
+   * @return the result
+   */
+  private <T> T call(final byte operation, final Arguments arguments, final Result<T> result) {
+    int requestId = this.nextRequestId.incrementAndGet();
+    if (requestId == ServerProtocol.PUSH_ID) {
+      //the id of pushed invalidations, reached only once the ids have wrapped around
+      requestId = this.nextRequestId.incrementAndGet();
+    }
+    final Pending<T> waiting = new Pending<>(result);
+    this.pending.put(requestId, waiting);
+    try {
+      send(requestId, operation, arguments);
+      if (this.failure != null) {
+        //the reader may have failed the waiting calls before this one was registered
+        this.pending.remove(requestId);
+        throw new UncheckedIOException(this.failure);
+      }
+      return waiting.future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Write a request frame to the connection.
+   * @param requestId the id of the request
+   * @param operation the operation code
+   * @param arguments writes the arguments
+   */
+  private void send(final int requestId, final byte operation, final Arguments arguments) {
+    synchronized (this.writeLock) {
+      while (true) {
+        try {
+          this.out.clear();
+          this.out.position(Integer.BYTES);
+          this.out.putInt(requestId);
+          this.out.put(operation);
+          arguments.encode(this.out);
+          break;
+        } catch (BufferOverflowException e) {
+          this.out = ByteBuffer.allocateDirect(this.out.capacity() * 2);
+        }
+      }
+      this.out.putInt(0, this.out.position() - Integer.BYTES);
+      this.out.flip();
+      try {
+        while (this.out.hasRemaining()) {
+          this.channel.write(this.out);
+        }
+      } catch (IOException e) {
+        this.pending.remove(requestId);
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Reader loop run on the client's thread: complete each waiting request from its response.
+   */
+  private void read() {
+    ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    try {
+      while (this.channel.read(in) >= 0) {
+        in.flip();
+        while (in.remaining() >= Integer.BYTES) {
+          final int length = in.getInt(in.position());
+          if (length > ServerProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("Response frame too long: " + length);
+          }
+          if (in.remaining() < Integer.BYTES + length) {
+            break;
+          }
+          final int end = in.position() + Integer.BYTES + length;
+          in.position(in.position() + Integer.BYTES);
+          final int requestId = in.getInt();
+          if (requestId == ServerProtocol.PUSH_ID) {
+            if (this.cache != null) {
+              ServerProtocol.getInvalidation(in, this.cache);
+            }
+          } else {
+            final Pending<?> waiting = this.pending.remove(requestId);
+            final byte status = in.get();
+            if (waiting != null) {
+              waiting.complete(status, in);
+            }
+          }
+          in.position(end);
+        }
+        in.compact();
+        if (!in.hasRemaining()) {
+          final ByteBuffer larger = ByteBuffer.allocateDirect(in.capacity() * 2);
+          in.flip();
+          larger.put(in);
+          in = larger;
+        }
+      }
+      this.failure = new IOException("Connection closed by server");
+    } catch (IOException e) {
+      this.failure = e;
+    } finally {
+      if (this.failure == null) {
+        this.failure = new IOException("Connection closed");
+      }
+      for (final Integer requestId : this.pending.keySet()) {
+        final Pending<?> waiting = this.pending.remove(requestId);
+        if (waiting != null) {
+          waiting.future.completeExceptionally(new UncheckedIOException(this.failure));
+        }
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package impl;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import spec.Contact;
 
@@ -14,8 +16,10 @@ public class ContactImpl implements Contact, Serializable {
   private static final long serialVersionUID = Long.MIN_VALUE;
 
   private int id;
-  private String name;
-  private String notes;
+  private CharSequence name;
+  private CharSequence notes;
+  private transient ContactObserver observer;
+  private transient StringStore store;
 
   /**
    * Overload constructor to apply a default value for notes.
@@ -34,10 +38,23 @@ public class ContactImpl implements Contact, Serializable {
    */
   public ContactImpl(final int suppliedId, final String contactName,
                      final String attachedNotes) {
+    this(suppliedId, contactName, attachedNotes, StringStore.shared());
+  }
+
+  /**
+   * Constructor to apply id, name and notes, keeping the text in a manager's own store.
+   * @param suppliedId the id of the contact
+   * @param contactName the name of the contact
+   * @param attachedNotes attached notes for the contact
+   * @param suppliedStore the store the name and notes are kept in
+   */
+  ContactImpl(final int suppliedId, final String contactName, final String attachedNotes,
+              final StringStore suppliedStore) {
     Validation.validateIdPositive(suppliedId);
     Validation.validateObjectNotNull(contactName, "name");
     Validation.validateObjectNotNull(attachedNotes, "notes");
 
+    setStore(suppliedStore);
     setId(suppliedId);
     setName(contactName);
     setNotes(attachedNotes);
@@ -56,7 +73,7 @@ public class ContactImpl implements Contact, Serializable {
    * @param suppliedName new name
    */
   private void setName(final String suppliedName) {
-    this.name = suppliedName;
+    this.name = this.store.store(suppliedName);
   }
 
   /**
@@ -72,7 +89,7 @@ public class ContactImpl implements Contact, Serializable {
    * @return name
    */
   public String getName() {
-    return this.name;
+    return this.name.toString();
   }
 
   /**
@@ -80,7 +97,7 @@ public class ContactImpl implements Contact, Serializable {
    * @param suppliedNotes the new notes
    */
   private void setNotes(final String suppliedNotes) {
-    this.notes = suppliedNotes;
+    this.notes = this.store.store(suppliedNotes);
   }
 
   /**
@@ -88,7 +105,7 @@ public class ContactImpl implements Contact, Serializable {
    * @return notes
    */
   public String getNotes() {
-    return this.notes;
+    return this.notes.toString();
   }
 
   /**
@@ -101,7 +118,54 @@ public class ContactImpl implements Contact, Serializable {
   @Override
   public void addNotes(final String note) {
     Validation.validateObjectNotNull(note, "notes");
+    if (this.observer != null) {
+      this.observer.validateNotesChange(this);
+    }
     setNotes(note);
+    if (this.observer != null) {
+      this.observer.contactNotesChanged(this);
+    }
+  }
+
+  /**
+   * Replace the notes without telling the observer, for a change made elsewhere that is being
+   * applied to this copy of the contact.
+   * @param suppliedNotes the new notes
+   */
+  void replaceNotes(final String suppliedNotes) {
+    Validation.validateObjectNotNull(suppliedNotes, "notes");
+    setNotes(suppliedNotes);
   }
 
+  /**
+   * Setter for the observer told about changes to the notes. Not serialized, so the owning
+   * manager sets it again after a restore.
+   * @param suppliedObserver the observer, or null to stop observing
+   */
+  void setObserver(final ContactObserver suppliedObserver) {
+    this.observer = suppliedObserver;
+  }
+
+  /**
+   * Setter for the store notes added from now on are kept in. Not serialized, so the owning
+   * manager sets it again after a restore.
+   * @param suppliedStore the store
+   */
+  void setStore(final StringStore suppliedStore) {
+    Validation.validateObjectNotNull(suppliedStore, "Store");
+    this.store = suppliedStore;
+  }
+
+  /**
+   * Restore the contact, sharing its name and notes with equal values already in memory.
+   * @param in the stream to read from
+   * @throws IOException if the stream cannot be read
+   * @throws ClassNotFoundException if a class in the stream is unknown
+   */
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.store = StringStore.shared();
+    this.name = this.store.store(this.name);
+    this.notes = this.store.store(this.notes);
+  }
 }
@@ -32,6 +32,24 @@ class ContactManagerDump implements Serializable {
   private int lastMeetingId;
   /** meetings field. Collection of known meetings. */
   private Map<Integer, Meeting> meetings;
+  /** lastChangeSequence field. Sequence of the last change event published. */
+  private long lastChangeSequence;
+  /** archiveDirectory field. Directory of the meeting archive, or null if none. */
+  private String archiveDirectory;
+  /** archiveHorizonMillis field. Age at which past meetings are archived. */
+  private long archiveHorizonMillis;
+  /** archiveCacheCapacity field. Number of archived meetings cached. */
+  private int archiveCacheCapacity;
+  /** journalFile field. File of the mutation journal, or null if none. */
+  private String journalFile;
+  /** journalMaxDelayNanos field. Longest wait for a journal batch to fill. */
+  private long journalMaxDelayNanos;
+  /** journalMaxBatchRecords field. Number of records that fills a journal batch. */
+  private int journalMaxBatchRecords;
+  /** contactIdLease field. Highest contact id that may have been handed out. */
+  private int contactIdLease;
+  /** meetingIdLease field. Highest meeting id that may have been handed out. */
+  private int meetingIdLease;
 
   /**
    * Getter for lastContactId.
@@ -96,4 +114,148 @@ class ContactManagerDump implements Serializable {
   protected void setMeetings(final Map<Integer, Meeting> suppliedMeetings) {
     this.meetings = suppliedMeetings;
   }
+
+  /**
+   * Getter for the sequence of the last change event.
+   * @return lastChangeSequence
+   */
+  protected long getLastChangeSequence() {
+    return lastChangeSequence;
+  }
+
+  /**
+   * Setter for the sequence of the last change event.
+   * @param suppliedSequence the supplied sequence
+   */
+  protected void setLastChangeSequence(final long suppliedSequence) {
+    this.lastChangeSequence = suppliedSequence;
+  }
+
+  /**
+   * Getter for the directory of the meeting archive.
+   * @return archiveDirectory, or null if archiving is not enabled
+   */
+  protected String getArchiveDirectory() {
+    return archiveDirectory;
+  }
+
+  /**
+   * Setter for the directory of the meeting archive.
+   * @param suppliedDirectory the supplied directory
+   */
+  protected void setArchiveDirectory(final String suppliedDirectory) {
+    this.archiveDirectory = suppliedDirectory;
+  }
+
+  /**
+   * Getter for the age at which past meetings are archived.
+   * @return archiveHorizonMillis
+   */
+  protected long getArchiveHorizonMillis() {
+    return archiveHorizonMillis;
+  }
+
+  /**
+   * Setter for the age at which past meetings are archived.
+   * @param suppliedHorizonMillis the supplied horizon in milliseconds
+   */
+  protected void setArchiveHorizonMillis(final long suppliedHorizonMillis) {
+    this.archiveHorizonMillis = suppliedHorizonMillis;
+  }
+
+  /**
+   * Getter for the number of archived meetings cached.
+   * @return archiveCacheCapacity
+   */
+  protected int getArchiveCacheCapacity() {
+    return archiveCacheCapacity;
+  }
+
+  /**
+   * Setter for the number of archived meetings cached.
+   * @param suppliedCapacity the supplied capacity
+   */
+  protected void setArchiveCacheCapacity(final int suppliedCapacity) {
+    this.archiveCacheCapacity = suppliedCapacity;
+  }
+
+  /**
+   * Getter for the file of the mutation journal.
+   * @return journalFile
+   */
+  protected String getJournalFile() {
+    return journalFile;
+  }
+
+  /**
+   * Setter for the file of the mutation journal.
+   * @param suppliedFile the supplied file
+   */
+  protected void setJournalFile(final String suppliedFile) {
+    this.journalFile = suppliedFile;
+  }
+
+  /**
+   * Getter for the longest wait for a journal batch to fill.
+   * @return journalMaxDelayNanos
+   */
+  protected long getJournalMaxDelayNanos() {
+    return journalMaxDelayNanos;
+  }
+
+  /**
+   * Setter for the longest wait for a journal batch to fill.
+   * @param suppliedDelayNanos the supplied delay in nanoseconds
+   */
+  protected void setJournalMaxDelayNanos(final long suppliedDelayNanos) {
+    this.journalMaxDelayNanos = suppliedDelayNanos;
+  }
+
+  /**
+   * Getter for the number of records that fills a journal batch.
+   * @return journalMaxBatchRecords
+   */
+  protected int getJournalMaxBatchRecords() {
+    return journalMaxBatchRecords;
+  }
+
+  /**
+   * Setter for the number of records that fills a journal batch.
+   * @param suppliedRecords the supplied number of records
+   */
+  protected void setJournalMaxBatchRecords(final int suppliedRecords) {
+    this.journalMaxBatchRecords = suppliedRecords;
+  }
+
+  /**
+   * Getter for the highest contact id that may have been handed out.
+   * @return contactIdLease
+   */
+  protected int getContactIdLease() {
+    return contactIdLease;
+  }
+
+  /**
+   * Setter for the highest contact id that may have been handed out.
+   * @param suppliedLease the supplied lease limit
+   */
+  protected void setContactIdLease(final int suppliedLease) {
+    this.contactIdLease = suppliedLease;
+  }
+
+  /**
+   * Getter for the highest meeting id that may have been handed out.
+   * @return meetingIdLease
+   */
+  protected int getMeetingIdLease() {
+    return meetingIdLease;
+  }
+
+  /**
+   * Setter for the highest meeting id that may have been handed out.
+   * @param suppliedLease the supplied lease limit
+   */
+  protected void setMeetingIdLease(final int suppliedLease) {
+    this.meetingIdLease = suppliedLease;
+  }
 }
@@ -1,23 +1,39 @@
 package impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 
-import java.time.LocalDate;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.time.Duration;
 import java.time.ZoneId;
+import java.time.zone.ZoneRules;
 
 import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -32,27 +48,743 @@ import spec.PastMeeting;
 */
 public class ContactManagerImpl implements ContactManager {
 
-  private transient int lastContactId;
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+
+  private transient IdAllocator contactIds;
   private transient Map<Integer, Contact> contacts;
-  private transient int lastMeetingId;
-  private transient Map<Integer, Meeting> meetings;
+  private transient IdAllocator meetingIds;
+  private transient MeetingStore meetings;
+  private transient Map<Integer, DateKey> dateKeys;
+  private transient Set<Integer> futureMeetingIds;
+  private transient Set<Integer> pendingNotesMeetingIds;
+  private transient Set<Integer> pastMeetingIds;
+  private transient TimingWheel meetingWheel;
+  private final transient List<MeetingStateListener> meetingStateListeners;
+  private transient long lastChangeSequence;
+  private transient ChangeFeed changeFeed;
+  private transient NotesIndex notesIndex;
+  private transient ContactNameIndex contactNameIndex;
+  private transient CoAttendanceIndex coAttendanceIndex;
+  private transient AttendeeSetPool attendeeSetPool;
+  private transient StringStore strings;
+  private transient MeetingArchive archive;
+  private transient Duration archiveHorizon;
+  private transient MutationJournal journal;
+  private transient boolean deferDurability;
+  private transient boolean following;
+  private transient HotReload hotReload;
+  private transient Path lockFile;
+  private transient boolean snapshotWriter;
+  private transient String snapshotVersion;
+  private final transient List<CompletableFuture<Void>> awaitingFlush = new ArrayList<>();
+  private final transient ContactObserver contactObserver = new ContactObserver() {
+    @Override
+    public void validateNotesChange(final ContactImpl contact) {
+      synchronized (ContactManagerImpl.this) {
+        validateNotFollowing();
+      }
+    }
+
+    @Override
+    public void contactNotesChanged(final ContactImpl contact) {
+      ContactManagerImpl.this.contactNotesChanged(contact);
+    }
+  };
+
   private transient String fileName;
   private transient File file;
+  private final transient ZoneId zone;
+  private final transient ZoneRules zoneRules;
 
   {
-    lastContactId = 0;
-    lastMeetingId = 0;
-    contacts = new HashMap<>();
-    meetings = new HashMap<>();
+    contactIds = newIdAllocator(0, false);
+    meetingIds = newIdAllocator(0, true);
+    contacts = new ConcurrentHashMap<>();
+    dateKeys = new HashMap<>();
+    futureMeetingIds = new HashSet<>();
+    pendingNotesMeetingIds = new HashSet<>();
+    pastMeetingIds = new HashSet<>();
+    notesIndex = new NotesIndex();
+    contactNameIndex = new ContactNameIndex();
+    coAttendanceIndex = new CoAttendanceIndex();
+    attendeeSetPool = new AttendeeSetPool(contacts);
+    strings = StringStore.shared();
+    meetingWheel = new TimingWheel(System.currentTimeMillis());
+    meetingStateListeners = new CopyOnWriteArrayList<>();
     fileName = "contacts.txt";
     file = new File(fileName);
   }
 
   /**
-   * Constructor to load stored data from disc if exists and accessible.
+   * Constructor to load stored data from disc if exists and accessible. Days are taken
+   * from the default zone of the JVM.
    */
   public ContactManagerImpl() {
+    this(ZoneId.systemDefault());
+  }
+
+  /**
+   * Constructor to load stored data from disc if exists and accessible, using the supplied
+   * zone to decide which day a meeting falls on.
+   * @param suppliedZone the zone used for day comparisons
+   */
+  public ContactManagerImpl(final ZoneId suppliedZone) {
+    this(suppliedZone, new InMemoryMeetingStore());
+  }
+
+  /**
+   * Constructor to load stored data from disc if exists and accessible, keeping meetings in
+   * the supplied store. Meetings in a store that is not durable are written to the snapshot;
+   * a durable store keeps its own, and any meetings found in the snapshot are moved into it.
+   * @param suppliedZone the zone used for day comparisons
+   * @param store the store for meetings, which should be empty unless it is durable
+   */
+  public ContactManagerImpl(final ZoneId suppliedZone, final MeetingStore store) {
+    Validation.validateObjectNotNull(suppliedZone, "Zone");
+    Validation.validateObjectNotNull(store, "Store");
+    this.zone = suppliedZone;
+    this.zoneRules = suppliedZone.getRules();
+    this.meetings = store;
+    this.meetings.bind(this.attendeeSetPool);
     readDumpFromFile();
+    if (!this.file.exists() && this.meetings.size() > 0) {
+      //a durable store can outlive the snapshot, so index what it holds
+      try {
+        rebuildIndexes();
+      } catch (IOException e) {
+        System.out.println("Unable to restore from file. Skipping restore.");
+      }
+    }
+    this.changeFeed = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY, this.lastChangeSequence + 1);
+    ElapsedMeetingTicker.start(this);
+  }
+
+  /**
+   * Getter for the zone used for day comparisons.
+   * @return the zone
+   */
+  public ZoneId getZone() {
+    return this.zone;
+  }
+
+  /**
+   * Register a listener to be told when future meetings pass into the past.
+   * @param listener the listener to register
+   */
+  public void addMeetingStateListener(final MeetingStateListener listener) {
+    Validation.validateObjectNotNull(listener, "Listener");
+    this.meetingStateListeners.add(listener);
+  }
+
+  /**
+   * Remove a previously registered meeting state listener.
+   * @param listener the listener to remove
+   */
+  public void removeMeetingStateListener(final MeetingStateListener listener) {
+    this.meetingStateListeners.remove(listener);
+  }
+
+  /**
+   * Getter for the sequence of the most recent change.
+   * @return the sequence of the last change event published
+   */
+  public long getLastChangeSequence() {
+    return this.changeFeed.getLastSequence();
+  }
+
+  /**
+   * Getter for the change feed.
+   * @return the feed change events are published to
+   */
+  ChangeFeed getChangeFeed() {
+    return this.changeFeed;
+  }
+
+  /**
+   * Subscribe to change events using the default batch size.
+   * @param fromSequence the first sequence to deliver, one more than the last sequence applied
+   * @param listener the listener to deliver batches to
+   * @return the subscription, which must be cancelled when no longer needed
+   */
+  public ChangeFeed.Subscription subscribe(final long fromSequence,
+                                           final ChangeListener listener) {
+    return subscribe(fromSequence, ChangeFeed.DEFAULT_BATCH_SIZE, listener);
+  }
+
+  /**
+   * Subscribe to change events. Events are delivered in batches on a thread owned by the
+   * subscription, so a slow listener never holds up a mutation.
+   * @param fromSequence the first sequence to deliver, one more than the last sequence applied
+   * @param maxBatchSize the largest number of events handed to the listener at once
+   * @param listener the listener to deliver batches to
+   * @return the subscription, which must be cancelled when no longer needed
+   */
+  public ChangeFeed.Subscription subscribe(final long fromSequence, final int maxBatchSize,
+                                           final ChangeListener listener) {
+    return this.changeFeed.subscribe(fromSequence, maxBatchSize, listener);
+  }
+
+  /**
+   * Search the notes of contacts and past meetings. All clauses of the query must match:
+   * plain words, prefixes ending in *, and quoted phrases. Results are ranked with BM25.
+   * @param query the query
+   * @param limit the largest number of hits to return
+   * @return the hits, best first
+   */
+  public synchronized List<NotesSearchHit> searchNotes(final String query, final int limit) {
+    return this.notesIndex.search(query, limit);
+  }
+
+  /**
+   * Search for contacts by the start of their name or of any word in it, tolerating up to two
+   * typos in longer queries. Unlike {@link #getContacts(String)} the match is neither exact nor
+   * case sensitive, and only the requested number of contacts is looked at.
+   * @param query the text typed so far
+   * @param limit the largest number of contacts to return
+   * @return the contacts, exact and prefix matches first, then by number of typos
+   */
+  public synchronized List<Contact> searchContacts(final String query, final int limit) {
+    return IntStream.of(this.contactNameIndex.search(query, limit))
+        .mapToObj(this.contacts::get)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Find the meetings, past and future, attended by both contacts.
+   * @param first the first contact
+   * @param second the second contact
+   * @return the shared meetings in chronological order
+   */
+  public synchronized List<Meeting> getCommonMeetings(final Contact first, final Contact second) {
+    migrateElapsedMeetings();
+    Validation.validateObjectNotNull(first, "Contact");
+    Validation.validateObjectNotNull(second, "Contact");
+    Validation.validateContactKnown(first, this.contacts);
+    Validation.validateContactKnown(second, this.contacts);
+    return IntStream.of(this.coAttendanceIndex.getCommonMeetingIds(first.getId(), second.getId()))
+        .mapToObj(this::lookupMeeting)
+        .sorted(Comparator.comparing(Meeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Find the contacts who have shared the most meetings, past and future, with a contact.
+   * @param contact the contact
+   * @param limit the largest number of contacts to return
+   * @return the contacts, most shared meetings first
+   */
+  public synchronized List<Contact> getTopCollaborators(final Contact contact, final int limit) {
+    migrateElapsedMeetings();
+    Validation.validateObjectNotNull(contact, "Contact");
+    Validation.validateContactKnown(contact, this.contacts);
+    return IntStream.of(this.coAttendanceIndex.getTopCollaborators(contact.getId(), limit))
+        .mapToObj(this.contacts::get)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Start archiving past meetings whose date is further back than the horizon into compressed
+   * segments in a directory. Archived meetings leave the heap but are still returned by every
+   * query, read back through a cache; their date, attendee and notes indexes stay in memory.
+   * Meetings are archived now, on each flush and on each call to
+   * {@link #archivePastMeetings()}, and the archive is reopened when the manager is restored.
+   * @param directory the directory for the segments, which is created if needed
+   * @param horizon how long after its date a past meeting is archived
+   * @param cacheCapacity the largest number of archived meetings cached in memory
+   * @throws IOException if the directory or its segments cannot be read or written
+   */
+  public synchronized void enableArchive(final Path directory, final Duration horizon,
+                                         final int cacheCapacity) throws IOException {
+    migrateElapsedMeetings();
+    Validation.validateObjectNotNull(horizon, "Horizon");
+    Validation.validateDurationNotNegative(horizon, "Horizon");
+    Validation.validateStateNotSet(this.archive, "Archive");
+    this.archive = new MeetingArchive(directory, cacheCapacity);
+    this.archiveHorizon = horizon;
+    loadArchive(System.currentTimeMillis());
+    archivePastMeetings();
+  }
+
+  /**
+   * Keep the long notes of contacts and past meetings added from now on in an arena, off heap
+   * or in a mapped file, rather than on the heap. Notes already held stay where they are. The
+   * arena is this manager's alone and is released with it; the manager does not close it, so
+   * the caller closes a mapped arena once the manager is no longer used.
+   * @param arena the arena
+   */
+  public synchronized void enableNotesArena(final NotesArena arena) {
+    Validation.validateObjectNotNull(arena, "Arena");
+    this.strings = new StringStore(arena);
+    for (final Contact contact : this.contacts.values()) {
+      if (contact instanceof ContactImpl) {
+        ((ContactImpl) contact).setStore(this.strings);
+      }
+    }
+  }
+
+  /**
+   * Move past meetings older than the archive horizon from memory to a new archive segment.
+   * @return the number of meetings archived
+   * @throws IOException if the segment cannot be written, in which case none are archived
+   */
+  public synchronized int archivePastMeetings() throws IOException {
+    migrateElapsedMeetings();
+    if (this.archive == null) {
+      return 0;
+    }
+    final long cutoff = System.currentTimeMillis() - this.archiveHorizon.toMillis();
+    final long cutoffDay = Math.floorDiv(cutoff, MILLIS_PER_DAY) + 1;
+    final List<PastMeeting> old = new ArrayList<>();
+    for (final int id : this.pastMeetingIds) {
+      //the date key rules out recent meetings without reading them from the store
+      if (this.dateKeys.get(id).getEpochDay() > cutoffDay) {
+        continue;
+      }
+      final Meeting meeting = this.meetings.get(id);
+      if (meeting != null && meeting.getDate().getTimeInMillis() < cutoff) {
+        old.add((PastMeeting) meeting);
+      }
+    }
+    old.sort(Comparator.comparing(PastMeeting::getDate));
+    this.archive.append(old);
+    old.forEach(meeting -> this.meetings.remove(meeting.getId()));
+    return old.size();
+  }
+
+  /**
+   * Getter for the number of meetings held in the archive rather than in memory.
+   * @return the number of archived meetings, or 0 if archiving is not enabled
+   */
+  public synchronized int getArchivedMeetingCount() {
+    return this.archive == null ? 0 : this.archive.size();
+  }
+
+  /**
+   * Make mutations durable as they happen rather than at the next flush. Adding a contact or
+   * meeting, adding meeting notes and replacing contact notes each append a record to the
+   * journal and return once the record has been forced to disk; records arriving within the
+   * delay of each other share a single write and fsync. Records already in the file are
+   * applied first. Each flush writes a snapshot holding everything journaled and then empties
+   * the journal, which is reopened and replayed when the manager is restored.
+   * @param file the journal file, which is created if needed
+   * @param maxDelay how long a batch of records waits for more before it is written
+   * @param maxBatchRecords the number of records written without waiting for the delay
+   * @throws IOException if the journal cannot be read or written
+   */
+  public synchronized void enableJournal(final Path file, final Duration maxDelay,
+                                         final int maxBatchRecords) throws IOException {
+    migrateElapsedMeetings();
+    Validation.validateStateNotSet(this.journal, "Journal");
+    final MutationJournal opened = new MutationJournal(file, maxDelay, maxBatchRecords);
+    if (replayJournal(opened) > 0) {
+      rebuildIndexes();
+    }
+    this.journal = opened;
+    flush();
+  }
+
+  /**
+   * Getter for the mutation journal.
+   * @return the journal, or null if journaling is not enabled
+   */
+  public synchronized MutationJournal getJournal() {
+    return this.journal;
+  }
+
+  /**
+   * Keep this manager current with the snapshot and journal that a manager in another process
+   * writes to the same files, for a long-running reader. The directories of both are watched
+   * and each change is read and applied as it happens: records appended to the journal are
+   * read from where the last read stopped, and a new snapshot is compared with what is held.
+   * Only contacts and meetings that differ are changed and indexed, and each change is applied
+   * as a whole under this manager's lock, so a query sees all of it or none of it.
+   *
+   * <p>While reloading, every mutation made through this manager throws IllegalStateException
+   * and flush does nothing, leaving the files to their writer. This manager stops appending to
+   * the journal it restored, which belongs to the writer.
+   * @throws IOException if the directories cannot be watched
+   */
+  public synchronized void enableHotReload() throws IOException {
+    Validation.validateStateNotSet(this.hotReload, "Hot reload");
+    Path journalFile = null;
+    if (this.journal != null) {
+      journalFile = this.journal.getFile();
+      this.journal.close();
+      this.journal = null;
+    }
+    this.following = true;
+    this.hotReload = new HotReload(this, this.file.toPath(), journalFile);
+  }
+
+  /**
+   * Stop reloading. The manager keeps everything applied and accepts mutations again.
+   */
+  public void disableHotReload() {
+    final HotReload stopped;
+    synchronized (this) {
+      Validation.validateStateSet(this.hotReload, "Hot reload");
+      stopped = this.hotReload;
+      this.hotReload = null;
+    }
+    //the reload thread may be waiting for the lock to apply a change
+    stopped.close();
+    synchronized (this) {
+      this.following = false;
+    }
+  }
+
+  /**
+   * Take the lock that makes this manager the only one, in this process or any other, that
+   * writes the snapshot, so that managers sharing it cannot overwrite each other's changes.
+   * The lock is held until released or until the process ends. While it is held, each
+   * snapshot is written under an exclusive lock that managers reading it wait for.
+   *
+   * <p>If another manager holds the lock, this one either fails or becomes a reader: every
+   * mutation made through it throws IllegalStateException and flush does nothing. A reader can
+   * be kept current with {@link #enableHotReload()}.
+   * @param readOnlyFallback true to become a reader if the lock is held, false to fail
+   * @return true if this manager holds the lock, false if it became a reader
+   * @throws IOException if the lock file cannot be opened or locked
+   * @throws IllegalStateException if the lock is held and there is no fallback, or if another
+   *     manager has written the snapshot since this one read it, whose changes would be lost
+   */
+  public synchronized boolean enableSnapshotLock(final boolean readOnlyFallback)
+      throws IOException {
+    Validation.validateStateNotSet(this.lockFile, "Snapshot lock");
+    final Path locking = SnapshotLock.lockFileFor(this.file.toPath());
+    if (SnapshotLock.tryLockWriter(locking)) {
+      if (!snapshotVersion().equals(this.snapshotVersion)) {
+        SnapshotLock.unlockWriter(locking);
+        throw new IllegalStateException("Snapshot was written by another manager since it was "
+            + "read");
+      }
+      this.lockFile = locking;
+      this.snapshotWriter = true;
+      return true;
+    }
+    if (!readOnlyFallback) {
+      throw new IllegalStateException("Snapshot is locked by another writer");
+    }
+    this.lockFile = locking;
+    this.following = true;
+    return false;
+  }
+
+  /**
+   * Release the snapshot lock, or stop being a reader of a snapshot another manager holds.
+   * @throws IOException if the lock cannot be released
+   */
+  public synchronized void releaseSnapshotLock() throws IOException {
+    Validation.validateStateSet(this.lockFile, "Snapshot lock");
+    if (this.snapshotWriter) {
+      SnapshotLock.unlockWriter(this.lockFile);
+    } else {
+      this.following = false;
+    }
+    this.lockFile = null;
+    this.snapshotWriter = false;
+  }
+
+  /**
+   * Identify the snapshot as it is on disc, to tell whether another manager has written it.
+   * @return a value that changes when the snapshot is written
+   */
+  private String snapshotVersion() {
+    return this.file.exists() ? this.file.lastModified() + "/" + this.file.length() : "";
+  }
+
+  /**
+   * Getter for the number of times hot reloading has changed this manager.
+   * @return the number of reloads, or 0 if hot reloading is not enabled
+   */
+  public synchronized long getHotReloadCount() {
+    return this.hotReload == null ? 0 : this.hotReload.getReloadCount();
+  }
+
+  /**
+   * Publish a change event and re-index the notes of a contact whose notes were replaced
+   * directly on the contact.
+   * @param contact the contact whose notes changed
+   */
+  private void contactNotesChanged(final ContactImpl contact) {
+    durably(() -> {
+      this.notesIndex.index(NotesSearchHit.Source.CONTACT, contact.getId(), contact.getNotes());
+      journalContact(contact);
+      this.changeFeed.publish(ChangeEvent.Type.CONTACT_NOTES_CHANGED, contact);
+      return null;
+    });
+  }
+
+  /**
+   * Apply a mutation holding the manager's lock and, if journaling is enabled, wait for its
+   * record to reach the disk. The wait happens after the lock is released so that other
+   * mutations can join the same batch.
+   * @param mutation the mutation, which appends at most one record
+   * @param <T> the type of the mutation's result
+   * @return the result of the mutation
+   */
+  private <T> T durably(final Supplier<T> mutation) {
+    final T result;
+    final MutationJournal target;
+    final long sequence;
+    synchronized (this) {
+      validateNotFollowing();
+      result = mutation.get();
+      target = this.deferDurability ? null : this.journal;
+      sequence = target == null ? 0 : target.getLastAppended();
+    }
+    if (target != null) {
+      target.awaitDurable(sequence);
+    }
+    return result;
+  }
+
+  /**
+   * Apply a mutation made through the public methods of this manager without blocking until it
+   * is durable, for callers that must not block.
+   * @param mutation the mutation, which appends at most one record
+   * @param applied receives the result once the mutation is applied and the lock released
+   * @param <T> the type of the mutation's result
+   * @return a future completed once the mutation is durable: when its journal record reaches
+   *     the disk, or if journaling is not enabled when the next flush has written the snapshot
+   */
+  <T> CompletableFuture<Void> applyDeferred(final Supplier<T> mutation,
+                                           final Consumer<T> applied) {
+    final T result;
+    final CompletableFuture<Void> durable;
+    synchronized (this) {
+      validateNotFollowing();
+      this.deferDurability = true;
+      try {
+        result = mutation.get();
+      } finally {
+        this.deferDurability = false;
+      }
+      if (this.journal != null) {
+        durable = this.journal.whenDurable(this.journal.getLastAppended());
+      } else {
+        durable = new CompletableFuture<>();
+        this.awaitingFlush.add(durable);
+      }
+    }
+    applied.accept(result);
+    return durable;
+  }
+
+  /**
+   * Reject a mutation while this manager is following another writer, such as a leader or
+   * the manager holding the snapshot lock, whose changes would otherwise overwrite it. Must be
+   * called holding the manager's lock.
+   */
+  private void validateNotFollowing() {
+    if (this.following) {
+      throw new IllegalStateException("Manager is following another writer and cannot be changed");
+    }
+  }
+
+  /**
+   * Start or stop following a leader. While following, every mutation made through this
+   * manager throws IllegalStateException and only replicated records change it; once stopped
+   * it accepts mutations again, taking over from the leader.
+   * @param follow true to start following, false to stop
+   */
+  synchronized void setFollowing(final boolean follow) {
+    this.following = follow;
+  }
+
+  /**
+   * Hand every contact, then every meeting, to a handler, as the starting point of a follower.
+   * @param handler receives each contact and meeting
+   * @return the sequence of the last change the contacts and meetings include
+   * @throws IOException if the archive cannot be read
+   */
+  synchronized long copyTo(final MutationJournal.RecordHandler handler) throws IOException {
+    this.contacts.values().forEach(
+        contact -> handler.contact(contact.getId(), contact.getName(), contact.getNotes()));
+    this.meetings.forEach(handler::meeting);
+    if (this.archive != null) {
+      this.archive.forEach(meeting -> {
+        if (!this.meetings.contains(meeting.getId())) {
+          handler.meeting(meeting);
+        }
+      });
+    }
+    return this.changeFeed.getLastSequence();
+  }
+
+  /**
+   * Replace every contact and meeting with those of a leader's snapshot.
+   * @param records the journal records of the snapshot, contacts before meetings
+   * @throws IOException if a record cannot be decoded
+   */
+  synchronized void replaceWithReplicated(final List<byte[]> records) throws IOException {
+    final List<Integer> held = new ArrayList<>();
+    this.meetings.forEach(meeting -> held.add(meeting.getId()));
+    held.forEach(this.meetings::remove);
+    this.contacts.clear();
+    this.dateKeys.clear();
+    this.futureMeetingIds.clear();
+    this.pendingNotesMeetingIds.clear();
+    this.pastMeetingIds.clear();
+    for (final byte[] record : records) {
+      MutationJournal.decode(new DataInputStream(new ByteArrayInputStream(record)),
+                             this.attendeeSetPool, new MutationJournal.RecordHandler() {
+            @Override
+            public void contact(final int id, final String name, final String notes) {
+              contacts.put(id, new ContactImpl(id, name, notes, strings));
+              contactIds.advancePast(id);
+            }
+
+            @Override
+            public void meeting(final Meeting meeting) {
+              meetings.put(meeting);
+            }
+
+            @Override
+            public void contactIdsLeased(final int limit) {
+              contactIds.advancePast(limit);
+            }
+
+            @Override
+            public void meetingIdsLeased(final int limit) {
+              meetingIds.advancePast(limit);
+            }
+          });
+    }
+    rebuildIndexes();
+  }
+
+  /**
+   * Apply a single record replicated from a leader, keeping the indexes current. A contact
+   * already held has its notes replaced in place, so the meetings it attends see them.
+   * @param record the journal record
+   * @throws IOException if the record cannot be decoded
+   */
+  synchronized void applyReplicated(final byte[] record) throws IOException {
+    MutationJournal.decode(new DataInputStream(new ByteArrayInputStream(record)),
+                           this.attendeeSetPool, new ReplicatedRecords());
+  }
+
+  /**
+   * Apply a batch of records read back from the files of another manager, keeping the indexes
+   * current. The whole batch is applied under the manager's lock, so a query sees either none
+   * of it or all of it, and records that change nothing are skipped.
+   * @param records the journal records, in the order they were written
+   * @return the number of records that changed a contact or meeting
+   * @throws IOException if a record cannot be decoded
+   */
+  synchronized int applyReloaded(final List<byte[]> records) throws IOException {
+    final ReplicatedRecords handler = new ReplicatedRecords();
+    for (final byte[] record : records) {
+      MutationJournal.decode(new DataInputStream(new ByteArrayInputStream(record)),
+                             this.attendeeSetPool, handler);
+    }
+    return handler.changed;
+  }
+
+  /**
+   * Applies replicated records to the contacts, meetings and indexes, counting those that
+   * change something. Must be used holding the manager's lock.
+   */
+  private final class ReplicatedRecords implements MutationJournal.RecordHandler {
+    private int changed;
+
+    @Override
+    public void contact(final int id, final String name, final String notes) {
+      final Contact existing = contacts.get(id);
+      contactIds.advancePast(id);
+      if (existing instanceof ContactImpl) {
+        if (!existing.getNotes().equals(notes)) {
+          ((ContactImpl) existing).replaceNotes(notes);
+          notesIndex.index(NotesSearchHit.Source.CONTACT, id, notes);
+          this.changed++;
+        }
+      } else {
+        final ContactImpl contact = new ContactImpl(id, name, notes, strings);
+        contacts.put(id, contact);
+        indexContact(contact);
+        this.changed++;
+      }
+    }
+
+    @Override
+    public void meeting(final Meeting meeting) {
+      meetingIds.advancePast(meeting.getId());
+      if (isHeld(meeting)) {
+        return;
+      }
+      meetings.put(meeting);
+      if (archive != null) {
+        archive.remove(meeting.getId());
+      }
+      indexMeeting(meeting, System.currentTimeMillis());
+      this.changed++;
+    }
+
+    @Override
+    public void contactIdsLeased(final int limit) {
+      contactIds.advancePast(limit);
+    }
+
+    @Override
+    public void meetingIdsLeased(final int limit) {
+      meetingIds.advancePast(limit);
+    }
+
+    /**
+     * Check whether a meeting is already held in memory as it is.
+     * @param meeting the meeting
+     * @return true if a meeting with its id, date and notes is held
+     */
+    private boolean isHeld(final Meeting meeting) {
+      final Meeting held = meetings.get(meeting.getId());
+      if (held == null || (held instanceof PastMeeting) != (meeting instanceof PastMeeting)
+          || held.getDate().getTimeInMillis() != meeting.getDate().getTimeInMillis()) {
+        return false;
+      }
+      return !(meeting instanceof PastMeeting)
+          || ((PastMeeting) held).getNotes().equals(((PastMeeting) meeting).getNotes());
+    }
+  }
+
+  /**
+   * Append a record of a contact to the journal, if journaling is enabled.
+   * @param contact the contact
+   */
+  private void journalContact(final Contact contact) {
+    if (this.journal != null) {
+      this.journal.appendContact(contact);
+    }
+  }
+
+  /**
+   * Move every future meeting whose date has passed to the meetings awaiting notes. Called by
+   * the background ticker and at the start of every public method, so the meeting state
+   * indexes are always current when they are read.
+   */
+  synchronized void migrateElapsedMeetings() {
+    this.meetingWheel.advanceTo(System.currentTimeMillis(), this::migrateElapsedMeeting);
+  }
+
+  /**
+   * Move a single elapsed future meeting to the meetings awaiting notes and notify listeners.
+   * Meetings that have already been given notes are ignored.
+   * @param id the id of the elapsed meeting
+   */
+  private void migrateElapsedMeeting(final int id) {
+    if (!this.futureMeetingIds.remove(id)) {
+      return;
+    }
+    this.pendingNotesMeetingIds.add(id);
+    final Meeting meeting = this.meetings.get(id);
+    for (final MeetingStateListener listener : this.meetingStateListeners) {
+      try {
+        listener.meetingElapsed(meeting);
+      } catch (RuntimeException e) {
+        //a failing listener must not stop the remaining meetings from moving across
+        e.printStackTrace();
+      }
+    }
   }
 
   /**
@@ -61,8 +793,11 @@ public class ContactManagerImpl implements ContactManager {
   @Override
   public int addFutureMeeting(final Set<Contact> suppliedContacts,
                               final Calendar suppliedDate) {
-    validateAddNewFutureMeeting(suppliedContacts, suppliedDate);
-    return createNewFutureMeeting(suppliedContacts, suppliedDate);
+    return durably(() -> {
+      migrateElapsedMeetings();
+      validateAddNewFutureMeeting(suppliedContacts, suppliedDate);
+      return createNewFutureMeeting(suppliedContacts, suppliedDate);
+    });
   }
 
   /**
@@ -89,8 +824,10 @@ public class ContactManagerImpl implements ContactManager {
   private int createNewFutureMeeting(final Set<Contact> suppliedContacts,
                                      final Calendar suppliedDate) {
     final int id = getNewMeetingId();
-    final Meeting meeting = new FutureMeetingImpl(id, suppliedDate, suppliedContacts);
-    meetings.put(id, meeting);
+    final Meeting meeting = new FutureMeetingImpl(id, suppliedDate,
+        this.attendeeSetPool.intern(suppliedContacts));
+    storeMeeting(meeting);
+    this.changeFeed.publish(ChangeEvent.Type.MEETING_ADDED, meeting, null);
     return id;
   }
 
@@ -98,15 +835,16 @@ public class ContactManagerImpl implements ContactManager {
    * {@inheritDoc}.
    */
   @Override
-  public PastMeeting getPastMeeting(final int id) {
-    final Meeting meeting = meetings.get(id);
+  public synchronized PastMeeting getPastMeeting(final int id) {
+    migrateElapsedMeetings();
+    final Meeting meeting = lookupMeeting(id);
     if (meeting == null) {
       return null;
     }
-    Validation.validateStateInPast(meeting.getDate());
+    Validation.validateMeetingElapsed(id, this.futureMeetingIds);
 
     //enforces the event must have occurred and had notes added
-    if (!meeting.getClass().equals(PastMeetingImpl.class)) {
+    if (!this.pastMeetingIds.contains(id)) {
       return null;
     }
 
@@ -117,10 +855,11 @@ public class ContactManagerImpl implements ContactManager {
    * {@inheritDoc}.
    */
   @Override
-  public FutureMeeting getFutureMeeting(final int id) {
-    final Meeting meeting = this.meetings.get(id);
+  public synchronized FutureMeeting getFutureMeeting(final int id) {
+    migrateElapsedMeetings();
+    final Meeting meeting = lookupMeeting(id);
     if (meeting != null) {
-      Validation.validateStateInFuture(meeting.getDate());
+      Validation.validateMeetingUpcoming(id, this.futureMeetingIds);
     }
 
     return (FutureMeeting)meeting;
@@ -130,23 +869,23 @@ public class ContactManagerImpl implements ContactManager {
    * {@inheritDoc}.
    */
   @Override
-  public Meeting getMeeting(final int id) {
-    return meetings.get(id);
+  public synchronized Meeting getMeeting(final int id) {
+    migrateElapsedMeetings();
+    return lookupMeeting(id);
   }
 
   /**
    * {@inheritDoc}.
    */
   @Override
-  public List<Meeting> getFutureMeetingList(final Contact contact) {
+  public synchronized List<Meeting> getFutureMeetingList(final Contact contact) {
+    migrateElapsedMeetings();
     final String variableName = "Contact";
     Validation.validateObjectNotNull(contact, variableName);
     //last as more computationally intensive
     Validation.validateContactKnown(contact, this.contacts);
-    return getSortedElementsFromMapAsList(this.meetings,
-        (key,meeting) ->
-            meeting.getContacts().contains(contact)
-            && meeting.getDate().after(Calendar.getInstance()),
+    return getSortedMeetingsFromIdsAsList(meetingIdsFor(contact, this.futureMeetingIds),
+        meeting -> true,
         Comparator.comparing(Meeting::getDate)
     );
   }
@@ -155,37 +894,28 @@ public class ContactManagerImpl implements ContactManager {
    * {@inheritDoc}.
    */
   @Override
-  public List<Meeting> getMeetingListOn(final Calendar date) {
+  public synchronized List<Meeting> getMeetingListOn(final Calendar date) {
+    migrateElapsedMeetings();
     Validation.validateObjectNotNull(date);
-    final LocalDate dateOnly = getDateOnly(date);
-    return getSortedElementsFromMapAsList(this.meetings,
-        (key,meeting) -> getDateOnly(meeting.getDate()).equals(dateOnly),
-        Comparator.comparing(Meeting::getDate));
-  }
-
-  /**
-   * Get the date component from a calendar object.
-   * @param date the calendar object
-   * @return a LocalDate holding the date component only
-   */
-  private LocalDate getDateOnly(final Calendar date) {
-    return LocalDate.from(date.getTime()
-        .toInstant()
-        .atZone(ZoneId.systemDefault())
-        .toLocalDate());
+    final long epochDay = DateKey.of(date, this.zoneRules).getEpochDay();
+    return this.dateKeys.entrySet().stream()
+        .filter(entry -> entry.getValue().getEpochDay() == epochDay)
+        .map(entry -> lookupMeeting(entry.getKey()))
+        .sorted(Comparator.comparing(Meeting::getDate))
+        .collect(Collectors.toList());
   }
 
   /**
    * {@inheritDoc}.
    */
   @Override
-  public List<PastMeeting> getPastMeetingListFor(final Contact contact) {
+  public synchronized List<PastMeeting> getPastMeetingListFor(final Contact contact) {
+    migrateElapsedMeetings();
     Validation.validateObjectNotNull(contact);
     //last as computationally intensive
     Validation.validateContactKnown(contact, this.contacts);
-    return getPastMeetingsFromMapAsList(this.meetings,
-        meeting -> meeting.getContacts().contains(contact)
-                  && meeting.getDate().before(Calendar.getInstance()),
+    return getSortedMeetingsFromIdsAsList(meetingIdsFor(contact, this.pastMeetingIds),
+        meeting -> true,
         Comparator.comparing(PastMeeting::getDate));
   }
 
@@ -196,8 +926,11 @@ public class ContactManagerImpl implements ContactManager {
   public int addNewPastMeeting(final Set<Contact> contacts,
                                final Calendar date,
                                final String text) {
-    validateAddNewPastMeeting(contacts, date, text);
-    return createNewPastMeeting(contacts, date, text);
+    return durably(() -> {
+      migrateElapsedMeetings();
+      validateAddNewPastMeeting(contacts, date, text);
+      return createNewPastMeeting(contacts, date, text);
+    });
   }
 
   /**
@@ -229,8 +962,10 @@ public class ContactManagerImpl implements ContactManager {
                                    final Calendar date,
                                    final String text) {
     final int id = getNewMeetingId();
-    final Meeting meeting = new PastMeetingImpl(id, date, contacts, text);
-    this.meetings.put(id, meeting);
+    final Meeting meeting = new PastMeetingImpl(id, date,
+        this.attendeeSetPool.intern(contacts), text, this.strings);
+    storeMeeting(meeting);
+    this.changeFeed.publish(ChangeEvent.Type.MEETING_ADDED, meeting, text);
     return id;
   }
 
@@ -239,13 +974,16 @@ public class ContactManagerImpl implements ContactManager {
    */
   @Override
   public PastMeeting addMeetingNotes(final int id, final String text) {
-    final String variableName = "Text";
-    Validation.validateObjectNotNull(text, variableName);
-    final Meeting meeting = meetings.get(id);
-    final String argumentName = "Meeting";
-    Validation.validateArgumentNotNull(meeting, argumentName);
-    Validation.validateStateInPast(meeting.getDate());
-    return addNotesToPastMeeting(meeting, text);
+    return durably(() -> {
+      migrateElapsedMeetings();
+      final String variableName = "Text";
+      Validation.validateObjectNotNull(text, variableName);
+      final Meeting meeting = lookupMeeting(id);
+      final String argumentName = "Meeting";
+      Validation.validateArgumentNotNull(meeting, argumentName);
+      Validation.validateMeetingElapsed(id, this.futureMeetingIds);
+      return addNotesToPastMeeting(meeting, text);
+    });
   }
 
   /**
@@ -258,47 +996,136 @@ public class ContactManagerImpl implements ContactManager {
     final PastMeeting meetingWithNotes = new PastMeetingImpl(meeting.getId(),
                                                       meeting.getDate(),
                                                       meeting.getContacts(),
-                                                      text);
+                                                      text, this.strings);
 
     //overwrite previous meeting without notes
-    this.meetings.put(meetingWithNotes.getId(), meetingWithNotes);
+    storeMeeting(meetingWithNotes);
+    this.changeFeed.publish(ChangeEvent.Type.MEETING_NOTES_ADDED, meetingWithNotes, text);
     return meetingWithNotes;
   }
 
+  /**
+   * Store a meeting, replacing any meeting with the same id, record its date key and state, and
+   * journal it if journaling is enabled.
+   * @param meeting the meeting to store
+   */
+  private void storeMeeting(final Meeting meeting) {
+    this.meetings.put(meeting);
+    if (this.journal != null) {
+      this.journal.appendMeeting(meeting);
+    }
+    if (this.archive != null) {
+      this.archive.remove(meeting.getId());
+    }
+    indexMeeting(meeting, System.currentTimeMillis());
+  }
+
+  /**
+   * Find a meeting held in memory or, failing that, in the archive.
+   * @param id the meeting id
+   * @return the meeting, or null if there is none with the id
+   */
+  private Meeting lookupMeeting(final int id) {
+    final Meeting meeting = this.meetings.get(id);
+    if (meeting != null || this.archive == null) {
+      return meeting;
+    }
+    return this.archive.get(id);
+  }
+
+  /**
+   * Record the date key of a meeting and file it under future, awaiting notes or past. Future
+   * meetings are scheduled on the timing wheel so they move across once their date passes.
+   * @param meeting the meeting to index
+   * @param nowMillis the current time in milliseconds
+   */
+  private void indexMeeting(final Meeting meeting, final long nowMillis) {
+    final int id = meeting.getId();
+    final long dateMillis = meeting.getDate().getTimeInMillis();
+    this.dateKeys.put(id, DateKey.of(meeting.getDate(), this.zoneRules));
+    this.coAttendanceIndex.add(id, meeting.getContacts().stream()
+        .mapToInt(Contact::getId)
+        .toArray());
+    this.futureMeetingIds.remove(id);
+    this.pendingNotesMeetingIds.remove(id);
+    if (meeting instanceof PastMeeting) {
+      this.pastMeetingIds.add(id);
+      this.notesIndex.index(NotesSearchHit.Source.MEETING, id, ((PastMeeting) meeting).getNotes());
+    } else if (dateMillis > nowMillis) {
+      this.futureMeetingIds.add(id);
+      this.meetingWheel.schedule(id, dateMillis);
+    } else {
+      this.pendingNotesMeetingIds.add(id);
+    }
+  }
+
   /**
    * {@inheritDoc}.
    */
   @Override
   public int addNewContact(final String name, final String notes) {
-    Validation.validateStringNotNullOrEmpty(name, "name");
-    Validation.validateStringNotNullOrEmpty(notes, "notes");
+    return durably(() -> {
+      migrateElapsedMeetings();
+      Validation.validateStringNotNullOrEmpty(name, "name");
+      Validation.validateStringNotNullOrEmpty(notes, "notes");
 
-    final int id = getNewContactId();
-    this.contacts.put(id, new ContactImpl(id, name, notes));
-    return id;
+      final int id = getNewContactId();
+      final ContactImpl contact = new ContactImpl(id, name, notes, this.strings);
+      this.contacts.put(id, contact);
+      indexContact(contact);
+      journalContact(contact);
+      this.changeFeed.publish(ChangeEvent.Type.CONTACT_ADDED, contact);
+      return id;
+    });
   }
 
   /**
-   * pre increment to return the next contact id.
+   * allocate the next contact id.
    * @return next contact id
    */
   private int getNewContactId() {
-    return ++this.lastContactId;
+    return this.contactIds.next();
   }
 
   /**
-   * pre increment to return the next meeting id.
+   * allocate the next meeting id.
    * @return next meeting id
    */
   private int getNewMeetingId() {
-    return ++this.lastMeetingId;
+    return this.meetingIds.next();
+  }
+
+  /**
+   * Create an allocator for contact or meeting ids. Ids are only allocated holding this
+   * manager's lock, so each thread takes a single id at a time and ids stay consecutive.
+   * @param leased the limit last stored, from which ids continue
+   * @param forMeetings true for meeting ids, false for contact ids
+   * @return the allocator
+   */
+  private IdAllocator newIdAllocator(final int leased, final boolean forMeetings) {
+    return new IdAllocator(leased, 1, IdAllocator.DEFAULT_LEASE_SIZE,
+        limit -> storeIdLease(forMeetings, limit));
+  }
+
+  /**
+   * Store a new lease of ids. With a journal the lease is forced to disk before any id under
+   * it is handed out; otherwise nothing is stored, since writes using those ids first survive
+   * a restart in a snapshot, which records the last ids allocated along with them.
+   * @param forMeetings true for meeting ids, false for contact ids
+   * @param limit the highest id that may be handed out
+   */
+  private void storeIdLease(final boolean forMeetings, final int limit) {
+    if (this.journal != null) {
+      this.journal.awaitDurable(this.journal.appendIdLease(forMeetings, limit));
+    }
   }
 
   /**
    * {@inheritDoc}.
    */
   @Override
-  public Set<Contact> getContacts(final String name) {
+  public synchronized Set<Contact> getContacts(final String name) {
+    migrateElapsedMeetings();
     final String variableName = "Name";
     Validation.validateObjectNotNull(name, variableName);
     if (name.isEmpty()) {
@@ -311,7 +1138,8 @@ public class ContactManagerImpl implements ContactManager {
    * {@inheritDoc}.
    */
   @Override
-  public Set<Contact> getContacts(final int... ids) {
+  public synchronized Set<Contact> getContacts(final int... ids) {
+    migrateElapsedMeetings();
     Validation.validateSetPopulated(ids, "Contact Ids array");
     final Set<Contact> result = getElementsFromMapAsSet(this.contacts,
         (contactId, contact) -> IntStream.of(ids).anyMatch(i -> i == contactId)
@@ -345,76 +1173,318 @@ public class ContactManagerImpl implements ContactManager {
   }
 
   /**
-   * A generic method to allow retrieval of filtered and sorted elements from a provided set.
-   * @param map the provided map
-   * @param predicate the filter bi-predicate
+   * A Meeting specific method to allow retrieval of filtered and sorted meetings from one of
+   * the meeting state indexes. The index decides the type, so no per meeting date or class
+   * checks are needed.
+   * @param ids the ids held in a meeting state index
+   * @param predicate the meeting filter predicate
    * @param comparator the comparator to use for sorting
-   * @param <T> the generic type held in both the map and as the return set
-   * @return List of sorted elements
+   * @param <T> the meeting type held under the index
+   * @return List of sorted meetings
    */
-  private <T> List<T> getSortedElementsFromMapAsList(final Map<Integer, T> map,
-                                                     final BiPredicate<Integer, T> predicate,
-                                                     final Comparator<T> comparator) {
-    return map.entrySet().stream()
-            .filter(e -> predicate.test(e.getKey(), e.getValue()))
-            .map(Map.Entry::getValue)
+  @SuppressWarnings("unchecked")
+  private <T extends Meeting> List<T> getSortedMeetingsFromIdsAsList(
+      final Set<Integer> ids,
+      final Predicate<T> predicate,
+      final Comparator<T> comparator) {
+    return ids.stream()
+            .map(id -> (T) lookupMeeting(id))
+            .filter(predicate)
             .sorted(comparator)
             .collect(Collectors.toList());
   }
 
   /**
-   * A Meeting specific method to allow retrieval of filtered and sorted elements from a
-   * provided Map of meetings in order to allow filtering on the class type.
-   * @param map the provided map of Meetings
-   * @param predicate the meeting filter predicate
-   * @param comparator the comparator to use for sorting
-   * @return List of past meetings
+   * The meetings a contact attended that are held in one of the state sets, read from the
+   * contact's meeting bitmap rather than by checking the attendees of every meeting.
+   * @param contact the contact
+   * @param state the ids of the meetings in the state of interest
+   * @return the ids of the contact's meetings in that state
    */
-  private List<PastMeeting> getPastMeetingsFromMapAsList(final Map<Integer, Meeting> map,
-                                                         final Predicate<PastMeeting> predicate,
-                                                         final Comparator<PastMeeting> comparator) {
-    return map.entrySet().stream()
-            .filter(e -> PastMeetingImpl.class.equals(e.getValue().getClass()))
-            .map(e -> (PastMeeting)e.getValue())
-            .filter(predicate)
-            .sorted(comparator)
-            .collect(Collectors.toList());
+  private Set<Integer> meetingIdsFor(final Contact contact, final Set<Integer> state) {
+    return IntStream.of(this.coAttendanceIndex.getMeetingIds(contact.getId()))
+        .filter(state::contains)
+        .boxed()
+        .collect(Collectors.toSet());
   }
 
   /**
    * {@inheritDoc}.
    */
   @Override
-  public void flush() {
+  public synchronized void flush() {
+    if (this.hotReload != null || (this.lockFile != null && !this.snapshotWriter)) {
+      //the files belong to another manager
+      return;
+    }
+    try {
+      archivePastMeetings();
+    } catch (IOException e) {
+      //the meetings stay in memory and are written to the snapshot instead
+      e.printStackTrace();
+    }
+    try {
+      this.meetings.flush();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
     final ContactManagerDump dump = new ContactManagerDump();
-    storeDataInDump(dump);
+    if (!storeDataInDump(dump)) {
+      return;
+    }
+    if (this.journal != null) {
+      try {
+        this.journal.checkpoint();
+      } catch (IOException e) {
+        //the records stay in the journal and are replayed over the snapshot
+        e.printStackTrace();
+      }
+    }
+    this.awaitingFlush.forEach(durable -> durable.complete(null));
+    this.awaitingFlush.clear();
+  }
+
+  /**
+   * Write every contact and meeting, archived meetings included, to a file that any number of
+   * {@link MappedContactManager}s in other processes can map and read in place. The file is
+   * replaced atomically, so those already reading it move to the new snapshot on their next
+   * check.
+   * @param file the file
+   * @throws IOException if the snapshot cannot be written
+   */
+  public void writeMappedSnapshot(final Path file) throws IOException {
+    Validation.validateObjectNotNull(file, "File");
+    final List<Contact> copiedContacts = new ArrayList<>();
+    final List<Meeting> copiedMeetings = new ArrayList<>();
+    copyTo(new MutationJournal.RecordHandler() {
+      @Override
+      public void contact(final int id, final String name, final String notes) {
+        copiedContacts.add(new ContactImpl(id, name, notes));
+      }
+
+      @Override
+      public void meeting(final Meeting meeting) {
+        copiedMeetings.add(meeting);
+      }
+
+      @Override
+      public void contactIdsLeased(final int limit) {
+        //leases are not part of a read-only snapshot
+      }
+
+      @Override
+      public void meetingIdsLeased(final int limit) {
+        //leases are not part of a read-only snapshot
+      }
+    });
+    //the file is written outside the lock, from copies taken under it
+    MappedSnapshot.write(file, copiedContacts, copiedMeetings);
+  }
+
+  /**
+   * Import contacts from a CSV file of {@value CsvFiles#CONTACTS_HEADER} rows, keeping their
+   * ids. Every row is validated before any is added, so a file that fails adds nothing, and the
+   * contacts added are made durable by writing a snapshot.
+   * @param file the file
+   * @return the number of contacts imported
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if a row is not valid or its id is already held
+   */
+  public synchronized int importContactsCsv(final Path file) throws IOException {
+    Validation.validateObjectNotNull(file, "File");
+    migrateElapsedMeetings();
+    validateNotFollowing();
+    final List<ContactImpl> imported = CsvFiles.read(file, CsvFiles.CONTACTS_HEADER, 3,
+        fields -> {
+          final int id = CsvFiles.parseId(fields[0], "Contact");
+          Validation.validateStringNotNullOrEmpty(fields[1], "name");
+          Validation.validateStringNotNullOrEmpty(fields[2], "notes");
+          return new ContactImpl(id, fields[1], fields[2], this.strings);
+        });
+    final Set<Integer> ids = new HashSet<>();
+    for (final ContactImpl contact : imported) {
+      if (!ids.add(contact.getId()) || this.contacts.containsKey(contact.getId())) {
+        throw new IllegalArgumentException("Contact id " + contact.getId() + " is already held");
+      }
+    }
+    for (final ContactImpl contact : imported) {
+      this.contacts.put(contact.getId(), contact);
+      indexContact(contact);
+      this.contactIds.advancePast(contact.getId());
+      this.changeFeed.publish(ChangeEvent.Type.CONTACT_ADDED, contact);
+    }
+    flush();
+    return imported.size();
+  }
+
+  /**
+   * Import meetings from a CSV file of {@value CsvFiles#MEETINGS_HEADER} rows, keeping their
+   * ids. A meeting with notes is a past meeting and one without is a future meeting, or one
+   * awaiting notes if its date has passed. Attendees are looked up by id among the contacts
+   * held, so contacts are imported first. Every row is validated before any is added, and the
+   * meetings added are made durable by writing a snapshot.
+   * @param file the file
+   * @return the number of meetings imported
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if a row is not valid, names an unknown attendee, has
+   *     notes but a date in the future, or its id is already held
+   */
+  public synchronized int importMeetingsCsv(final Path file) throws IOException {
+    Validation.validateObjectNotNull(file, "File");
+    migrateElapsedMeetings();
+    validateNotFollowing();
+    //the rows are parsed in parallel, reading the contacts while nothing changes them
+    final List<Meeting> imported = CsvFiles.read(file, CsvFiles.MEETINGS_HEADER, 4,
+        fields -> {
+          final int id = CsvFiles.parseId(fields[0], "Meeting");
+          final Calendar date = CsvFiles.parseDate(fields[1]);
+          Validation.validateArgumentNotNull(fields[2], "Attendees");
+          final Set<Contact> attendees = new HashSet<>();
+          for (final String attendee : fields[2].split(";")) {
+            final Contact contact = this.contacts.get(CsvFiles.parseId(attendee, "Contact"));
+            Validation.validateArgumentNotNull(contact, "Contact " + attendee.trim());
+            attendees.add(contact);
+          }
+          if (fields[3] == null) {
+            return new FutureMeetingImpl(id, date, attendees);
+          }
+          Validation.validateDateInPast(date);
+          return new PastMeetingImpl(id, date, attendees, fields[3], this.strings);
+        });
+    final Set<Integer> ids = new HashSet<>();
+    for (final Meeting meeting : imported) {
+      final int id = meeting.getId();
+      if (!ids.add(id) || this.meetings.contains(id)
+          || (this.archive != null && this.archive.contains(id))) {
+        throw new IllegalArgumentException("Meeting id " + id + " is already held");
+      }
+    }
+    final long nowMillis = System.currentTimeMillis();
+    for (final Meeting meeting : imported) {
+      ((MeetingImpl) meeting).internContacts(this.attendeeSetPool);
+      this.meetings.put(meeting);
+      indexMeeting(meeting, nowMillis);
+      this.meetingIds.advancePast(meeting.getId());
+      this.changeFeed.publish(ChangeEvent.Type.MEETING_ADDED, meeting,
+          meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null);
+    }
+    flush();
+    return imported.size();
+  }
+
+  /**
+   * Export every contact to a CSV file of {@value CsvFiles#CONTACTS_HEADER} rows, written
+   * straight from the contacts held through a buffered channel.
+   * @param file the file, which is replaced
+   * @return the number of contacts exported
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized int exportContactsCsv(final Path file) throws IOException {
+    Validation.validateObjectNotNull(file, "File");
+    try (Writer out = CsvFiles.newWriter(file, CsvFiles.CONTACTS_HEADER)) {
+      for (final Contact contact : this.contacts.values()) {
+        CsvFiles.writeContact(out, contact);
+      }
+    }
+    return this.contacts.size();
+  }
+
+  /**
+   * Export every meeting, archived meetings included, to a CSV file of
+   * {@value CsvFiles#MEETINGS_HEADER} rows, written straight from the meeting store and the
+   * archive through a buffered channel.
+   * @param file the file, which is replaced
+   * @return the number of meetings exported
+   * @throws IOException if the file cannot be written or the archive cannot be read
+   */
+  public synchronized int exportMeetingsCsv(final Path file) throws IOException {
+    Validation.validateObjectNotNull(file, "File");
+    migrateElapsedMeetings();
+    final int[] count = new int[1];
+    try (Writer out = CsvFiles.newWriter(file, CsvFiles.MEETINGS_HEADER)) {
+      final Consumer<Meeting> writer = meeting -> {
+        try {
+          CsvFiles.writeMeeting(out, meeting);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        count[0]++;
+      };
+      this.meetings.forEach(writer);
+      if (this.archive != null) {
+        this.archive.forEach(meeting -> {
+          if (!this.meetings.contains(meeting.getId())) {
+            writer.accept(meeting);
+          }
+        });
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return count[0];
   }
 
   /**
    * Store the persistent values required in the dup pojo.
    * @param dump the instance of the dump pojo to write to
+   * @return true if the dump was written to disc
    */
-  private void storeDataInDump(final ContactManagerDump dump) {
-    dump.setLastContactId(this.lastContactId);
-    dump.setLastMeetingId(this.lastMeetingId);
+  private boolean storeDataInDump(final ContactManagerDump dump) {
+    dump.setLastContactId(this.contactIds.getLastAllocated());
+    dump.setLastMeetingId(this.meetingIds.getLastAllocated());
+    dump.setContactIdLease(this.contactIds.getLeased());
+    dump.setMeetingIdLease(this.meetingIds.getLeased());
     dump.setContacts(this.contacts);
-    dump.setMeetings(this.meetings);
-    writeDumpToFile(dump);
+    final Map<Integer, Meeting> held = new HashMap<>();
+    if (!this.meetings.isDurable()) {
+      this.meetings.forEach(meeting -> held.put(meeting.getId(), meeting));
+    }
+    dump.setMeetings(held);
+    dump.setLastChangeSequence(this.changeFeed.getLastSequence());
+    if (this.archive != null) {
+      dump.setArchiveDirectory(this.archive.getDirectory().toAbsolutePath().toString());
+      dump.setArchiveHorizonMillis(this.archiveHorizon.toMillis());
+      dump.setArchiveCacheCapacity(this.archive.getCacheCapacity());
+    }
+    if (this.journal != null) {
+      dump.setJournalFile(this.journal.getFile().toAbsolutePath().toString());
+      dump.setJournalMaxDelayNanos(this.journal.getMaxDelay().toNanos());
+      dump.setJournalMaxBatchRecords(this.journal.getMaxBatchRecords());
+    }
+    return writeDumpToFile(dump);
   }
 
   /**
    * write the state of the object out to disc.
    * @param dump the instance of the dump pojo to serialize
+   * @return true if the dump was written
    */
-  private void writeDumpToFile(final ContactManagerDump dump) {
+  private boolean writeDumpToFile(final ContactManagerDump dump) {
     createFileIfNotExists();
     handleExistingFilePermissions();
 
-    try (FileOutputStream fileStream = new FileOutputStream(this.fileName);
-         ObjectOutputStream out = new ObjectOutputStream(fileStream)) {
-      out.writeObject(dump);
+    try {
+      if (this.lockFile != null) {
+        SnapshotLock.lockSnapshot(this.lockFile, false);
+      }
+      try (FileOutputStream fileStream = new FileOutputStream(this.fileName);
+           ObjectOutputStream out = new ObjectOutputStream(fileStream)) {
+        out.writeObject(dump);
+        if (this.journal != null) {
+          //the journal is emptied once the snapshot is written, so it must reach the disc first
+          out.flush();
+          fileStream.getFD().sync();
+        }
+      } finally {
+        if (this.lockFile != null) {
+          SnapshotLock.unlockSnapshot(this.lockFile, false);
+        }
+      }
+      this.snapshotVersion = snapshotVersion();
+      return true;
     } catch (IOException e) {
       e.printStackTrace();
+      return false;
     }
   }
 
@@ -458,6 +1528,7 @@ public class ContactManagerImpl implements ContactManager {
    * attempt to read stored data in from the file.
    */
   private void readDumpFromFile() {
+    this.snapshotVersion = snapshotVersion();
     if (!file.exists()) {
       System.out.println("Restore file does not exist.");
       return;
@@ -465,24 +1536,160 @@ public class ContactManagerImpl implements ContactManager {
 
     handleExistingFilePermissions();
 
-    try (FileInputStream fileStream = new FileInputStream(this.fileName);
-      ObjectInputStream in = new ObjectInputStream(fileStream)) {
-      final ContactManagerDump restoredData = (ContactManagerDump)in.readObject();
-      restoreValuesFromDump(restoredData);
+    try {
+      restoreValuesFromDump(readDump(this.file.toPath()));
     } catch (IOException | ClassNotFoundException e) {
       System.out.println("Unable to restore from file. Skipping restore.");
     }
   }
 
+  /**
+   * Read a snapshot, holding the shared snapshot lock while it is read if any manager has
+   * locked it, so a snapshot being written is not read part way through.
+   * @param snapshot the snapshot file
+   * @return the dump it holds
+   * @throws IOException if it cannot be read
+   * @throws ClassNotFoundException if it holds an unknown class
+   */
+  static ContactManagerDump readDump(final Path snapshot)
+      throws IOException, ClassNotFoundException {
+    final Path lockFile = SnapshotLock.lockFileFor(snapshot);
+    final boolean locked = Files.exists(lockFile);
+    if (locked) {
+      SnapshotLock.lockSnapshot(lockFile, true);
+    }
+    try (FileInputStream fileStream = new FileInputStream(snapshot.toFile());
+      ObjectInputStream in = new ObjectInputStream(fileStream)) {
+      return (ContactManagerDump) in.readObject();
+    } finally {
+      if (locked) {
+        SnapshotLock.unlockSnapshot(lockFile, true);
+      }
+    }
+  }
+
   /**
    * restore data from the restored dump file to the instance variables.
    * @param restored the restored dump instance
    */
-  private void restoreValuesFromDump(final ContactManagerDump restored) {
-    this.lastContactId = restored.getLastContactId();
-    this.lastMeetingId = restored.getLastMeetingId();
-    this.contacts = restored.getContacts();
-    this.meetings = restored.getMeetings();
+  private void restoreValuesFromDump(final ContactManagerDump restored) throws IOException {
+    //a lease only reaches the disk ahead of its ids through a journal; without one, the last
+    //ids allocated are stored with every id written, and resuming from the lease skips ids
+    final boolean leaseStored = restored.getJournalFile() != null;
+    this.contactIds = newIdAllocator(leaseStored
+        ? Math.max(restored.getLastContactId(), restored.getContactIdLease())
+        : restored.getLastContactId(), false);
+    this.meetingIds = newIdAllocator(leaseStored
+        ? Math.max(restored.getLastMeetingId(), restored.getMeetingIdLease())
+        : restored.getLastMeetingId(), true);
+    this.contacts = new ConcurrentHashMap<>(restored.getContacts());
+    restored.getMeetings().values().forEach(this.meetings::put);
+    this.lastChangeSequence = restored.getLastChangeSequence();
+    if (restored.getArchiveDirectory() != null) {
+      this.archive = new MeetingArchive(Paths.get(restored.getArchiveDirectory()),
+                                        restored.getArchiveCacheCapacity());
+      this.archiveHorizon = Duration.ofMillis(restored.getArchiveHorizonMillis());
+    }
+    if (restored.getJournalFile() != null) {
+      this.journal = new MutationJournal(Paths.get(restored.getJournalFile()),
+                                         Duration.ofNanos(restored.getJournalMaxDelayNanos()),
+                                         restored.getJournalMaxBatchRecords());
+      this.attendeeSetPool = new AttendeeSetPool(this.contacts);
+      this.meetings.bind(this.attendeeSetPool);
+      replayJournal(this.journal);
+    }
+    rebuildIndexes();
+  }
+
+  /**
+   * Apply the records in a journal to the contacts and meetings, advancing the id allocators and
+   * the change sequence past them. The indexes are not updated and must be rebuilt afterwards.
+   * @param target the journal to replay
+   * @return the number of records applied
+   * @throws IOException if the journal cannot be read
+   */
+  private int replayJournal(final MutationJournal target) throws IOException {
+    return target.replay(this.attendeeSetPool, new MutationJournal.RecordHandler() {
+      @Override
+      public void contact(final int id, final String name, final String notes) {
+        contacts.put(id, new ContactImpl(id, name, notes, strings));
+        contactIds.advancePast(id);
+        lastChangeSequence++;
+      }
+
+      @Override
+      public void meeting(final Meeting meeting) {
+        meetings.put(meeting);
+        meetingIds.advancePast(meeting.getId());
+        lastChangeSequence++;
+      }
+
+      @Override
+      public void contactIdsLeased(final int limit) {
+        contactIds.advancePast(limit);
+      }
+
+      @Override
+      public void meetingIdsLeased(final int limit) {
+        meetingIds.advancePast(limit);
+      }
+    });
+  }
+
+  /**
+   * Rebuild every index held alongside the contacts and meetings maps, and attach this manager
+   * as the observer of its contacts. Archived meetings are read back once to index them.
+   * @throws IOException if the archive cannot be read
+   */
+  private void rebuildIndexes() throws IOException {
+    this.notesIndex = new NotesIndex();
+    this.contactNameIndex = new ContactNameIndex();
+    this.coAttendanceIndex = new CoAttendanceIndex();
+    this.attendeeSetPool = new AttendeeSetPool(this.contacts);
+    this.meetings.bind(this.attendeeSetPool);
+    this.contacts.values().forEach(this::indexContact);
+    final long nowMillis = System.currentTimeMillis();
+    this.meetingWheel = new TimingWheel(nowMillis);
+    this.meetings.forEach(meeting -> {
+      if (meeting instanceof MeetingImpl) {
+        ((MeetingImpl) meeting).internContacts(this.attendeeSetPool);
+      }
+      this.meetingIds.advancePast(meeting.getId());
+      indexMeeting(meeting, nowMillis);
+    });
+    if (this.archive != null) {
+      loadArchive(nowMillis);
+    }
+  }
+
+  /**
+   * Read the archive, indexing the archived meetings that are not also held in memory, where
+   * the copy in memory is the newer one.
+   * @param nowMillis the current time in milliseconds
+   * @throws IOException if the archive cannot be read
+   */
+  private void loadArchive(final long nowMillis) throws IOException {
+    this.archive.load(this.attendeeSetPool, meeting -> {
+      if (this.meetings.contains(meeting.getId())) {
+        this.archive.remove(meeting.getId());
+      } else {
+        this.meetingIds.advancePast(meeting.getId());
+        indexMeeting(meeting, nowMillis);
+      }
+    });
+  }
+
+  /**
+   * Attach this manager as the observer of a contact and index the contact.
+   * @param contact the contact to index
+   */
+  private void indexContact(final Contact contact) {
+    if (contact instanceof ContactImpl) {
+      ((ContactImpl) contact).setObserver(this.contactObserver);
+      ((ContactImpl) contact).setStore(this.strings);
+    }
+    this.notesIndex.index(NotesSearchHit.Source.CONTACT, contact.getId(), contact.getNotes());
+    this.contactNameIndex.add(contact.getId(), contact.getName());
   }
 }
 
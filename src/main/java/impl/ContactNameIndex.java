@@ -0,0 +1,264 @@
+package impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * ContactNameIndex finds contacts by the start of their name, tolerating typing mistakes.
+ *
+ * <p>Every name is indexed under a key for each of its words, running from the start of that
+ * word to the end of the name, so "John Smith" can be found by typing "jo" or "smi". Prefix
+ * matches come from a sorted map and cost a lookup plus the number of results. When they do
+ * not fill the requested number of results, keys within a small edit distance of the query are
+ * added: candidates are drawn from trigram posting lists, using the q-gram lemma to read only
+ * the rarest lists that every match must appear in, and then checked with a bounded
+ * Levenshtein distance against the start of the key.
+ *
+ * <p>Only the trigrams of the first {@value #GRAM_PREFIX} characters of a query are looked up,
+ * and a key is indexed only under those trigrams a match of them could share, which lie within
+ * its first {@value #GRAM_PREFIX} characters plus the largest number of typos. A long name so
+ * costs as many posting list entries as a short one, rather than one per character for each
+ * of its words, and a candidate drawn from the shortened query is still checked against the
+ * whole query and key.
+ *
+ * <p>The typos tolerated grow with the query: none below four characters, one below eight,
+ * and two from then on, since shorter queries would match almost every name.
+ *
+ * <p>The index is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class ContactNameIndex {
+
+  private static final int GRAM = 3;
+  private static final char PAD = '\u0000';
+  private static final int ONE_TYPO_LENGTH = 4;
+  private static final int TWO_TYPO_LENGTH = 8;
+  private static final int MAX_TYPOS = 2;
+  private static final int GRAM_PREFIX = 16;
+  private static final int INITIAL_IDS = 2;
+
+  private final TreeMap<String, Integer> keyIds;
+  private final List<String> keys;
+  private final List<int[]> keyContacts;
+  private final Map<String, int[]> trigrams;
+
+  /**
+   * Constructor for an empty index.
+   */
+  public ContactNameIndex() {
+    this.keyIds = new TreeMap<>();
+    this.keys = new ArrayList<>();
+    this.keyContacts = new ArrayList<>();
+    this.trigrams = new HashMap<>();
+  }
+
+  /**
+   * Index a contact's name.
+   * @param id the contact id
+   * @param name the contact name
+   */
+  public void add(final int id, final String name) {
+    Validation.validateObjectNotNull(name, "Name");
+    final String normalized = normalize(name);
+    for (int start = 0; start < normalized.length(); start++) {
+      if (normalized.charAt(start) != ' ' && (start == 0 || normalized.charAt(start - 1) == ' ')) {
+        addKey(normalized.substring(start), id);
+      }
+    }
+  }
+
+  /**
+   * Search for contacts whose name, or a word within it, starts with the query or with a
+   * close misspelling of it.
+   * @param query the text typed so far
+   * @param limit the largest number of contact ids to return
+   * @return contact ids, exact and prefix matches first, then by number of typos
+   */
+  public int[] search(final String query, final int limit) {
+    Validation.validateObjectNotNull(query, "Query");
+    Validation.validateIdPositive(limit);
+    final String normalized = normalize(query);
+    final Set<Integer> found = new LinkedHashSet<>();
+    final Integer exact = this.keyIds.get(normalized);
+    if (exact != null) {
+      addContacts(found, exact, limit);
+    }
+    for (final Integer keyId
+        : this.keyIds.subMap(normalized, normalized + Character.MAX_VALUE).values()) {
+      if (found.size() >= limit) {
+        break;
+      }
+      addContacts(found, keyId, limit);
+    }
+    final int typos = allowedTypos(normalized);
+    if (found.size() < limit && typos > 0) {
+      addFuzzyMatches(found, normalized, typos, limit);
+    }
+    return found.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Lower case the text and collapse runs of whitespace to single spaces.
+   * @param text the text to normalize
+   * @return the normalized text
+   */
+  private static String normalize(final String text) {
+    return text.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+  }
+
+  /**
+   * The number of typos tolerated for a query.
+   * @param query the normalized query
+   * @return the largest edit distance accepted
+   */
+  private static int allowedTypos(final String query) {
+    if (query.length() >= TWO_TYPO_LENGTH) {
+      return MAX_TYPOS;
+    }
+    return query.length() >= ONE_TYPO_LENGTH ? 1 : 0;
+  }
+
+  /**
+   * Record a contact under a key, indexing the trigrams at the start of the key the first
+   * time it is seen.
+   * @param key the key
+   * @param id the contact id
+   */
+  private void addKey(final String key, final int id) {
+    Integer keyId = this.keyIds.get(key);
+    if (keyId == null) {
+      keyId = this.keys.size();
+      this.keyIds.put(key, keyId);
+      this.keys.add(key);
+      this.keyContacts.add(new int[] {0});
+      final String start = key.substring(0, Math.min(key.length(), GRAM_PREFIX + MAX_TYPOS));
+      for (final String gram : new LinkedHashSet<>(trigramsOf(start))) {
+        this.trigrams.put(gram, append(this.trigrams.get(gram), keyId));
+      }
+    }
+    this.keyContacts.set(keyId, append(this.keyContacts.get(keyId), id));
+  }
+
+  /**
+   * Append a value to a growable int list whose first element holds its size.
+   * @param list the list, or null to start a new one
+   * @param value the value to append
+   * @return the list, reallocated if it was full
+   */
+  private static int[] append(final int[] list, final int value) {
+    int[] result = list == null ? new int[INITIAL_IDS + 1] : list;
+    final int size = result[0];
+    if (size + 1 == result.length) {
+      result = Arrays.copyOf(result, result.length * 2);
+    }
+    result[size + 1] = value;
+    result[0] = size + 1;
+    return result;
+  }
+
+  /**
+   * Add the contacts held under a key until the limit is reached.
+   * @param found the contacts found so far
+   * @param keyId the key
+   * @param limit the largest number of contacts
+   */
+  private void addContacts(final Set<Integer> found, final int keyId, final int limit) {
+    final int[] ids = this.keyContacts.get(keyId);
+    for (int index = 1; index <= ids[0] && found.size() < limit; index++) {
+      found.add(ids[index]);
+    }
+  }
+
+  /**
+   * The trigrams at the start of text, padded at the front so the first characters count.
+   * @param text the text
+   * @return one trigram per character of the text
+   */
+  private static List<String> trigramsOf(final String text) {
+    final String padded = "" + PAD + PAD + text;
+    final List<String> grams = new ArrayList<>(text.length());
+    for (int index = 0; index + GRAM <= padded.length(); index++) {
+      grams.add(padded.substring(index, index + GRAM));
+    }
+    return grams;
+  }
+
+  /**
+   * Add keys whose start is within the typo allowance of the query.
+   * @param found the contacts found so far
+   * @param query the normalized query
+   * @param typos the largest edit distance accepted
+   * @param limit the largest number of contacts
+   */
+  private void addFuzzyMatches(final Set<Integer> found, final String query, final int typos,
+                               final int limit) {
+    final List<int[]> lists = new ArrayList<>();
+    final String start = query.substring(0, Math.min(query.length(), GRAM_PREFIX));
+    for (final String gram : new LinkedHashSet<>(trigramsOf(start))) {
+      lists.add(this.trigrams.getOrDefault(gram, new int[] {0}));
+    }
+    lists.sort(Comparator.comparingInt(list -> list[0]));
+    //a match keeps all but GRAM * typos of the trigrams of the query's start, so it must be in
+    //one of these; the trigrams it keeps lie within the start of the key that was indexed
+    final int needed = Math.min(lists.size(), GRAM * typos + 1);
+    final Map<Integer, Integer> distances = new HashMap<>();
+    for (final int[] list : lists.subList(0, needed)) {
+      for (int index = 1; index <= list[0]; index++) {
+        final int keyId = list[index];
+        if (!distances.containsKey(keyId)) {
+          distances.put(keyId, prefixDistance(query, this.keys.get(keyId), typos));
+        }
+      }
+    }
+    distances.entrySet().stream()
+        .filter(entry -> entry.getValue() <= typos)
+        .sorted(Map.Entry.<Integer, Integer>comparingByValue()
+            .thenComparing(entry -> this.keys.get(entry.getKey())))
+        .forEach(entry -> addContacts(found, entry.getKey(), limit));
+  }
+
+  /**
+   * The smallest Levenshtein distance between the query and any start of the key, giving up
+   * once it must exceed the bound.
+   * @param query the query
+   * @param key the key
+   * @param bound the largest distance of interest
+   * @return the distance, or bound + 1 if it is larger than the bound
+   */
+  static int prefixDistance(final String query, final String key, final int bound) {
+    final int columns = Math.min(key.length(), query.length() + bound);
+    int[] previous = new int[columns + 1];
+    int[] current = new int[columns + 1];
+    for (int column = 0; column <= columns; column++) {
+      previous[column] = column;
+    }
+    for (int row = 1; row <= query.length(); row++) {
+      current[0] = row;
+      int rowMinimum = row;
+      for (int column = 1; column <= columns; column++) {
+        final int substitution = previous[column - 1]
+            + (query.charAt(row - 1) == key.charAt(column - 1) ? 0 : 1);
+        current[column] = Math.min(substitution,
+            Math.min(previous[column], current[column - 1]) + 1);
+        rowMinimum = Math.min(rowMinimum, current[column]);
+      }
+      if (rowMinimum > bound) {
+        return bound + 1;
+      }
+      final int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    final int best = Arrays.stream(previous).min().getAsInt();
+    return Math.min(best, bound + 1);
+  }
+}
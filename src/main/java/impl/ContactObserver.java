@@ -0,0 +1,24 @@
+package impl;
+
+/**
+ * ContactObserver lets the contact manager that owns a contact keep its change feed and indexes
+ * up to date when the contact is changed directly rather than through the manager.
+ *
+ * @author Alexander Worton.
+ */
+interface ContactObserver {
+
+  /**
+   * Called before the notes of a contact are replaced, to refuse the change.
+   * @param contact the contact whose notes are to change
+   * @throws IllegalStateException if the owner cannot be changed, in which case the notes are
+   *     left as they are
+   */
+  void validateNotesChange(ContactImpl contact);
+
+  /**
+   * Called after the notes of a contact have been replaced.
+   * @param contact the contact whose notes changed
+   */
+  void contactNotesChanged(ContactImpl contact);
+}
@@ -0,0 +1,731 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import spec.Contact;
+import spec.ContactManager;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ContactServer exposes a {@link ContactManager} to {@link ContactClient}s over
+ * {@link ServerProtocol}, so that many processes can share one manager and one snapshot.
+ *
+ * <p>A single selector thread accepts connections, reads request frames and writes response
+ * frames for every connection without blocking. Each request is carried out on a worker
+ * thread, and its response is written as soon as it is ready, so a client may pipeline any
+ * number of requests on one connection and have them answered out of order. A connection is
+ * not read from while {@value #MAX_IN_FLIGHT} of its requests are unanswered.
+ *
+ * <p>Frames are read into and written from direct buffers that are reused: each connection
+ * reads into its own buffer, and responses are written into buffers taken from a pool shared
+ * by the workers, so the I/O path does not allocate once the pool has warmed up. A response
+ * too large for a pooled buffer is written into one of its own.
+ *
+ * <p>Connections may subscribe to invalidations, which are pushed whenever a meeting, a contact
+ * or a contact's future meeting list changes, so that clients can keep a {@link NearCache}.
+ * Changes made through the server are pushed before the response to the request that made
+ * them. When the manager is a {@link ContactManagerImpl} its change feed is followed as well,
+ * so that changes made to it directly, such as notes added to a contact, are pushed too.
+ *
+ * @author Alexander Worton.
+ */
+public final class ContactServer implements Closeable {
+
+  /** The most unanswered requests a connection may have before it is no longer read. */
+  public static final int MAX_IN_FLIGHT = 1_024;
+
+  private static final int BUFFER_BYTES = 64 * 1_024;
+
+  private final ContactManager manager;
+  private final ExecutorService workers;
+  private final boolean ownsWorkers;
+  private final Selector selector;
+  private final ServerSocketChannel server;
+  private final Queue<Connection> ready;
+  private final Queue<ByteBuffer> pool;
+  private final Thread selectorThread;
+  private final AtomicInteger requestCount;
+  private final Set<Connection> subscribers;
+  private final ChangeFeed.Subscription changes;
+  private volatile boolean running;
+
+  /**
+   * Carries out a request against the manager.
+   */
+  private interface Call {
+    /**
+     * Carry out the request.
+     * @return writes the result into a response
+     */
+    Encoder call();
+  }
+
+  /**
+   * Writes the result of a request into a response.
+   */
+  private interface Encoder {
+    void encode(ByteBuffer out);
+  }
+
+  /**
+   * The state of one client connection. Its input is only touched by the selector thread.
+   */
+  private static final class Connection {
+    private final SocketChannel channel;
+    private final Queue<ByteBuffer> out;
+    private final AtomicBoolean scheduled;
+    private final AtomicInteger inFlight;
+    private ByteBuffer in;
+    private SelectionKey key;
+    private ByteBuffer writing;
+
+    /**
+     * Constructor for a connection.
+     * @param suppliedChannel the channel of the connection
+     */
+    private Connection(final SocketChannel suppliedChannel) {
+      this.channel = suppliedChannel;
+      this.in = ByteBuffer.allocateDirect(BUFFER_BYTES);
+      this.out = new ConcurrentLinkedQueue<>();
+      this.scheduled = new AtomicBoolean();
+      this.inFlight = new AtomicInteger();
+    }
+  }
+
+  /**
+   * Constructor for a server with one worker thread per available processor.
+   * @param suppliedManager the manager requests are carried out against
+   * @param address the address to listen on, with port 0 for any free port
+   * @throws IOException if the address cannot be bound
+   */
+  public ContactServer(final ContactManager suppliedManager, final InetSocketAddress address)
+      throws IOException {
+    this(suppliedManager, address, Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), runnable -> {
+          final Thread worker = new Thread(runnable, "contact-server-worker");
+          worker.setDaemon(true);
+          return worker;
+        }), true);
+  }
+
+  /**
+   * Constructor for a server carrying out requests on the supplied workers, which it does not
+   * shut down when closed.
+   * @param suppliedManager the manager requests are carried out against
+   * @param address the address to listen on, with port 0 for any free port
+   * @param suppliedWorkers the threads requests are carried out on
+   * @throws IOException if the address cannot be bound
+   */
+  public ContactServer(final ContactManager suppliedManager, final InetSocketAddress address,
+                       final ExecutorService suppliedWorkers) throws IOException {
+    this(suppliedManager, address, suppliedWorkers, false);
+  }
+
+  /**
+   * Constructor for a server, which starts its selector thread.
+   * @param suppliedManager the manager requests are carried out against
+   * @param address the address to listen on
+   * @param suppliedWorkers the threads requests are carried out on
+   * @param owned true if the workers are shut down when the server is closed
+   * @throws IOException if the address cannot be bound
+   */
+  private ContactServer(final ContactManager suppliedManager, final InetSocketAddress address,
+                        final ExecutorService suppliedWorkers, final boolean owned)
+      throws IOException {
+    Validation.validateObjectNotNull(suppliedManager, "Manager");
+    Validation.validateObjectNotNull(address, "Address");
+    Validation.validateObjectNotNull(suppliedWorkers, "Workers");
+    this.manager = suppliedManager;
+    this.workers = suppliedWorkers;
+    this.ownsWorkers = owned;
+    this.ready = new ConcurrentLinkedQueue<>();
+    this.pool = new ConcurrentLinkedQueue<>();
+    this.requestCount = new AtomicInteger();
+    this.subscribers = ConcurrentHashMap.newKeySet();
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(address);
+    this.server.configureBlocking(false);
+    this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+    if (suppliedManager instanceof ContactManagerImpl) {
+      final ContactManagerImpl followed = (ContactManagerImpl) suppliedManager;
+      this.changes = followed.subscribe(followed.getLastChangeSequence() + 1, new ChangeListener() {
+        @Override
+        public void onChanges(final List<ChangeEvent> batch) {
+          invalidate(batch);
+        }
+
+        @Override
+        public void onOverflow(final long firstMissed, final long resumedAt) {
+          invalidate(null, null, null);
+        }
+      });
+    } else {
+      this.changes = null;
+    }
+    this.running = true;
+    this.selectorThread = new Thread(this::select, "contact-server-selector");
+    this.selectorThread.setDaemon(true);
+    this.selectorThread.start();
+  }
+
+  /**
+   * Run a server for the manager stored in the working directory until the process is
+   * stopped, flushing the manager as it stops.
+   * @param args the port to listen on, and optionally the host
+   * @throws IOException if the address cannot be bound
+   * @throws InterruptedException if interrupted while serving
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println("Usage: ContactServer <port> [host]");
+      return;
+    }
+    final String host = args.length > 1 ? args[1] : "0.0.0.0";
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final ContactServer server = new ContactServer(manager,
+        new InetSocketAddress(host, Integer.parseInt(args[0])));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.close();
+      manager.flush();
+    }));
+    System.out.println("Serving " + server.getLocalAddress());
+    System.out.flush();
+    server.selectorThread.join();
+  }
+
+  /**
+   * Getter for the address the server is listening on.
+   * @return the address
+   * @throws IOException if the server has been closed
+   */
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) this.server.getLocalAddress();
+  }
+
+  /**
+   * Getter for the number of requests answered.
+   * @return the number of requests
+   */
+  public int getRequestCount() {
+    return this.requestCount.get();
+  }
+
+  /**
+   * Stop accepting and serving connections, and shut down the workers if the server created
+   * them. Requests already being carried out are completed but not answered.
+   */
+  @Override
+  public void close() {
+    this.running = false;
+    this.selector.wakeup();
+    try {
+      this.selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (this.changes != null) {
+      this.changes.cancel();
+    }
+    if (this.ownsWorkers) {
+      this.workers.shutdown();
+    }
+  }
+
+  /**
+   * Selector loop run on the server's thread.
+   */
+  private void select() {
+    try {
+      while (this.running) {
+        this.selector.select();
+        Connection connection;
+        while ((connection = this.ready.poll()) != null) {
+          write(connection);
+        }
+        final Set<SelectionKey> selected = this.selector.selectedKeys();
+        final Iterator<SelectionKey> keys = selected.iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            final Connection selectedConnection = (Connection) key.attachment();
+            if (key.isWritable()) {
+              write(selectedConnection);
+            }
+            if (key.isValid() && key.isReadable()) {
+              read(selectedConnection);
+            }
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      e.printStackTrace();
+    } finally {
+      for (final SelectionKey key : this.selector.keys()) {
+        closeQuietly(key);
+      }
+      try {
+        this.selector.close();
+        this.server.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Accept a pending connection and start reading from it.
+   */
+  private void accept() {
+    try {
+      final SocketChannel channel = this.server.accept();
+      if (channel == null) {
+        return;
+      }
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final Connection connection = new Connection(channel);
+      connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Read what has arrived on a connection and dispatch every whole request frame in it.
+   * @param connection the connection
+   */
+  private void read(final Connection connection) {
+    final ByteBuffer in = connection.in;
+    try {
+      if (connection.channel.read(in) < 0) {
+        closeQuietly(connection.key);
+        return;
+      }
+    } catch (IOException e) {
+      closeQuietly(connection.key);
+      return;
+    }
+    in.flip();
+    while (in.remaining() >= Integer.BYTES) {
+      final int length = in.getInt(in.position());
+      if (length < Integer.BYTES + 1 || length > ServerProtocol.MAX_FRAME_BYTES) {
+        closeQuietly(connection.key);
+        return;
+      }
+      if (in.remaining() < Integer.BYTES + length) {
+        break;
+      }
+      final int end = in.position() + Integer.BYTES + length;
+      in.position(in.position() + Integer.BYTES);
+      dispatch(connection, in);
+      in.position(end);
+    }
+    in.compact();
+    if (!in.hasRemaining()) {
+      //a frame larger than the buffer: move to a larger buffer of this connection's own
+      final ByteBuffer larger = ByteBuffer.allocateDirect(
+          Math.min(in.capacity() * 2, ServerProtocol.MAX_FRAME_BYTES + Integer.BYTES));
+      in.flip();
+      larger.put(in);
+      connection.in = larger;
+    }
+    if (connection.inFlight.get() >= MAX_IN_FLIGHT) {
+      connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * Decode one request and hand it to a worker.
+   * @param connection the connection it arrived on
+   * @param in the buffer positioned at the request id
+   */
+  private void dispatch(final Connection connection, final ByteBuffer in) {
+    final int requestId = in.getInt();
+    final byte operation = in.get();
+    Call call;
+    try {
+      call = decode(connection, operation, in);
+    } catch (RuntimeException e) {
+      call = () -> {
+        throw e;
+      };
+    }
+    final Call decoded = call;
+    connection.inFlight.incrementAndGet();
+    try {
+      this.workers.execute(() -> respond(connection, requestId, decoded));
+    } catch (RejectedExecutionException e) {
+      respond(connection, requestId, () -> {
+        throw new IllegalStateException("Server is shutting down");
+      });
+    }
+  }
+
+  /**
+   * Decode the arguments of a request into the call that carries it out.
+   * @param connection the connection it arrived on
+   * @param operation the operation code
+   * @param in the buffer positioned at the arguments
+   * @return the call
+   */
+  private Call decode(final Connection connection, final byte operation, final ByteBuffer in) {
+    switch (operation) {
+      case ServerProtocol.ADD_FUTURE_MEETING: {
+        final int[] ids = ServerProtocol.getIds(in);
+        final Calendar date = ServerProtocol.getDate(in);
+        return () -> {
+          final int id = this.manager.addFutureMeeting(resolve(ids), date);
+          invalidate(new int[0], new int[0], ids);
+          return out -> out.putInt(id);
+        };
+      }
+      case ServerProtocol.GET_PAST_MEETING: {
+        final int id = in.getInt();
+        return () -> {
+          final Meeting meeting = this.manager.getPastMeeting(id);
+          return out -> ServerProtocol.putMeeting(out, meeting);
+        };
+      }
+      case ServerProtocol.GET_FUTURE_MEETING: {
+        final int id = in.getInt();
+        return () -> {
+          final Meeting meeting = this.manager.getFutureMeeting(id);
+          return out -> ServerProtocol.putMeeting(out, meeting);
+        };
+      }
+      case ServerProtocol.GET_MEETING: {
+        final int id = in.getInt();
+        return () -> {
+          final Meeting meeting = this.manager.getMeeting(id);
+          return out -> ServerProtocol.putMeeting(out, meeting);
+        };
+      }
+      case ServerProtocol.GET_FUTURE_MEETING_LIST: {
+        final int[] ids = ServerProtocol.getIds(in);
+        return () -> {
+          final List<Meeting> meetings =
+              this.manager.getFutureMeetingList(resolveOne(ids));
+          return out -> ServerProtocol.putMeetings(out, meetings);
+        };
+      }
+      case ServerProtocol.GET_MEETING_LIST_ON: {
+        final Calendar date = ServerProtocol.getDate(in);
+        return () -> {
+          final List<Meeting> meetings = this.manager.getMeetingListOn(date);
+          return out -> ServerProtocol.putMeetings(out, meetings);
+        };
+      }
+      case ServerProtocol.GET_PAST_MEETING_LIST_FOR: {
+        final int[] ids = ServerProtocol.getIds(in);
+        return () -> {
+          final List<PastMeeting> meetings =
+              this.manager.getPastMeetingListFor(resolveOne(ids));
+          return out -> ServerProtocol.putMeetings(out, meetings);
+        };
+      }
+      case ServerProtocol.ADD_NEW_PAST_MEETING: {
+        final int[] ids = ServerProtocol.getIds(in);
+        final Calendar date = ServerProtocol.getDate(in);
+        final String text = ServerProtocol.getText(in);
+        return () -> {
+          final int id = this.manager.addNewPastMeeting(resolve(ids), date, text);
+          return out -> out.putInt(id);
+        };
+      }
+      case ServerProtocol.ADD_MEETING_NOTES: {
+        final int id = in.getInt();
+        final String text = ServerProtocol.getText(in);
+        return () -> {
+          final Meeting meeting = this.manager.addMeetingNotes(id, text);
+          invalidate(new int[] {id}, new int[0], idsOf(meeting.getContacts()));
+          return out -> ServerProtocol.putMeeting(out, meeting);
+        };
+      }
+      case ServerProtocol.ADD_NEW_CONTACT: {
+        final String name = ServerProtocol.getText(in);
+        final String notes = ServerProtocol.getText(in);
+        return () -> {
+          final int id = this.manager.addNewContact(name, notes);
+          return out -> out.putInt(id);
+        };
+      }
+      case ServerProtocol.GET_CONTACTS_BY_NAME: {
+        final String name = ServerProtocol.getText(in);
+        return () -> {
+          final Set<Contact> contacts = this.manager.getContacts(name);
+          return out -> ServerProtocol.putContacts(out, contacts);
+        };
+      }
+      case ServerProtocol.GET_CONTACTS_BY_ID: {
+        final int[] ids = ServerProtocol.getIds(in);
+        return () -> {
+          final Set<Contact> contacts = this.manager.getContacts(ids);
+          return out -> ServerProtocol.putContacts(out, contacts);
+        };
+      }
+      case ServerProtocol.FLUSH:
+        return () -> {
+          this.manager.flush();
+          return out -> { };
+        };
+      case ServerProtocol.SUBSCRIBE:
+        return () -> {
+          this.subscribers.add(connection);
+          return out -> { };
+        };
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  /**
+   * Find the manager's contacts with the ids a client sent.
+   * @param ids the ids, or null
+   * @return the contacts, or null if the client sent null
+   */
+  private Set<Contact> resolve(final int[] ids) {
+    if (ids == null) {
+      return null;
+    }
+    if (ids.length == 0) {
+      return new HashSet<>();
+    }
+    return this.manager.getContacts(ids);
+  }
+
+  /**
+   * Find the manager's contact with the single id a client sent.
+   * @param ids the id, or null
+   * @return the contact, or null if the client sent null
+   */
+  private Contact resolveOne(final int[] ids) {
+    final Set<Contact> contacts = resolve(ids);
+    return contacts == null ? null : contacts.iterator().next();
+  }
+
+  /**
+   * Collect the ids of contacts.
+   * @param contacts the contacts
+   * @return their ids
+   */
+  private static int[] idsOf(final Set<Contact> contacts) {
+    return contacts.stream().mapToInt(Contact::getId).toArray();
+  }
+
+  /**
+   * Push the invalidations for a batch of changes to the manager's change feed.
+   * @param batch the changes
+   */
+  private void invalidate(final List<ChangeEvent> batch) {
+    final Set<Integer> meetingIds = new HashSet<>();
+    final Set<Integer> contactIds = new HashSet<>();
+    final Set<Integer> listIds = new HashSet<>();
+    for (final ChangeEvent event : batch) {
+      switch (event.getType()) {
+        case CONTACT_NOTES_CHANGED:
+          contactIds.add(event.getId());
+          break;
+        case MEETING_ADDED:
+        case MEETING_NOTES_ADDED:
+          meetingIds.add(event.getId());
+          event.getMeeting().getContacts().forEach(contact -> listIds.add(contact.getId()));
+          break;
+        default:
+          break;
+      }
+    }
+    if (meetingIds.isEmpty() && contactIds.isEmpty() && listIds.isEmpty()) {
+      return;
+    }
+    invalidate(meetingIds.stream().mapToInt(Integer::intValue).toArray(),
+               contactIds.stream().mapToInt(Integer::intValue).toArray(),
+               listIds.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  /**
+   * Push an invalidation to every subscribed connection.
+   * @param meetingIds the meetings that changed, or null if everything may have changed
+   * @param contactIds the contacts that changed
+   * @param listIds the contacts whose future meeting lists changed
+   */
+  private void invalidate(final int[] meetingIds, final int[] contactIds, final int[] listIds) {
+    for (final Connection subscriber : this.subscribers) {
+      ByteBuffer out = acquire();
+      while (true) {
+        try {
+          out.clear();
+          out.position(Integer.BYTES);
+          out.putInt(ServerProtocol.PUSH_ID);
+          ServerProtocol.putInvalidation(out, meetingIds, contactIds, listIds);
+          break;
+        } catch (BufferOverflowException e) {
+          release(out);
+          out = ByteBuffer.allocateDirect(out.capacity() * 2);
+        }
+      }
+      enqueue(subscriber, out);
+    }
+  }
+
+  /**
+   * Carry out a request on a worker and queue its response on the connection.
+   * @param connection the connection the request arrived on
+   * @param requestId the id the client gave the request
+   * @param call carries out the request
+   */
+  private void respond(final Connection connection, final int requestId, final Call call) {
+    Encoder encoder = null;
+    RuntimeException failure = null;
+    boolean called = false;
+    ByteBuffer out = acquire();
+    while (true) {
+      try {
+        if (!called) {
+          called = true;
+          encoder = call.call();
+        }
+        out.clear();
+        out.position(Integer.BYTES);
+        out.putInt(requestId);
+        if (failure == null) {
+          out.put(ServerProtocol.OK);
+          encoder.encode(out);
+        } else {
+          ServerProtocol.putFailure(out, failure);
+        }
+        break;
+      } catch (BufferOverflowException e) {
+        release(out);
+        out = ByteBuffer.allocateDirect(out.capacity() * 2);
+      } catch (RuntimeException e) {
+        //the call or its response failed, so the client is sent the failure instead; should
+        //the failure not encode either, it is sent one that will
+        failure = failure == null ? e
+            : new IllegalStateException("Failure could not be encoded");
+      }
+    }
+    this.requestCount.incrementAndGet();
+    connection.inFlight.decrementAndGet();
+    enqueue(connection, out);
+  }
+
+  /**
+   * Complete a frame and queue it to be written to a connection.
+   * @param connection the connection
+   * @param out the frame, positioned at its end
+   */
+  private void enqueue(final Connection connection, final ByteBuffer out) {
+    out.putInt(0, out.position() - Integer.BYTES);
+    out.flip();
+    connection.out.add(out);
+    if (connection.scheduled.compareAndSet(false, true)) {
+      this.ready.add(connection);
+      this.selector.wakeup();
+    }
+  }
+
+  /**
+   * Write as many queued responses to a connection as it will take, waiting for it to become
+   * writable if it will not take them all, and resume reading if it had too many requests in
+   * flight.
+   * @param connection the connection
+   */
+  private void write(final Connection connection) {
+    connection.scheduled.set(false);
+    final SelectionKey key = connection.key;
+    if (!key.isValid()) {
+      return;
+    }
+    try {
+      while (true) {
+        if (connection.writing == null) {
+          connection.writing = connection.out.poll();
+          if (connection.writing == null) {
+            break;
+          }
+        }
+        connection.channel.write(connection.writing);
+        if (connection.writing.hasRemaining()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        release(connection.writing);
+        connection.writing = null;
+      }
+    } catch (IOException e) {
+      closeQuietly(key);
+      return;
+    }
+    int interest = key.interestOps() & ~SelectionKey.OP_WRITE;
+    if (connection.inFlight.get() < MAX_IN_FLIGHT) {
+      interest |= SelectionKey.OP_READ;
+    }
+    key.interestOps(interest);
+  }
+
+  /**
+   * Take a response buffer from the pool, or allocate one if the pool is empty.
+   * @return the buffer
+   */
+  private ByteBuffer acquire() {
+    final ByteBuffer buffer = this.pool.poll();
+    return buffer == null ? ByteBuffer.allocateDirect(BUFFER_BYTES) : buffer;
+  }
+
+  /**
+   * Return a response buffer to the pool, unless it was allocated for one large response.
+   * @param buffer the buffer
+   */
+  private void release(final ByteBuffer buffer) {
+    if (buffer.capacity() == BUFFER_BYTES) {
+      buffer.clear();
+      this.pool.add(buffer);
+    }
+  }
+
+  /**
+   * Close a connection, ignoring any failure.
+   * @param key the key of the connection
+   */
+  private void closeQuietly(final SelectionKey key) {
+    if (key.attachment() != null) {
+      this.subscribers.remove(key.attachment());
+    }
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      //the connection is being dropped anyway
+    }
+  }
+}
@@ -0,0 +1,369 @@
+package impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * CsvFiles reads and writes the CSV files contacts and meetings are imported from and exported
+ * to, in UTF-8 with a header row.
+ *
+ * <p>A contact is a row of {@value #CONTACTS_HEADER}. A meeting is a row of
+ * {@value #MEETINGS_HEADER}, where the date is an ISO-8601 instant such as
+ * {@code 2016-03-01T09:30:00Z}, the attendees are contact ids separated by semicolons, and
+ * the notes are left empty for a meeting that has none; quoted empty notes are empty notes.
+ * Fields holding a comma, quote or line break are quoted, with quotes doubled, as RFC 4180 has
+ * it; text is always quoted on export.
+ *
+ * <p>A file is read in chunks of whole rows parsed in parallel. One sequential pass finds
+ * where the chunks end, by tracking whether each line break is inside quotes, and then each
+ * chunk is read with a positional read of its own and parsed straight from its bytes.
+ *
+ * @author Alexander Worton.
+ */
+final class CsvFiles {
+
+  static final String CONTACTS_HEADER = "id,name,notes";
+  static final String MEETINGS_HEADER = "id,date,attendees,notes";
+
+  private static final int CHUNK_BYTES = 4 << 20;
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  /**
+   * Turns the fields of a row into what it holds.
+   * @param <T> the type of what it holds
+   */
+  interface RowParser<T> {
+    /**
+     * Parse a row.
+     * @param fields the fields, null for an empty field that was not quoted
+     * @return what the row holds
+     * @throws RuntimeException if the row is not valid
+     */
+    T parse(String[] fields);
+  }
+
+  /**
+   * Constructor is private, as this class only has static methods.
+   */
+  private CsvFiles() {
+  }
+
+  /**
+   * Read every row of a file in parallel.
+   * @param file the file
+   * @param header the header its first row must hold
+   * @param columns the number of fields in each row
+   * @param parser turns each row into what it holds
+   * @param <T> the type of what a row holds
+   * @return what each row holds, in the order of the rows
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the header or a row is not valid, with the position of
+   *     the row
+   */
+  static <T> List<T> read(final Path file, final String header, final int columns,
+                          final RowParser<T> parser) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final List<Long> bounds = findChunks(channel);
+      final String first = bounds.size() < 2 ? ""
+          : new String(readChunk(channel, 0, bounds.get(1)), StandardCharsets.UTF_8).trim();
+      if (!first.equalsIgnoreCase(header)) {
+        throw new IllegalArgumentException("Expected the header " + header + " in " + file);
+      }
+      try {
+        return IntStream.range(1, bounds.size() - 1)
+            .parallel()
+            .mapToObj(chunk -> parseChunk(channel, bounds.get(chunk), bounds.get(chunk + 1),
+                                          columns, parser))
+            .flatMap(List::stream)
+            .collect(Collectors.toList());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  /**
+   * Find where the header row and each chunk of rows end, each at a line break outside quotes.
+   * @param channel the file
+   * @return the position of the file's start, the end of the header, the end of each chunk
+   *     and the file's end
+   * @throws IOException if the file cannot be read
+   */
+  private static List<Long> findChunks(final FileChannel channel) throws IOException {
+    final List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    final long size = channel.size();
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    boolean quoted = false;
+    long position = 0;
+    long chunkStart = -1;
+    while (position < size) {
+      buffer.clear();
+      final int read = channel.read(buffer, position);
+      for (int index = 0; index < read; index++) {
+        final byte value = buffer.get(index);
+        if (value == '"') {
+          quoted = !quoted;
+        } else if (value == '\n' && !quoted) {
+          final long end = position + index + 1;
+          if (chunkStart < 0 || end - chunkStart >= CHUNK_BYTES) {
+            bounds.add(end);
+            chunkStart = end;
+          }
+        }
+      }
+      position += read;
+    }
+    if (bounds.get(bounds.size() - 1) < size) {
+      bounds.add(size);
+    }
+    return bounds;
+  }
+
+  /**
+   * Read part of a file.
+   * @param channel the file
+   * @param start the position of the first byte
+   * @param end the position after the last byte
+   * @return the bytes
+   * @throws IOException if the file cannot be read
+   */
+  private static byte[] readChunk(final FileChannel channel, final long start, final long end)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, start + buffer.position()) < 0) {
+        throw new IOException("File ended before " + end);
+      }
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Read and parse the rows of a chunk.
+   * @param channel the file
+   * @param start the position of the chunk
+   * @param end the position after the chunk
+   * @param columns the number of fields in each row
+   * @param parser turns each row into what it holds
+   * @param <T> the type of what a row holds
+   * @return what each row holds
+   */
+  private static <T> List<T> parseChunk(final FileChannel channel, final long start,
+                                        final long end, final int columns,
+                                        final RowParser<T> parser) {
+    final byte[] bytes;
+    try {
+      bytes = readChunk(channel, start, end);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final List<T> rows = new ArrayList<>();
+    final String[] fields = new String[columns];
+    byte[] scratch = new byte[256];
+    int index = 0;
+    while (index < bytes.length) {
+      final int rowStart = index;
+      int field = 0;
+      boolean more = true;
+      while (more) {
+        String value;
+        if (bytes[index] == '"') {
+          int length = 0;
+          index++;
+          while (true) {
+            if (index >= bytes.length) {
+              throw invalid(start + rowStart, "unterminated quotes");
+            }
+            if (bytes[index] == '"') {
+              if (index + 1 < bytes.length && bytes[index + 1] == '"') {
+                index++;
+              } else {
+                index++;
+                break;
+              }
+            }
+            if (length == scratch.length) {
+              scratch = Arrays.copyOf(scratch, length * 2);
+            }
+            scratch[length++] = bytes[index++];
+          }
+          value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        } else {
+          final int fieldStart = index;
+          while (index < bytes.length && bytes[index] != ',' && bytes[index] != '\n'
+              && bytes[index] != '\r') {
+            index++;
+          }
+          value = index == fieldStart ? null
+              : new String(bytes, fieldStart, index - fieldStart, StandardCharsets.UTF_8);
+        }
+        if (field < columns) {
+          fields[field] = value;
+        }
+        field++;
+        if (index < bytes.length && bytes[index] == ',') {
+          index++;
+          more = index < bytes.length;
+        } else {
+          if (index < bytes.length && bytes[index] == '\r') {
+            index++;
+          }
+          if (index < bytes.length && bytes[index] == '\n') {
+            index++;
+          } else if (index < bytes.length) {
+            throw invalid(start + rowStart, "text after closing quotes");
+          }
+          more = false;
+        }
+      }
+      if (field == 1 && fields[0] == null) {
+        //a blank line
+        continue;
+      }
+      if (field != columns) {
+        throw invalid(start + rowStart, field + " fields where " + columns + " were expected");
+      }
+      try {
+        rows.add(parser.parse(fields.clone()));
+      } catch (RuntimeException e) {
+        throw invalid(start + rowStart, e.getMessage());
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Create the exception for a row that is not valid.
+   * @param position the position of the row in the file
+   * @param reason why it is not valid
+   * @return the exception
+   */
+  private static IllegalArgumentException invalid(final long position, final String reason) {
+    return new IllegalArgumentException("Invalid row at byte " + position + ": " + reason);
+  }
+
+  /**
+   * Parse an id field.
+   * @param field the field
+   * @param name what the id is of, for the error
+   * @return the id
+   * @throws IllegalArgumentException if it is not a positive number
+   */
+  static int parseId(final String field, final String name) {
+    if (field == null) {
+      throw new IllegalArgumentException(name + " id is missing");
+    }
+    final int id = Integer.parseInt(field.trim());
+    Validation.validateIdPositive(id);
+    return id;
+  }
+
+  /**
+   * Parse a date field.
+   * @param field the field, an ISO-8601 instant
+   * @return the date
+   */
+  static Calendar parseDate(final String field) {
+    Validation.validateArgumentNotNull(field, "Date");
+    final Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(Instant.parse(field.trim()).toEpochMilli());
+    return date;
+  }
+
+  /**
+   * Open a file to write CSV to, replacing anything in it.
+   * @param file the file
+   * @param header the header row
+   * @return a buffered writer
+   * @throws IOException if the file cannot be opened
+   */
+  static Writer newWriter(final Path file, final String header) throws IOException {
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    final Writer out = new BufferedWriter(
+        Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_BYTES),
+        BUFFER_BYTES);
+    out.write(header);
+    out.write('\n');
+    return out;
+  }
+
+  /**
+   * Write a contact as a row.
+   * @param out the output
+   * @param contact the contact
+   * @throws IOException if the output cannot be written
+   */
+  static void writeContact(final Writer out, final Contact contact) throws IOException {
+    out.write(Integer.toString(contact.getId()));
+    out.write(',');
+    writeText(out, contact.getName());
+    out.write(',');
+    writeText(out, contact.getNotes());
+    out.write('\n');
+  }
+
+  /**
+   * Write a meeting as a row.
+   * @param out the output
+   * @param meeting the meeting
+   * @throws IOException if the output cannot be written
+   */
+  static void writeMeeting(final Writer out, final Meeting meeting) throws IOException {
+    out.write(Integer.toString(meeting.getId()));
+    out.write(',');
+    out.write(Instant.ofEpochMilli(meeting.getDate().getTimeInMillis()).toString());
+    out.write(',');
+    boolean first = true;
+    for (final Contact contact : meeting.getContacts()) {
+      if (!first) {
+        out.write(';');
+      }
+      out.write(Integer.toString(contact.getId()));
+      first = false;
+    }
+    out.write(',');
+    if (meeting instanceof PastMeeting) {
+      writeText(out, ((PastMeeting) meeting).getNotes());
+    }
+    out.write('\n');
+  }
+
+  /**
+   * Write a text field, quoted, with any quotes in it doubled.
+   * @param out the output
+   * @param text the text
+   * @throws IOException if the output cannot be written
+   */
+  private static void writeText(final Writer out, final String text) throws IOException {
+    out.write('"');
+    int from = 0;
+    for (int quote = text.indexOf('"'); quote >= 0; quote = text.indexOf('"', from)) {
+      out.write(text, from, quote + 1 - from);
+      out.write('"');
+      from = quote + 1;
+    }
+    out.write(text, from, text.length() - from);
+    out.write('"');
+  }
+}
@@ -0,0 +1,117 @@
+package impl;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Calendar;
+
+/**
+ * DateKey holds the zone-aware day and minute of a point in time as plain integers, so that
+ * meetings can be compared by day without rebuilding date objects for every comparison.
+ *
+ * <p>Keys are computed once when a meeting is created or restored, using the zone chosen by the
+ * owning contact manager.
+ *
+ * @author Alexander Worton.
+ */
+public final class DateKey implements Serializable {
+  /**
+   * serialVersionUID holds the version for serialization. Increment when changes
+   * to the data model occur.
+   */
+  private static final long serialVersionUID = Long.MIN_VALUE;
+
+  private static final long MILLIS_PER_SECOND = 1_000L;
+  private static final long MILLIS_PER_MINUTE = 60_000L;
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+
+  private final long epochDay;
+  private final int minuteOfDay;
+
+  /**
+   * Constructor for the key.
+   * @param suppliedEpochDay the number of days since 1970-01-01 in the key's zone
+   * @param suppliedMinuteOfDay the minute of the day in the key's zone
+   */
+  private DateKey(final long suppliedEpochDay, final int suppliedMinuteOfDay) {
+    this.epochDay = suppliedEpochDay;
+    this.minuteOfDay = suppliedMinuteOfDay;
+  }
+
+  /**
+   * Compute the key for a date in the supplied zone.
+   * @param date the date to convert
+   * @param zone the zone the day boundaries are taken from
+   * @return the key for the date
+   */
+  public static DateKey of(final Calendar date, final ZoneId zone) {
+    Validation.validateObjectNotNull(zone, "Zone");
+    return of(date, zone.getRules());
+  }
+
+  /**
+   * Compute the key for a date using already resolved zone rules.
+   * @param date the date to convert
+   * @param rules the rules of the zone the day boundaries are taken from
+   * @return the key for the date
+   */
+  static DateKey of(final Calendar date, final ZoneRules rules) {
+    Validation.validateObjectNotNull(date, "Date");
+    final long millis = date.getTimeInMillis();
+    final long offsetMillis = rules.getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds()
+        * MILLIS_PER_SECOND;
+    final long localMillis = millis + offsetMillis;
+    final long day = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+    final int minute = (int) (Math.floorMod(localMillis, MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+    return new DateKey(day, minute);
+  }
+
+  /**
+   * Getter for the epoch day.
+   * @return the number of days since 1970-01-01 in the key's zone
+   */
+  public long getEpochDay() {
+    return this.epochDay;
+  }
+
+  /**
+   * Getter for the minute of the day.
+   * @return the minute of the day, from 0 to 1439, in the key's zone
+   */
+  public int getMinuteOfDay() {
+    return this.minuteOfDay;
+  }
+
+  /**
+   * Check whether both keys fall on the same day.
+   * @param other the key to compare against
+   * @return true if both keys share the same epoch day
+   */
+  public boolean isSameDay(final DateKey other) {
+    return other != null && this.epochDay == other.epochDay;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof DateKey)) {
+      return false;
+    }
+    final DateKey other = (DateKey) obj;
+    return this.epochDay == other.epochDay && this.minuteOfDay == other.minuteOfDay;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int hashCode() {
+    return Long.hashCode(this.epochDay) * 31 + this.minuteOfDay;
+  }
+}
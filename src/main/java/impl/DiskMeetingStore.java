@@ -0,0 +1,272 @@
+package impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import spec.Meeting;
+
+/**
+ * DiskMeetingStore keeps meetings on disk, so that their dates, attendees and notes are read
+ * back when needed rather than held on the heap.
+ *
+ * <p>Meetings are encoded with {@link MeetingCodec} and appended to a record file, and a
+ * removal appends a record of just the id. A {@link PagedTree} in a second file maps each
+ * meeting id to the offset of its latest record, and its pages are read through a buffer pool
+ * of fixed size, so the memory used by the store itself does not grow with the number of
+ * meetings. Replaced records are left in place; the record file only grows.
+ *
+ * <p>The heap used by a manager with this store still grows with the number of meetings, by
+ * a smaller amount per meeting: the manager keeps a date key, an entry in its future, pending
+ * or past id set and entries in its co-attendance and notes indexes for every meeting, and
+ * reads every meeting back from the store to build those indexes when it starts.
+ *
+ * <p>Changes reach the disk when the store is flushed, which the manager does on every flush.
+ * The record file is forced first, and the index is then flushed with the length of the
+ * record file as its mark, so the index on disk only refers to records already there. When the
+ * store is opened, the records after the mark, written since the last flush, are applied to
+ * the index again, and a record cut short by a crash is truncated. If index pages were written
+ * after the last flush, the page file is emptied when opened and the index is rebuilt from
+ * every record.
+ *
+ * @author Alexander Worton.
+ */
+public final class DiskMeetingStore implements MeetingStore {
+
+  /** The number of 4 KB index pages held in memory unless another number is given. */
+  public static final int DEFAULT_POOL_PAGES = 1_024;
+
+  private static final String INDEX_FILE = "meetings.idx";
+  private static final String RECORD_FILE = "meetings.dat";
+
+  private final PageFile index;
+  private final PagedTree tree;
+  private final FileChannel records;
+  private long recordsEnd;
+  private AttendeeSetPool pool;
+
+  /**
+   * Constructor for a store kept in a directory, which is created if it does not exist.
+   * Meetings already stored there are kept.
+   * @param directory the directory for the store's files
+   * @param poolPages the number of index pages held in memory
+   * @throws IOException if the files cannot be opened
+   */
+  public DiskMeetingStore(final Path directory, final int poolPages) throws IOException {
+    Validation.validateObjectNotNull(directory, "Directory");
+    Files.createDirectories(directory);
+    this.index = new PageFile(directory.resolve(INDEX_FILE), poolPages);
+    this.tree = new PagedTree(this.index);
+    this.records = FileChannel.open(directory.resolve(RECORD_FILE), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    replay(this.index.getMark());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Meeting get(final int id) {
+    try {
+      final long offset = this.tree.get(id);
+      return offset == PagedTree.NOT_FOUND ? null : readRecord(offset);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void put(final Meeting meeting) {
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(0);
+        MeetingCodec.write(out, meeting);
+      }
+      final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+      record.putInt(0, record.remaining() - Integer.BYTES);
+      this.tree.put(meeting.getId(), append(record));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void remove(final int id) {
+    try {
+      if (this.tree.get(id) != PagedTree.NOT_FOUND) {
+        final ByteBuffer removal = ByteBuffer.allocate(Integer.BYTES * 2);
+        removal.putInt(Integer.BYTES).putInt(id).flip();
+        append(removal);
+        this.tree.remove(id);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean contains(final int id) {
+    try {
+      return this.tree.get(id) != PagedTree.NOT_FOUND;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int size() {
+    try {
+      return (int) this.tree.size();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Hand every meeting held to a consumer, in id order.
+   * @param consumer receives each meeting
+   */
+  @Override
+  public void forEach(final Consumer<Meeting> consumer) {
+    try {
+      this.tree.forEach((id, offset) -> consumer.accept(readRecord(offset)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void bind(final AttendeeSetPool suppliedPool) {
+    this.pool = suppliedPool;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean isDurable() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void flush() throws IOException {
+    this.records.force(false);
+    this.index.flush(this.recordsEnd);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+      this.index.close();
+    } finally {
+      this.records.close();
+    }
+  }
+
+  /**
+   * Append a record to the end of the record file.
+   * @param record the record, preceded by its length
+   * @return the offset of the record
+   * @throws IOException if the record cannot be written
+   */
+  private long append(final ByteBuffer record) throws IOException {
+    final long offset = this.recordsEnd;
+    while (record.hasRemaining()) {
+      this.records.write(record, offset + record.position());
+    }
+    this.recordsEnd += record.capacity();
+    return offset;
+  }
+
+  /**
+   * Apply the records from an offset to the end of the record file to the index, reading only
+   * their ids, and truncate a record the file ends part way through.
+   * @param from the offset of the first record not known to be in the index
+   * @throws IOException if the files cannot be read or written
+   */
+  private void replay(final long from) throws IOException {
+    final long end = this.records.size();
+    final ByteBuffer head = ByteBuffer.allocate(Integer.BYTES * 2);
+    long offset = from;
+    while (offset + head.capacity() <= end) {
+      head.clear();
+      readFully(head, offset);
+      final int length = head.getInt(0);
+      if (length < Integer.BYTES || offset + Integer.BYTES + length > end) {
+        break;
+      }
+      if (length == Integer.BYTES) {
+        this.tree.remove(head.getInt(Integer.BYTES));
+      } else {
+        this.tree.put(head.getInt(Integer.BYTES), offset);
+      }
+      offset += Integer.BYTES + length;
+    }
+    if (offset < end) {
+      this.records.truncate(offset);
+    }
+    this.recordsEnd = offset;
+  }
+
+  /**
+   * Read and decode the record at an offset.
+   * @param offset the offset of the record
+   * @return the meeting
+   * @throws IOException if the record cannot be read
+   */
+  private Meeting readRecord(final long offset) throws IOException {
+    Validation.validateStateSet(this.pool, "Attendee set pool");
+    final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    readFully(length, offset);
+    final ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+    readFully(record, offset + Integer.BYTES);
+    return MeetingCodec.read(new DataInputStream(new ByteArrayInputStream(record.array())),
+        this.pool);
+  }
+
+  /**
+   * Fill a buffer from the record file.
+   * @param buffer the buffer
+   * @param position the offset to read from
+   * @throws IOException if the file ends first or cannot be read
+   */
+  private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (this.records.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Truncated meeting record at " + position);
+      }
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package impl;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ElapsedMeetingTicker periodically advances the timing wheel of a contact manager so future
+ * meetings move to the past in the background, even when nobody is querying the manager.
+ *
+ * <p>All managers share a single daemon thread. The ticker only holds a weak reference to its
+ * manager and cancels itself once the manager has been garbage collected.
+ *
+ * @author Alexander Worton.
+ */
+final class ElapsedMeetingTicker implements Runnable {
+
+  private static final long PERIOD_MILLIS = 50L;
+  private static final ScheduledExecutorService EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "elapsed-meeting-ticker");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final WeakReference<ContactManagerImpl> manager;
+  private volatile ScheduledFuture<?> future;
+
+  /**
+   * Constructor for the ticker.
+   * @param suppliedManager the manager whose meetings are advanced
+   */
+  private ElapsedMeetingTicker(final ContactManagerImpl suppliedManager) {
+    this.manager = new WeakReference<>(suppliedManager);
+  }
+
+  /**
+   * Start ticking the supplied manager on the shared thread.
+   * @param suppliedManager the manager whose meetings are advanced
+   */
+  static void start(final ContactManagerImpl suppliedManager) {
+    final ElapsedMeetingTicker ticker = new ElapsedMeetingTicker(suppliedManager);
+    ticker.future = EXECUTOR.scheduleWithFixedDelay(ticker, PERIOD_MILLIS, PERIOD_MILLIS,
+                                                    TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void run() {
+    final ContactManagerImpl target = this.manager.get();
+    if (target == null) {
+      if (this.future != null) {
+        this.future.cancel(false);
+      }
+      return;
+    }
+    target.migrateElapsedMeetings();
+  }
+}
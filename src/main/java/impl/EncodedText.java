@@ -0,0 +1,80 @@
+package impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * EncodedText is text held as UTF-8 bytes and decoded only when it is read. Two encoded texts
+ * are equal when their bytes are, wherever those bytes are kept.
+ *
+ * @author Alexander Worton.
+ */
+abstract class EncodedText implements CharSequence {
+
+  /**
+   * Getter for the encoded text.
+   * @return the UTF-8 bytes, which must not be modified
+   */
+  abstract byte[] getEncoded();
+
+  /**
+   * Hash of the encoded text, which subclasses compute once with {@link #hash(byte[])}.
+   * @return the hash
+   */
+  @Override
+  public abstract int hashCode();
+
+  /**
+   * The hash of some encoded text.
+   * @param utf8 the UTF-8 bytes
+   * @return the hash
+   */
+  static int hash(final byte[] utf8) {
+    return Arrays.hashCode(utf8);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int length() {
+    return toString().length();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public char charAt(final int index) {
+    return toString().charAt(index);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    return toString().subSequence(start, end);
+  }
+
+  /**
+   * Decode the text.
+   * @return the text
+   */
+  @Override
+  public String toString() {
+    return new String(getEncoded(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    return obj instanceof EncodedText && obj.hashCode() == hashCode()
+        && Arrays.equals(getEncoded(), ((EncodedText) obj).getEncoded());
+  }
+}
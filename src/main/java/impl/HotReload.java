@@ -0,0 +1,224 @@
+package impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spec.Contact;
+import spec.Meeting;
+
+/**
+ * HotReload keeps a {@link ContactManagerImpl} current with the snapshot and journal another
+ * process writes, watching their directories with a {@link WatchService}.
+ *
+ * <p>New records appended to the journal are read from where the last read stopped. When the
+ * snapshot is replaced, every contact and meeting in it is turned into a record and the journal
+ * is read again from its start, since the writer empties it just after writing a snapshot and
+ * records not yet emptied are already in the snapshot. Reading the snapshot and then the whole
+ * journal in order always ends at the writer's latest state, whether or not the journal had
+ * been emptied when it was read.
+ *
+ * <p>The records read on each change are applied to the manager as one batch, under its lock,
+ * and those that change nothing are skipped, so only the delta reaches the maps and indexes.
+ * A query in progress completes against the state before the batch and the next one sees all
+ * of it. A snapshot is read under the shared snapshot lock when its writer holds the
+ * {@link SnapshotLock}; otherwise one read while it is still being written fails to decode and
+ * is read again on the event its completion raises.
+ *
+ * @author Alexander Worton.
+ */
+final class HotReload implements Closeable {
+
+  private final ContactManagerImpl manager;
+  private final Path snapshot;
+  private final WatchService watcher;
+  private final Set<Path> watched;
+  private final Thread thread;
+  private Path journal;
+  private long journalPosition;
+  private long reloadCount;
+
+  /**
+   * Constructor for a hot reload, which starts watching at once and applies anything already
+   * written that the manager does not hold.
+   * @param suppliedManager the manager to keep current
+   * @param suppliedSnapshot the snapshot file the writer replaces
+   * @param suppliedJournal the journal file the writer appends to, or null if it has none
+   * @throws IOException if the directories cannot be watched
+   */
+  HotReload(final ContactManagerImpl suppliedManager, final Path suppliedSnapshot,
+            final Path suppliedJournal) throws IOException {
+    this.manager = suppliedManager;
+    this.snapshot = suppliedSnapshot.toAbsolutePath();
+    this.watcher = this.snapshot.getFileSystem().newWatchService();
+    this.watched = new HashSet<>();
+    watch(this.snapshot);
+    if (suppliedJournal != null) {
+      this.journal = suppliedJournal.toAbsolutePath();
+      watch(this.journal);
+    }
+    this.thread = new Thread(this::run, "hot-reload");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Getter for the number of batches that changed the manager.
+   * @return the number of reloads
+   */
+  synchronized long getReloadCount() {
+    return this.reloadCount;
+  }
+
+  /**
+   * Stop watching. Must not be called holding the manager's lock, which a batch being applied
+   * waits for.
+   */
+  @Override
+  public void close() {
+    try {
+      this.watcher.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    try {
+      this.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Watch the directory of a file for files being created and written.
+   * @param file the file
+   * @throws IOException if the directory cannot be watched
+   */
+  private void watch(final Path file) throws IOException {
+    final Path directory = file.getParent();
+    if (this.watched.add(directory)) {
+      directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                         StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+  }
+
+  /**
+   * Reload loop run on the reload thread until the watcher is closed.
+   */
+  private void run() {
+    reload(true, true);
+    while (true) {
+      final WatchKey key;
+      try {
+        key = this.watcher.take();
+      } catch (ClosedWatchServiceException | InterruptedException e) {
+        return;
+      }
+      boolean snapshotChanged = false;
+      boolean journalChanged = false;
+      for (final WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          snapshotChanged = true;
+          journalChanged = true;
+          continue;
+        }
+        final Path changed = ((Path) key.watchable()).resolve((Path) event.context());
+        snapshotChanged |= changed.equals(this.snapshot);
+        journalChanged |= changed.equals(this.journal);
+      }
+      key.reset();
+      if (snapshotChanged || journalChanged) {
+        reload(snapshotChanged, journalChanged);
+      }
+    }
+  }
+
+  /**
+   * Read what has changed and apply it to the manager as one batch.
+   * @param snapshotChanged true if the snapshot may have been replaced
+   * @param journalChanged true if records may have been appended to the journal
+   */
+  private void reload(final boolean snapshotChanged, final boolean journalChanged) {
+    try {
+      final List<byte[]> records = new ArrayList<>();
+      boolean readJournal = journalChanged;
+      if (snapshotChanged && readSnapshot(records)) {
+        this.journalPosition = 0;
+        readJournal = true;
+      }
+      if (readJournal && this.journal != null && Files.exists(this.journal)) {
+        readJournal(records);
+      }
+      if (!records.isEmpty() && this.manager.applyReloaded(records) > 0) {
+        synchronized (this) {
+          this.reloadCount++;
+        }
+      }
+    } catch (IOException e) {
+      //the manager keeps what it holds and the next change is read in full
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Read the snapshot, turning every contact and meeting in it into a record, and start
+   * watching the journal it names.
+   * @param records receives the records
+   * @return true if the snapshot was read, false if it does not exist or is being written
+   * @throws IOException if the records cannot be encoded or the journal cannot be watched
+   */
+  private boolean readSnapshot(final List<byte[]> records) throws IOException {
+    final ContactManagerDump dump;
+    try {
+      dump = ContactManagerImpl.readDump(this.snapshot);
+    } catch (IOException | ClassNotFoundException e) {
+      return false;
+    }
+    if (dump.getJournalFile() != null) {
+      this.journal = Paths.get(dump.getJournalFile()).toAbsolutePath();
+      watch(this.journal);
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    for (final Contact contact : dump.getContacts().values()) {
+      MutationJournal.writeContact(out, contact.getId(), contact.getName(), contact.getNotes());
+      records.add(bytes.toByteArray());
+      bytes.reset();
+    }
+    for (final Meeting meeting : dump.getMeetings().values()) {
+      MutationJournal.writeMeeting(out, meeting);
+      records.add(bytes.toByteArray());
+      bytes.reset();
+    }
+    return true;
+  }
+
+  /**
+   * Read the records appended to the journal since the last read, reading it again from its
+   * start if it has been emptied by a checkpoint since.
+   * @param records receives the records
+   * @throws IOException if the journal cannot be read
+   */
+  private void readJournal(final List<byte[]> records) throws IOException {
+    final int before = records.size();
+    long position = MutationJournal.readRecords(this.journal, this.journalPosition, records);
+    if (position < 0) {
+      //records read from a journal being emptied may be older than the snapshot, so drop them
+      records.subList(before, records.size()).clear();
+      position = MutationJournal.readRecords(this.journal, 0, records);
+    }
+    this.journalPosition = Math.max(0, position);
+  }
+}
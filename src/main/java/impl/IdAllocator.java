@@ -0,0 +1,153 @@
+package impl;
+
+/**
+ * IdAllocator hands out unique positive ids to any number of threads. Each thread takes a block
+ * of consecutive ids at a time and then allocates from it with a plain increment, so threads
+ * only meet when a block runs out.
+ *
+ * <p>Blocks are cut from a lease: a limit up to which ids may be handed out, which is stored
+ * through a {@link LeaseStore} before any id beyond the previous limit is. An allocator created
+ * from the last stored limit therefore never hands out an id given out before a crash, at the
+ * cost of skipping the ids left unused in the lease and in any thread's block.
+ *
+ * @author Alexander Worton.
+ */
+public final class IdAllocator {
+
+  /** The number of ids a thread takes at a time unless another size is given. */
+  public static final int DEFAULT_BLOCK_SIZE = 64;
+
+  /** The number of ids each lease extends the limit by unless another size is given. */
+  public static final int DEFAULT_LEASE_SIZE = 4_096;
+
+  private final int blockSize;
+  private final int leaseSize;
+  private final LeaseStore store;
+  private final ThreadLocal<Block> blocks;
+  private volatile int generation;
+  private int next;
+  private int leased;
+
+  /**
+   * Stores the limit of a lease, so that it survives a restart.
+   */
+  public interface LeaseStore {
+    /**
+     * Store a new limit, returning once it is stored. Called holding the allocator's lock.
+     * @param limit the highest id that may be handed out
+     */
+    void store(int limit);
+  }
+
+  /**
+   * The ids a thread is allocating from. A block is abandoned if the allocator has been moved
+   * past ids since it was taken.
+   */
+  private static final class Block {
+    private int next;
+    private int end;
+    private int generation;
+  }
+
+  /**
+   * Constructor for an allocator.
+   * @param suppliedLeased the limit last stored, or the highest id known to be in use; ids are
+   *     handed out from the one after it
+   * @param suppliedBlockSize the number of ids a thread takes at a time
+   * @param suppliedLeaseSize the number of ids each lease extends the limit by, at least the
+   *     block size
+   * @param suppliedStore stores each new limit
+   */
+  public IdAllocator(final int suppliedLeased, final int suppliedBlockSize,
+                     final int suppliedLeaseSize, final LeaseStore suppliedStore) {
+    if (suppliedLeased < 0) {
+      throw new IllegalArgumentException("Lease must not be negative");
+    }
+    Validation.validateIdPositive(suppliedBlockSize);
+    if (suppliedLeaseSize < suppliedBlockSize) {
+      throw new IllegalArgumentException("Lease must be at least one block");
+    }
+    Validation.validateObjectNotNull(suppliedStore, "Lease store");
+    this.blockSize = suppliedBlockSize;
+    this.leaseSize = suppliedLeaseSize;
+    this.store = suppliedStore;
+    this.blocks = ThreadLocal.withInitial(Block::new);
+    this.next = suppliedLeased + 1;
+    this.leased = suppliedLeased;
+  }
+
+  /**
+   * Getter for the number of ids a thread takes at a time.
+   * @return the block size
+   */
+  public int getBlockSize() {
+    return this.blockSize;
+  }
+
+  /**
+   * Getter for the number of ids each lease extends the limit by.
+   * @return the lease size
+   */
+  public int getLeaseSize() {
+    return this.leaseSize;
+  }
+
+  /**
+   * Getter for the limit of the current lease, which is the value to persist so that a later
+   * allocator starts after every id this one could have handed out.
+   * @return the highest id that may be handed out without a new lease
+   */
+  public synchronized int getLeased() {
+    return this.leased;
+  }
+
+  /**
+   * Getter for the highest id given to any thread's block.
+   * @return the id, or the starting point if none has been
+   */
+  public synchronized int getLastAllocated() {
+    return this.next - 1;
+  }
+
+  /**
+   * Allocate an id.
+   * @return an id not handed out before
+   */
+  public int next() {
+    final Block block = this.blocks.get();
+    if (block.next == block.end || block.generation != this.generation) {
+      refill(block);
+    }
+    return block.next++;
+  }
+
+  /**
+   * Make sure an id is never handed out, such as one restored from elsewhere. Blocks already
+   * taken by threads are abandoned. Must not be called while other threads are allocating.
+   * @param id the id in use
+   */
+  public synchronized void advancePast(final int id) {
+    this.next = Math.max(this.next, Math.addExact(id, 1));
+    this.leased = Math.max(this.leased, id);
+    this.generation++;
+  }
+
+  /**
+   * Give a thread the next block, first extending and storing the lease if it does not cover
+   * the whole block.
+   * @param block the thread's block
+   */
+  private synchronized void refill(final Block block) {
+    final int end = Math.addExact(this.next, this.blockSize);
+    if (end - 1 > this.leased) {
+      final int limit = (int) Math.min(Integer.MAX_VALUE,
+          Math.max(end - 1L, (long) this.leased + this.leaseSize));
+      this.store.store(limit);
+      this.leased = limit;
+    }
+    block.next = this.next;
+    block.end = end;
+    block.generation = this.generation;
+    this.next = end;
+  }
+}
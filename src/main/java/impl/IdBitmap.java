@@ -0,0 +1,671 @@
+package impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * IdBitmap is a compressed set of non-negative int ids in the style of a Roaring bitmap.
+ *
+ * <p>Ids are split by their upper 16 bits into chunks, each stored in whichever container suits
+ * its contents: a sorted array of the lower 16 bits for sparse chunks of up to 4096 ids, a
+ * 65536 bit bitmap for dense chunks, or a list of runs for chunks of consecutive ids. Membership
+ * is a binary search over the chunk keys followed by a single container lookup, and
+ * intersection and union work a container at a time, a 64 bit word at a time for bitmaps.
+ *
+ * <p>{@link #runOptimize()} converts every container to its smallest form and trims spare
+ * capacity; it should be called once a bitmap stops changing.
+ *
+ * <p>The bitmap is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class IdBitmap implements Serializable {
+  /**
+   * serialVersionUID holds the version for serialization. Increment when changes
+   * to the data model occur.
+   */
+  private static final long serialVersionUID = Long.MIN_VALUE;
+
+  private static final int ARRAY_LIMIT = 4096;
+  private static final int WORDS = 1024;
+  private static final int WORD_SHIFT = 6;
+  private static final int WORD_BITS = 64;
+  private static final int HIGH_SHIFT = 16;
+  private static final int LOW_MASK = 0xFFFF;
+  private static final int BITMAP_BYTES = WORDS * Long.BYTES;
+  private static final int INITIAL_CONTAINERS = 2;
+
+  private char[] keys;
+  private Container[] containers;
+  private int size;
+
+  /**
+   * Constructor for an empty bitmap.
+   */
+  public IdBitmap() {
+    this.keys = new char[INITIAL_CONTAINERS];
+    this.containers = new Container[INITIAL_CONTAINERS];
+  }
+
+  /**
+   * Create a bitmap holding the supplied ids.
+   * @param ids the ids
+   * @return the bitmap
+   */
+  public static IdBitmap of(final int... ids) {
+    final IdBitmap bitmap = new IdBitmap();
+    for (final int id : ids) {
+      bitmap.add(id);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Add an id.
+   * @param id the id, which must not be negative
+   */
+  public void add(final int id) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Id must not be negative");
+    }
+    final char high = (char) (id >>> HIGH_SHIFT);
+    final int index = find(high);
+    if (index >= 0) {
+      this.containers[index] = this.containers[index].add((char) id);
+    } else {
+      insertContainer(-index - 1, high, new ArrayContainer().add((char) id));
+    }
+  }
+
+  /**
+   * Check whether an id is held.
+   * @param id the id
+   * @return true if the id is held
+   */
+  public boolean contains(final int id) {
+    if (id < 0) {
+      return false;
+    }
+    final int index = find((char) (id >>> HIGH_SHIFT));
+    return index >= 0 && this.containers[index].contains((char) id);
+  }
+
+  /**
+   * Getter for the number of ids held.
+   * @return the number of ids
+   */
+  public int cardinality() {
+    int total = 0;
+    for (int index = 0; index < this.size; index++) {
+      total += this.containers[index].cardinality();
+    }
+    return total;
+  }
+
+  /**
+   * Check whether the bitmap holds no ids.
+   * @return true if empty
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Intersect with another bitmap.
+   * @param other the other bitmap
+   * @return a new bitmap holding the ids present in both
+   */
+  public IdBitmap and(final IdBitmap other) {
+    final IdBitmap result = new IdBitmap();
+    int left = 0;
+    int right = 0;
+    while (left < this.size && right < other.size) {
+      final char leftKey = this.keys[left];
+      final char rightKey = other.keys[right];
+      if (leftKey < rightKey) {
+        left++;
+      } else if (rightKey < leftKey) {
+        right++;
+      } else {
+        final Container shared = this.containers[left].and(other.containers[right]);
+        if (shared.cardinality() > 0) {
+          result.insertContainer(result.size, leftKey, shared);
+        }
+        left++;
+        right++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Union with another bitmap.
+   * @param other the other bitmap
+   * @return a new bitmap holding the ids present in either
+   */
+  public IdBitmap or(final IdBitmap other) {
+    final IdBitmap result = new IdBitmap();
+    int left = 0;
+    int right = 0;
+    while (left < this.size || right < other.size) {
+      if (right == other.size
+          || left < this.size && this.keys[left] < other.keys[right]) {
+        result.insertContainer(result.size, this.keys[left], this.containers[left].copy());
+        left++;
+      } else if (left == this.size || other.keys[right] < this.keys[left]) {
+        result.insertContainer(result.size, other.keys[right], other.containers[right].copy());
+        right++;
+      } else {
+        result.insertContainer(result.size, this.keys[left],
+                               this.containers[left].or(other.containers[right]));
+        left++;
+        right++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Pass every id to the consumer in increasing order.
+   * @param consumer the consumer
+   */
+  public void forEach(final IntConsumer consumer) {
+    for (int index = 0; index < this.size; index++) {
+      this.containers[index].forEach(this.keys[index] << HIGH_SHIFT, consumer);
+    }
+  }
+
+  /**
+   * Copy the ids into an array.
+   * @return the ids in increasing order
+   */
+  public int[] toArray() {
+    final int[] result = new int[cardinality()];
+    final int[] position = {0};
+    forEach(id -> result[position[0]++] = id);
+    return result;
+  }
+
+  /**
+   * Convert every container to its smallest form and release spare capacity.
+   * @return this bitmap
+   */
+  public IdBitmap runOptimize() {
+    for (int index = 0; index < this.size; index++) {
+      this.containers[index] = this.containers[index].optimize();
+    }
+    this.keys = Arrays.copyOf(this.keys, this.size);
+    this.containers = Arrays.copyOf(this.containers, this.size);
+    return this;
+  }
+
+  /**
+   * Estimate the memory held by the containers.
+   * @return the approximate size in bytes
+   */
+  public long getSizeInBytes() {
+    long total = (long) this.keys.length * Character.BYTES;
+    for (int index = 0; index < this.size; index++) {
+      total += this.containers[index].sizeInBytes();
+    }
+    return total;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    return obj instanceof IdBitmap && Arrays.equals(toArray(), ((IdBitmap) obj).toArray());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(toArray());
+  }
+
+  /**
+   * Binary search the chunk keys.
+   * @param high the upper 16 bits of an id
+   * @return the index of the key, or (-(insertion point) - 1) if absent
+   */
+  private int find(final char high) {
+    return Arrays.binarySearch(this.keys, 0, this.size, high);
+  }
+
+  /**
+   * Insert a container for a new chunk.
+   * @param index the position to insert at
+   * @param high the chunk key
+   * @param container the container
+   */
+  private void insertContainer(final int index, final char high, final Container container) {
+    if (this.size == this.keys.length) {
+      final int capacity = Math.max(INITIAL_CONTAINERS, this.size * 2);
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.containers = Arrays.copyOf(this.containers, capacity);
+    }
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+    System.arraycopy(this.containers, index, this.containers, index + 1, this.size - index);
+    this.keys[index] = high;
+    this.containers[index] = container;
+    this.size++;
+  }
+
+  /**
+   * Intersect a small sorted array with a larger one, galloping through the larger array: each
+   * search doubles its step until it passes the target and then binary searches the last step.
+   * @param small the smaller array
+   * @param smallSize the number of values used in the smaller array
+   * @param large the larger array
+   * @param largeSize the number of values used in the larger array
+   * @return the values present in both, in increasing order
+   */
+  static char[] gallopingIntersection(final char[] small, final int smallSize,
+                                      final char[] large, final int largeSize) {
+    final char[] result = new char[smallSize];
+    int count = 0;
+    int low = 0;
+    for (int index = 0; index < smallSize && low < largeSize; index++) {
+      final char target = small[index];
+      int step = 1;
+      int high = low;
+      while (high < largeSize && large[high] < target) {
+        low = high + 1;
+        high += step;
+        step <<= 1;
+      }
+      final int found = Arrays.binarySearch(large, low, Math.min(high + 1, largeSize), target);
+      if (found >= 0) {
+        result[count++] = target;
+        low = found + 1;
+      } else {
+        low = -found - 1;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Container holds the lower 16 bits of the ids of a single chunk.
+   */
+  private abstract static class Container implements Serializable {
+    private static final long serialVersionUID = Long.MIN_VALUE;
+
+    abstract Container add(char value);
+
+    abstract boolean contains(char value);
+
+    abstract int cardinality();
+
+    abstract Container and(Container other);
+
+    abstract Container or(Container other);
+
+    abstract void forEach(int base, IntConsumer consumer);
+
+    abstract Container copy();
+
+    abstract int sizeInBytes();
+
+    /**
+     * Convert to a bitmap container.
+     * @return a bitmap container holding the same values
+     */
+    BitmapContainer toBitmap() {
+      final BitmapContainer bitmap = new BitmapContainer();
+      forEach(0, value -> bitmap.set((char) value));
+      return bitmap;
+    }
+
+    /**
+     * Convert to the smallest of the array, bitmap and run forms.
+     * @return the smallest container holding the same values
+     */
+    Container optimize() {
+      final RunContainer runs = RunContainer.from(this);
+      final int cardinality = cardinality();
+      final int arrayBytes = cardinality * Character.BYTES;
+      if (runs.sizeInBytes() < Math.min(arrayBytes, BITMAP_BYTES)) {
+        return runs;
+      }
+      if (cardinality <= ARRAY_LIMIT) {
+        return ArrayContainer.from(this);
+      }
+      return this instanceof BitmapContainer ? this : toBitmap();
+    }
+  }
+
+  /**
+   * ArrayContainer holds a sparse chunk as a sorted array.
+   */
+  private static final class ArrayContainer extends Container {
+    private static final long serialVersionUID = Long.MIN_VALUE;
+    private static final int INITIAL_VALUES = 4;
+
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer() {
+      this.values = new char[INITIAL_VALUES];
+    }
+
+    ArrayContainer(final char[] suppliedValues) {
+      this.values = suppliedValues;
+      this.cardinality = suppliedValues.length;
+    }
+
+    static ArrayContainer from(final Container container) {
+      final char[] held = new char[container.cardinality()];
+      final int[] position = {0};
+      container.forEach(0, value -> held[position[0]++] = (char) value);
+      return new ArrayContainer(held);
+    }
+
+    @Override
+    Container add(final char value) {
+      final int index = Arrays.binarySearch(this.values, 0, this.cardinality, value);
+      if (index >= 0) {
+        return this;
+      }
+      if (this.cardinality == ARRAY_LIMIT) {
+        return toBitmap().add(value);
+      }
+      if (this.cardinality == this.values.length) {
+        this.values = Arrays.copyOf(this.values, Math.min(ARRAY_LIMIT, this.cardinality * 2));
+      }
+      final int position = -index - 1;
+      System.arraycopy(this.values, position, this.values, position + 1,
+                       this.cardinality - position);
+      this.values[position] = value;
+      this.cardinality++;
+      return this;
+    }
+
+    @Override
+    boolean contains(final char value) {
+      return Arrays.binarySearch(this.values, 0, this.cardinality, value) >= 0;
+    }
+
+    @Override
+    int cardinality() {
+      return this.cardinality;
+    }
+
+    @Override
+    Container and(final Container other) {
+      if (other instanceof ArrayContainer) {
+        final ArrayContainer array = (ArrayContainer) other;
+        return this.cardinality <= array.cardinality
+            ? new ArrayContainer(gallopingIntersection(this.values, this.cardinality,
+                                                       array.values, array.cardinality))
+            : new ArrayContainer(gallopingIntersection(array.values, array.cardinality,
+                                                       this.values, this.cardinality));
+      }
+      final char[] kept = new char[this.cardinality];
+      int count = 0;
+      for (int index = 0; index < this.cardinality; index++) {
+        if (other.contains(this.values[index])) {
+          kept[count++] = this.values[index];
+        }
+      }
+      return new ArrayContainer(Arrays.copyOf(kept, count));
+    }
+
+    @Override
+    Container or(final Container other) {
+      if (!(other instanceof ArrayContainer)) {
+        return other.or(this);
+      }
+      final ArrayContainer array = (ArrayContainer) other;
+      final char[] merged = new char[this.cardinality + array.cardinality];
+      int left = 0;
+      int right = 0;
+      int count = 0;
+      while (left < this.cardinality || right < array.cardinality) {
+        if (right == array.cardinality
+            || left < this.cardinality && this.values[left] < array.values[right]) {
+          merged[count++] = this.values[left++];
+        } else if (left == this.cardinality || array.values[right] < this.values[left]) {
+          merged[count++] = array.values[right++];
+        } else {
+          merged[count++] = this.values[left++];
+          right++;
+        }
+      }
+      final ArrayContainer result = new ArrayContainer(Arrays.copyOf(merged, count));
+      return count > ARRAY_LIMIT ? result.toBitmap() : result;
+    }
+
+    @Override
+    void forEach(final int base, final IntConsumer consumer) {
+      for (int index = 0; index < this.cardinality; index++) {
+        consumer.accept(base | this.values[index]);
+      }
+    }
+
+    @Override
+    Container copy() {
+      return new ArrayContainer(Arrays.copyOf(this.values, this.cardinality));
+    }
+
+    @Override
+    int sizeInBytes() {
+      return this.values.length * Character.BYTES;
+    }
+  }
+
+  /**
+   * BitmapContainer holds a dense chunk as one bit per possible value.
+   */
+  private static final class BitmapContainer extends Container {
+    private static final long serialVersionUID = Long.MIN_VALUE;
+
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer() {
+      this.words = new long[WORDS];
+    }
+
+    private BitmapContainer(final long[] suppliedWords) {
+      this.words = suppliedWords;
+      for (final long word : suppliedWords) {
+        this.cardinality += Long.bitCount(word);
+      }
+    }
+
+    /**
+     * Set a bit, keeping the cardinality current.
+     * @param value the value to set
+     */
+    void set(final char value) {
+      final int word = value >>> WORD_SHIFT;
+      final long before = this.words[word];
+      this.words[word] = before | (1L << value);
+      if (before != this.words[word]) {
+        this.cardinality++;
+      }
+    }
+
+    @Override
+    Container add(final char value) {
+      set(value);
+      return this;
+    }
+
+    @Override
+    boolean contains(final char value) {
+      return (this.words[value >>> WORD_SHIFT] & (1L << value)) != 0;
+    }
+
+    @Override
+    int cardinality() {
+      return this.cardinality;
+    }
+
+    @Override
+    Container and(final Container other) {
+      if (!(other instanceof BitmapContainer)) {
+        return other.and(this);
+      }
+      final long[] otherWords = ((BitmapContainer) other).words;
+      final long[] result = new long[WORDS];
+      for (int index = 0; index < WORDS; index++) {
+        result[index] = this.words[index] & otherWords[index];
+      }
+      final BitmapContainer bitmap = new BitmapContainer(result);
+      return bitmap.cardinality <= ARRAY_LIMIT ? ArrayContainer.from(bitmap) : bitmap;
+    }
+
+    @Override
+    Container or(final Container other) {
+      if (other instanceof BitmapContainer) {
+        final long[] otherWords = ((BitmapContainer) other).words;
+        final long[] result = new long[WORDS];
+        for (int index = 0; index < WORDS; index++) {
+          result[index] = this.words[index] | otherWords[index];
+        }
+        return new BitmapContainer(result);
+      }
+      final BitmapContainer result = new BitmapContainer(this.words.clone());
+      other.forEach(0, value -> result.set((char) value));
+      return result;
+    }
+
+    @Override
+    void forEach(final int base, final IntConsumer consumer) {
+      for (int index = 0; index < WORDS; index++) {
+        long word = this.words[index];
+        while (word != 0) {
+          consumer.accept(base | (index * WORD_BITS + Long.numberOfTrailingZeros(word)));
+          word &= word - 1;
+        }
+      }
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+      return this;
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(this.words.clone());
+    }
+
+    @Override
+    int sizeInBytes() {
+      return BITMAP_BYTES;
+    }
+  }
+
+  /**
+   * RunContainer holds a chunk of consecutive values as (start, length - 1) pairs.
+   */
+  private static final class RunContainer extends Container {
+    private static final long serialVersionUID = Long.MIN_VALUE;
+
+    private final char[] runs;
+    private final int cardinality;
+
+    private RunContainer(final char[] suppliedRuns) {
+      this.runs = suppliedRuns;
+      int total = 0;
+      for (int index = 1; index < suppliedRuns.length; index += 2) {
+        total += suppliedRuns[index] + 1;
+      }
+      this.cardinality = total;
+    }
+
+    static RunContainer from(final Container container) {
+      final char[] built = new char[container.cardinality() * 2];
+      final int[] state = {0, -2};
+      container.forEach(0, value -> {
+        if (value == state[1] + 1) {
+          built[state[0] - 1]++;
+        } else {
+          built[state[0]] = (char) value;
+          built[state[0] + 1] = 0;
+          state[0] += 2;
+        }
+        state[1] = value;
+      });
+      return new RunContainer(Arrays.copyOf(built, state[0]));
+    }
+
+    @Override
+    Container add(final char value) {
+      if (contains(value)) {
+        return this;
+      }
+      final Container expanded = this.cardinality < ARRAY_LIMIT
+          ? ArrayContainer.from(this) : toBitmap();
+      return expanded.add(value);
+    }
+
+    @Override
+    boolean contains(final char value) {
+      int low = 0;
+      int high = this.runs.length / 2 - 1;
+      while (low <= high) {
+        final int middle = (low + high) >>> 1;
+        final int start = this.runs[middle * 2];
+        if (value < start) {
+          high = middle - 1;
+        } else if (value > start + this.runs[middle * 2 + 1]) {
+          low = middle + 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    int cardinality() {
+      return this.cardinality;
+    }
+
+    @Override
+    Container and(final Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.and(this);
+      }
+      return toBitmap().and(other);
+    }
+
+    @Override
+    Container or(final Container other) {
+      return toBitmap().or(other);
+    }
+
+    @Override
+    void forEach(final int base, final IntConsumer consumer) {
+      for (int index = 0; index < this.runs.length; index += 2) {
+        final int start = this.runs[index];
+        final int end = start + this.runs[index + 1];
+        for (int value = start; value <= end; value++) {
+          consumer.accept(base | value);
+        }
+      }
+    }
+
+    @Override
+    Container copy() {
+      return this;
+    }
+
+    @Override
+    int sizeInBytes() {
+      return this.runs.length * Character.BYTES;
+    }
+  }
+}
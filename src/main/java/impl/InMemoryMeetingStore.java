@@ -0,0 +1,105 @@
+package impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import spec.Meeting;
+
+/**
+ * InMemoryMeetingStore holds meetings in a map on the heap. Its meetings are written to the
+ * manager's snapshot.
+ *
+ * @author Alexander Worton.
+ */
+public final class InMemoryMeetingStore implements MeetingStore {
+
+  private final Map<Integer, Meeting> meetings;
+
+  /**
+   * Constructor for an empty store.
+   */
+  public InMemoryMeetingStore() {
+    this.meetings = new HashMap<>();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Meeting get(final int id) {
+    return this.meetings.get(id);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void put(final Meeting meeting) {
+    this.meetings.put(meeting.getId(), meeting);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void remove(final int id) {
+    this.meetings.remove(id);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean contains(final int id) {
+    return this.meetings.containsKey(id);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int size() {
+    return this.meetings.size();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void forEach(final Consumer<Meeting> consumer) {
+    this.meetings.values().forEach(consumer);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void bind(final AttendeeSetPool pool) {
+    //meetings are held as objects, so nothing is read back
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public boolean isDurable() {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void flush() {
+    //nothing is buffered
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public void close() {
+    //nothing to release
+  }
+}
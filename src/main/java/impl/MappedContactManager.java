@@ -0,0 +1,341 @@
+package impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spec.Contact;
+import spec.ContactManager;
+import spec.FutureMeeting;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * MappedContactManager is a read-only {@link ContactManager} over a snapshot written by
+ * {@link ContactManagerImpl#writeMappedSnapshot(Path)}, for processes that only read. The file
+ * is memory mapped rather than loaded, so every process reading it shares the same pages of
+ * the operating system's page cache, nothing is deserialized up front and no process holds a
+ * copy of its own on the heap. Each read decodes only the contacts and meetings it returns.
+ *
+ * <p>The file is checked at most once per check interval, on a read, and a newer snapshot that
+ * has atomically replaced it is mapped in its place. A read in progress keeps the mapping it
+ * started with, so it never sees part of one snapshot and part of another.
+ *
+ * <p>Reads follow the same rules as {@link ShardedContactManager}: whether a meeting is
+ * future, past or awaiting notes is worked out from its date, and a contact is known if the
+ * snapshot holds one with the same id and name. Every method that would change the contacts
+ * or meetings throws UnsupportedOperationException.
+ *
+ * @author Alexander Worton.
+ */
+public final class MappedContactManager implements ContactManager {
+
+  public static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofMillis(100);
+
+  private final Path file;
+  private final ZoneId zone;
+  private final long checkNanos;
+  private volatile MappedSnapshot snapshot;
+  private volatile long checkedAt;
+  private Object fileVersion;
+  private int reloadCount;
+
+  /**
+   * Constructor for a manager over a snapshot, dividing days in the system's time zone and
+   * checking for a newer snapshot at the default interval.
+   * @param suppliedFile the snapshot file
+   * @throws IOException if the file cannot be mapped
+   */
+  public MappedContactManager(final Path suppliedFile) throws IOException {
+    this(suppliedFile, ZoneId.systemDefault(), DEFAULT_CHECK_INTERVAL);
+  }
+
+  /**
+   * Constructor for a manager over a snapshot.
+   * @param suppliedFile the snapshot file
+   * @param suppliedZone the time zone whose days getMeetingListOn divides meetings by
+   * @param checkInterval the least time between checks for a newer snapshot
+   * @throws IOException if the file cannot be mapped
+   */
+  public MappedContactManager(final Path suppliedFile, final ZoneId suppliedZone,
+                              final Duration checkInterval) throws IOException {
+    Validation.validateObjectNotNull(suppliedFile, "File");
+    Validation.validateObjectNotNull(suppliedZone, "Zone");
+    Validation.validateDurationNotNegative(checkInterval, "Check interval");
+    this.file = suppliedFile;
+    this.zone = suppliedZone;
+    this.checkNanos = checkInterval.toNanos();
+    this.fileVersion = versionOf(this.file);
+    this.snapshot = MappedSnapshot.open(this.file);
+    this.checkedAt = System.nanoTime();
+  }
+
+  /**
+   * Getter for the number of times a newer snapshot has been mapped.
+   * @return the number of reloads
+   */
+  public synchronized int getReloadCount() {
+    return this.reloadCount;
+  }
+
+  /**
+   * Map the file again now if it has been replaced since it was last mapped.
+   * @return true if a newer snapshot was mapped
+   * @throws IOException if the file cannot be read or mapped; the old snapshot is kept
+   */
+  public synchronized boolean refresh() throws IOException {
+    this.checkedAt = System.nanoTime();
+    final Object version = versionOf(this.file);
+    if (version.equals(this.fileVersion)) {
+      return false;
+    }
+    this.snapshot = MappedSnapshot.open(this.file);
+    this.fileVersion = version;
+    this.reloadCount++;
+    return true;
+  }
+
+  /**
+   * Identify the file currently at a path. An atomic replacement gives the path a new file
+   * key, and the time and size catch it where file keys are not available.
+   * @param path the path
+   * @return a value equal to that of an earlier call until the file has changed
+   * @throws IOException if the file cannot be read
+   */
+  private static Object versionOf(final Path path) throws IOException {
+    final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return attributes.fileKey() + "/" + attributes.lastModifiedTime().toMillis() + "/"
+        + attributes.size();
+  }
+
+  /**
+   * Getter for the snapshot to read, mapping a newer one first if the check interval has
+   * passed and the file has been replaced.
+   * @return the snapshot
+   */
+  private MappedSnapshot current() {
+    if (System.nanoTime() - this.checkedAt >= this.checkNanos) {
+      try {
+        refresh();
+      } catch (IOException e) {
+        //the file is being replaced or has gone; keep reading the snapshot already mapped
+        e.printStackTrace();
+      }
+    }
+    return this.snapshot;
+  }
+
+  /**
+   * Create the exception thrown by every method that would change the snapshot.
+   * @return the exception
+   */
+  private static UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("Mapped snapshot is read only");
+  }
+
+  /**
+   * Find a supplied contact in a snapshot.
+   * @param snapshot the snapshot
+   * @param contact the contact
+   * @return the offset of its record
+   * @throws IllegalArgumentException if the snapshot holds no contact with its id and name
+   */
+  private static int known(final MappedSnapshot snapshot, final Contact contact) {
+    final int offset = snapshot.findContact(contact.getId());
+    if (offset < 0 || contact.getName() == null || !snapshot.nameEquals(offset,
+        contact.getName().getBytes(StandardCharsets.UTF_8))) {
+      throw new IllegalArgumentException("Contact not known");
+    }
+    return offset;
+  }
+
+  /**
+   * Read the meetings at a list of offsets.
+   * @param snapshot the snapshot
+   * @param offsets the offsets of their records
+   * @param past true for only those with notes, false for only future ones
+   * @return the meetings, in the order of the offsets
+   */
+  private static List<Meeting> meetings(final MappedSnapshot snapshot, final int[] offsets,
+                                        final boolean past) {
+    final long now = System.currentTimeMillis();
+    final List<Meeting> found = new ArrayList<>();
+    for (final int offset : offsets) {
+      final boolean hasNotes = snapshot.hasNotes(offset);
+      if (past ? hasNotes : !hasNotes && snapshot.dateAt(offset) > now) {
+        found.add(snapshot.meeting(offset));
+      }
+    }
+    return found;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addFutureMeeting(final Set<Contact> contacts, final Calendar date) {
+    throw readOnly();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting getPastMeeting(final int id) {
+    final Meeting meeting = getMeeting(id);
+    if (meeting == null || meeting instanceof PastMeeting) {
+      return (PastMeeting) meeting;
+    }
+    Validation.validateStateInPast(meeting.getDate());
+    //the meeting has taken place but has not been given notes
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(final int id) {
+    final Meeting meeting = getMeeting(id);
+    if (meeting == null) {
+      return null;
+    }
+    if (meeting instanceof PastMeeting) {
+      throw new IllegalStateException("Supplied date is not in the future");
+    }
+    Validation.validateStateInFuture(meeting.getDate());
+    return (FutureMeeting) meeting;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Meeting getMeeting(final int id) {
+    final MappedSnapshot read = current();
+    final int offset = read.findMeeting(id);
+    return offset < 0 ? null : read.meeting(offset);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(final Contact contact) {
+    Validation.validateObjectNotNull(contact, "Contact");
+    final MappedSnapshot read = current();
+    return meetings(read, read.meetingsOf(known(read, contact)), false);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getMeetingListOn(final Calendar date) {
+    Validation.validateObjectNotNull(date);
+    final LocalDate day = LocalDate.ofEpochDay(DateKey.of(date, this.zone).getEpochDay());
+    final long from = day.atStartOfDay(this.zone).toInstant().toEpochMilli();
+    final long to = day.plusDays(1).atStartOfDay(this.zone).toInstant().toEpochMilli();
+    final MappedSnapshot read = current();
+    final List<Meeting> found = new ArrayList<>();
+    for (final int offset : read.findMeetingsBetween(from, to)) {
+      found.add(read.meeting(offset));
+    }
+    return found;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingListFor(final Contact contact) {
+    Validation.validateObjectNotNull(contact);
+    final MappedSnapshot read = current();
+    final List<PastMeeting> found = new ArrayList<>();
+    meetings(read, read.meetingsOf(known(read, contact)), true)
+        .forEach(meeting -> found.add((PastMeeting) meeting));
+    return found;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewPastMeeting(final Set<Contact> contacts, final Calendar date,
+                               final String text) {
+    throw readOnly();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting addMeetingNotes(final int id, final String text) {
+    throw readOnly();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewContact(final String name, final String notes) {
+    throw readOnly();
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final String name) {
+    Validation.validateObjectNotNull(name, "Name");
+    final MappedSnapshot read = current();
+    final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+    final Set<Contact> found = new HashSet<>();
+    for (int index = 0; index < read.getContactCount(); index++) {
+      final int offset = read.contactAt(index);
+      if (name.isEmpty() || read.nameEquals(offset, encoded)) {
+        found.add(read.contact(offset));
+      }
+    }
+    return found;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final int... ids) {
+    Validation.validateSetPopulated(ids, "Contact Ids array");
+    final MappedSnapshot read = current();
+    final Set<Contact> found = new HashSet<>();
+    final Set<Integer> seen = new HashSet<>();
+    for (final int id : ids) {
+      final int offset = read.findContact(id);
+      if (offset >= 0 && seen.add(id)) {
+        found.add(read.contact(offset));
+      }
+    }
+    Validation.validateArgumentSizeMatch(ids.length, found.size());
+    return found;
+  }
+
+  /**
+   * {@inheritDoc}.
+   * There is nothing to save, as the snapshot is only ever written by the manager it was
+   * taken from.
+   */
+  @Override
+  public void flush() {
+    //read only
+  }
+}
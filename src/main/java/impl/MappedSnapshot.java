@@ -0,0 +1,425 @@
+package impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * MappedSnapshot is a flat, read-only file of contacts and meetings laid out to be read in
+ * place through a memory mapping, so that any number of processes mapping the same file share
+ * one copy of it in the page cache and read it without deserializing it first.
+ *
+ * <p>The file is a header, an index of contacts by id, an index of meetings by id, an index of
+ * meetings by date, then the records. The indexes are sorted and hold the offset of each record
+ * for a binary search. A contact record holds its name, its notes and the offsets of the
+ * meetings it attends in date order; a meeting record holds its date, its notes, or -1 if it
+ * has none, and the offsets of its attendees. Strings are UTF-8 prefixed by their length in
+ * bytes and every number is big-endian.
+ *
+ * <p>A snapshot is written to a file of its own in the same directory which then atomically
+ * replaces the old one, so a reader mapping the file always maps a whole snapshot. Offsets are
+ * ints, as a single mapping is limited to 2GB.
+ *
+ * @author Alexander Worton.
+ */
+final class MappedSnapshot {
+
+  private static final int MAGIC = 0x434D4D53;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int ID_ENTRY_BYTES = 8;
+  private static final int DATE_ENTRY_BYTES = 12;
+  private static final int NO_NOTES = -1;
+
+  private final ByteBuffer buffer;
+  private final int contactCount;
+  private final int meetingCount;
+  private final int meetingIndex;
+  private final int dateIndex;
+
+  /**
+   * Constructor for a snapshot read from a buffer.
+   * @param suppliedBuffer the contents of the file
+   * @throws IOException if the buffer does not hold a snapshot
+   */
+  private MappedSnapshot(final ByteBuffer suppliedBuffer) throws IOException {
+    this.buffer = suppliedBuffer;
+    if (this.buffer.capacity() < HEADER_BYTES || this.buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a mapped snapshot");
+    }
+    if (this.buffer.getInt(4) != VERSION) {
+      throw new IOException("Unknown mapped snapshot version " + this.buffer.getInt(4));
+    }
+    this.contactCount = this.buffer.getInt(8);
+    this.meetingCount = this.buffer.getInt(12);
+    this.meetingIndex = HEADER_BYTES + this.contactCount * ID_ENTRY_BYTES;
+    this.dateIndex = this.meetingIndex + this.meetingCount * ID_ENTRY_BYTES;
+  }
+
+  /**
+   * Map a snapshot file read-only. The mapping stays valid once the file has been replaced.
+   * @param file the file
+   * @return the snapshot
+   * @throws IOException if the file cannot be mapped or does not hold a snapshot
+   */
+  static MappedSnapshot open(final Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return new MappedSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Write a snapshot to a new file in the same directory, then atomically replace the file
+   * with it.
+   * @param file the file
+   * @param contacts the contacts
+   * @param meetings the meetings, whose attendees must all be among the contacts
+   * @throws IOException if the snapshot cannot be written, or would be too large to map
+   */
+  static void write(final Path file, final Collection<Contact> contacts,
+                    final Collection<Meeting> meetings) throws IOException {
+    final List<Contact> byId = new ArrayList<>(contacts);
+    byId.sort(Comparator.comparingInt(Contact::getId));
+    final List<Meeting> meetingsById = new ArrayList<>(meetings);
+    meetingsById.sort(Comparator.comparingInt(Meeting::getId));
+    final List<Meeting> byDate = new ArrayList<>(meetings);
+    byDate.sort(Comparator.comparing(Meeting::getDate).thenComparingInt(Meeting::getId));
+
+    final Map<Integer, List<Meeting>> attended = new HashMap<>();
+    byDate.forEach(meeting -> meeting.getContacts().forEach(contact ->
+        attended.computeIfAbsent(contact.getId(), id -> new ArrayList<>()).add(meeting)));
+    final Map<Integer, byte[]> names = new HashMap<>();
+    final Map<Integer, byte[]> contactNotes = new HashMap<>();
+    final Map<Integer, byte[]> meetingNotes = new HashMap<>();
+
+    //lay out the records first, as contacts and meetings refer to each other by offset
+    long position = HEADER_BYTES + (long) byId.size() * ID_ENTRY_BYTES
+        + (long) meetingsById.size() * (ID_ENTRY_BYTES + DATE_ENTRY_BYTES);
+    final Map<Integer, Integer> contactOffsets = new HashMap<>();
+    for (final Contact contact : byId) {
+      final byte[] name = contact.getName().getBytes(StandardCharsets.UTF_8);
+      final byte[] notes = contact.getNotes().getBytes(StandardCharsets.UTF_8);
+      names.put(contact.getId(), name);
+      contactNotes.put(contact.getId(), notes);
+      contactOffsets.put(contact.getId(), validateOffset(position));
+      position += 16 + name.length + notes.length
+          + 4L * attended.getOrDefault(contact.getId(), Collections.emptyList()).size();
+    }
+    final Map<Integer, Integer> meetingOffsets = new HashMap<>();
+    for (final Meeting meeting : meetingsById) {
+      if (meeting instanceof PastMeeting) {
+        meetingNotes.put(meeting.getId(),
+                         ((PastMeeting) meeting).getNotes().getBytes(StandardCharsets.UTF_8));
+      }
+      meeting.getContacts().forEach(
+          contact -> Validation.validateArgumentNotNull(contactOffsets.get(contact.getId()),
+                                                        "Attendee"));
+      final byte[] notes = meetingNotes.get(meeting.getId());
+      meetingOffsets.put(meeting.getId(), validateOffset(position));
+      position += 20 + (notes == null ? 0 : notes.length) + 4L * meeting.getContacts().size();
+    }
+    validateOffset(position);
+
+    final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(temporary.toFile());
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(byId.size());
+      out.writeInt(meetingsById.size());
+      for (final Contact contact : byId) {
+        out.writeInt(contact.getId());
+        out.writeInt(contactOffsets.get(contact.getId()));
+      }
+      for (final Meeting meeting : meetingsById) {
+        out.writeInt(meeting.getId());
+        out.writeInt(meetingOffsets.get(meeting.getId()));
+      }
+      for (final Meeting meeting : byDate) {
+        out.writeLong(meeting.getDate().getTimeInMillis());
+        out.writeInt(meetingOffsets.get(meeting.getId()));
+      }
+      for (final Contact contact : byId) {
+        out.writeInt(contact.getId());
+        writeBytes(out, names.get(contact.getId()));
+        writeBytes(out, contactNotes.get(contact.getId()));
+        final List<Meeting> attends =
+            attended.getOrDefault(contact.getId(), Collections.emptyList());
+        out.writeInt(attends.size());
+        for (final Meeting meeting : attends) {
+          out.writeInt(meetingOffsets.get(meeting.getId()));
+        }
+      }
+      for (final Meeting meeting : meetingsById) {
+        out.writeInt(meeting.getId());
+        out.writeLong(meeting.getDate().getTimeInMillis());
+        final byte[] notes = meetingNotes.get(meeting.getId());
+        if (notes == null) {
+          out.writeInt(NO_NOTES);
+        } else {
+          writeBytes(out, notes);
+        }
+        out.writeInt(meeting.getContacts().size());
+        for (final Contact contact : meeting.getContacts()) {
+          out.writeInt(contactOffsets.get(contact.getId()));
+        }
+      }
+      out.flush();
+      //the snapshot must be on disk before it replaces the one readers have mapped
+      stream.getFD().sync();
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Check a position can be held as an offset into a single mapping.
+   * @param position the position
+   * @return the position as an offset
+   * @throws IOException if the snapshot would be too large to map
+   */
+  private static int validateOffset(final long position) throws IOException {
+    if (position > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot is too large to map");
+    }
+    return (int) position;
+  }
+
+  /**
+   * Write bytes prefixed by their length.
+   * @param out the output
+   * @param bytes the bytes
+   * @throws IOException if they cannot be written
+   */
+  private static void writeBytes(final DataOutputStream out, final byte[] bytes)
+      throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Getter for the number of contacts.
+   * @return the number of contacts
+   */
+  int getContactCount() {
+    return this.contactCount;
+  }
+
+  /**
+   * Getter for the offset of a contact in the order of their ids.
+   * @param index the position of the contact in that order
+   * @return the offset of its record
+   */
+  int contactAt(final int index) {
+    return this.buffer.getInt(HEADER_BYTES + index * ID_ENTRY_BYTES + 4);
+  }
+
+  /**
+   * Find a contact.
+   * @param id the id of the contact
+   * @return the offset of its record, or -1 if there is none
+   */
+  int findContact(final int id) {
+    return find(HEADER_BYTES, this.contactCount, id);
+  }
+
+  /**
+   * Find a meeting.
+   * @param id the id of the meeting
+   * @return the offset of its record, or -1 if there is none
+   */
+  int findMeeting(final int id) {
+    return find(this.meetingIndex, this.meetingCount, id);
+  }
+
+  /**
+   * Binary search an index of ids.
+   * @param index the position of the index
+   * @param count the number of entries
+   * @param id the id to find
+   * @return the offset of its record, or -1 if there is none
+   */
+  private int find(final int index, final int count, final int id) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int entry = index + middle * ID_ENTRY_BYTES;
+      final int found = this.buffer.getInt(entry);
+      if (found < id) {
+        low = middle + 1;
+      } else if (found > id) {
+        high = middle - 1;
+      } else {
+        return this.buffer.getInt(entry + 4);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find the meetings in a range of dates, in date order.
+   * @param from the first date included, in milliseconds
+   * @param to the first date excluded, in milliseconds
+   * @return the offsets of their records
+   */
+  int[] findMeetingsBetween(final long from, final long to) {
+    int low = 0;
+    int high = this.meetingCount;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (this.buffer.getLong(this.dateIndex + middle * DATE_ENTRY_BYTES) < from) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    int end = low;
+    while (end < this.meetingCount
+        && this.buffer.getLong(this.dateIndex + end * DATE_ENTRY_BYTES) < to) {
+      end++;
+    }
+    final int[] offsets = new int[end - low];
+    for (int entry = low; entry < end; entry++) {
+      offsets[entry - low] = this.buffer.getInt(this.dateIndex + entry * DATE_ENTRY_BYTES + 8);
+    }
+    return offsets;
+  }
+
+  /**
+   * Getter for the meetings a contact attends, in date order.
+   * @param offset the offset of the contact's record
+   * @return the offsets of the meetings' records
+   */
+  int[] meetingsOf(final int offset) {
+    int position = skipBytes(skipBytes(offset + 4));
+    final int[] offsets = new int[this.buffer.getInt(position)];
+    for (int index = 0; index < offsets.length; index++) {
+      position += 4;
+      offsets[index] = this.buffer.getInt(position);
+    }
+    return offsets;
+  }
+
+  /**
+   * Compare the name of a contact with a name, without decoding it.
+   * @param offset the offset of the contact's record
+   * @param name the name encoded as UTF-8
+   * @return true if they are the same
+   */
+  boolean nameEquals(final int offset, final byte[] name) {
+    final int length = this.buffer.getInt(offset + 4);
+    if (length != name.length) {
+      return false;
+    }
+    for (int index = 0; index < length; index++) {
+      if (this.buffer.get(offset + 8 + index) != name[index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Getter for the id of a contact or meeting.
+   * @param offset the offset of its record
+   * @return the id
+   */
+  int idAt(final int offset) {
+    return this.buffer.getInt(offset);
+  }
+
+  /**
+   * Getter for the date of a meeting.
+   * @param offset the offset of the meeting's record
+   * @return the date in milliseconds
+   */
+  long dateAt(final int offset) {
+    return this.buffer.getLong(offset + 4);
+  }
+
+  /**
+   * Getter for whether a meeting has notes, and so has taken place.
+   * @param offset the offset of the meeting's record
+   * @return true if it has notes
+   */
+  boolean hasNotes(final int offset) {
+    return this.buffer.getInt(offset + 12) != NO_NOTES;
+  }
+
+  /**
+   * Read a copy of a contact.
+   * @param offset the offset of the contact's record
+   * @return the contact
+   */
+  Contact contact(final int offset) {
+    final int notes = skipBytes(offset + 4);
+    return new ContactImpl(this.buffer.getInt(offset), readString(offset + 4),
+                           readString(notes));
+  }
+
+  /**
+   * Read a copy of a meeting and its attendees.
+   * @param offset the offset of the meeting's record
+   * @return a past meeting if it has notes, otherwise a future meeting
+   */
+  Meeting meeting(final int offset) {
+    final Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(dateAt(offset));
+    final boolean past = hasNotes(offset);
+    int position = past ? skipBytes(offset + 12) : offset + 16;
+    final Set<Contact> attendees = new HashSet<>();
+    for (int count = this.buffer.getInt(position); count > 0; count--) {
+      position += 4;
+      attendees.add(contact(this.buffer.getInt(position)));
+    }
+    final int id = this.buffer.getInt(offset);
+    return past
+        ? new PastMeetingImpl(id, date, attendees, readString(offset + 12))
+        : new FutureMeetingImpl(id, date, attendees);
+  }
+
+  /**
+   * Skip a string.
+   * @param position the position of its length
+   * @return the position after it
+   */
+  private int skipBytes(final int position) {
+    return position + 4 + this.buffer.getInt(position);
+  }
+
+  /**
+   * Decode a string.
+   * @param position the position of its length
+   * @return the string
+   */
+  private String readString(final int position) {
+    final byte[] bytes = new byte[this.buffer.getInt(position)];
+    final ByteBuffer view = this.buffer.duplicate();
+    view.position(position + 4);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,413 @@
+package impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import spec.PastMeeting;
+
+/**
+ * MeetingArchive holds past meetings that have been moved off the heap into immutable,
+ * compressed segment files, reading them back on demand through a bounded cache.
+ *
+ * <p>Each call to {@link #append(List)} writes one segment, named in sequence, made of blocks of
+ * up to {@link #RECORDS_PER_BLOCK} meetings compressed together with Deflate. Only the location
+ * of each archived meeting stays resident: its segment, the offset of its block and its place
+ * within the block. The owning manager keeps the date and attendee indexes for archived
+ * meetings alongside those for the meetings it holds, so lists and searches know which
+ * meetings to read without opening a segment.
+ *
+ * <p>Reading a meeting decompresses its block and keeps the meeting in a least recently used
+ * cache of fixed capacity. A meeting replaced in the manager, for example by adding notes, is
+ * removed from the resident index; its old record stays in its segment until the next archive
+ * run writes the new one to a later segment, which takes precedence when segments are loaded.
+ *
+ * <p>The archive is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class MeetingArchive {
+
+  /** The number of meetings compressed together in one block. */
+  public static final int RECORDS_PER_BLOCK = 64;
+  /** The number of meetings kept in the cache unless another capacity is given. */
+  public static final int DEFAULT_CACHE_CAPACITY = 1_024;
+
+  private static final int MAGIC = 0x434D4152;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+  private static final String PREFIX = "segment-";
+  private static final String SUFFIX = ".seg";
+
+  private final Path directory;
+  private final int cacheCapacity;
+  private final Map<Integer, Location> locations;
+  private final Map<Integer, PastMeeting> cache;
+  private final List<Path> segments;
+  private AttendeeSetPool pool;
+  private long cacheHits;
+  private long cacheMisses;
+
+  /**
+   * The place of an archived meeting within the segments.
+   */
+  private static final class Location {
+    private final int segment;
+    private final long blockOffset;
+    private final int ordinal;
+
+    /**
+     * Constructor for a location.
+     * @param suppliedSegment the index of the segment
+     * @param suppliedBlockOffset the offset of the block within the segment
+     * @param suppliedOrdinal the place of the meeting within the block
+     */
+    Location(final int suppliedSegment, final long suppliedBlockOffset,
+             final int suppliedOrdinal) {
+      this.segment = suppliedSegment;
+      this.blockOffset = suppliedBlockOffset;
+      this.ordinal = suppliedOrdinal;
+    }
+
+    /**
+     * Check whether this is the same place as another location.
+     * @param other the other location
+     * @return true if both are the place of the same record
+     */
+    boolean isAt(final Location other) {
+      return this.segment == other.segment && this.blockOffset == other.blockOffset
+          && this.ordinal == other.ordinal;
+    }
+  }
+
+  /**
+   * Receives each record read from a segment.
+   */
+  private interface RecordVisitor {
+    /**
+     * Visit a record.
+     * @param meeting the meeting the record holds
+     * @param location where the record is
+     */
+    void visit(PastMeeting meeting, Location location);
+  }
+
+  /**
+   * Constructor for an archive kept in a directory, which is created if it does not exist.
+   * Existing segments are read by {@link #load(AttendeeSetPool, Consumer)}.
+   * @param suppliedDirectory the directory holding the segments
+   * @param suppliedCacheCapacity the largest number of meetings cached
+   * @throws IOException if the directory cannot be created
+   */
+  MeetingArchive(final Path suppliedDirectory, final int suppliedCacheCapacity)
+      throws IOException {
+    Validation.validateObjectNotNull(suppliedDirectory, "Directory");
+    Validation.validateIdPositive(suppliedCacheCapacity);
+    this.directory = Files.createDirectories(suppliedDirectory);
+    this.cacheCapacity = suppliedCacheCapacity;
+    this.locations = new HashMap<>();
+    this.cache = new LinkedHashMap<Integer, PastMeeting>(16, 0.75f, true) {
+      private static final long serialVersionUID = Long.MIN_VALUE;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Integer, PastMeeting> eldest) {
+        return size() > MeetingArchive.this.cacheCapacity;
+      }
+    };
+    this.segments = new ArrayList<>();
+  }
+
+  /**
+   * Getter for the directory holding the segments.
+   * @return the directory
+   */
+  public Path getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Getter for the capacity of the cache.
+   * @return the largest number of meetings cached
+   */
+  public int getCacheCapacity() {
+    return this.cacheCapacity;
+  }
+
+  /**
+   * Getter for the number of meetings held in the archive.
+   * @return the number of archived meetings
+   */
+  public int size() {
+    return this.locations.size();
+  }
+
+  /**
+   * Getter for the number of reads answered from the cache.
+   * @return the number of cache hits
+   */
+  public long getCacheHits() {
+    return this.cacheHits;
+  }
+
+  /**
+   * Getter for the number of reads that went to a segment.
+   * @return the number of cache misses
+   */
+  public long getCacheMisses() {
+    return this.cacheMisses;
+  }
+
+  /**
+   * Read every segment in the directory, in the order written, recording where each meeting is
+   * and handing each one to the consumer so the owning manager can index it. A meeting held in
+   * a later segment replaces any earlier record of it.
+   * @param suppliedPool the pool that attendee sets of meetings read back are interned in
+   * @param consumer receives every meeting read
+   * @throws IOException if a segment cannot be read
+   */
+  void load(final AttendeeSetPool suppliedPool, final Consumer<PastMeeting> consumer)
+      throws IOException {
+    this.pool = suppliedPool;
+    this.locations.clear();
+    this.cache.clear();
+    this.segments.clear();
+    final List<Path> found = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+        PREFIX + "*" + SUFFIX)) {
+      stream.forEach(found::add);
+    }
+    found.sort(null);
+    for (final Path segment : found) {
+      this.segments.add(segment);
+      readSegment(this.segments.size() - 1, (meeting, location) -> {
+        this.locations.put(meeting.getId(), location);
+        consumer.accept(meeting);
+      });
+    }
+  }
+
+  /**
+   * Read every meeting held in the archive, without changing what it holds or caches. Only the
+   * latest record of each meeting is handed on, and only for meetings still archived, so a
+   * meeting archived again after a change, or since replaced in the owning manager, is not
+   * handed on with its old record.
+   * @param consumer receives every archived meeting, in the order written
+   * @throws IOException if a segment cannot be read
+   */
+  void forEach(final Consumer<PastMeeting> consumer) throws IOException {
+    for (int segment = 0; segment < this.segments.size(); segment++) {
+      readSegment(segment, (meeting, location) -> {
+        final Location latest = this.locations.get(meeting.getId());
+        if (latest != null && latest.isAt(location)) {
+          consumer.accept(meeting);
+        }
+      });
+    }
+  }
+
+  /**
+   * Write meetings to a new segment and record where each one is.
+   * @param meetings the meetings to archive, oldest first for best locality
+   * @throws IOException if the segment cannot be written; no meeting is archived
+   */
+  void append(final List<PastMeeting> meetings) throws IOException {
+    if (meetings.isEmpty()) {
+      return;
+    }
+    final int segment = this.segments.size();
+    final Path target = this.directory.resolve(String.format("%s%08d%s", PREFIX, segment, SUFFIX));
+    final Path temporary = this.directory.resolve(target.getFileName() + ".tmp");
+    final Map<Integer, Location> written = new HashMap<>();
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      long offset = HEADER_BYTES;
+      for (int start = 0; start < meetings.size(); start += RECORDS_PER_BLOCK) {
+        final List<PastMeeting> block =
+            meetings.subList(start, Math.min(meetings.size(), start + RECORDS_PER_BLOCK));
+        final byte[] compressed = compress(block);
+        for (int ordinal = 0; ordinal < block.size(); ordinal++) {
+          written.put(block.get(ordinal).getId(), new Location(segment, offset, ordinal));
+        }
+        out.writeInt(compressed.length);
+        out.write(compressed);
+        offset += Integer.BYTES + compressed.length;
+      }
+    }
+    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    this.segments.add(target);
+    this.locations.putAll(written);
+  }
+
+  /**
+   * Check whether a meeting is archived.
+   * @param id the meeting id
+   * @return true if the meeting is held in the archive
+   */
+  boolean contains(final int id) {
+    return this.locations.containsKey(id);
+  }
+
+  /**
+   * Read an archived meeting, from the cache if it is there.
+   * @param id the meeting id
+   * @return the meeting, or null if it is not archived
+   */
+  PastMeeting get(final int id) {
+    final Location location = this.locations.get(id);
+    if (location == null) {
+      return null;
+    }
+    PastMeeting meeting = this.cache.get(id);
+    if (meeting != null) {
+      this.cacheHits++;
+      return meeting;
+    }
+    this.cacheMisses++;
+    try {
+      meeting = readMeeting(location);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.cache.put(id, meeting);
+    return meeting;
+  }
+
+  /**
+   * Forget an archived meeting that the owning manager now holds a newer copy of.
+   * @param id the meeting id
+   */
+  void remove(final int id) {
+    this.locations.remove(id);
+    this.cache.remove(id);
+  }
+
+  /**
+   * Compress a block of meetings.
+   * @param block the meetings
+   * @return the compressed block
+   * @throws IOException never, as the block is written to memory
+   */
+  private static byte[] compress(final List<PastMeeting> block) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+      for (final PastMeeting meeting : block) {
+        MeetingCodec.write(out, meeting);
+      }
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Read a meeting record.
+   * @param in the stream to read from
+   * @return the meeting
+   * @throws IOException if the stream cannot be read
+   */
+  private PastMeeting readMeeting(final DataInputStream in) throws IOException {
+    return (PastMeeting) MeetingCodec.read(in, this.pool);
+  }
+
+  /**
+   * Read the meeting at a location from its segment.
+   * @param location the location
+   * @return the meeting
+   * @throws IOException if the segment cannot be read
+   */
+  private PastMeeting readMeeting(final Location location) throws IOException {
+    final byte[] compressed;
+    try (RandomAccessFile file =
+             new RandomAccessFile(this.segments.get(location.segment).toFile(), "r")) {
+      file.seek(location.blockOffset);
+      compressed = new byte[file.readInt()];
+      file.readFully(compressed);
+    }
+    final DataInputStream in = new DataInputStream(inflate(compressed));
+    for (int ordinal = 0; ordinal < location.ordinal; ordinal++) {
+      readMeeting(in);
+    }
+    return readMeeting(in);
+  }
+
+  /**
+   * Read every block of a segment, handing on each record with its location.
+   * @param segment the index of the segment
+   * @param visitor receives every record read
+   * @throws IOException if the segment cannot be read or is not a segment
+   */
+  private void readSegment(final int segment, final RecordVisitor visitor)
+      throws IOException {
+    try (DataInputStream file = new DataInputStream(
+        Files.newInputStream(this.segments.get(segment)))) {
+      if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+        throw new IOException("Not a meeting archive segment: " + this.segments.get(segment));
+      }
+      long offset = HEADER_BYTES;
+      while (true) {
+        final int length;
+        try {
+          length = file.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        final byte[] compressed = new byte[length];
+        file.readFully(compressed);
+        final DataInputStream in = new DataInputStream(inflate(compressed));
+        for (int ordinal = 0; in.available() > 0; ordinal++) {
+          visitor.visit(readMeeting(in), new Location(segment, offset, ordinal));
+        }
+        offset += Integer.BYTES + length;
+      }
+    }
+  }
+
+  /**
+   * Decompress a block.
+   * @param compressed the compressed block
+   * @return a stream over the records of the block
+   * @throws IOException if the block is corrupt
+   */
+  private static InputStream inflate(final byte[] compressed) throws IOException {
+    final Inflater inflater = new Inflater();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 4);
+    try {
+      inflater.setInput(compressed);
+      final byte[] buffer = new byte[8_192];
+      while (!inflater.finished()) {
+        final int read = inflater.inflate(buffer);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated meeting archive block");
+        }
+        bytes.write(buffer, 0, read);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+}
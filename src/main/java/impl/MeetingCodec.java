@@ -0,0 +1,101 @@
+package impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * MeetingCodec writes meetings in the compact binary form used by the archive and the disk
+ * store: id, date in milliseconds and its zone, attendee ids, then the notes as UTF-8 with a
+ * length of -1 for a meeting that has none.
+ *
+ * @author Alexander Worton.
+ */
+final class MeetingCodec {
+
+  private static final int NO_NOTES = -1;
+
+  private MeetingCodec() {
+  }
+
+  /**
+   * Write a meeting.
+   * @param out the output to write to
+   * @param meeting the meeting
+   * @throws IOException if the output cannot be written
+   */
+  static void write(final DataOutput out, final Meeting meeting) throws IOException {
+    out.writeInt(meeting.getId());
+    out.writeLong(meeting.getDate().getTimeInMillis());
+    out.writeUTF(meeting.getDate().getTimeZone().getID());
+    out.writeInt(meeting.getContacts().size());
+    for (final Contact contact : meeting.getContacts()) {
+      out.writeInt(contact.getId());
+    }
+    if (meeting instanceof PastMeeting) {
+      final byte[] notes = ((PastMeeting) meeting).getNotes().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(notes.length);
+      out.write(notes);
+    } else {
+      out.writeInt(NO_NOTES);
+    }
+  }
+
+  /**
+   * Read a meeting: a past meeting if it was written with notes, otherwise a future meeting.
+   * @param in the input to read from
+   * @param pool the pool the attendees are interned in
+   * @return the meeting
+   * @throws IOException if the input cannot be read
+   */
+  static Meeting read(final DataInput in, final AttendeeSetPool pool) throws IOException {
+    final int id = in.readInt();
+    final long dateMillis = in.readLong();
+    final Calendar date = Calendar.getInstance(TimeZone.getTimeZone(in.readUTF()));
+    date.setTimeInMillis(dateMillis);
+    final IdBitmap attendees = new IdBitmap();
+    final int count = in.readInt();
+    for (int index = 0; index < count; index++) {
+      attendees.add(in.readInt());
+    }
+    final int notesLength = in.readInt();
+    if (notesLength == NO_NOTES) {
+      return new FutureMeetingImpl(id, date, pool.intern(attendees));
+    }
+    final byte[] notes = new byte[notesLength];
+    in.readFully(notes);
+    return new PastMeetingImpl(id, date, pool.intern(attendees),
+        new String(notes, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write a string as UTF-8 preceded by its length, which unlike writeUTF has no 64 KB limit.
+   * @param out the output to write to
+   * @param text the string
+   * @throws IOException if the output cannot be written
+   */
+  static void writeText(final DataOutput out, final String text) throws IOException {
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string written by {@link #writeText(DataOutput, String)}.
+   * @param in the input to read from
+   * @return the string
+   * @throws IOException if the input cannot be read
+   */
+  static String readText(final DataInput in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
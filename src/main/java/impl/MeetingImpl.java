@@ -68,6 +68,15 @@ public abstract class MeetingImpl implements Meeting, Serializable {
     this.contacts = contacts;
   }
 
+  /**
+   * Replace the attendees with the canonical set from the manager's pool, binding them to the
+   * manager's contacts.
+   * @param pool the manager's attendee set pool
+   */
+  void internContacts(final AttendeeSetPool pool) {
+    this.contacts = pool.intern(this.contacts);
+  }
+
   /**
    * {@inheritDoc}.
    */
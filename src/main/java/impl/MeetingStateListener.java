@@ -0,0 +1,22 @@
+package impl;
+
+import spec.Meeting;
+
+/**
+ * MeetingStateListener is notified when a future meeting's date passes and the meeting moves
+ * from the future meetings to the meetings awaiting notes.
+ *
+ * <p>Listeners are called while the contact manager is locked, so they must return quickly and
+ * must not call back into the manager from another thread and wait on the result.
+ *
+ * @author Alexander Worton.
+ */
+@FunctionalInterface
+public interface MeetingStateListener {
+
+  /**
+   * Called once a future meeting's date has passed.
+   * @param meeting the meeting that is now in the past and awaiting notes
+   */
+  void meetingElapsed(Meeting meeting);
+}
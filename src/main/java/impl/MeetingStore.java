@@ -0,0 +1,82 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import spec.Meeting;
+
+/**
+ * MeetingStore holds the meetings of a {@link ContactManagerImpl} by id. The manager keeps its
+ * date, state, attendee and notes indexes in memory alongside the store, so a store only has
+ * to answer lookups by id and hand back every meeting when those indexes are rebuilt.
+ *
+ * <p>{@link InMemoryMeetingStore} is the default. {@link DiskMeetingStore} keeps meetings on
+ * disk behind a fixed size buffer pool, for meetings whose records would not fit on the heap;
+ * the manager's indexes stay on the heap either way.
+ *
+ * <p>Stores are used under the manager's lock and need not be thread safe.
+ *
+ * @author Alexander Worton.
+ */
+public interface MeetingStore extends Closeable {
+
+  /**
+   * Find a meeting.
+   * @param id the meeting id
+   * @return the meeting, or null if there is none with the id
+   */
+  Meeting get(int id);
+
+  /**
+   * Add a meeting, replacing any meeting with the same id.
+   * @param meeting the meeting
+   */
+  void put(Meeting meeting);
+
+  /**
+   * Remove a meeting if it is held.
+   * @param id the meeting id
+   */
+  void remove(int id);
+
+  /**
+   * Check whether a meeting is held.
+   * @param id the meeting id
+   * @return true if a meeting with the id is held
+   */
+  boolean contains(int id);
+
+  /**
+   * Getter for the number of meetings held.
+   * @return the number of meetings
+   */
+  int size();
+
+  /**
+   * Hand every meeting held to a consumer, in no particular order.
+   * @param consumer receives each meeting
+   */
+  void forEach(Consumer<Meeting> consumer);
+
+  /**
+   * Set the pool that attendee sets of meetings read back from storage are interned in. The
+   * manager calls this before using the store and whenever it rebuilds its indexes. Stores
+   * that hold meetings as objects may ignore it.
+   * @param pool the manager's attendee set pool
+   */
+  void bind(AttendeeSetPool pool);
+
+  /**
+   * Check whether the store keeps its meetings across restarts itself. The manager writes the
+   * meetings of other stores into its snapshot.
+   * @return true if the store is durable
+   */
+  boolean isDurable();
+
+  /**
+   * Write any buffered changes to storage.
+   * @throws IOException if the changes cannot be written
+   */
+  void flush() throws IOException;
+}
@@ -0,0 +1,25 @@
+package impl;
+
+/**
+ * MutationCallback is told the outcome of writes submitted to a {@link MutationPipeline}. It is
+ * called on the pipeline's writer thread, in sequence order, and must not block. One callback
+ * may be shared by any number of writes, so submitting a write need not allocate.
+ *
+ * @author Alexander Worton.
+ */
+public interface MutationCallback {
+
+  /**
+   * Called once a write has been applied.
+   * @param sequence the sequence the write was given when submitted
+   * @param id the id of the contact or meeting added, or of the meeting given notes
+   */
+  void applied(long sequence, int id);
+
+  /**
+   * Called if a write was rejected, with the exception the blocking method would have thrown.
+   * @param sequence the sequence the write was given when submitted
+   * @param failure the reason the write was rejected
+   */
+  void rejected(long sequence, RuntimeException failure);
+}
@@ -0,0 +1,597 @@
+package impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import spec.Contact;
+import spec.Meeting;
+
+/**
+ * MutationJournal makes the mutations of a contact manager durable between snapshots by
+ * appending a record of each to a file, using group commit so that many mutations share one
+ * write and one fsync.
+ *
+ * <p>Records are appended to an in-memory batch and each is given a sequence number. A single
+ * writer thread waits until the batch is {@link #getMaxDelay()} old or holds
+ * {@link #getMaxBatchRecords()} records, then writes the whole batch and forces it to disk.
+ * Callers block in {@link #awaitDurable(long)} until their record has been forced, so a
+ * mutation is only acknowledged once it would survive a crash, while the cost of the fsync is
+ * spread across every caller that arrived during the delay.
+ *
+ * <p>Each record is framed by its length and a CRC32 of its contents. When the journal is
+ * replayed a record cut short by a crash fails its check, and it and anything after it are
+ * truncated. The owning manager checkpoints the journal after each snapshot, emptying it.
+ *
+ * @author Alexander Worton.
+ */
+public final class MutationJournal implements Closeable {
+
+  /** How long a batch waits for more records unless another delay is given. */
+  public static final Duration DEFAULT_MAX_DELAY = Duration.ofNanos(200_000L);
+  /** The number of records that fills a batch unless another number is given. */
+  public static final int DEFAULT_MAX_BATCH_RECORDS = 1_024;
+
+  private static final byte CONTACT = 1;
+  private static final byte MEETING = 2;
+  private static final byte CONTACT_ID_LEASE = 3;
+  private static final byte MEETING_ID_LEASE = 4;
+  private static final int HEADER_BYTES = 8;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final long maxDelayNanos;
+  private final int maxBatchRecords;
+  private final Thread writer;
+  private final ByteArrayOutputStream record;
+  private final DataOutputStream recordOut;
+  private final CRC32 checksum;
+  private ByteArrayOutputStream pending;
+  private ByteArrayOutputStream spare;
+  private int pendingRecords;
+  private long pendingSinceNanos;
+  private long end;
+  private long appended;
+  private long durable;
+  private long syncCount;
+  private final PriorityQueue<Waiter> waiters;
+  private IOException failure;
+  private boolean open;
+
+  /**
+   * A future completed once the record with its sequence is durable.
+   */
+  private static final class Waiter {
+    private final long sequence;
+    private final CompletableFuture<Void> future;
+
+    /**
+     * Constructor for a waiter.
+     * @param suppliedSequence the sequence of the record
+     * @param suppliedFuture the future to complete
+     */
+    private Waiter(final long suppliedSequence, final CompletableFuture<Void> suppliedFuture) {
+      this.sequence = suppliedSequence;
+      this.future = suppliedFuture;
+    }
+  }
+
+  /**
+   * Receives the records of the journal as it is replayed.
+   */
+  interface RecordHandler {
+    /**
+     * Apply a contact that was added or had its notes replaced.
+     * @param id the contact id
+     * @param name the contact name
+     * @param notes the contact notes
+     */
+    void contact(int id, String name, String notes);
+
+    /**
+     * Apply a meeting that was added or had notes added.
+     * @param meeting the meeting
+     */
+    void meeting(Meeting meeting);
+
+    /**
+     * Apply a lease of contact ids.
+     * @param limit the highest contact id that may have been handed out
+     */
+    void contactIdsLeased(int limit);
+
+    /**
+     * Apply a lease of meeting ids.
+     * @param limit the highest meeting id that may have been handed out
+     */
+    void meetingIdsLeased(int limit);
+  }
+
+  /**
+   * Writes the contents of a single record.
+   */
+  private interface Encoder {
+    /**
+     * Write the record.
+     * @param out the output to write to
+     * @throws IOException if the output cannot be written
+     */
+    void encode(DataOutput out) throws IOException;
+  }
+
+  /**
+   * Constructor for a journal kept in a file, which is created if it does not exist. Records
+   * already in the file must be replayed before any are appended.
+   * @param suppliedFile the journal file
+   * @param maxDelay how long a batch waits for more records before it is written
+   * @param suppliedMaxBatchRecords the number of records that is written without waiting
+   * @throws IOException if the file cannot be opened
+   */
+  MutationJournal(final Path suppliedFile, final Duration maxDelay,
+                  final int suppliedMaxBatchRecords) throws IOException {
+    Validation.validateObjectNotNull(suppliedFile, "File");
+    Validation.validateObjectNotNull(maxDelay, "Delay");
+    Validation.validateDurationNotNegative(maxDelay, "Delay");
+    Validation.validateIdPositive(suppliedMaxBatchRecords);
+    this.file = suppliedFile;
+    this.maxDelayNanos = maxDelay.toNanos();
+    this.maxBatchRecords = suppliedMaxBatchRecords;
+    this.record = new ByteArrayOutputStream();
+    this.recordOut = new DataOutputStream(this.record);
+    this.checksum = new CRC32();
+    this.pending = new ByteArrayOutputStream();
+    this.spare = new ByteArrayOutputStream();
+    this.waiters = new PriorityQueue<>((first, second) ->
+        Long.compare(first.sequence, second.sequence));
+    this.channel = FileChannel.open(suppliedFile, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.open = true;
+    this.writer = new Thread(this::write, "mutation-journal-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Getter for the journal file.
+   * @return the file
+   */
+  public Path getFile() {
+    return this.file;
+  }
+
+  /**
+   * Getter for how long a batch waits for more records before it is written.
+   * @return the delay
+   */
+  public Duration getMaxDelay() {
+    return Duration.ofNanos(this.maxDelayNanos);
+  }
+
+  /**
+   * Getter for the number of records that is written without waiting.
+   * @return the number of records
+   */
+  public int getMaxBatchRecords() {
+    return this.maxBatchRecords;
+  }
+
+  /**
+   * Getter for the sequence of the last record appended since the journal was opened.
+   * @return the sequence, or 0 if none has been appended
+   */
+  public synchronized long getLastAppended() {
+    return this.appended;
+  }
+
+  /**
+   * Getter for the sequence of the last record forced to disk.
+   * @return the sequence, or 0 if none has been forced
+   */
+  public synchronized long getLastDurable() {
+    return this.durable;
+  }
+
+  /**
+   * Getter for the number of batches forced to disk, each with a single fsync.
+   * @return the number of syncs
+   */
+  public synchronized long getSyncCount() {
+    return this.syncCount;
+  }
+
+  /**
+   * Read the records in the file, handing each to the handler, and truncate any torn record
+   * at the end. Must be called before any record is appended.
+   * @param pool the pool the attendees of meetings are interned in
+   * @param handler receives each record
+   * @return the number of records replayed
+   * @throws IOException if the file cannot be read or truncated
+   */
+  synchronized int replay(final AttendeeSetPool pool, final RecordHandler handler)
+      throws IOException {
+    Validation.validateObjectNotNull(pool, "Pool");
+    Validation.validateObjectNotNull(handler, "Handler");
+    final long size = this.channel.size();
+    long valid = 0;
+    int count = 0;
+    this.channel.position(0);
+    final DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Channels.newInputStream(this.channel)));
+    while (valid + HEADER_BYTES <= size) {
+      final int length = in.readInt();
+      final int crc = in.readInt();
+      if (length < 1 || length > size - valid - HEADER_BYTES) {
+        break;
+      }
+      final byte[] contents = new byte[length];
+      in.readFully(contents);
+      this.checksum.reset();
+      this.checksum.update(contents);
+      if ((int) this.checksum.getValue() != crc) {
+        break;
+      }
+      decode(new DataInputStream(new ByteArrayInputStream(contents)), pool, handler);
+      valid += HEADER_BYTES + length;
+      count++;
+    }
+    if (valid < size) {
+      //a crash part way through a batch leaves a torn record, which was never acknowledged
+      this.channel.truncate(valid);
+      this.channel.force(false);
+    }
+    this.end = valid;
+    return count;
+  }
+
+  /**
+   * Read the whole records of a journal another manager is writing, from a position onwards,
+   * without changing the file. Reading stops at a record cut short or failing its check, which
+   * may still be being written.
+   * @param file the journal file
+   * @param from the position to read from
+   * @param into receives the contents of each record
+   * @return the position after the last record read, or -1 if the file is shorter than the
+   *     position, or was truncated while it was read, by a checkpoint
+   * @throws IOException if the file cannot be read
+   */
+  static long readRecords(final Path file, final long from, final List<byte[]> into)
+      throws IOException {
+    try (FileChannel reading = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = reading.size();
+      if (size < from) {
+        return -1;
+      }
+      final CRC32 check = new CRC32();
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(reading.position(from))));
+      long valid = from;
+      while (valid + HEADER_BYTES <= size) {
+        final int length = in.readInt();
+        final int crc = in.readInt();
+        if (length < 1 || length > size - valid - HEADER_BYTES) {
+          break;
+        }
+        final byte[] contents = new byte[length];
+        in.readFully(contents);
+        check.reset();
+        check.update(contents);
+        if ((int) check.getValue() != crc) {
+          break;
+        }
+        into.add(contents);
+        valid += HEADER_BYTES + length;
+      }
+      return reading.size() < valid ? -1 : valid;
+    } catch (EOFException e) {
+      //the file was truncated part way through a record
+      return -1;
+    }
+  }
+
+  /**
+   * Append a record of a contact that was added or had its notes replaced.
+   * @param contact the contact
+   * @return the sequence of the record
+   */
+  synchronized long appendContact(final Contact contact) {
+    return append(out -> writeContact(out, contact.getId(), contact.getName(),
+                                      contact.getNotes()));
+  }
+
+  /**
+   * Append a record of a meeting that was added or had notes added.
+   * @param meeting the meeting
+   * @return the sequence of the record
+   */
+  synchronized long appendMeeting(final Meeting meeting) {
+    return append(out -> writeMeeting(out, meeting));
+  }
+
+  /**
+   * Append a record of a lease of ids, so that ids handed out under it are not handed out
+   * again after a crash.
+   * @param meetingIds true for a lease of meeting ids, false for contact ids
+   * @param limit the highest id that may be handed out
+   * @return the sequence of the record
+   */
+  synchronized long appendIdLease(final boolean meetingIds, final int limit) {
+    return append(out -> {
+      out.writeByte(meetingIds ? MEETING_ID_LEASE : CONTACT_ID_LEASE);
+      out.writeInt(limit);
+    });
+  }
+
+  /**
+   * Block until a record has been forced to disk.
+   * @param sequence the sequence of the record
+   * @throws UncheckedIOException if the batch holding the record could not be written
+   */
+  synchronized void awaitDurable(final long sequence) {
+    boolean interrupted = false;
+    while (this.durable < sequence && this.failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        //the record is already on its way to disk, so keep waiting for the acknowledgement
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (this.durable < sequence) {
+      throw new UncheckedIOException(this.failure);
+    }
+  }
+
+  /**
+   * Get a future completed once a record has been forced to disk, for callers that must not
+   * block. The future is completed on the writer thread, so callers should move any work that
+   * depends on it to their own executor.
+   * @param sequence the sequence of the record
+   * @return the future, completed exceptionally if the batch holding the record could not be
+   *     written
+   */
+  synchronized CompletableFuture<Void> whenDurable(final long sequence) {
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    if (this.durable >= sequence) {
+      future.complete(null);
+    } else if (this.failure != null) {
+      future.completeExceptionally(new UncheckedIOException(this.failure));
+    } else {
+      this.waiters.add(new Waiter(sequence, future));
+    }
+    return future;
+  }
+
+  /**
+   * Empty the journal once everything in it is held in a snapshot that has reached the disk.
+   * Waits for records still being written first.
+   * @throws IOException if the file cannot be truncated or a batch could not be written
+   */
+  synchronized void checkpoint() throws IOException {
+    awaitDurable(this.appended);
+    this.channel.truncate(0);
+    this.channel.force(false);
+    this.end = 0;
+  }
+
+  /**
+   * Write any records still waiting, stop the writer and close the file.
+   * @throws IOException if the file cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (!this.open) {
+        return;
+      }
+      this.open = false;
+      notifyAll();
+    }
+    LockSupport.unpark(this.writer);
+    try {
+      this.writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.channel.close();
+  }
+
+  /**
+   * Frame an encoded record and add it to the batch, waking the writer if it is the first
+   * record of the batch or fills it. Must be called holding the journal's lock.
+   * @param encoder writes the contents of the record
+   * @return the sequence of the record
+   */
+  private long append(final Encoder encoder) {
+    if (!this.open) {
+      throw new IllegalStateException("Journal has been closed");
+    }
+    if (this.failure != null) {
+      throw new UncheckedIOException(this.failure);
+    }
+    this.record.reset();
+    try {
+      encoder.encode(this.recordOut);
+      this.recordOut.flush();
+    } catch (IOException e) {
+      //the record is written to memory, which cannot fail
+      throw new UncheckedIOException(e);
+    }
+    final byte[] contents = this.record.toByteArray();
+    this.checksum.reset();
+    this.checksum.update(contents);
+    writeInt(this.pending, contents.length);
+    writeInt(this.pending, (int) this.checksum.getValue());
+    this.pending.write(contents, 0, contents.length);
+    this.pendingRecords++;
+    if (this.pendingRecords == 1) {
+      this.pendingSinceNanos = System.nanoTime();
+      notifyAll();
+    } else if (this.pendingRecords == this.maxBatchRecords) {
+      LockSupport.unpark(this.writer);
+    }
+    return ++this.appended;
+  }
+
+  /**
+   * Writer loop run on the journal's thread: wait for a batch to fill or reach its delay,
+   * then write and force it.
+   */
+  private void write() {
+    while (true) {
+      final ByteArrayOutputStream batch;
+      final long last;
+      final long position;
+      synchronized (this) {
+        while (this.open && this.pendingRecords == 0) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            this.open = false;
+          }
+        }
+        if (this.pendingRecords == 0) {
+          return;
+        }
+      }
+      //wait outside the lock so callers can keep adding to the batch
+      long remaining = remainingDelay();
+      while (remaining > 0) {
+        LockSupport.parkNanos(this, remaining);
+        remaining = remainingDelay();
+      }
+      synchronized (this) {
+        batch = this.pending;
+        this.pending = this.spare;
+        this.spare = batch;
+        this.pendingRecords = 0;
+        last = this.appended;
+        position = this.end;
+        this.end += batch.size();
+      }
+      try {
+        final ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+        while (buffer.hasRemaining()) {
+          this.channel.write(buffer, position + buffer.position());
+        }
+        this.channel.force(false);
+      } catch (IOException e) {
+        final List<Waiter> failed = new ArrayList<>();
+        synchronized (this) {
+          this.failure = e;
+          failed.addAll(this.waiters);
+          this.waiters.clear();
+          notifyAll();
+        }
+        failed.forEach(waiter -> waiter.future.completeExceptionally(new UncheckedIOException(e)));
+        return;
+      }
+      batch.reset();
+      final List<Waiter> completed = new ArrayList<>();
+      synchronized (this) {
+        this.durable = last;
+        this.syncCount++;
+        while (!this.waiters.isEmpty() && this.waiters.peek().sequence <= last) {
+          completed.add(this.waiters.poll());
+        }
+        notifyAll();
+      }
+      completed.forEach(waiter -> waiter.future.complete(null));
+    }
+  }
+
+  /**
+   * Work out how much longer the current batch should wait for more records.
+   * @return the remaining delay in nanoseconds, or 0 if the batch should be written now
+   */
+  private synchronized long remainingDelay() {
+    if (!this.open || this.pendingRecords >= this.maxBatchRecords) {
+      return 0;
+    }
+    return this.pendingSinceNanos + this.maxDelayNanos - System.nanoTime();
+  }
+
+  /**
+   * Write the contents of a record of a contact that was added or had its notes replaced.
+   * @param out the output to write to
+   * @param id the contact id
+   * @param name the contact name
+   * @param notes the contact notes
+   * @throws IOException if the output cannot be written
+   */
+  static void writeContact(final DataOutput out, final int id, final String name,
+                           final String notes) throws IOException {
+    out.writeByte(CONTACT);
+    out.writeInt(id);
+    MeetingCodec.writeText(out, name);
+    MeetingCodec.writeText(out, notes);
+  }
+
+  /**
+   * Write the contents of a record of a meeting that was added or had notes added.
+   * @param out the output to write to
+   * @param meeting the meeting
+   * @throws IOException if the output cannot be written
+   */
+  static void writeMeeting(final DataOutput out, final Meeting meeting) throws IOException {
+    out.writeByte(MEETING);
+    MeetingCodec.write(out, meeting);
+  }
+
+  /**
+   * Decode the contents of a record and hand it to the handler.
+   * @param in the contents
+   * @param pool the pool the attendees of meetings are interned in
+   * @param handler receives the record
+   * @throws IOException if the contents cannot be decoded
+   */
+  static void decode(final DataInput in, final AttendeeSetPool pool,
+                     final RecordHandler handler) throws IOException {
+    final byte type = in.readByte();
+    if (type == CONTACT) {
+      handler.contact(in.readInt(), MeetingCodec.readText(in), MeetingCodec.readText(in));
+    } else if (type == MEETING) {
+      handler.meeting(MeetingCodec.read(in, pool));
+    } else if (type == CONTACT_ID_LEASE) {
+      handler.contactIdsLeased(in.readInt());
+    } else if (type == MEETING_ID_LEASE) {
+      handler.meetingIdsLeased(in.readInt());
+    } else {
+      throw new EOFException("Unknown journal record type " + type);
+    }
+  }
+
+  /**
+   * Write a big-endian int to a byte stream.
+   * @param out the stream
+   * @param value the value
+   */
+  private static void writeInt(final ByteArrayOutputStream out, final int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
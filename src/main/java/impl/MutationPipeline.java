@@ -0,0 +1,412 @@
+package impl;
+
+import java.io.Closeable;
+import java.util.Calendar;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import spec.Contact;
+
+/**
+ * MutationPipeline funnels writes to a {@link ContactManagerImpl} through a preallocated ring
+ * buffer to a single writer thread, so that writers do not contend for the manager's lock.
+ *
+ * <p>A producer claims the next sequence with a single atomic increment, fills the ring slot
+ * for it in place and publishes it. Closing the pipeline flips the sign of the claim counter in
+ * the same way, which fixes the number of writes the writer drains before it stops: any claim
+ * made after it is negative and rejected. Nothing is allocated per write: arguments are referenced
+ * from the slot, results are reported to a {@link MutationCallback} the caller may share, and
+ * waiting is done by sequence. When the ring is full producers wait for the writer to free a
+ * slot.
+ *
+ * <p>The writer takes every contiguous published slot as one batch and applies the whole batch
+ * holding the manager's lock once, appending each write to the manager's journal if it has
+ * one. Batches are limited to {@value #MAX_BATCH} writes, so readers of the manager wait for at
+ * most one bounded batch rather than for every write queued ahead of them. A batch is durable
+ * once its journal records have been forced to disk, or, without a journal, once the manager
+ * has next been flushed.
+ *
+ * <p>Arguments must not be changed by the caller until the write has been applied.
+ *
+ * @author Alexander Worton.
+ */
+public final class MutationPipeline implements Closeable {
+
+  /** The number of slots in the ring unless another capacity is given. */
+  public static final int DEFAULT_CAPACITY = 65_536;
+
+  private static final int ADD_CONTACT = 1;
+  private static final int ADD_FUTURE_MEETING = 2;
+  private static final int ADD_PAST_MEETING = 3;
+  private static final int ADD_MEETING_NOTES = 4;
+  private static final int MAX_BATCH = 1_024;
+  private static final long PARK_NANOS = 100_000L;
+
+  private final ContactManagerImpl manager;
+  private final Slot[] slots;
+  private final int mask;
+  private final int maxBatch;
+  private final AtomicLong claimed;
+  private final Thread writer;
+  private volatile long released;
+  private volatile boolean sleeping;
+  private volatile boolean running;
+  private volatile long closedAt;
+  private long applied;
+  private long durable;
+  private RuntimeException durableFailure;
+
+  /**
+   * A single write waiting in the ring. Slots are reused; their fields are cleared once the
+   * write has been applied.
+   */
+  private static final class Slot {
+    private volatile long published = -1;
+    private int type;
+    private String name;
+    private String text;
+    private Set<Contact> contacts;
+    private Calendar date;
+    private int id;
+    private MutationCallback callback;
+    private RuntimeException failure;
+  }
+
+  /**
+   * Constructor for a pipeline, which starts its writer thread.
+   * @param suppliedManager the manager written to
+   * @param capacity the number of slots in the ring, a power of two
+   */
+  public MutationPipeline(final ContactManagerImpl suppliedManager, final int capacity) {
+    Validation.validateObjectNotNull(suppliedManager, "Manager");
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.manager = suppliedManager;
+    this.slots = new Slot[capacity];
+    for (int index = 0; index < capacity; index++) {
+      this.slots[index] = new Slot();
+    }
+    this.mask = capacity - 1;
+    this.maxBatch = Math.min(capacity, MAX_BATCH);
+    this.claimed = new AtomicLong();
+    this.running = true;
+    this.writer = new Thread(this::write, "mutation-pipeline-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Getter for the number of slots in the ring.
+   * @return the capacity
+   */
+  public int getCapacity() {
+    return this.slots.length;
+  }
+
+  /**
+   * Getter for the sequence of the last write applied. Writes are applied in sequence order.
+   * @return the sequence, or 0 if none has been applied
+   */
+  public synchronized long getAppliedSequence() {
+    return this.applied;
+  }
+
+  /**
+   * Getter for the sequence of the last write known to be durable.
+   * @return the sequence, or 0 if none is known to be durable
+   */
+  public synchronized long getDurableSequence() {
+    return this.durable;
+  }
+
+  /**
+   * Submit a new contact.
+   * @param name the name of the contact
+   * @param notes notes to be added about the contact
+   * @param callback told the outcome, or null
+   * @return the sequence of the write
+   * @see spec.ContactManager#addNewContact(String, String)
+   */
+  public long addNewContact(final String name, final String notes,
+                            final MutationCallback callback) {
+    final long sequence = claim();
+    final Slot slot = this.slots[(int) sequence & this.mask];
+    slot.type = ADD_CONTACT;
+    slot.name = name;
+    slot.text = notes;
+    return publish(slot, sequence, callback);
+  }
+
+  /**
+   * Submit a new future meeting.
+   * @param contacts the contacts who will attend
+   * @param date the date of the meeting
+   * @param callback told the outcome, or null
+   * @return the sequence of the write
+   * @see spec.ContactManager#addFutureMeeting(Set, Calendar)
+   */
+  public long addFutureMeeting(final Set<Contact> contacts, final Calendar date,
+                               final MutationCallback callback) {
+    final long sequence = claim();
+    final Slot slot = this.slots[(int) sequence & this.mask];
+    slot.type = ADD_FUTURE_MEETING;
+    slot.contacts = contacts;
+    slot.date = date;
+    return publish(slot, sequence, callback);
+  }
+
+  /**
+   * Submit a new past meeting.
+   * @param contacts the contacts who attended
+   * @param date the date of the meeting
+   * @param text notes about the meeting
+   * @param callback told the outcome, or null
+   * @return the sequence of the write
+   * @see spec.ContactManager#addNewPastMeeting(Set, Calendar, String)
+   */
+  public long addNewPastMeeting(final Set<Contact> contacts, final Calendar date,
+                                final String text, final MutationCallback callback) {
+    final long sequence = claim();
+    final Slot slot = this.slots[(int) sequence & this.mask];
+    slot.type = ADD_PAST_MEETING;
+    slot.contacts = contacts;
+    slot.date = date;
+    slot.text = text;
+    return publish(slot, sequence, callback);
+  }
+
+  /**
+   * Submit notes for a meeting.
+   * @param id the id of the meeting
+   * @param text notes about the meeting
+   * @param callback told the outcome, or null
+   * @return the sequence of the write
+   * @see spec.ContactManager#addMeetingNotes(int, String)
+   */
+  public long addMeetingNotes(final int id, final String text,
+                              final MutationCallback callback) {
+    final long sequence = claim();
+    final Slot slot = this.slots[(int) sequence & this.mask];
+    slot.type = ADD_MEETING_NOTES;
+    slot.id = id;
+    slot.text = text;
+    return publish(slot, sequence, callback);
+  }
+
+  /**
+   * Block until a write has been applied.
+   * @param sequence the sequence of the write
+   */
+  public synchronized void awaitApplied(final long sequence) {
+    boolean interrupted = false;
+    while (this.applied < sequence) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Block until a write is durable.
+   * @param sequence the sequence of the write
+   * @throws java.io.UncheckedIOException if the journal could not write the write's batch
+   */
+  public synchronized void awaitDurable(final long sequence) {
+    boolean interrupted = false;
+    while (this.durable < sequence && this.durableFailure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (this.durable < sequence) {
+      throw this.durableFailure;
+    }
+  }
+
+  /**
+   * Apply every write already submitted, then stop the writer. No more writes may be
+   * submitted.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (!this.running) {
+        return;
+      }
+      this.closedAt = this.claimed.getAndAdd(Long.MIN_VALUE);
+      this.running = false;
+    }
+    LockSupport.unpark(this.writer);
+    try {
+      this.writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Claim the next sequence, waiting while the ring is full.
+   * @return the sequence, counted from 0
+   */
+  private long claim() {
+    final long sequence = this.claimed.getAndIncrement();
+    if (sequence < 0) {
+      throw new IllegalStateException("Pipeline has been closed");
+    }
+    while (sequence >= this.released + this.slots.length) {
+      Thread.yield();
+    }
+    return sequence;
+  }
+
+  /**
+   * Publish a filled slot to the writer, waking it if it is asleep.
+   * @param slot the slot
+   * @param sequence the sequence of the slot, counted from 0
+   * @param callback told the outcome, or null
+   * @return the sequence of the write, counted from 1
+   */
+  private long publish(final Slot slot, final long sequence, final MutationCallback callback) {
+    slot.callback = callback;
+    slot.published = sequence;
+    if (this.sleeping) {
+      LockSupport.unpark(this.writer);
+    }
+    return sequence + 1;
+  }
+
+  /**
+   * Writer loop run on the pipeline's thread: apply each run of published slots as a batch.
+   */
+  private void write() {
+    long next = 0;
+    while (true) {
+      long end = next;
+      while (end - next < this.maxBatch
+          && this.slots[(int) end & this.mask].published == end) {
+        end++;
+      }
+      if (end > next) {
+        applyBatch(next, end);
+        next = end;
+      } else if (!this.running && next == this.closedAt) {
+        return;
+      } else {
+        this.sleeping = true;
+        if (this.slots[(int) next & this.mask].published != next && this.running) {
+          LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        this.sleeping = false;
+      }
+    }
+  }
+
+  /**
+   * Apply a batch of writes holding the manager's lock once, report their outcomes and free
+   * their slots.
+   * @param from the sequence of the first write, counted from 0
+   * @param to one more than the sequence of the last write
+   */
+  private void applyBatch(final long from, final long to) {
+    CompletableFuture<Void> batchDurable;
+    try {
+      batchDurable = this.manager.applyDeferred(() -> {
+        for (long sequence = from; sequence < to; sequence++) {
+          apply(this.slots[(int) sequence & this.mask]);
+        }
+        return null;
+      }, ignored -> { });
+    } catch (RuntimeException e) {
+      //the manager refused the whole batch, for example while following another writer
+      for (long sequence = from; sequence < to; sequence++) {
+        this.slots[(int) sequence & this.mask].failure = e;
+      }
+      batchDurable = CompletableFuture.completedFuture(null);
+    }
+    for (long sequence = from; sequence < to; sequence++) {
+      final Slot slot = this.slots[(int) sequence & this.mask];
+      if (slot.callback != null) {
+        report(slot, sequence + 1);
+      }
+      slot.name = null;
+      slot.text = null;
+      slot.contacts = null;
+      slot.date = null;
+      slot.callback = null;
+      slot.failure = null;
+    }
+    this.released = to;
+    synchronized (this) {
+      this.applied = to;
+      notifyAll();
+    }
+    batchDurable.whenComplete((ignored, failure) -> {
+      synchronized (this) {
+        if (failure == null) {
+          this.durable = Math.max(this.durable, to);
+        } else if (this.durableFailure == null) {
+          this.durableFailure = failure instanceof RuntimeException
+              ? (RuntimeException) failure : new IllegalStateException(failure);
+        }
+        notifyAll();
+      }
+    });
+  }
+
+  /**
+   * Tell a slot's callback the outcome of its write. A callback that throws must not stop the
+   * writer, which every later write and every waiter depends on.
+   * @param slot the slot
+   * @param sequence the sequence of the write, counted from 1
+   */
+  private static void report(final Slot slot, final long sequence) {
+    try {
+      if (slot.failure == null) {
+        slot.callback.applied(sequence, slot.id);
+      } else {
+        slot.callback.rejected(sequence, slot.failure);
+      }
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Apply the write in a slot through the manager's public methods, recording the id it
+   * produced or the exception it was rejected with.
+   * @param slot the slot
+   */
+  private void apply(final Slot slot) {
+    try {
+      switch (slot.type) {
+        case ADD_CONTACT:
+          slot.id = this.manager.addNewContact(slot.name, slot.text);
+          break;
+        case ADD_FUTURE_MEETING:
+          slot.id = this.manager.addFutureMeeting(slot.contacts, slot.date);
+          break;
+        case ADD_PAST_MEETING:
+          slot.id = this.manager.addNewPastMeeting(slot.contacts, slot.date, slot.text);
+          break;
+        default:
+          slot.id = this.manager.addMeetingNotes(slot.id, slot.text).getId();
+          break;
+      }
+    } catch (RuntimeException e) {
+      slot.failure = e;
+    }
+  }
+}
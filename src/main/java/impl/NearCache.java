@@ -0,0 +1,288 @@
+package impl;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * NearCache is a {@link ContactClient}'s bounded cache of the contacts, meetings and future
+ * meeting lists its server has returned, kept coherent by the invalidations the server pushes.
+ *
+ * <p>Entries are immutable records, normalised so each can be invalidated on its own: a meeting
+ * holds the ids of its attendees and a future meeting list the ids of its meetings, and a hit
+ * needs every record it refers to. Each hit builds new contacts and meetings, so a caller
+ * changing one cannot change the cache. A future meeting stops being served once its date has
+ * passed, since the server would then return it as a past meeting.
+ *
+ * <p>Every invalidation advances a version. A response is only cached if no invalidation has
+ * arrived since its request was sent, because the server may have computed it before the
+ * change the invalidation reports; one computed before a change and arriving after its
+ * invalidation could otherwise be cached for good.
+ *
+ * <p>Each kind of entry is bounded separately, evicting the least recently used.
+ *
+ * @author Alexander Worton.
+ */
+final class NearCache {
+
+  private final Map<Integer, ContactRecord> contacts;
+  private final Map<Integer, MeetingRecord> meetings;
+  private final Map<Integer, int[]> futureMeetingLists;
+  private long version;
+  private long hits;
+
+  /**
+   * An immutable contact.
+   */
+  private static final class ContactRecord {
+    private final int id;
+    private final String name;
+    private final String notes;
+
+    /**
+     * Constructor for a contact record.
+     * @param contact the contact to record
+     */
+    private ContactRecord(final Contact contact) {
+      this.id = contact.getId();
+      this.name = contact.getName();
+      this.notes = contact.getNotes();
+    }
+  }
+
+  /**
+   * An immutable meeting, referring to its attendees by id.
+   */
+  private static final class MeetingRecord {
+    private final int id;
+    private final long date;
+    private final int[] attendees;
+    private final String notes;
+
+    /**
+     * Constructor for a meeting record.
+     * @param meeting the meeting to record
+     */
+    private MeetingRecord(final Meeting meeting) {
+      this.id = meeting.getId();
+      this.date = meeting.getDate().getTimeInMillis();
+      this.attendees = meeting.getContacts().stream().mapToInt(Contact::getId).toArray();
+      this.notes = meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null;
+    }
+  }
+
+  /**
+   * Constructor for a cache.
+   * @param capacity the most contacts, meetings and future meeting lists each held
+   */
+  NearCache(final int capacity) {
+    Validation.validateIdPositive(capacity);
+    this.contacts = bounded(capacity);
+    this.meetings = bounded(capacity);
+    this.futureMeetingLists = bounded(capacity);
+  }
+
+  /**
+   * Create a map that evicts its least recently used entry beyond a capacity.
+   * @param capacity the capacity
+   * @param <V> the type of the entries
+   * @return the map
+   */
+  private static <V> Map<Integer, V> bounded(final int capacity) {
+    return new LinkedHashMap<Integer, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Integer, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Getter for the version, to be read when a request is sent and passed back when caching
+   * its response.
+   * @return the number of invalidations applied
+   */
+  synchronized long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Getter for the number of reads served from the cache.
+   * @return the number of hits
+   */
+  synchronized long getHits() {
+    return this.hits;
+  }
+
+  /**
+   * Find a cached meeting.
+   * @param id the id of the meeting
+   * @return a copy of the meeting, or null if it is not wholly cached
+   */
+  synchronized Meeting getMeeting(final int id) {
+    final Meeting meeting = meeting(id, System.currentTimeMillis());
+    if (meeting != null) {
+      this.hits++;
+    }
+    return meeting;
+  }
+
+  /**
+   * Find cached contacts.
+   * @param ids the ids of the contacts
+   * @return copies of the contacts, or null unless all are cached
+   */
+  synchronized Set<Contact> getContacts(final int[] ids) {
+    final Set<Contact> found = contacts(ids);
+    if (found != null) {
+      this.hits++;
+    }
+    return found;
+  }
+
+  /**
+   * Find a contact's cached future meeting list.
+   * @param contactId the id of the contact
+   * @return copies of the meetings, or null unless the list and all its meetings are cached
+   */
+  synchronized List<Meeting> getFutureMeetingList(final int contactId) {
+    final int[] ids = this.futureMeetingLists.get(contactId);
+    if (ids == null) {
+      return null;
+    }
+    final long now = System.currentTimeMillis();
+    final List<Meeting> found = new ArrayList<>(ids.length);
+    for (final int id : ids) {
+      final Meeting meeting = meeting(id, now);
+      if (meeting == null) {
+        return null;
+      }
+      found.add(meeting);
+    }
+    this.hits++;
+    return found;
+  }
+
+  /**
+   * Cache a meeting returned by the server.
+   * @param meeting the meeting, which may be null
+   * @param sentAt the version when its request was sent
+   */
+  synchronized void putMeeting(final Meeting meeting, final long sentAt) {
+    if (meeting != null && sentAt == this.version) {
+      record(meeting);
+    }
+  }
+
+  /**
+   * Cache contacts returned by the server.
+   * @param found the contacts
+   * @param sentAt the version when their request was sent
+   */
+  synchronized void putContacts(final Collection<Contact> found, final long sentAt) {
+    if (sentAt == this.version) {
+      found.forEach(contact -> this.contacts.put(contact.getId(), new ContactRecord(contact)));
+    }
+  }
+
+  /**
+   * Cache a contact's future meeting list returned by the server.
+   * @param contactId the id of the contact
+   * @param list the meetings
+   * @param sentAt the version when its request was sent
+   */
+  synchronized void putFutureMeetingList(final int contactId, final List<Meeting> list,
+                                         final long sentAt) {
+    if (sentAt == this.version) {
+      list.forEach(this::record);
+      this.futureMeetingLists.put(contactId,
+                                  list.stream().mapToInt(Meeting::getId).toArray());
+    }
+  }
+
+  /**
+   * Apply an invalidation pushed by the server.
+   * @param meetingIds the meetings that changed, or null if everything may have changed
+   * @param contactIds the contacts that changed
+   * @param listIds the contacts whose future meeting lists changed
+   */
+  synchronized void invalidate(final int[] meetingIds, final int[] contactIds,
+                               final int[] listIds) {
+    this.version++;
+    if (meetingIds == null) {
+      this.meetings.clear();
+      this.contacts.clear();
+      this.futureMeetingLists.clear();
+      return;
+    }
+    for (final int id : meetingIds) {
+      this.meetings.remove(id);
+    }
+    for (final int id : contactIds) {
+      this.contacts.remove(id);
+    }
+    for (final int id : listIds) {
+      this.futureMeetingLists.remove(id);
+    }
+  }
+
+  /**
+   * Record a meeting and its attendees.
+   * @param meeting the meeting
+   */
+  private void record(final Meeting meeting) {
+    this.meetings.put(meeting.getId(), new MeetingRecord(meeting));
+    meeting.getContacts().forEach(
+        contact -> this.contacts.put(contact.getId(), new ContactRecord(contact)));
+  }
+
+  /**
+   * Build a cached meeting.
+   * @param id the id of the meeting
+   * @param now the current time in milliseconds
+   * @return the meeting, or null if it or an attendee is not cached, or it has become past
+   */
+  private Meeting meeting(final int id, final long now) {
+    final MeetingRecord record = this.meetings.get(id);
+    if (record == null || (record.notes == null && record.date <= now)) {
+      return null;
+    }
+    final Set<Contact> attendees = contacts(record.attendees);
+    if (attendees == null) {
+      return null;
+    }
+    final Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(record.date);
+    return record.notes == null
+        ? new FutureMeetingImpl(record.id, date, attendees)
+        : new PastMeetingImpl(record.id, date, attendees, record.notes);
+  }
+
+  /**
+   * Build cached contacts.
+   * @param ids the ids of the contacts
+   * @return the contacts, or null unless all are cached
+   */
+  private Set<Contact> contacts(final int[] ids) {
+    final Set<Contact> found = new HashSet<>();
+    for (final int id : ids) {
+      final ContactRecord record = this.contacts.get(id);
+      if (record == null) {
+        return null;
+      }
+      found.add(new ContactImpl(record.id, record.name, record.notes));
+    }
+    return found;
+  }
+}
@@ -0,0 +1,144 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NotesArena is an append-only store for the UTF-8 bytes of notes, kept outside the Java heap
+ * so that the garbage collector neither scans nor copies them. Text is appended once and read
+ * back through an {@link ArenaText} handle of offset and length.
+ *
+ * <p>The arena is made of chunks, either direct buffers allocated off heap or regions of a
+ * memory-mapped file, each {@link #DEFAULT_CHUNK_SIZE} bytes unless a single text needs more.
+ * An offset holds the chunk index in its upper 32 bits and the position within the chunk in
+ * its lower 32 bits. Space is not reclaimed when the text using it is released; the arena is
+ * sized for the lifetime of the process.
+ *
+ * <p>The arena is thread safe.
+ *
+ * @author Alexander Worton.
+ */
+public final class NotesArena implements Closeable {
+
+  /** The size of each chunk of the arena in bytes. */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  private static final int POSITION_BITS = 32;
+  private static final long POSITION_MASK = 0xFFFF_FFFFL;
+
+  private final FileChannel channel;
+  private final int chunkSize;
+  private final List<ByteBuffer> chunks;
+  private long mappedBytes;
+  private long usedBytes;
+
+  /**
+   * Constructor for the arena.
+   * @param suppliedChannel the file to map chunks from, or null to allocate them off heap
+   * @param suppliedChunkSize the size of each chunk in bytes
+   */
+  private NotesArena(final FileChannel suppliedChannel, final int suppliedChunkSize) {
+    Validation.validateIdPositive(suppliedChunkSize);
+    this.channel = suppliedChannel;
+    this.chunkSize = suppliedChunkSize;
+    this.chunks = new ArrayList<>();
+  }
+
+  /**
+   * Create an arena of direct buffers allocated outside the heap.
+   * @return the arena
+   */
+  public static NotesArena offHeap() {
+    return new NotesArena(null, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Create an arena mapped from a file, which is truncated first. The file holds the arena for
+   * the life of the process only; notes are persisted in the snapshot as before.
+   * @param file the file to map
+   * @return the arena
+   * @throws IOException if the file cannot be opened
+   */
+  public static NotesArena mapped(final Path file) throws IOException {
+    Validation.validateObjectNotNull(file, "File");
+    return new NotesArena(FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Append text to the arena.
+   * @param utf8 the UTF-8 bytes of the text
+   * @return a handle to the text
+   */
+  synchronized ArenaText append(final byte[] utf8) {
+    ByteBuffer chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+    if (chunk == null || chunk.remaining() < utf8.length) {
+      chunk = allocate(Math.max(this.chunkSize, utf8.length));
+      this.chunks.add(chunk);
+    }
+    final long offset = (long) (this.chunks.size() - 1) << POSITION_BITS | chunk.position();
+    chunk.put(utf8);
+    this.usedBytes += utf8.length;
+    return new ArenaText(this, offset, utf8.length, EncodedText.hash(utf8));
+  }
+
+  /**
+   * Copy text out of the arena.
+   * @param offset the offset of the text
+   * @param length the number of bytes
+   * @return the UTF-8 bytes of the text
+   */
+  synchronized byte[] read(final long offset, final int length) {
+    final ByteBuffer view = this.chunks.get((int) (offset >>> POSITION_BITS)).duplicate();
+    view.position((int) (offset & POSITION_MASK));
+    final byte[] result = new byte[length];
+    view.get(result);
+    return result;
+  }
+
+  /**
+   * Getter for the bytes of text appended.
+   * @return the number of bytes appended
+   */
+  public synchronized long getUsedBytes() {
+    return this.usedBytes;
+  }
+
+  /**
+   * Allocate a chunk, mapping it from the end of the file if the arena is file backed.
+   * @param size the size of the chunk
+   * @return the chunk
+   */
+  private ByteBuffer allocate(final int size) {
+    if (this.channel == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    try {
+      final ByteBuffer mapped =
+          this.channel.map(FileChannel.MapMode.READ_WRITE, this.mappedBytes, size);
+      this.mappedBytes += size;
+      return mapped;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Close the file behind a mapped arena. Handles into the arena must not be read afterwards.
+   * @throws IOException if the file cannot be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.channel != null) {
+      this.channel.close();
+    }
+  }
+}
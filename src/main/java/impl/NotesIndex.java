@@ -0,0 +1,580 @@
+package impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * NotesIndex is an inverted index over the notes of contacts and past meetings, supporting
+ * ranked term, prefix and phrase queries.
+ *
+ * <p>Notes are split into lower case runs of letters and digits. Each term keeps a posting list
+ * of the documents containing it, encoded as variable length integers: the gap from the
+ * previous document number, the term frequency and the gaps between the term's positions.
+ * Replacing the notes of a contact or meeting retires its old document and appends a new one,
+ * and the posting lists are rewritten without retired documents once they outnumber the live
+ * ones.
+ *
+ * <p>A query is a list of clauses which must all match: a plain word, a word ending in
+ * {@code *} for a prefix, or a quoted phrase. Matches are ranked with BM25.
+ *
+ * <p>The index is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class NotesIndex {
+
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  private static final int MAX_PREFIX_EXPANSIONS = 256;
+  private static final int MIN_DEAD_TO_COMPACT = 1_024;
+  private static final int INITIAL_DOCS = 16;
+  private static final int SOURCE_SHIFT = 32;
+  private static final long ID_MASK = 0xFFFFFFFFL;
+
+  private final TreeMap<String, PostingList> terms;
+  private final Map<Long, Integer> docsByKey;
+  private final BitSet live;
+  private long[] docKeys;
+  private int[] docLengths;
+  private int docCount;
+  private int liveCount;
+  private long liveLength;
+
+  /**
+   * Constructor for an empty index.
+   */
+  public NotesIndex() {
+    this.terms = new TreeMap<>();
+    this.docsByKey = new HashMap<>();
+    this.live = new BitSet();
+    this.docKeys = new long[INITIAL_DOCS];
+    this.docLengths = new int[INITIAL_DOCS];
+  }
+
+  /**
+   * Index the notes of a contact or meeting, replacing anything previously indexed for it.
+   * @param source where the notes are held
+   * @param id the id of the contact or meeting
+   * @param text the notes
+   */
+  public void index(final NotesSearchHit.Source source, final int id, final String text) {
+    Validation.validateObjectNotNull(source, "Source");
+    Validation.validateObjectNotNull(text, "Notes");
+    remove(source, id);
+    final List<String> tokens = tokenize(text);
+    if (tokens.isEmpty()) {
+      return;
+    }
+    final int doc = addDocument(key(source, id), tokens.size());
+    final Map<String, int[]> positions = new HashMap<>();
+    final Map<String, Integer> counts = new HashMap<>();
+    for (int position = 0; position < tokens.size(); position++) {
+      final String token = tokens.get(position);
+      int[] held = positions.get(token);
+      final int count = counts.getOrDefault(token, 0);
+      if (held == null || held.length == count) {
+        held = held == null ? new int[2] : Arrays.copyOf(held, count * 2);
+        positions.put(token, held);
+      }
+      held[count] = position;
+      counts.put(token, count + 1);
+    }
+    positions.forEach((term, held) ->
+        this.terms.computeIfAbsent(term, t -> new PostingList()).add(doc, held, counts.get(term)));
+  }
+
+  /**
+   * Remove the notes of a contact or meeting from the index.
+   * @param source where the notes are held
+   * @param id the id of the contact or meeting
+   */
+  public void remove(final NotesSearchHit.Source source, final int id) {
+    final Integer doc = this.docsByKey.remove(key(source, id));
+    if (doc == null) {
+      return;
+    }
+    this.live.clear(doc);
+    this.liveCount--;
+    this.liveLength -= this.docLengths[doc];
+    final int dead = this.docCount - this.liveCount;
+    if (dead >= MIN_DEAD_TO_COMPACT && dead > this.liveCount) {
+      compact();
+    }
+  }
+
+  /**
+   * Getter for the number of indexed notes.
+   * @return the number of contacts and meetings with indexed notes
+   */
+  public int size() {
+    return this.liveCount;
+  }
+
+  /**
+   * Search the notes, returning the best matches first.
+   * @param query the query: words, prefixes ending in *, and quoted phrases, all required
+   * @param limit the largest number of hits to return
+   * @return the hits ordered by descending score
+   */
+  public List<NotesSearchHit> search(final String query, final int limit) {
+    Validation.validateObjectNotNull(query, "Query");
+    Validation.validateIdPositive(limit);
+    Map<Integer, Double> matches = null;
+    for (final Clause clause : parse(query)) {
+      final Map<Integer, Double> clauseMatches = evaluate(clause);
+      matches = matches == null ? clauseMatches : intersect(matches, clauseMatches);
+      if (matches.isEmpty()) {
+        break;
+      }
+    }
+    return matches == null ? new ArrayList<>() : topHits(matches, limit);
+  }
+
+  /**
+   * Split text into lower case terms made of letters and digits.
+   * @param text the text to split
+   * @return the terms in order of appearance
+   */
+  static List<String> tokenize(final String text) {
+    final List<String> tokens = new ArrayList<>();
+    final String lower = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int index = 0; index <= lower.length(); index++) {
+      final boolean wordChar = index < lower.length()
+          && Character.isLetterOrDigit(lower.charAt(index));
+      if (wordChar && start < 0) {
+        start = index;
+      } else if (!wordChar && start >= 0) {
+        tokens.add(lower.substring(start, index));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Pack the source and id of a document into a single key.
+   * @param source where the notes are held
+   * @param id the id of the contact or meeting
+   * @return the key
+   */
+  private static long key(final NotesSearchHit.Source source, final int id) {
+    return ((long) source.ordinal() << SOURCE_SHIFT) | (id & ID_MASK);
+  }
+
+  /**
+   * Allocate the next document number for a key.
+   * @param key the packed source and id
+   * @param length the number of terms in the document
+   * @return the document number
+   */
+  private int addDocument(final long key, final int length) {
+    if (this.docCount == this.docKeys.length) {
+      this.docKeys = Arrays.copyOf(this.docKeys, this.docCount * 2);
+      this.docLengths = Arrays.copyOf(this.docLengths, this.docCount * 2);
+    }
+    final int doc = this.docCount++;
+    this.docKeys[doc] = key;
+    this.docLengths[doc] = length;
+    this.live.set(doc);
+    this.liveCount++;
+    this.liveLength += length;
+    this.docsByKey.put(key, doc);
+    return doc;
+  }
+
+  /**
+   * Renumber the live documents densely and rewrite every posting list without retired
+   * documents.
+   */
+  private void compact() {
+    final int[] renumbered = new int[this.docCount];
+    int next = 0;
+    for (int doc = 0; doc < this.docCount; doc++) {
+      if (this.live.get(doc)) {
+        renumbered[doc] = next;
+        this.docKeys[next] = this.docKeys[doc];
+        this.docLengths[next] = this.docLengths[doc];
+        this.docsByKey.put(this.docKeys[next], next);
+        next++;
+      } else {
+        renumbered[doc] = -1;
+      }
+    }
+    this.docCount = next;
+    this.live.clear();
+    this.live.set(0, next);
+    this.terms.values().removeIf(list -> list.rewrite(renumbered));
+  }
+
+  /**
+   * Score a term for a document with BM25.
+   * @param docFreq the number of documents containing the term
+   * @param termFreq the number of times the term occurs in the document
+   * @param doc the document number
+   * @return the score
+   */
+  private double score(final int docFreq, final int termFreq, final int doc) {
+    final double idf = Math.log(1 + (this.liveCount - docFreq + 0.5) / (docFreq + 0.5));
+    final double averageLength = (double) this.liveLength / Math.max(1, this.liveCount);
+    final double norm = K1 * (1 - B + B * this.docLengths[doc] / averageLength);
+    return idf * termFreq * (K1 + 1) / (termFreq + norm);
+  }
+
+  /**
+   * Find and score the live documents matching a clause.
+   * @param clause the clause to evaluate
+   * @return the score of each matching document
+   */
+  private Map<Integer, Double> evaluate(final Clause clause) {
+    if (clause.prefix) {
+      return evaluatePrefix(clause.terms.get(0));
+    }
+    if (clause.terms.size() > 1) {
+      return evaluatePhrase(clause.terms);
+    }
+    final Map<Integer, Double> matches = new HashMap<>();
+    final PostingList list = this.terms.get(clause.terms.get(0));
+    if (list != null) {
+      final PostingList.Cursor cursor = list.cursor(false);
+      while (cursor.next()) {
+        if (this.live.get(cursor.doc)) {
+          matches.put(cursor.doc, score(list.docFreq, cursor.termFreq, cursor.doc));
+        }
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Find and score the live documents containing any term starting with the prefix, keeping
+   * the best scoring expansion for each document.
+   * @param prefix the prefix
+   * @return the score of each matching document
+   */
+  private Map<Integer, Double> evaluatePrefix(final String prefix) {
+    final Map<Integer, Double> matches = new HashMap<>();
+    int expansions = 0;
+    for (final PostingList list
+        : this.terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+      if (expansions++ == MAX_PREFIX_EXPANSIONS) {
+        break;
+      }
+      final PostingList.Cursor cursor = list.cursor(false);
+      while (cursor.next()) {
+        if (this.live.get(cursor.doc)) {
+          matches.merge(cursor.doc, score(list.docFreq, cursor.termFreq, cursor.doc), Math::max);
+        }
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Find and score the live documents containing the terms at consecutive positions.
+   * @param phrase the terms of the phrase
+   * @return the score of each matching document
+   */
+  private Map<Integer, Double> evaluatePhrase(final List<String> phrase) {
+    Map<Integer, int[]> starts = null;
+    final Map<Integer, Double> scores = new HashMap<>();
+    for (int offset = 0; offset < phrase.size(); offset++) {
+      final PostingList list = this.terms.get(phrase.get(offset));
+      if (list == null) {
+        return new HashMap<>();
+      }
+      final Map<Integer, int[]> nextStarts = new HashMap<>();
+      final PostingList.Cursor cursor = list.cursor(true);
+      while (cursor.next()) {
+        if (!this.live.get(cursor.doc)) {
+          continue;
+        }
+        final int[] held = starts == null ? cursor.positions : starts.get(cursor.doc);
+        if (held == null) {
+          continue;
+        }
+        final int[] kept = starts == null ? held : keepFollowed(held, cursor.positions, offset);
+        if (kept.length > 0) {
+          nextStarts.put(cursor.doc, kept);
+          scores.merge(cursor.doc, score(list.docFreq, cursor.termFreq, cursor.doc), Double::sum);
+        }
+      }
+      starts = nextStarts;
+    }
+    final Map<Integer, Double> matches = new HashMap<>();
+    starts.keySet().forEach(doc -> matches.put(doc, scores.get(doc)));
+    return matches;
+  }
+
+  /**
+   * Keep the phrase start positions that are followed by the next phrase term.
+   * @param starts the candidate start positions
+   * @param positions the sorted positions of the term at the supplied offset
+   * @param offset the offset of the term within the phrase
+   * @return the start positions still matching
+   */
+  private static int[] keepFollowed(final int[] starts, final int[] positions, final int offset) {
+    return Arrays.stream(starts)
+        .filter(start -> Arrays.binarySearch(positions, start + offset) >= 0)
+        .toArray();
+  }
+
+  /**
+   * Keep the documents present in both maps, summing their scores.
+   * @param left the first matches
+   * @param right the second matches
+   * @return the documents matching both
+   */
+  private static Map<Integer, Double> intersect(final Map<Integer, Double> left,
+                                                final Map<Integer, Double> right) {
+    final Map<Integer, Double> smaller = left.size() <= right.size() ? left : right;
+    final Map<Integer, Double> larger = smaller == left ? right : left;
+    final Map<Integer, Double> result = new HashMap<>();
+    smaller.forEach((doc, score) -> {
+      final Double other = larger.get(doc);
+      if (other != null) {
+        result.put(doc, score + other);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Select the highest scoring documents and convert them to hits.
+   * @param matches the score of each matching document
+   * @param limit the largest number of hits
+   * @return the hits ordered by descending score
+   */
+  private List<NotesSearchHit> topHits(final Map<Integer, Double> matches, final int limit) {
+    final Comparator<Map.Entry<Integer, Double>> byScore = Map.Entry.comparingByValue();
+    final PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(byScore);
+    for (final Map.Entry<Integer, Double> entry : matches.entrySet()) {
+      best.add(entry);
+      if (best.size() > limit) {
+        best.poll();
+      }
+    }
+    final List<NotesSearchHit> hits = new ArrayList<>(best.size());
+    while (!best.isEmpty()) {
+      final Map.Entry<Integer, Double> entry = best.poll();
+      final long key = this.docKeys[entry.getKey()];
+      final NotesSearchHit.Source source =
+          NotesSearchHit.Source.values()[(int) (key >>> SOURCE_SHIFT)];
+      hits.add(0, new NotesSearchHit(source, (int) (key & ID_MASK), entry.getValue()));
+    }
+    return hits;
+  }
+
+  /**
+   * Split a query into clauses.
+   * @param query the query text
+   * @return the clauses
+   */
+  private static List<Clause> parse(final String query) {
+    final List<Clause> clauses = new ArrayList<>();
+    int index = 0;
+    while (index < query.length()) {
+      final char current = query.charAt(index);
+      if (Character.isWhitespace(current)) {
+        index++;
+      } else if (current == '"') {
+        final int close = query.indexOf('"', index + 1);
+        final int end = close < 0 ? query.length() : close;
+        addClause(clauses, tokenize(query.substring(index + 1, end)), false);
+        index = end + 1;
+      } else {
+        int end = index;
+        while (end < query.length() && !Character.isWhitespace(query.charAt(end))
+            && query.charAt(end) != '"') {
+          end++;
+        }
+        final String word = query.substring(index, end);
+        final boolean prefix = word.endsWith("*");
+        addClause(clauses, tokenize(word), prefix);
+        index = end;
+      }
+    }
+    return clauses;
+  }
+
+  /**
+   * Add the clauses for a run of query terms. A prefix only applies to the last term, so any
+   * terms before it are added as a phrase of their own.
+   * @param clauses the clauses to add to
+   * @param tokens the terms of the run
+   * @param prefix whether the last term is a prefix
+   */
+  private static void addClause(final List<Clause> clauses, final List<String> tokens,
+                                final boolean prefix) {
+    if (tokens.isEmpty()) {
+      return;
+    }
+    if (prefix) {
+      if (tokens.size() > 1) {
+        clauses.add(new Clause(tokens.subList(0, tokens.size() - 1), false));
+      }
+      clauses.add(new Clause(tokens.subList(tokens.size() - 1, tokens.size()), true));
+    } else {
+      clauses.add(new Clause(tokens, false));
+    }
+  }
+
+  /**
+   * A single required part of a query.
+   */
+  private static final class Clause {
+    private final List<String> terms;
+    private final boolean prefix;
+
+    Clause(final List<String> suppliedTerms, final boolean suppliedPrefix) {
+      this.terms = suppliedTerms;
+      this.prefix = suppliedPrefix;
+    }
+  }
+
+  /**
+   * PostingList holds the documents containing a term as a compressed byte sequence.
+   */
+  private static final class PostingList {
+    private static final int INITIAL_BYTES = 8;
+    private static final int SEVEN_BITS = 0x7F;
+    private static final int CONTINUE = 0x80;
+    private static final int SHIFT = 7;
+
+    private byte[] data = new byte[INITIAL_BYTES];
+    private int length;
+    private int lastDoc = -1;
+    private int docFreq;
+
+    /**
+     * Append a document. Documents must be appended in increasing order.
+     * @param doc the document number
+     * @param positions the positions of the term within the document
+     * @param count the number of positions used
+     */
+    void add(final int doc, final int[] positions, final int count) {
+      int bytes = 0;
+      for (int index = 0; index < count; index++) {
+        bytes += varIntLength(positions[index] - (index == 0 ? 0 : positions[index - 1]));
+      }
+      writeVarInt(doc - this.lastDoc);
+      writeVarInt(count);
+      writeVarInt(bytes);
+      for (int index = 0; index < count; index++) {
+        writeVarInt(positions[index] - (index == 0 ? 0 : positions[index - 1]));
+      }
+      this.lastDoc = doc;
+      this.docFreq++;
+    }
+
+    /**
+     * Rewrite the list with renumbered documents, dropping retired ones.
+     * @param renumbered the new number of each document, or -1 if retired
+     * @return true if no documents remain
+     */
+    boolean rewrite(final int[] renumbered) {
+      final PostingList rewritten = new PostingList();
+      final Cursor cursor = cursor(true);
+      while (cursor.next()) {
+        if (renumbered[cursor.doc] >= 0) {
+          rewritten.add(renumbered[cursor.doc], cursor.positions, cursor.termFreq);
+        }
+      }
+      this.data = rewritten.data;
+      this.length = rewritten.length;
+      this.lastDoc = rewritten.lastDoc;
+      this.docFreq = rewritten.docFreq;
+      return this.docFreq == 0;
+    }
+
+    /**
+     * Create a cursor over the documents of the list.
+     * @param withPositions whether term positions should be decoded
+     * @return the cursor
+     */
+    Cursor cursor(final boolean withPositions) {
+      return new Cursor(withPositions);
+    }
+
+    private void writeVarInt(final int value) {
+      if (this.length + 5 > this.data.length) {
+        this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.length + 5));
+      }
+      int remaining = value;
+      while ((remaining & ~SEVEN_BITS) != 0) {
+        this.data[this.length++] = (byte) ((remaining & SEVEN_BITS) | CONTINUE);
+        remaining >>>= SHIFT;
+      }
+      this.data[this.length++] = (byte) remaining;
+    }
+
+    private static int varIntLength(final int value) {
+      int bytes = 1;
+      int remaining = value >>> SHIFT;
+      while (remaining != 0) {
+        bytes++;
+        remaining >>>= SHIFT;
+      }
+      return bytes;
+    }
+
+    /**
+     * Cursor decodes a posting list one document at a time.
+     */
+    final class Cursor {
+      private final boolean withPositions;
+      private int offset;
+      private int doc = -1;
+      private int termFreq;
+      private int[] positions;
+
+      Cursor(final boolean suppliedWithPositions) {
+        this.withPositions = suppliedWithPositions;
+      }
+
+      /**
+       * Move to the next document.
+       * @return false once the list is exhausted
+       */
+      boolean next() {
+        if (this.offset >= length) {
+          return false;
+        }
+        this.doc += readVarInt();
+        this.termFreq = readVarInt();
+        final int bytes = readVarInt();
+        if (this.withPositions) {
+          this.positions = new int[this.termFreq];
+          int position = 0;
+          for (int index = 0; index < this.termFreq; index++) {
+            position += readVarInt();
+            this.positions[index] = position;
+          }
+        } else {
+          this.offset += bytes;
+        }
+        return true;
+      }
+
+      private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte current;
+        do {
+          current = data[this.offset++];
+          value |= (current & SEVEN_BITS) << shift;
+          shift += SHIFT;
+        } while ((current & CONTINUE) != 0);
+        return value;
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package impl;
+
+/**
+ * NotesSearchHit is a single ranked result of a notes search, identifying either a contact or a
+ * past meeting by id.
+ *
+ * @author Alexander Worton.
+ */
+public final class NotesSearchHit {
+
+  /**
+   * Where the matching notes are held.
+   */
+  public enum Source {
+    /** The notes of a contact. */
+    CONTACT,
+    /** The notes of a past meeting. */
+    MEETING
+  }
+
+  private final Source source;
+  private final int id;
+  private final double score;
+
+  /**
+   * Constructor for the hit.
+   * @param suppliedSource where the notes are held
+   * @param suppliedId the id of the contact or meeting
+   * @param suppliedScore the relevance score, higher is better
+   */
+  NotesSearchHit(final Source suppliedSource, final int suppliedId, final double suppliedScore) {
+    this.source = suppliedSource;
+    this.id = suppliedId;
+    this.score = suppliedScore;
+  }
+
+  /**
+   * Getter for the source.
+   * @return where the notes are held
+   */
+  public Source getSource() {
+    return this.source;
+  }
+
+  /**
+   * Getter for the id.
+   * @return the id of the contact or meeting
+   */
+  public int getId() {
+    return this.id;
+  }
+
+  /**
+   * Getter for the score.
+   * @return the BM25 relevance score, higher is better
+   */
+  public double getScore() {
+    return this.score;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public String toString() {
+    return this.source + ":" + this.id + ":" + this.score;
+  }
+}
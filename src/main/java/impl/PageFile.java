@@ -0,0 +1,292 @@
+package impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PageFile divides a file into fixed size pages read and written through a buffer pool of
+ * bounded size. Pages are evicted least recently used first, being written back if they were
+ * changed, so the memory used is fixed however large the file grows.
+ *
+ * <p>A page changed after it may have been evicted must be passed to {@link #markDirty(Page)},
+ * which puts it back in the pool. Callers touch only a handful of pages in each operation, far
+ * fewer than the smallest pool allowed, so a page is never evicted while one is using it.
+ *
+ * <p>Pages are written in place, so a crash between two writes can leave a structure spread
+ * over several pages half changed. The last {@value #STATE_BYTES} bytes of page 0 are kept by
+ * the file itself to detect this: they hold a flag saying whether the file is exactly as a
+ * flush left it, and a mark the caller supplies to each flush, such as how much of another
+ * file its pages cover. A flush writes every other changed page, forces them to disk, and only
+ * then writes page 0 with the flag set and forces it again. Before the first page is written
+ * after that, by eviction or by the next flush, the flag is cleared and forced. A file opened
+ * with the flag clear is emptied, and its owner rebuilds what it held; one opened with the flag
+ * set is exactly as the last flush left it, and {@link #getMark()} says what that flush saw.
+ *
+ * <p>The file is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+final class PageFile implements Closeable {
+
+  /** The size of each page in bytes. */
+  static final int PAGE_SIZE = 4_096;
+  /** The smallest number of pages the pool may hold. */
+  static final int MINIMUM_POOL_PAGES = 16;
+  /** The bytes at the end of page 0 that hold the state of the file, not the caller's data. */
+  static final int STATE_BYTES = Integer.BYTES + Long.BYTES;
+
+  private static final int HEADER_PAGE = 0;
+  private static final int STATE = PAGE_SIZE - STATE_BYTES;
+  private static final int MARK = STATE + Integer.BYTES;
+  private static final int FLUSHED = 0x464C5348;
+  private static final int WRITING = 0;
+
+  private final FileChannel channel;
+  private final int poolPages;
+  private final Map<Integer, Page> pool;
+  private int pageCount;
+  private long mark;
+  private boolean flushedOnDisk;
+
+  /**
+   * A page held in the buffer pool.
+   */
+  static final class Page {
+    private final int number;
+    private final ByteBuffer buffer;
+    private boolean dirty;
+
+    /**
+     * Constructor for a page.
+     * @param suppliedNumber the page number
+     * @param suppliedBuffer the page contents
+     */
+    Page(final int suppliedNumber, final ByteBuffer suppliedBuffer) {
+      this.number = suppliedNumber;
+      this.buffer = suppliedBuffer;
+    }
+
+    /**
+     * Getter for the page number.
+     * @return the page number
+     */
+    int getNumber() {
+      return this.number;
+    }
+
+    /**
+     * Getter for the page contents, read and written with absolute offsets.
+     * @return the contents
+     */
+    ByteBuffer getBuffer() {
+      return this.buffer;
+    }
+  }
+
+  /**
+   * Constructor for a page file, which is created if it does not exist, and emptied if it was
+   * not left as a flush finished writing it.
+   * @param file the file
+   * @param suppliedPoolPages the largest number of pages held in memory
+   * @throws IOException if the file cannot be opened
+   */
+  PageFile(final Path file, final int suppliedPoolPages) throws IOException {
+    if (suppliedPoolPages < MINIMUM_POOL_PAGES) {
+      throw new IllegalArgumentException("Pool must hold at least " + MINIMUM_POOL_PAGES
+          + " pages");
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.poolPages = suppliedPoolPages;
+    this.pool = new LinkedHashMap<>(suppliedPoolPages, 0.75f, true);
+    this.pageCount = (int) (this.channel.size() / PAGE_SIZE);
+    if (this.pageCount > 0) {
+      final ByteBuffer state = ByteBuffer.allocate(STATE_BYTES);
+      while (state.hasRemaining()) {
+        if (this.channel.read(state, STATE + state.position()) < 0) {
+          break;
+        }
+      }
+      this.flushedOnDisk = state.getInt(0) == FLUSHED;
+      if (this.flushedOnDisk) {
+        this.mark = state.getLong(Integer.BYTES);
+      } else {
+        //pages were written after the last flush, so what they hold may be torn
+        this.channel.truncate(0);
+        this.pageCount = 0;
+      }
+    }
+  }
+
+  /**
+   * Getter for the mark supplied to the last flush.
+   * @return the mark, or 0 if the file was created or emptied when it was opened
+   */
+  long getMark() {
+    return this.mark;
+  }
+
+  /**
+   * Getter for the number of pages in the file.
+   * @return the number of pages
+   */
+  int getPageCount() {
+    return this.pageCount;
+  }
+
+  /**
+   * Add a zeroed page to the end of the file.
+   * @return the page
+   * @throws IOException if a page evicted to make room cannot be written
+   */
+  Page allocate() throws IOException {
+    final Page page = new Page(this.pageCount++, ByteBuffer.allocate(PAGE_SIZE));
+    page.dirty = true;
+    admit(page);
+    return page;
+  }
+
+  /**
+   * Read a page, from the pool if it is there.
+   * @param number the page number
+   * @return the page
+   * @throws IOException if the page cannot be read
+   */
+  Page read(final int number) throws IOException {
+    Page page = this.pool.get(number);
+    if (page != null) {
+      return page;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+    final long position = (long) number * PAGE_SIZE;
+    while (buffer.hasRemaining()) {
+      if (this.channel.read(buffer, position + buffer.position()) < 0) {
+        break;
+      }
+    }
+    page = new Page(number, buffer);
+    admit(page);
+    return page;
+  }
+
+  /**
+   * Record that a page has changed, returning it to the pool if it was evicted.
+   * @param page the page
+   * @throws IOException if a page evicted to make room cannot be written
+   */
+  void markDirty(final Page page) throws IOException {
+    page.dirty = true;
+    if (this.pool.get(page.number) != page) {
+      admit(page);
+    }
+  }
+
+  /**
+   * Write every changed page and force the file to disk, writing page 0 with the mark and the
+   * flag that the file is whole last, once every other page is on disk.
+   * @param suppliedMark the mark to store, returned by {@link #getMark()} when the file is
+   *     opened again
+   * @throws IOException if the file cannot be written
+   */
+  void flush(final long suppliedMark) throws IOException {
+    boolean changed = !this.flushedOnDisk || suppliedMark != this.mark;
+    for (final Page page : this.pool.values()) {
+      changed |= page.dirty;
+      if (page.number != HEADER_PAGE) {
+        writeBack(page);
+      }
+    }
+    if (!changed || this.pageCount == 0) {
+      return;
+    }
+    this.channel.force(false);
+    final Page header = this.pool.get(HEADER_PAGE);
+    final ByteBuffer view;
+    final long position;
+    if (header != null && header.dirty) {
+      view = header.buffer.duplicate();
+      view.clear();
+      position = 0;
+    } else {
+      //page 0 on disk is current apart from its state
+      view = ByteBuffer.allocate(STATE_BYTES);
+      position = STATE;
+    }
+    view.putInt(STATE - (int) position, FLUSHED);
+    view.putLong(MARK - (int) position, suppliedMark);
+    while (view.hasRemaining()) {
+      this.channel.write(view, position + view.position());
+    }
+    this.channel.force(false);
+    if (header != null) {
+      header.dirty = false;
+    }
+    this.mark = suppliedMark;
+    this.flushedOnDisk = true;
+  }
+
+  /**
+   * Flush the file with the mark of the last flush, and close it.
+   * @throws IOException if the file cannot be written or closed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush(this.mark);
+    } finally {
+      this.channel.close();
+    }
+  }
+
+  /**
+   * Add a page to the pool, evicting the least recently used pages beyond its capacity.
+   * @param page the page
+   * @throws IOException if an evicted page cannot be written
+   */
+  private void admit(final Page page) throws IOException {
+    this.pool.put(page.number, page);
+    final Iterator<Page> eldest = this.pool.values().iterator();
+    while (this.pool.size() > this.poolPages) {
+      writeBack(eldest.next());
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Write a page to the file if it has changed.
+   * @param page the page
+   * @throws IOException if the page cannot be written
+   */
+  private void writeBack(final Page page) throws IOException {
+    if (!page.dirty) {
+      return;
+    }
+    if (this.flushedOnDisk) {
+      //the file stops being whole before any page of it changes on disk
+      final ByteBuffer state = ByteBuffer.allocate(Integer.BYTES);
+      state.putInt(0, WRITING);
+      while (state.hasRemaining()) {
+        this.channel.write(state, STATE + state.position());
+      }
+      this.channel.force(false);
+      this.flushedOnDisk = false;
+    }
+    if (page.number == HEADER_PAGE) {
+      page.buffer.putInt(STATE, WRITING);
+    }
+    final ByteBuffer view = page.buffer.duplicate();
+    view.clear();
+    final long position = (long) page.number * PAGE_SIZE;
+    while (view.hasRemaining()) {
+      this.channel.write(view, position + view.position());
+    }
+    page.dirty = false;
+  }
+}
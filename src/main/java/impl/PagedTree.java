@@ -0,0 +1,417 @@
+package impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PagedTree is a B+tree from long keys to long values stored in the pages of a
+ * {@link PageFile}. Leaves hold up to {@link #LEAF_CAPACITY} entries and are linked in key order
+ * for scans; internal nodes hold up to {@link #INTERNAL_CAPACITY} separator keys. With 4 KB
+ * pages a tree of a hundred million keys is four levels deep, so a lookup reads at most four
+ * pages, the upper levels of which stay in the buffer pool.
+ *
+ * <p>Full nodes are split in half on insert. Removal takes the entry out of its leaf without
+ * merging underfull nodes, which suits meeting stores where removals are rare.
+ *
+ * <p>Page 0 holds a header with the root page and the number of entries, ahead of the state
+ * the page file keeps at the end of the page.
+ *
+ * <p>The tree is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+final class PagedTree {
+
+  /** The value returned when a key is not held. */
+  static final long NOT_FOUND = -1L;
+
+  private static final int MAGIC = 0x434D4254;
+  private static final int HEADER_PAGE = 0;
+  private static final int HEADER_ROOT = 4;
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte LEAF = 0;
+  private static final byte INTERNAL = 1;
+  private static final int TYPE = 0;
+  private static final int COUNT = 2;
+  private static final int NEXT = 4;
+  private static final int ENTRIES = 8;
+  private static final int LEAF_ENTRY = 16;
+  private static final int INTERNAL_ENTRY = 12;
+
+  /** The largest number of entries in a leaf. */
+  static final int LEAF_CAPACITY = (PageFile.PAGE_SIZE - ENTRIES) / LEAF_ENTRY;
+  /** The largest number of keys in an internal node. */
+  static final int INTERNAL_CAPACITY =
+      (PageFile.PAGE_SIZE - ENTRIES - Integer.BYTES) / INTERNAL_ENTRY;
+
+  private final PageFile file;
+
+  /**
+   * Receives the entries of the tree in key order.
+   */
+  interface EntryVisitor {
+    /**
+     * Visit an entry.
+     * @param key the key
+     * @param value the value
+     * @throws IOException if the visitor cannot handle the entry
+     */
+    void visit(long key, long value) throws IOException;
+  }
+
+  /**
+   * Constructor for a tree in a page file, creating an empty tree if the file is empty.
+   * @param suppliedFile the page file
+   * @throws IOException if the file cannot be read or holds no tree
+   */
+  PagedTree(final PageFile suppliedFile) throws IOException {
+    this.file = suppliedFile;
+    if (this.file.getPageCount() == 0) {
+      final PageFile.Page header = this.file.allocate();
+      final PageFile.Page root = this.file.allocate();
+      root.getBuffer().put(TYPE, LEAF);
+      header.getBuffer().putInt(0, MAGIC);
+      header.getBuffer().putInt(HEADER_ROOT, root.getNumber());
+      header.getBuffer().putLong(HEADER_SIZE, 0L);
+    } else if (this.file.read(HEADER_PAGE).getBuffer().getInt(0) != MAGIC) {
+      throw new IOException("Not a meeting index file");
+    }
+  }
+
+  /**
+   * Getter for the number of entries.
+   * @return the number of entries
+   * @throws IOException if the header cannot be read
+   */
+  long size() throws IOException {
+    return this.file.read(HEADER_PAGE).getBuffer().getLong(HEADER_SIZE);
+  }
+
+  /**
+   * Find the value held under a key.
+   * @param key the key
+   * @return the value, or {@link #NOT_FOUND}
+   * @throws IOException if a page cannot be read
+   */
+  long get(final long key) throws IOException {
+    final ByteBuffer leaf = this.file.read(findLeaf(key)).getBuffer();
+    final int index = search(leaf, key);
+    return index >= 0 ? leaf.getLong(ENTRIES + index * LEAF_ENTRY + Long.BYTES) : NOT_FOUND;
+  }
+
+  /**
+   * Hold a value under a key, replacing any value already there.
+   * @param key the key
+   * @param value the value, which must not be {@link #NOT_FOUND}
+   * @throws IOException if a page cannot be read or written
+   */
+  void put(final long key, final long value) throws IOException {
+    final int root = this.file.read(HEADER_PAGE).getBuffer().getInt(HEADER_ROOT);
+    final long[] split = insert(root, key, value);
+    if (split != null) {
+      final PageFile.Page newRoot = this.file.allocate();
+      final ByteBuffer buffer = newRoot.getBuffer();
+      buffer.put(TYPE, INTERNAL);
+      buffer.putShort(COUNT, (short) 1);
+      buffer.putInt(ENTRIES, root);
+      buffer.putLong(ENTRIES + Integer.BYTES, split[0]);
+      buffer.putInt(ENTRIES + Integer.BYTES + Long.BYTES, (int) split[1]);
+      final PageFile.Page header = this.file.read(HEADER_PAGE);
+      header.getBuffer().putInt(HEADER_ROOT, newRoot.getNumber());
+      this.file.markDirty(header);
+    }
+  }
+
+  /**
+   * Remove the entry held under a key.
+   * @param key the key
+   * @return true if an entry was removed
+   * @throws IOException if a page cannot be read or written
+   */
+  boolean remove(final long key) throws IOException {
+    final PageFile.Page page = this.file.read(findLeaf(key));
+    final ByteBuffer leaf = page.getBuffer();
+    final int index = search(leaf, key);
+    if (index < 0) {
+      return false;
+    }
+    final int count = leaf.getShort(COUNT);
+    for (int move = index; move < count - 1; move++) {
+      final int to = ENTRIES + move * LEAF_ENTRY;
+      leaf.putLong(to, leaf.getLong(to + LEAF_ENTRY));
+      leaf.putLong(to + Long.BYTES, leaf.getLong(to + LEAF_ENTRY + Long.BYTES));
+    }
+    leaf.putShort(COUNT, (short) (count - 1));
+    this.file.markDirty(page);
+    addToSize(-1);
+    return true;
+  }
+
+  /**
+   * Visit every entry in key order.
+   * @param visitor receives each entry
+   * @throws IOException if a page cannot be read or the visitor fails
+   */
+  void forEach(final EntryVisitor visitor) throws IOException {
+    int pageNumber = this.file.read(HEADER_PAGE).getBuffer().getInt(HEADER_ROOT);
+    ByteBuffer node = this.file.read(pageNumber).getBuffer();
+    while (node.get(TYPE) == INTERNAL) {
+      pageNumber = node.getInt(ENTRIES);
+      node = this.file.read(pageNumber).getBuffer();
+    }
+    while (pageNumber != HEADER_PAGE) {
+      final int count = node.getShort(COUNT);
+      final long[] entries = new long[count * 2];
+      for (int index = 0; index < count; index++) {
+        entries[index * 2] = node.getLong(ENTRIES + index * LEAF_ENTRY);
+        entries[index * 2 + 1] = node.getLong(ENTRIES + index * LEAF_ENTRY + Long.BYTES);
+      }
+      pageNumber = node.getInt(NEXT);
+      //the visitor may touch other pages, so the leaf is copied before it is handed on
+      for (int index = 0; index < count; index++) {
+        visitor.visit(entries[index * 2], entries[index * 2 + 1]);
+      }
+      if (pageNumber != HEADER_PAGE) {
+        node = this.file.read(pageNumber).getBuffer();
+      }
+    }
+  }
+
+  /**
+   * Find the leaf that holds, or would hold, a key.
+   * @param key the key
+   * @return the page number of the leaf
+   * @throws IOException if a page cannot be read
+   */
+  private int findLeaf(final long key) throws IOException {
+    int pageNumber = this.file.read(HEADER_PAGE).getBuffer().getInt(HEADER_ROOT);
+    ByteBuffer node = this.file.read(pageNumber).getBuffer();
+    while (node.get(TYPE) == INTERNAL) {
+      pageNumber = node.getInt(childOffset(childIndex(node, key)));
+      node = this.file.read(pageNumber).getBuffer();
+    }
+    return pageNumber;
+  }
+
+  /**
+   * Insert an entry below a node, splitting nodes that overflow.
+   * @param pageNumber the node
+   * @param key the key
+   * @param value the value
+   * @return null, or the separator key and page number of a new right sibling of the node
+   * @throws IOException if a page cannot be read or written
+   */
+  private long[] insert(final int pageNumber, final long key, final long value)
+      throws IOException {
+    final PageFile.Page page = this.file.read(pageNumber);
+    final ByteBuffer node = page.getBuffer();
+    if (node.get(TYPE) == LEAF) {
+      return insertIntoLeaf(page, key, value);
+    }
+    final int child = childIndex(node, key);
+    final long[] split = insert(node.getInt(childOffset(child)), key, value);
+    return split == null ? null : insertIntoInternal(page, child, split[0], (int) split[1]);
+  }
+
+  /**
+   * Insert an entry into a leaf, splitting it if it is full.
+   * @param page the leaf
+   * @param key the key
+   * @param value the value
+   * @return null, or the first key and page number of a new right sibling
+   * @throws IOException if a page cannot be written
+   */
+  private long[] insertIntoLeaf(final PageFile.Page page, final long key, final long value)
+      throws IOException {
+    final ByteBuffer leaf = page.getBuffer();
+    final int index = search(leaf, key);
+    if (index >= 0) {
+      leaf.putLong(ENTRIES + index * LEAF_ENTRY + Long.BYTES, value);
+      this.file.markDirty(page);
+      return null;
+    }
+    addToSize(1);
+    final int position = -index - 1;
+    final int count = leaf.getShort(COUNT);
+    final long[] keys = new long[count + 1];
+    final long[] values = new long[count + 1];
+    for (int from = 0, to = 0; to <= count; to++) {
+      if (to == position) {
+        keys[to] = key;
+        values[to] = value;
+      } else {
+        keys[to] = leaf.getLong(ENTRIES + from * LEAF_ENTRY);
+        values[to] = leaf.getLong(ENTRIES + from * LEAF_ENTRY + Long.BYTES);
+        from++;
+      }
+    }
+    if (keys.length <= LEAF_CAPACITY) {
+      writeLeaf(leaf, keys, values, 0, keys.length);
+      this.file.markDirty(page);
+      return null;
+    }
+    final int half = keys.length / 2;
+    final PageFile.Page sibling = this.file.allocate();
+    final ByteBuffer right = sibling.getBuffer();
+    right.put(TYPE, LEAF);
+    right.putInt(NEXT, leaf.getInt(NEXT));
+    writeLeaf(right, keys, values, half, keys.length);
+    writeLeaf(leaf, keys, values, 0, half);
+    leaf.putInt(NEXT, sibling.getNumber());
+    this.file.markDirty(page);
+    this.file.markDirty(sibling);
+    return new long[] {keys[half], sibling.getNumber()};
+  }
+
+  /**
+   * Insert a separator and right child into an internal node, splitting it if it is full.
+   * @param page the node
+   * @param child the index of the child that split
+   * @param separator the first key of the new child
+   * @param newChild the page number of the new child
+   * @return null, or the separator key and page number of a new right sibling
+   * @throws IOException if a page cannot be written
+   */
+  private long[] insertIntoInternal(final PageFile.Page page, final int child,
+                                    final long separator, final int newChild)
+      throws IOException {
+    final ByteBuffer node = page.getBuffer();
+    final int count = node.getShort(COUNT);
+    final long[] keys = new long[count + 1];
+    final int[] children = new int[count + 2];
+    children[0] = node.getInt(childOffset(0));
+    for (int from = 0, to = 0; to <= count; to++) {
+      if (to == child) {
+        keys[to] = separator;
+        children[to + 1] = newChild;
+      } else {
+        keys[to] = node.getLong(keyOffset(from));
+        children[to + 1] = node.getInt(childOffset(from + 1));
+        from++;
+      }
+    }
+    if (keys.length <= INTERNAL_CAPACITY) {
+      writeInternal(node, keys, children, 0, keys.length);
+      this.file.markDirty(page);
+      return null;
+    }
+    final int middle = keys.length / 2;
+    final PageFile.Page sibling = this.file.allocate();
+    final ByteBuffer right = sibling.getBuffer();
+    right.put(TYPE, INTERNAL);
+    writeInternal(right, keys, children, middle + 1, keys.length);
+    writeInternal(node, keys, children, 0, middle);
+    this.file.markDirty(page);
+    this.file.markDirty(sibling);
+    return new long[] {keys[middle], sibling.getNumber()};
+  }
+
+  /**
+   * Write a run of entries into a leaf.
+   * @param leaf the leaf
+   * @param keys the keys
+   * @param values the values
+   * @param from the first entry to write
+   * @param to one past the last entry to write
+   */
+  private static void writeLeaf(final ByteBuffer leaf, final long[] keys, final long[] values,
+                                final int from, final int to) {
+    for (int index = from; index < to; index++) {
+      leaf.putLong(ENTRIES + (index - from) * LEAF_ENTRY, keys[index]);
+      leaf.putLong(ENTRIES + (index - from) * LEAF_ENTRY + Long.BYTES, values[index]);
+    }
+    leaf.putShort(COUNT, (short) (to - from));
+  }
+
+  /**
+   * Write a run of keys, and the children either side of them, into an internal node.
+   * @param node the node
+   * @param keys the keys
+   * @param children the children, one more than the keys
+   * @param from the first key to write
+   * @param to one past the last key to write
+   */
+  private static void writeInternal(final ByteBuffer node, final long[] keys,
+                                    final int[] children, final int from, final int to) {
+    node.putInt(childOffset(0), children[from]);
+    for (int index = from; index < to; index++) {
+      node.putLong(keyOffset(index - from), keys[index]);
+      node.putInt(childOffset(index - from + 1), children[index + 1]);
+    }
+    node.putShort(COUNT, (short) (to - from));
+  }
+
+  /**
+   * Binary search the keys of a leaf.
+   * @param leaf the leaf
+   * @param key the key
+   * @return the index of the key, or -(insertion point) - 1 if it is not held
+   */
+  private static int search(final ByteBuffer leaf, final long key) {
+    int low = 0;
+    int high = leaf.getShort(COUNT) - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final long held = leaf.getLong(ENTRIES + middle * LEAF_ENTRY);
+      if (held < key) {
+        low = middle + 1;
+      } else if (held > key) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * The child of an internal node to descend to for a key: the number of separators no
+   * greater than the key.
+   * @param node the node
+   * @param key the key
+   * @return the child index
+   */
+  private static int childIndex(final ByteBuffer node, final long key) {
+    int low = 0;
+    int high = node.getShort(COUNT);
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (node.getLong(keyOffset(middle)) <= key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The offset of a separator key in an internal node.
+   * @param index the key index
+   * @return the offset
+   */
+  private static int keyOffset(final int index) {
+    return ENTRIES + Integer.BYTES + index * INTERNAL_ENTRY;
+  }
+
+  /**
+   * The offset of a child page number in an internal node.
+   * @param index the child index
+   * @return the offset
+   */
+  private static int childOffset(final int index) {
+    return index == 0 ? ENTRIES : keyOffset(index - 1) + Long.BYTES;
+  }
+
+  /**
+   * Adjust the number of entries recorded in the header.
+   * @param delta the change
+   * @throws IOException if the header cannot be read or written
+   */
+  private void addToSize(final long delta) throws IOException {
+    final PageFile.Page header = this.file.read(HEADER_PAGE);
+    header.getBuffer().putLong(HEADER_SIZE, header.getBuffer().getLong(HEADER_SIZE) + delta);
+    this.file.markDirty(header);
+  }
+}
@@ -1,5 +1,7 @@
 package impl;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Set;
@@ -17,7 +19,7 @@ public class PastMeetingImpl extends MeetingImpl implements PastMeeting, Seriali
    */
   private static final long serialVersionUID = Long.MIN_VALUE;
 
-  private String notes;
+  private CharSequence notes;
 
   /**
    * Constructor for the past meeting.
@@ -30,8 +32,21 @@ public class PastMeetingImpl extends MeetingImpl implements PastMeeting, Seriali
                          final Calendar date,
                          final Set<Contact> contacts,
                          final String notes) {
+    this(id, date, contacts, notes, StringStore.shared());
+  }
+
+  /**
+   * Constructor for the past meeting, keeping the notes in a manager's own store.
+   * @param id the id of the meeting
+   * @param date the date the meeting took place
+   * @param contacts the associated contacts
+   * @param notes attached notes
+   * @param store the store the notes are kept in
+   */
+  PastMeetingImpl(final int id, final Calendar date, final Set<Contact> contacts,
+                  final String notes, final StringStore store) {
     super(id, date, contacts);
-    setNotes(notes);
+    setNotes(notes, store);
   }
 
   /**
@@ -39,16 +54,28 @@ public class PastMeetingImpl extends MeetingImpl implements PastMeeting, Seriali
    */
   @Override
   public String getNotes() {
-    return this.notes;
+    return this.notes.toString();
   }
 
   /**
    * Setter for the notes.
    * Validate that the notes aren't null, else throw a NullPointerException
    * @param notes the new notes to replace the existing notes
+   * @param store the store the notes are kept in
    */
-  private void setNotes(final String notes) {
+  private void setNotes(final String notes, final StringStore store) {
     Validation.validateObjectNotNull(notes, "Notes");
-    this.notes = notes;
+    this.notes = store.store(notes);
+  }
+
+  /**
+   * Restore the meeting, sharing its notes with equal values already in memory.
+   * @param in the stream to read from
+   * @throws IOException if the stream cannot be read
+   * @throws ClassNotFoundException if a class in the stream is unknown
+   */
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.notes = StringStore.shared().store(this.notes);
   }
 }
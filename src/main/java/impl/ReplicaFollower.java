@@ -0,0 +1,300 @@
+package impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReplicaFollower keeps a {@link ContactManagerImpl} a read replica of the manager of a
+ * {@link ReplicationLeader}, applying the journal records the leader ships as they arrive.
+ *
+ * <p>While following, the manager serves every read method as usual but rejects mutations
+ * with IllegalStateException. Once the follower is closed the manager accepts them again, so
+ * a follower can take over from a leader that has failed. A lost connection is retried, and
+ * resumes from the last sequence applied, as does a frame that cannot be applied.
+ *
+ * <p>The follower measures how far behind the leader it is: in records, from the leader's
+ * latest sequence, and in time, as how long ago by the leader's clock the follower last held
+ * everything the leader had. Leader and follower are expected to share a host, and so a clock.
+ * It also counts the records it applies and the time spent applying them.
+ *
+ * @author Alexander Worton.
+ */
+public final class ReplicaFollower implements Closeable {
+
+  private static final long RETRY_MILLIS = 100;
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final ContactManagerImpl manager;
+  private final InetSocketAddress leader;
+  private final Thread thread;
+  private Socket socket;
+  private long appliedSequence;
+  private long leaderSequence;
+  private long caughtUpMillis;
+  private long appliedRecords;
+  private long applyNanos;
+  private boolean connected;
+  private volatile boolean running;
+
+  /**
+   * Constructor for a follower, which starts following the leader. The manager's contacts
+   * and meetings are replaced by the leader's once it connects.
+   * @param suppliedManager the manager to keep a replica
+   * @param suppliedLeader the address of the leader
+   */
+  public ReplicaFollower(final ContactManagerImpl suppliedManager,
+                         final InetSocketAddress suppliedLeader) {
+    Validation.validateObjectNotNull(suppliedManager, "Manager");
+    Validation.validateObjectNotNull(suppliedLeader, "Leader");
+    this.manager = suppliedManager;
+    this.leader = suppliedLeader;
+    this.appliedSequence = ReplicationLeader.NOTHING_APPLIED;
+    this.caughtUpMillis = Long.MIN_VALUE;
+    this.manager.setFollowing(true);
+    this.running = true;
+    this.thread = new Thread(this::follow, "replica-follower");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Getter for the manager kept a replica.
+   * @return the manager
+   */
+  public ContactManagerImpl getManager() {
+    return this.manager;
+  }
+
+  /**
+   * Getter for whether the follower is connected to the leader.
+   * @return true while connected
+   */
+  public synchronized boolean isConnected() {
+    return this.connected;
+  }
+
+  /**
+   * Getter for the sequence of the last change applied, which is the leader's sequence.
+   * @return the sequence, or -1 before the first snapshot has been applied
+   */
+  public synchronized long getAppliedSequence() {
+    return this.appliedSequence;
+  }
+
+  /**
+   * Getter for the leader's latest sequence, as last heard from the leader.
+   * @return the sequence
+   */
+  public synchronized long getLeaderSequence() {
+    return this.leaderSequence;
+  }
+
+  /**
+   * Getter for the number of the leader's changes not yet applied, as last heard from the
+   * leader.
+   * @return the lag in changes
+   */
+  public synchronized long getLagRecords() {
+    return Math.max(0, this.leaderSequence - this.appliedSequence);
+  }
+
+  /**
+   * Getter for how stale the replica may be: how long ago, by the leader's clock, the follower
+   * last held every change the leader had made. Reads are never staler than this.
+   * @return the staleness, or null if the follower has never caught up
+   */
+  public synchronized Duration getStaleness() {
+    if (this.caughtUpMillis == Long.MIN_VALUE) {
+      return null;
+    }
+    return Duration.ofMillis(Math.max(0, System.currentTimeMillis() - this.caughtUpMillis));
+  }
+
+  /**
+   * Getter for the number of records applied, snapshots included.
+   * @return the number of records
+   */
+  public synchronized long getAppliedRecords() {
+    return this.appliedRecords;
+  }
+
+  /**
+   * Getter for the rate records are applied at, over the time spent applying them.
+   * @return the records applied per second, or 0 if none has been
+   */
+  public synchronized double getApplyThroughput() {
+    if (this.applyNanos == 0) {
+      return 0;
+    }
+    return this.appliedRecords * (double) NANOS_PER_SECOND / this.applyNanos;
+  }
+
+  /**
+   * Block until a change of the leader's has been applied, for a read that must see it.
+   * @param sequence the sequence of the change
+   * @param timeout how long to wait
+   * @return true if it has been applied, false if the wait timed out
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized boolean awaitSequence(final long sequence, final Duration timeout)
+      throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeout.toMillis();
+    while (this.appliedSequence < sequence) {
+      final long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  /**
+   * Stop following. The manager keeps everything applied and accepts mutations again.
+   */
+  @Override
+  public void close() {
+    this.running = false;
+    synchronized (this) {
+      if (this.socket != null) {
+        try {
+          this.socket.close();
+        } catch (IOException e) {
+          //the connection is being dropped anyway
+        }
+      }
+    }
+    this.thread.interrupt();
+    try {
+      this.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.manager.setFollowing(false);
+  }
+
+  /**
+   * Follow loop run on the follower's thread: connect, apply what arrives, and reconnect
+   * after a failure.
+   */
+  private void follow() {
+    while (this.running) {
+      try (Socket connection = new Socket()) {
+        synchronized (this) {
+          if (!this.running) {
+            return;
+          }
+          this.socket = connection;
+        }
+        connection.connect(this.leader);
+        connection.setTcpNoDelay(true);
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        out.writeLong(getAppliedSequence());
+        out.flush();
+        synchronized (this) {
+          this.connected = true;
+        }
+        apply(new DataInputStream(new BufferedInputStream(connection.getInputStream())));
+      } catch (IOException e) {
+        //the leader is unreachable or went away; try again
+      } catch (RuntimeException e) {
+        //a frame could not be applied; drop the connection and resume from the last sequence
+        e.printStackTrace();
+      } finally {
+        synchronized (this) {
+          this.connected = false;
+          this.socket = null;
+        }
+      }
+      try {
+        Thread.sleep(RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Apply each frame the leader sends until the connection ends.
+   * @param in the connection
+   * @throws IOException if the connection fails or a record cannot be decoded
+   */
+  private void apply(final DataInputStream in) throws IOException {
+    while (this.running) {
+      final byte kind = in.readByte();
+      final long leaderLast = in.readLong();
+      final long leaderMillis = in.readLong();
+      if (kind == ReplicationLeader.SNAPSHOT) {
+        final long sequence = in.readLong();
+        final int count = readLength(in);
+        final List<byte[]> records = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+          final byte[] record = new byte[readLength(in)];
+          in.readFully(record);
+          records.add(record);
+        }
+        final long start = System.nanoTime();
+        this.manager.replaceWithReplicated(records);
+        applied(sequence, count, System.nanoTime() - start, leaderLast, leaderMillis);
+      } else if (kind == ReplicationLeader.RECORD) {
+        final long sequence = in.readLong();
+        final byte[] record = new byte[readLength(in)];
+        in.readFully(record);
+        if (sequence > getAppliedSequence()) {
+          final long start = System.nanoTime();
+          this.manager.applyReplicated(record);
+          applied(sequence, 1, System.nanoTime() - start, leaderLast, leaderMillis);
+        } else {
+          //a change already in a snapshot is shipped again after it, and is skipped
+          applied(getAppliedSequence(), 0, 0, leaderLast, leaderMillis);
+        }
+      } else if (kind == ReplicationLeader.HEARTBEAT) {
+        applied(getAppliedSequence(), 0, 0, leaderLast, leaderMillis);
+      } else {
+        throw new IOException("Unknown replication frame " + kind);
+      }
+    }
+  }
+
+  /**
+   * Read a record length or count, refusing a negative one before anything is allocated.
+   * @param in the connection
+   * @return the length
+   * @throws IOException if the connection fails or the length is negative
+   */
+  private static int readLength(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Negative length " + length + " in replication frame");
+    }
+    return length;
+  }
+
+  /**
+   * Record a frame applied, and wake any thread waiting for its sequence.
+   * @param sequence the sequence now applied
+   * @param records the number of records applied
+   * @param nanos the time spent applying them
+   * @param leaderLast the leader's latest sequence when it sent the frame
+   * @param leaderMillis the leader's clock when it sent the frame
+   */
+  private synchronized void applied(final long sequence, final int records, final long nanos,
+                                    final long leaderLast, final long leaderMillis) {
+    this.appliedSequence = sequence;
+    this.appliedRecords += records;
+    this.applyNanos += nanos;
+    this.leaderSequence = Math.max(this.leaderSequence, leaderLast);
+    if (sequence >= leaderLast) {
+      this.caughtUpMillis = Math.max(this.caughtUpMillis, leaderMillis);
+    }
+    notifyAll();
+  }
+}
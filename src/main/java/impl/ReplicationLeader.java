@@ -0,0 +1,426 @@
+package impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spec.Contact;
+import spec.Meeting;
+
+/**
+ * ReplicationLeader ships the mutations of a {@link ContactManagerImpl} to
+ * {@link ReplicaFollower}s over local sockets, so that followers can serve reads.
+ *
+ * <p>Each mutation is shipped as the record its {@link MutationJournal} would write, tagged
+ * with the sequence of its change event. The records are taken from the manager's change feed
+ * rather than the journal file, which is emptied at every checkpoint; the feed keeps recent
+ * mutations by sequence whether or not journaling is enabled. A follower that connects with
+ * a sequence the feed still holds is sent only what it missed. Any other follower, and one
+ * that falls further behind than the feed holds, is first sent a snapshot of every contact
+ * and meeting.
+ *
+ * <p>Every frame, and a heartbeat sent to each follower at a fixed interval, carries the
+ * leader's latest sequence and clock, from which a follower measures how stale it is.
+ *
+ * <p>A frame is one of:
+ * <pre>
+ * [byte kind][long leader sequence][long leader millis] then for
+ *   SNAPSHOT:  [long sequence][int count] and count times [int length][record]
+ *   RECORD:    [long sequence][int length][record]
+ *   HEARTBEAT: nothing more
+ * </pre>
+ * A follower opens its connection by sending the sequence it has applied, or -1 for none.
+ *
+ * @author Alexander Worton.
+ */
+public final class ReplicationLeader implements Closeable {
+
+  /** How often followers are sent a heartbeat unless another interval is given. */
+  public static final Duration DEFAULT_HEARTBEAT = Duration.ofMillis(100);
+
+  static final byte SNAPSHOT = 1;
+  static final byte RECORD = 2;
+  static final byte HEARTBEAT = 3;
+  static final long NOTHING_APPLIED = -1;
+
+  private final ContactManagerImpl manager;
+  private final ServerSocket server;
+  private final long heartbeatMillis;
+  private final List<Shipment> shipments;
+  private final Thread acceptor;
+  private final Thread heartbeat;
+  private final AtomicLong shippedRecords;
+  private volatile boolean running;
+
+  /**
+   * The connection to one follower. Frames are written holding its lock, from the thread of
+   * its change feed subscription and from the heartbeat thread.
+   */
+  private final class Shipment implements ChangeListener {
+    private final Socket socket;
+    private final DataOutputStream out;
+    private ChangeFeed.Subscription subscription;
+
+    /**
+     * Constructor for a shipment.
+     * @param suppliedSocket the follower's connection
+     * @throws IOException if the connection cannot be written
+     */
+    private Shipment(final Socket suppliedSocket) throws IOException {
+      this.socket = suppliedSocket;
+      this.out = new DataOutputStream(new BufferedOutputStream(suppliedSocket.getOutputStream()));
+    }
+
+    /**
+     * Send the follower what it has not applied and keep sending each later change, then wait
+     * for the follower to go away. Run on the follower's own thread.
+     */
+    private void serve() {
+      try {
+        final DataInputStream in = new DataInputStream(
+            new BufferedInputStream(this.socket.getInputStream()));
+        final long applied = in.readLong();
+        final long resumeFrom;
+        synchronized (this) {
+          final ChangeFeed feed = ReplicationLeader.this.manager.getChangeFeed();
+          if (applied == NOTHING_APPLIED || applied + 1 < feed.getOldestSequence()
+              || applied > feed.getLastSequence()) {
+            resumeFrom = sendSnapshot() + 1;
+          } else {
+            resumeFrom = applied + 1;
+          }
+          this.subscription = ReplicationLeader.this.manager.subscribe(resumeFrom, this);
+        }
+        //the follower only ever closes its end
+        while (in.read() >= 0) {
+          //nothing more is expected from the follower
+        }
+      } catch (IOException | UncheckedIOException e) {
+        //the follower went away and will resume when it reconnects
+      } finally {
+        close();
+      }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * Ship each change as a journal record.
+     */
+    @Override
+    public synchronized void onChanges(final List<ChangeEvent> batch) {
+      try {
+        for (final ChangeEvent event : batch) {
+          final byte[] record = encode(event);
+          if (record != null) {
+            header(RECORD);
+            this.out.writeLong(event.getSequence());
+            this.out.writeInt(record.length);
+            this.out.write(record);
+            ReplicationLeader.this.shippedRecords.incrementAndGet();
+          }
+        }
+        this.out.flush();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * The follower missed changes, so send it a snapshot. Changes already in the snapshot are
+     * shipped again afterwards and skipped by the follower.
+     */
+    @Override
+    public synchronized void onOverflow(final long firstMissed, final long resumedAt) {
+      try {
+        sendSnapshot();
+      } catch (IOException | UncheckedIOException e) {
+        close();
+      }
+    }
+
+    /**
+     * Send a heartbeat.
+     */
+    private synchronized void sendHeartbeat() {
+      try {
+        header(HEARTBEAT);
+        this.out.flush();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    /**
+     * Send every contact and meeting. Must be called holding the shipment's lock.
+     * @return the sequence of the last change the snapshot includes
+     * @throws IOException if the snapshot cannot be sent
+     */
+    private long sendSnapshot() throws IOException {
+      final List<byte[]> records = new ArrayList<>();
+      final long sequence = ReplicationLeader.this.manager.copyTo(
+          new MutationJournal.RecordHandler() {
+            @Override
+            public void contact(final int id, final String name, final String notes) {
+              records.add(record(contents ->
+                  MutationJournal.writeContact(contents, id, name, notes)));
+            }
+
+            @Override
+            public void meeting(final Meeting meeting) {
+              records.add(record(contents -> MutationJournal.writeMeeting(contents, meeting)));
+            }
+
+            @Override
+            public void contactIdsLeased(final int limit) {
+              //ids are advanced past every contact the follower is sent
+            }
+
+            @Override
+            public void meetingIdsLeased(final int limit) {
+              //ids are advanced past every meeting the follower is sent
+            }
+          });
+      header(SNAPSHOT);
+      this.out.writeLong(sequence);
+      this.out.writeInt(records.size());
+      for (final byte[] record : records) {
+        this.out.writeInt(record.length);
+        this.out.write(record);
+      }
+      this.out.flush();
+      ReplicationLeader.this.shippedRecords.addAndGet(records.size());
+      return sequence;
+    }
+
+    /**
+     * Write the start of a frame. Must be called holding the shipment's lock.
+     * @param kind the kind of frame
+     * @throws IOException if the connection cannot be written
+     */
+    private void header(final byte kind) throws IOException {
+      this.out.writeByte(kind);
+      this.out.writeLong(ReplicationLeader.this.manager.getLastChangeSequence());
+      this.out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Stop shipping to the follower and drop its connection.
+     */
+    private void close() {
+      ReplicationLeader.this.shipments.remove(this);
+      synchronized (this) {
+        if (this.subscription != null) {
+          this.subscription.cancel();
+        }
+      }
+      try {
+        this.socket.close();
+      } catch (IOException e) {
+        //the connection is being dropped anyway
+      }
+    }
+  }
+
+  /**
+   * Writes the contents of a record.
+   */
+  private interface Encoder {
+    void encode(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Constructor for a leader sending heartbeats at the default interval.
+   * @param suppliedManager the manager whose mutations are shipped
+   * @param address the address followers connect to, with port 0 for any free port
+   * @throws IOException if the address cannot be bound
+   */
+  public ReplicationLeader(final ContactManagerImpl suppliedManager,
+                           final InetSocketAddress address) throws IOException {
+    this(suppliedManager, address, DEFAULT_HEARTBEAT);
+  }
+
+  /**
+   * Constructor for a leader, which starts accepting followers.
+   * @param suppliedManager the manager whose mutations are shipped
+   * @param address the address followers connect to, with port 0 for any free port
+   * @param heartbeatInterval how often each follower is sent a heartbeat
+   * @throws IOException if the address cannot be bound
+   */
+  public ReplicationLeader(final ContactManagerImpl suppliedManager,
+                           final InetSocketAddress address, final Duration heartbeatInterval)
+      throws IOException {
+    Validation.validateObjectNotNull(suppliedManager, "Manager");
+    Validation.validateObjectNotNull(address, "Address");
+    Validation.validateObjectNotNull(heartbeatInterval, "Heartbeat");
+    if (heartbeatInterval.toMillis() < 1) {
+      throw new IllegalArgumentException("Heartbeat interval must be at least a millisecond");
+    }
+    this.manager = suppliedManager;
+    this.heartbeatMillis = heartbeatInterval.toMillis();
+    this.shipments = new CopyOnWriteArrayList<>();
+    this.shippedRecords = new AtomicLong();
+    this.server = new ServerSocket();
+    this.server.setReuseAddress(true);
+    this.server.bind(address);
+    this.running = true;
+    this.acceptor = new Thread(this::accept, "replication-leader-acceptor");
+    this.acceptor.setDaemon(true);
+    this.acceptor.start();
+    this.heartbeat = new Thread(this::beat, "replication-leader-heartbeat");
+    this.heartbeat.setDaemon(true);
+    this.heartbeat.start();
+  }
+
+  /**
+   * Run a leader for the manager stored in the working directory, with a
+   * {@link ContactServer} taking its writes, until the process is stopped, flushing the
+   * manager as it stops. Prints a line once both are serving.
+   * @param args the port followers connect to, then the port of the contact server
+   * @throws IOException if either address cannot be bound
+   * @throws InterruptedException if interrupted while serving
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("Usage: ReplicationLeader <replication port> <server port>");
+      return;
+    }
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final ReplicationLeader leader = new ReplicationLeader(manager,
+        new InetSocketAddress("127.0.0.1", Integer.parseInt(args[0])));
+    final ContactServer server = new ContactServer(manager,
+        new InetSocketAddress("127.0.0.1", Integer.parseInt(args[1])));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.close();
+      leader.close();
+      manager.flush();
+    }));
+    System.out.println("Serving " + leader.getLocalAddress() + " " + server.getLocalAddress());
+    System.out.flush();
+    leader.acceptor.join();
+  }
+
+  /**
+   * Getter for the address followers connect to.
+   * @return the address
+   */
+  public InetSocketAddress getLocalAddress() {
+    return (InetSocketAddress) this.server.getLocalSocketAddress();
+  }
+
+  /**
+   * Getter for the number of followers connected.
+   * @return the number of followers
+   */
+  public int getFollowerCount() {
+    return this.shipments.size();
+  }
+
+  /**
+   * Getter for the number of records shipped to all followers, snapshots included.
+   * @return the number of records
+   */
+  public long getShippedRecords() {
+    return this.shippedRecords.get();
+  }
+
+  /**
+   * Stop accepting followers and drop those connected.
+   */
+  @Override
+  public void close() {
+    this.running = false;
+    try {
+      this.server.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    this.heartbeat.interrupt();
+    this.shipments.forEach(Shipment::close);
+  }
+
+  /**
+   * Encode a change event as a journal record.
+   * @param event the event
+   * @return the record, or null for an event the journal does not record
+   */
+  private static byte[] encode(final ChangeEvent event) {
+    switch (event.getType()) {
+      case CONTACT_ADDED:
+      case CONTACT_NOTES_CHANGED: {
+        final Contact contact = event.getContact();
+        return record(out -> MutationJournal.writeContact(out, contact.getId(),
+                                                          contact.getName(), event.getNotes()));
+      }
+      case MEETING_ADDED:
+      case MEETING_NOTES_ADDED:
+        return record(out -> MutationJournal.writeMeeting(out, event.getMeeting()));
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Encode a record.
+   * @param encoder writes the contents of the record
+   * @return the record
+   */
+  private static byte[] record(final Encoder encoder) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      encoder.encode(out);
+    } catch (IOException e) {
+      //the record is written to memory, which cannot fail
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Acceptor loop run on the leader's thread: serve each follower on a thread of its own.
+   */
+  private void accept() {
+    while (this.running) {
+      try {
+        final Socket socket = this.server.accept();
+        socket.setTcpNoDelay(true);
+        final Shipment shipment = new Shipment(socket);
+        this.shipments.add(shipment);
+        final Thread thread = new Thread(shipment::serve, "replication-leader-shipment");
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        if (this.running) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Heartbeat loop run on the leader's thread.
+   */
+  private void beat() {
+    while (this.running) {
+      try {
+        Thread.sleep(this.heartbeatMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+      this.shipments.forEach(Shipment::sendHeartbeat);
+    }
+  }
+}
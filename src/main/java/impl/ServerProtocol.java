@@ -0,0 +1,366 @@
+package impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ServerProtocol is the length-prefixed binary protocol spoken between a {@link ContactServer}
+ * and its {@link ContactClient}s. Every frame starts with its length, not counting the length
+ * itself, then the id the client gave the request. A request continues with an operation code
+ * and its arguments; a response with a status code and the result, or the message of the
+ * exception the server's manager threw, which the client throws again.
+ *
+ * <p>Responses carry the id of their request, so a client may send any number of requests
+ * without waiting and the server may answer them in any order.
+ *
+ * <p>A client that subscribes is also pushed invalidations, frames with the request id
+ * {@value #PUSH_ID} listing the meetings, contacts and future meeting lists that changed, so
+ * that it can keep a {@link NearCache}.
+ *
+ * <p>Arguments may be null, so that the server's manager rejects them exactly as it would a
+ * local caller. Contacts are sent as arguments by id alone; in results they are sent whole.
+ *
+ * @author Alexander Worton.
+ */
+final class ServerProtocol {
+
+  static final byte ADD_FUTURE_MEETING = 1;
+  static final byte GET_PAST_MEETING = 2;
+  static final byte GET_FUTURE_MEETING = 3;
+  static final byte GET_MEETING = 4;
+  static final byte GET_FUTURE_MEETING_LIST = 5;
+  static final byte GET_MEETING_LIST_ON = 6;
+  static final byte GET_PAST_MEETING_LIST_FOR = 7;
+  static final byte ADD_NEW_PAST_MEETING = 8;
+  static final byte ADD_MEETING_NOTES = 9;
+  static final byte ADD_NEW_CONTACT = 10;
+  static final byte GET_CONTACTS_BY_NAME = 11;
+  static final byte GET_CONTACTS_BY_ID = 12;
+  static final byte FLUSH = 13;
+  static final byte SUBSCRIBE = 14;
+
+  static final byte OK = 0;
+  static final byte ILLEGAL_ARGUMENT = 1;
+  static final byte ILLEGAL_STATE = 2;
+  static final byte NULL_POINTER = 3;
+
+  /** The bytes before the contents of a frame: its length and its request id. */
+  static final int HEADER_BYTES = 8;
+  /** The request id of an invalidation the server pushes without being asked. */
+  static final int PUSH_ID = 0;
+  /** The longest frame either side accepts, so a corrupt length cannot exhaust memory. */
+  static final int MAX_FRAME_BYTES = 1 << 24;
+
+  private static final int NULL_LENGTH = -1;
+
+  private ServerProtocol() {
+  }
+
+  /**
+   * Put a string, which may be null, as UTF-8 preceded by its length.
+   * @param out the buffer to put to
+   * @param text the string
+   */
+  static void putText(final ByteBuffer out, final String text) {
+    if (text == null) {
+      out.putInt(NULL_LENGTH);
+      return;
+    }
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    out.putInt(bytes.length);
+    out.put(bytes);
+  }
+
+  /**
+   * Get a string put by {@link #putText(ByteBuffer, String)}.
+   * @param in the buffer to get from
+   * @return the string, or null
+   */
+  static String getText(final ByteBuffer in) {
+    final int length = in.getInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    validateLength(in, length, 1);
+    final byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Check that a length read from a frame fits in what is left of it, before anything of that
+   * length is allocated, so a malformed frame is refused rather than exhausting the heap.
+   * @param in the buffer the length was read from
+   * @param length the number of items
+   * @param bytesEach the fewest bytes each item takes
+   * @throws IllegalArgumentException if the length is negative or the frame is too short
+   */
+  private static void validateLength(final ByteBuffer in, final int length,
+                                     final int bytesEach) {
+    if (length < 0 || (long) length * bytesEach > in.remaining()) {
+      throw new IllegalArgumentException("Length " + length + " does not fit in the "
+          + in.remaining() + " bytes left of the frame");
+    }
+  }
+
+  /**
+   * Put a date, which may be null, as milliseconds.
+   * @param out the buffer to put to
+   * @param date the date
+   */
+  static void putDate(final ByteBuffer out, final Calendar date) {
+    out.put((byte) (date == null ? 0 : 1));
+    if (date != null) {
+      out.putLong(date.getTimeInMillis());
+    }
+  }
+
+  /**
+   * Get a date put by {@link #putDate(ByteBuffer, Calendar)}, in the zone of this JVM.
+   * @param in the buffer to get from
+   * @return the date, or null
+   */
+  static Calendar getDate(final ByteBuffer in) {
+    if (in.get() == 0) {
+      return null;
+    }
+    final Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(in.getLong());
+    return date;
+  }
+
+  /**
+   * Put the ids of a collection of contacts, which may be null.
+   * @param out the buffer to put to
+   * @param contacts the contacts
+   */
+  static void putContactIds(final ByteBuffer out, final Collection<Contact> contacts) {
+    if (contacts == null) {
+      out.putInt(NULL_LENGTH);
+      return;
+    }
+    out.putInt(contacts.size());
+    for (final Contact contact : contacts) {
+      out.putInt(contact.getId());
+    }
+  }
+
+  /**
+   * Get ids put by {@link #putContactIds(ByteBuffer, Collection)} or
+   * {@link #putIds(ByteBuffer, int[])}.
+   * @param in the buffer to get from
+   * @return the ids, or null
+   */
+  static int[] getIds(final ByteBuffer in) {
+    final int count = in.getInt();
+    if (count == NULL_LENGTH) {
+      return null;
+    }
+    validateLength(in, count, Integer.BYTES);
+    final int[] ids = new int[count];
+    for (int index = 0; index < count; index++) {
+      ids[index] = in.getInt();
+    }
+    return ids;
+  }
+
+  /**
+   * Put a contact whole.
+   * @param out the buffer to put to
+   * @param contact the contact
+   */
+  static void putContact(final ByteBuffer out, final Contact contact) {
+    out.putInt(contact.getId());
+    putText(out, contact.getName());
+    putText(out, contact.getNotes());
+  }
+
+  /**
+   * Get a contact put by {@link #putContact(ByteBuffer, Contact)}.
+   * @param in the buffer to get from
+   * @return the contact
+   */
+  static Contact getContact(final ByteBuffer in) {
+    final int id = in.getInt();
+    return new ContactImpl(id, getText(in), getText(in));
+  }
+
+  /**
+   * Put a number of contacts whole.
+   * @param out the buffer to put to
+   * @param contacts the contacts
+   */
+  static void putContacts(final ByteBuffer out, final Collection<Contact> contacts) {
+    out.putInt(contacts.size());
+    for (final Contact contact : contacts) {
+      putContact(out, contact);
+    }
+  }
+
+  /**
+   * Get contacts put by {@link #putContacts(ByteBuffer, Collection)}.
+   * @param in the buffer to get from
+   * @return the contacts
+   */
+  static Set<Contact> getContacts(final ByteBuffer in) {
+    final int count = in.getInt();
+    final Set<Contact> contacts = new HashSet<>();
+    for (int index = 0; index < count; index++) {
+      contacts.add(getContact(in));
+    }
+    return contacts;
+  }
+
+  /**
+   * Put a meeting, which may be null, with its attendees whole.
+   * @param out the buffer to put to
+   * @param meeting the meeting
+   */
+  static void putMeeting(final ByteBuffer out, final Meeting meeting) {
+    out.putInt(meeting == null ? 0 : meeting.getId());
+    if (meeting == null) {
+      return;
+    }
+    out.putLong(meeting.getDate().getTimeInMillis());
+    putContacts(out, meeting.getContacts());
+    putText(out, meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : null);
+  }
+
+  /**
+   * Get a meeting put by {@link #putMeeting(ByteBuffer, Meeting)}: a past meeting if it was
+   * put with notes, otherwise a future meeting.
+   * @param in the buffer to get from
+   * @return the meeting, or null
+   */
+  static Meeting getMeeting(final ByteBuffer in) {
+    final int id = in.getInt();
+    if (id == 0) {
+      return null;
+    }
+    final Calendar date = Calendar.getInstance();
+    date.setTimeInMillis(in.getLong());
+    final Set<Contact> contacts = getContacts(in);
+    final String notes = getText(in);
+    return notes == null
+        ? new FutureMeetingImpl(id, date, contacts)
+        : new PastMeetingImpl(id, date, contacts, notes);
+  }
+
+  /**
+   * Put a number of meetings.
+   * @param out the buffer to put to
+   * @param meetings the meetings
+   */
+  static void putMeetings(final ByteBuffer out, final Collection<? extends Meeting> meetings) {
+    out.putInt(meetings.size());
+    for (final Meeting meeting : meetings) {
+      putMeeting(out, meeting);
+    }
+  }
+
+  /**
+   * Get meetings put by {@link #putMeetings(ByteBuffer, Collection)}.
+   * @param in the buffer to get from
+   * @return the meetings
+   */
+  static List<Meeting> getMeetings(final ByteBuffer in) {
+    final int count = in.getInt();
+    validateLength(in, count, Integer.BYTES);
+    final List<Meeting> meetings = new ArrayList<>(count);
+    for (int index = 0; index < count; index++) {
+      meetings.add(getMeeting(in));
+    }
+    return meetings;
+  }
+
+  /**
+   * Put an invalidation.
+   * @param out the buffer to put to
+   * @param meetingIds the meetings that changed, or null if everything may have changed
+   * @param contactIds the contacts that changed
+   * @param listIds the contacts whose future meeting lists changed
+   */
+  static void putInvalidation(final ByteBuffer out, final int[] meetingIds,
+                              final int[] contactIds, final int[] listIds) {
+    putIds(out, meetingIds);
+    if (meetingIds != null) {
+      putIds(out, contactIds);
+      putIds(out, listIds);
+    }
+  }
+
+  /**
+   * Get an invalidation put by {@link #putInvalidation(ByteBuffer, int[], int[], int[])} and
+   * apply it to a cache.
+   * @param in the buffer to get from
+   * @param cache the cache to invalidate
+   */
+  static void getInvalidation(final ByteBuffer in, final NearCache cache) {
+    final int[] meetingIds = getIds(in);
+    if (meetingIds == null) {
+      cache.invalidate(null, null, null);
+    } else {
+      cache.invalidate(meetingIds, getIds(in), getIds(in));
+    }
+  }
+
+  /**
+   * Put a number of ids, which may be null.
+   * @param out the buffer to put to
+   * @param ids the ids
+   */
+  private static void putIds(final ByteBuffer out, final int[] ids) {
+    if (ids == null) {
+      out.putInt(NULL_LENGTH);
+      return;
+    }
+    out.putInt(ids.length);
+    for (final int id : ids) {
+      out.putInt(id);
+    }
+  }
+
+  /**
+   * Put the status of a request that was rejected.
+   * @param out the buffer to put to
+   * @param failure the exception the request was rejected with
+   */
+  static void putFailure(final ByteBuffer out, final RuntimeException failure) {
+    if (failure instanceof NullPointerException) {
+      out.put(NULL_POINTER);
+    } else if (failure instanceof IllegalStateException) {
+      out.put(ILLEGAL_STATE);
+    } else {
+      out.put(ILLEGAL_ARGUMENT);
+    }
+    putText(out, String.valueOf(failure.getMessage()));
+  }
+
+  /**
+   * Create the exception a rejected request is thrown with.
+   * @param status the status of the response
+   * @param in the buffer holding the message
+   * @return the exception
+   */
+  static RuntimeException getFailure(final byte status, final ByteBuffer in) {
+    final String message = getText(in);
+    switch (status) {
+      case NULL_POINTER:
+        return new NullPointerException(message);
+      case ILLEGAL_STATE:
+        return new IllegalStateException(message);
+      default:
+        return new IllegalArgumentException(message);
+    }
+  }
+}
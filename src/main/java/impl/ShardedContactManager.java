@@ -0,0 +1,772 @@
+package impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import spec.Contact;
+import spec.ContactManager;
+import spec.FutureMeeting;
+import spec.Meeting;
+import spec.PastMeeting;
+
+/**
+ * ShardedContactManager partitions contacts and meetings across a number of independent
+ * shards, each with its own lock, so that writes to different shards run on different cores at
+ * once rather than queueing for the single lock of a {@link ContactManagerImpl}.
+ *
+ * <p>A contact lives in the shard chosen by its id, together with the ids of the meetings it
+ * attends. A meeting lives in the home shard chosen by its id, together with the index of
+ * meetings by day, and is referenced from the shard of each of its attendees. Ids come from
+ * {@link IdAllocator}s, so each thread allocates from a block of its own without locking, and
+ * consecutive contacts and meetings are spread across the shards.
+ * Queries that span shards, such as {@link #getMeetingListOn(Calendar)}, fan out to the shards
+ * in parallel and merge the results.
+ *
+ * <p>A meeting is added to its home shard before it is referenced from its attendees' shards,
+ * so every meeting a contact's list refers to can be read. Whether a meeting is future, past
+ * or awaiting notes is worked out from its date when it is read.
+ *
+ * <p>Each flush writes every shard to its own pair of files in the supplied directory, in
+ * parallel, all named with the flush's generation. Once every file is forced to disk, a
+ * manifest naming the generation and the number of shards replaces the previous one in a
+ * single atomic move, and only then are the files of older generations deleted. A manager
+ * created on the same directory, with any number of shards, reads only the files of the
+ * generation in the manifest, so a flush interrupted by a crash leaves the previous generation
+ * to be restored whole. The allocators' leases are written to a file of their own as they are
+ * taken, so ids handed out before a crash are not handed out again.
+ *
+ * @author Alexander Worton.
+ */
+public final class ShardedContactManager implements ContactManager {
+
+  private static final String PREFIX = "shard-";
+  private static final String CONTACTS_SUFFIX = ".contacts";
+  private static final String MEETINGS_SUFFIX = ".meetings";
+  private static final String LEASE_FILE = "ids.lease";
+  private static final String MANIFEST_FILE = "shards.manifest";
+
+  private final Path directory;
+  private final ZoneRules zoneRules;
+  private final Shard[] shards;
+  private final IdAllocator contactIds;
+  private final IdAllocator meetingIds;
+  private final Object leaseLock;
+  private final Object flushLock;
+  private int contactIdLease;
+  private int meetingIdLease;
+  private long generation;
+
+  /**
+   * One partition of the contacts and meetings, guarded by its own lock.
+   */
+  private static final class Shard {
+    private final Map<Integer, Contact> contacts = new HashMap<>();
+    private final Map<Integer, IdBitmap> meetingsByContact = new HashMap<>();
+    private final Map<Integer, Meeting> meetings = new HashMap<>();
+    private final Map<Long, IdBitmap> meetingsByDay = new HashMap<>();
+
+    /**
+     * Add a contact that lives in this shard.
+     * @param contact the contact
+     */
+    private synchronized void putContact(final Contact contact) {
+      this.contacts.put(contact.getId(), contact);
+    }
+
+    /**
+     * Check that contacts living in this shard are known.
+     * @param suppliedContacts the contacts
+     */
+    private synchronized void validateKnown(final List<Contact> suppliedContacts) {
+      for (final Contact contact : suppliedContacts) {
+        Validation.validateContactKnown(contact, this.contacts);
+      }
+    }
+
+    /**
+     * Find contacts living in this shard by id.
+     * @param ids the ids
+     * @return the contacts found
+     */
+    private synchronized List<Contact> getContacts(final List<Integer> ids) {
+      return ids.stream()
+          .map(this.contacts::get)
+          .filter(contact -> contact != null)
+          .collect(Collectors.toList());
+    }
+
+    /**
+     * Find contacts living in this shard that match a filter.
+     * @param filter the filter
+     * @return the contacts that match
+     */
+    private synchronized List<Contact> findContacts(final Predicate<Contact> filter) {
+      return this.contacts.values().stream().filter(filter).collect(Collectors.toList());
+    }
+
+    /**
+     * Get the ids of the meetings a contact living in this shard attends.
+     * @param contact the contact, which must be known
+     * @return the meeting ids
+     */
+    private synchronized int[] meetingIdsFor(final Contact contact) {
+      Validation.validateContactKnown(contact, this.contacts);
+      final IdBitmap ids = this.meetingsByContact.get(contact.getId());
+      return ids == null ? new int[0] : ids.toArray();
+    }
+
+    /**
+     * Reference a meeting from the contacts living in this shard that attend it.
+     * @param meetingId the meeting id
+     * @param attendees the attendees living in this shard
+     */
+    private synchronized void linkMeeting(final int meetingId, final List<Contact> attendees) {
+      for (final Contact contact : attendees) {
+        this.meetingsByContact.computeIfAbsent(contact.getId(), id -> new IdBitmap())
+            .add(meetingId);
+      }
+    }
+
+    /**
+     * Add or replace a meeting whose home is this shard.
+     * @param meeting the meeting
+     * @param epochDay the day the meeting falls on
+     */
+    private synchronized void putMeeting(final Meeting meeting, final long epochDay) {
+      this.meetings.put(meeting.getId(), meeting);
+      this.meetingsByDay.computeIfAbsent(epochDay, day -> new IdBitmap()).add(meeting.getId());
+    }
+
+    /**
+     * Find a meeting whose home is this shard.
+     * @param id the meeting id
+     * @return the meeting, or null if there is none with the id
+     */
+    private synchronized Meeting getMeeting(final int id) {
+      return this.meetings.get(id);
+    }
+
+    /**
+     * Find meetings whose home is this shard.
+     * @param ids the meeting ids
+     * @return the meetings found
+     */
+    private synchronized List<Meeting> getMeetings(final List<Integer> ids) {
+      return ids.stream()
+          .map(this.meetings::get)
+          .filter(meeting -> meeting != null)
+          .collect(Collectors.toList());
+    }
+
+    /**
+     * Replace a meeting whose home is this shard with a past meeting holding notes.
+     * @param id the meeting id
+     * @param text the notes
+     * @return the past meeting
+     */
+    private synchronized PastMeeting addNotes(final int id, final String text) {
+      final Meeting meeting = this.meetings.get(id);
+      Validation.validateArgumentNotNull(meeting, "Meeting");
+      if (!(meeting instanceof PastMeeting)) {
+        Validation.validateStateInPast(meeting.getDate());
+      }
+      final PastMeeting withNotes = new PastMeetingImpl(id, meeting.getDate(),
+                                                        meeting.getContacts(), text);
+      this.meetings.put(id, withNotes);
+      return withNotes;
+    }
+
+    /**
+     * Find the meetings whose home is this shard that fall on a day.
+     * @param epochDay the day
+     * @return the meetings
+     */
+    private synchronized List<Meeting> meetingsOn(final long epochDay) {
+      final IdBitmap ids = this.meetingsByDay.get(epochDay);
+      if (ids == null) {
+        return new ArrayList<>();
+      }
+      return Arrays.stream(ids.toArray())
+          .mapToObj(this.meetings::get)
+          .collect(Collectors.toList());
+    }
+
+    /**
+     * Copy the contacts and meetings of this shard, to be written without holding its lock.
+     * @return a shard holding the same contacts and meetings
+     */
+    private synchronized Shard copy() {
+      final Shard copy = new Shard();
+      copy.contacts.putAll(this.contacts);
+      copy.meetings.putAll(this.meetings);
+      return copy;
+    }
+
+    /**
+     * Write the contacts and meetings of this shard.
+     * @param contactsOut the output for contacts
+     * @param meetingsOut the output for meetings
+     * @throws IOException if an output cannot be written
+     */
+    private synchronized void write(final DataOutputStream contactsOut,
+                                    final DataOutputStream meetingsOut) throws IOException {
+      contactsOut.writeInt(this.contacts.size());
+      for (final Contact contact : this.contacts.values()) {
+        contactsOut.writeInt(contact.getId());
+        MeetingCodec.writeText(contactsOut, contact.getName());
+        MeetingCodec.writeText(contactsOut, contact.getNotes());
+      }
+      meetingsOut.writeInt(this.meetings.size());
+      for (final Meeting meeting : this.meetings.values()) {
+        MeetingCodec.write(meetingsOut, meeting);
+      }
+    }
+  }
+
+  /**
+   * Constructor for a manager with one shard for each available processor, using the default
+   * zone of the JVM to decide which day a meeting falls on.
+   * @param suppliedDirectory the directory for the shard files, which is created if needed
+   * @throws IOException if existing shard files cannot be read
+   */
+  public ShardedContactManager(final Path suppliedDirectory) throws IOException {
+    this(suppliedDirectory, Runtime.getRuntime().availableProcessors(), ZoneId.systemDefault());
+  }
+
+  /**
+   * Constructor for a manager, restoring the contacts and meetings in any shard files in the
+   * directory whatever the number of shards they were written with.
+   * @param suppliedDirectory the directory for the shard files, which is created if needed
+   * @param shardCount the number of shards
+   * @param zone the zone used for day comparisons
+   * @throws IOException if existing shard files cannot be read
+   */
+  public ShardedContactManager(final Path suppliedDirectory, final int shardCount,
+                               final ZoneId zone) throws IOException {
+    Validation.validateObjectNotNull(suppliedDirectory, "Directory");
+    Validation.validateIdPositive(shardCount);
+    Validation.validateObjectNotNull(zone, "Zone");
+    this.directory = suppliedDirectory;
+    this.zoneRules = zone.getRules();
+    this.shards = new Shard[shardCount];
+    for (int index = 0; index < shardCount; index++) {
+      this.shards[index] = new Shard();
+    }
+    this.leaseLock = new Object();
+    this.flushLock = new Object();
+    Files.createDirectories(suppliedDirectory);
+    readLease();
+    this.contactIds = new IdAllocator(this.contactIdLease, IdAllocator.DEFAULT_BLOCK_SIZE,
+        IdAllocator.DEFAULT_LEASE_SIZE, limit -> storeLease(false, limit));
+    this.meetingIds = new IdAllocator(this.meetingIdLease, IdAllocator.DEFAULT_BLOCK_SIZE,
+        IdAllocator.DEFAULT_LEASE_SIZE, limit -> storeLease(true, limit));
+    restore();
+  }
+
+  /**
+   * Getter for the number of shards.
+   * @return the number of shards
+   */
+  public int getShardCount() {
+    return this.shards.length;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addFutureMeeting(final Set<Contact> contacts, final Calendar date) {
+    Validation.validateObjectNotNull(contacts, "Contacts");
+    Validation.validateSetPopulated(contacts, "Contacts");
+    Validation.validateObjectNotNull(date, "Date");
+    Validation.validateDateInFuture(date);
+    return addMeeting(contacts, id -> new FutureMeetingImpl(id, date, new HashSet<>(contacts)));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting getPastMeeting(final int id) {
+    final Meeting meeting = getMeeting(id);
+    if (meeting == null || meeting instanceof PastMeeting) {
+      return (PastMeeting) meeting;
+    }
+    Validation.validateStateInPast(meeting.getDate());
+    //the meeting has taken place but has not been given notes
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(final int id) {
+    final Meeting meeting = getMeeting(id);
+    if (meeting == null) {
+      return null;
+    }
+    if (meeting instanceof PastMeeting) {
+      throw new IllegalStateException("Supplied date is not in the future");
+    }
+    Validation.validateStateInFuture(meeting.getDate());
+    return (FutureMeeting) meeting;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Meeting getMeeting(final int id) {
+    return homeShard(id).getMeeting(id);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(final Contact contact) {
+    Validation.validateObjectNotNull(contact, "Contact");
+    final Calendar now = Calendar.getInstance();
+    return meetingsFor(contact).stream()
+        .filter(meeting -> !(meeting instanceof PastMeeting) && meeting.getDate().after(now))
+        .sorted(Comparator.comparing(Meeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<Meeting> getMeetingListOn(final Calendar date) {
+    Validation.validateObjectNotNull(date);
+    final long epochDay = DateKey.of(date, this.zoneRules).getEpochDay();
+    return Arrays.stream(this.shards)
+        .parallel()
+        .flatMap(shard -> shard.meetingsOn(epochDay).stream())
+        .sorted(Comparator.comparing(Meeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingListFor(final Contact contact) {
+    Validation.validateObjectNotNull(contact);
+    return meetingsFor(contact).stream()
+        .filter(meeting -> meeting instanceof PastMeeting)
+        .map(meeting -> (PastMeeting) meeting)
+        .sorted(Comparator.comparing(PastMeeting::getDate))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewPastMeeting(final Set<Contact> contacts, final Calendar date,
+                               final String text) {
+    Validation.validateObjectNotNull(contacts, "Contacts");
+    Validation.validateObjectNotNull(date, "Date");
+    Validation.validateDateInPast(date);
+    Validation.validateObjectNotNull(text, "Text");
+    return addMeeting(contacts,
+        id -> new PastMeetingImpl(id, date, new HashSet<>(contacts), text));
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public PastMeeting addMeetingNotes(final int id, final String text) {
+    Validation.validateObjectNotNull(text, "Text");
+    return homeShard(id).addNotes(id, text);
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public int addNewContact(final String name, final String notes) {
+    Validation.validateStringNotNullOrEmpty(name, "name");
+    Validation.validateStringNotNullOrEmpty(notes, "notes");
+    final int id = this.contactIds.next();
+    contactShard(id).putContact(new ContactImpl(id, name, notes));
+    return id;
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final String name) {
+    Validation.validateObjectNotNull(name, "Name");
+    final Predicate<Contact> filter = name.isEmpty()
+        ? contact -> true
+        : contact -> contact.getName().equals(name);
+    return Arrays.stream(this.shards)
+        .parallel()
+        .flatMap(shard -> shard.findContacts(filter).stream())
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * {@inheritDoc}.
+   */
+  @Override
+  public Set<Contact> getContacts(final int... ids) {
+    Validation.validateSetPopulated(ids, "Contact Ids array");
+    final Map<Shard, List<Integer>> byShard = IntStream.of(ids).boxed()
+        .collect(Collectors.groupingBy(this::contactShard));
+    final Set<Contact> result = new HashSet<>();
+    byShard.forEach((shard, shardIds) -> result.addAll(shard.getContacts(shardIds)));
+    Validation.validateArgumentSizeMatch(ids.length, result.size());
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}.
+   * Every shard is copied while all of them are locked, so the copies hold each meeting's
+   * attendees, and the copies are then written in parallel to a new pair of files each of the
+   * next generation. The generation is published by replacing the manifest once its files are
+   * all on disk, so a failed flush leaves the previous generation in place.
+   */
+  @Override
+  public void flush() {
+    synchronized (this.flushLock) {
+      final long next = this.generation + 1;
+      final Shard[] copies = new Shard[this.shards.length];
+      copyShards(0, copies);
+      try {
+        IntStream.range(0, copies.length).parallel()
+            .forEach(index -> writeShard(copies[index], index, next));
+        final ByteBuffer manifest = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        manifest.putLong(next).putInt(this.shards.length).flip();
+        writeAtomically(this.directory.resolve(MANIFEST_FILE), manifest);
+        this.generation = next;
+        removeShardFilesExcept(next);
+      } catch (IOException | UncheckedIOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Validate the attendees of a new meeting, then add it to its home shard and reference it
+   * from the shard of each attendee.
+   * @param contacts the attendees
+   * @param factory creates the meeting from its id
+   * @return the id of the meeting
+   */
+  private int addMeeting(final Set<Contact> contacts,
+                         final IntFunction<Meeting> factory) {
+    final Map<Shard, List<Contact>> byShard = contacts.stream()
+        .collect(Collectors.groupingBy(contact -> contactShard(contact.getId())));
+    byShard.forEach((shard, attendees) -> shard.validateKnown(attendees));
+    final int id = this.meetingIds.next();
+    final Meeting meeting = factory.apply(id);
+    homeShard(id).putMeeting(meeting, DateKey.of(meeting.getDate(), this.zoneRules).getEpochDay());
+    byShard.forEach((shard, attendees) -> shard.linkMeeting(id, attendees));
+    return id;
+  }
+
+  /**
+   * Read every meeting a contact attends from the meetings' home shards.
+   * @param contact the contact
+   * @return the meetings
+   */
+  private List<Meeting> meetingsFor(final Contact contact) {
+    final int[] ids = contactShard(contact.getId()).meetingIdsFor(contact);
+    final Map<Shard, List<Integer>> byShard = IntStream.of(ids).boxed()
+        .collect(Collectors.groupingBy(this::homeShard));
+    final List<Meeting> result = new ArrayList<>(ids.length);
+    byShard.forEach((shard, shardIds) -> result.addAll(shard.getMeetings(shardIds)));
+    return result;
+  }
+
+  /**
+   * Find the shard a contact lives in.
+   * @param id the contact id
+   * @return the shard
+   */
+  private Shard contactShard(final int id) {
+    return this.shards[Math.floorMod(id, this.shards.length)];
+  }
+
+  /**
+   * Find the home shard of a meeting.
+   * @param id the meeting id
+   * @return the shard
+   */
+  private Shard homeShard(final int id) {
+    return this.shards[Math.floorMod(id, this.shards.length)];
+  }
+
+  /**
+   * Lock the shards from an index on, in index order, and copy every shard once all are held,
+   * so that no meeting is copied without a contact added before it.
+   * @param index the index of the next shard to lock
+   * @param copies receives the copy of each shard
+   */
+  private void copyShards(final int index, final Shard[] copies) {
+    if (index == this.shards.length) {
+      for (int shard = 0; shard < copies.length; shard++) {
+        copies[shard] = this.shards[shard].copy();
+      }
+      return;
+    }
+    synchronized (this.shards[index]) {
+      copyShards(index + 1, copies);
+    }
+  }
+
+  /**
+   * Write a copy of one shard to the files of a generation not yet published, forcing them to
+   * disk.
+   * @param copy the copy of the shard
+   * @param index the index of the shard
+   * @param fileGeneration the generation being written
+   */
+  private void writeShard(final Shard copy, final int index, final long fileGeneration) {
+    try (FileChannel contactsChannel = openForWrite(
+             shardFile(index, fileGeneration, CONTACTS_SUFFIX));
+         FileChannel meetingsChannel = openForWrite(
+             shardFile(index, fileGeneration, MEETINGS_SUFFIX))) {
+      final DataOutputStream contactsOut = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(contactsChannel)));
+      final DataOutputStream meetingsOut = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(meetingsChannel)));
+      copy.write(contactsOut, meetingsOut);
+      contactsOut.flush();
+      meetingsOut.flush();
+      contactsChannel.force(true);
+      meetingsChannel.force(true);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Open a file to be written from the start, replacing anything in it.
+   * @param file the file
+   * @return the channel
+   * @throws IOException if the file cannot be opened
+   */
+  private static FileChannel openForWrite(final Path file) throws IOException {
+    return FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Replace a file with new content, writing it to a temporary file that is forced to disk and
+   * then moved over the old one atomically, so the file is always either old or new.
+   * @param file the file
+   * @param content the new content
+   * @throws IOException if the file cannot be written
+   */
+  private static void writeAtomically(final Path file, final ByteBuffer content)
+      throws IOException {
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = openForWrite(temp)) {
+      while (content.hasRemaining()) {
+        channel.write(content);
+      }
+      channel.force(true);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Delete the shard files of every generation but the published one, including those of a
+   * flush that failed or was interrupted.
+   * @param published the generation in the manifest
+   * @throws IOException if the directory cannot be read or a file deleted
+   */
+  private void removeShardFilesExcept(final long published) throws IOException {
+    for (final Path file : listShardFiles()) {
+      if (shardGeneration(file) != published) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Read the limits of the id leases last stored, if any have been.
+   * @throws IOException if the file cannot be read
+   */
+  private void readLease() throws IOException {
+    final Path file = this.directory.resolve(LEASE_FILE);
+    if (Files.exists(file)) {
+      try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+        this.contactIdLease = in.readInt();
+        this.meetingIdLease = in.readInt();
+      }
+    }
+  }
+
+  /**
+   * Store a new lease of ids, replacing the lease file and forcing it to disk before any id
+   * under the lease is handed out.
+   * @param forMeetings true for meeting ids, false for contact ids
+   * @param limit the highest id that may be handed out
+   */
+  private void storeLease(final boolean forMeetings, final int limit) {
+    synchronized (this.leaseLock) {
+      if (forMeetings) {
+        this.meetingIdLease = limit;
+      } else {
+        this.contactIdLease = limit;
+      }
+      final ByteBuffer lease = ByteBuffer.allocate(Integer.BYTES * 2);
+      lease.putInt(this.contactIdLease).putInt(this.meetingIdLease).flip();
+      try {
+        writeAtomically(this.directory.resolve(LEASE_FILE), lease);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Restore the contacts and meetings in the shard files of the generation named by the
+   * manifest, if one has been published. Every contact is read before any meeting, as a
+   * meeting's attendees may live in any shard.
+   * @throws IOException if the manifest or a file of its generation cannot be read
+   */
+  private void restore() throws IOException {
+    final Path manifest = this.directory.resolve(MANIFEST_FILE);
+    if (!Files.exists(manifest)) {
+      return;
+    }
+    final int fileCount;
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest))) {
+      this.generation = in.readLong();
+      fileCount = in.readInt();
+    }
+    final Map<Integer, Contact> directoryOfContacts = new HashMap<>();
+    for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      final Path file = shardFile(fileIndex, this.generation, CONTACTS_SUFFIX);
+      try (DataInputStream in = new DataInputStream(
+               new BufferedInputStream(Files.newInputStream(file)))) {
+        final int count = in.readInt();
+        for (int index = 0; index < count; index++) {
+          final int id = in.readInt();
+          final Contact contact = new ContactImpl(id, MeetingCodec.readText(in),
+                                                  MeetingCodec.readText(in));
+          directoryOfContacts.put(id, contact);
+          contactShard(id).putContact(contact);
+          this.contactIds.advancePast(id);
+        }
+      }
+    }
+    final AttendeeSetPool pool = new AttendeeSetPool(directoryOfContacts);
+    for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+      final Path file = shardFile(fileIndex, this.generation, MEETINGS_SUFFIX);
+      try (DataInputStream in = new DataInputStream(
+               new BufferedInputStream(Files.newInputStream(file)))) {
+        final int count = in.readInt();
+        for (int index = 0; index < count; index++) {
+          final Meeting meeting = MeetingCodec.read(in, pool);
+          final int id = meeting.getId();
+          validateAttendeesSaved(meeting, directoryOfContacts);
+          homeShard(id).putMeeting(meeting,
+              DateKey.of(meeting.getDate(), this.zoneRules).getEpochDay());
+          meeting.getContacts().stream()
+              .collect(Collectors.groupingBy(contact -> contactShard(contact.getId())))
+              .forEach((shard, attendees) -> shard.linkMeeting(id, attendees));
+          this.meetingIds.advancePast(id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check that every attendee of a restored meeting was saved with the contacts.
+   * @param meeting the meeting
+   * @param saved the contacts restored, by id
+   * @throws IOException if an attendee was not saved
+   */
+  private static void validateAttendeesSaved(final Meeting meeting,
+                                             final Map<Integer, Contact> saved)
+      throws IOException {
+    if (!(meeting.getContacts() instanceof AttendeeSet)) {
+      return;
+    }
+    for (final int attendee : ((AttendeeSet) meeting.getContacts()).getIds().toArray()) {
+      if (!saved.containsKey(attendee)) {
+        throw new IOException("Meeting " + meeting.getId() + " has attendee " + attendee
+            + ", which is not among the saved contacts");
+      }
+    }
+  }
+
+  /**
+   * List every shard file in the directory, of any generation.
+   * @return the files
+   * @throws IOException if the directory cannot be read
+   */
+  private List<Path> listShardFiles() throws IOException {
+    final List<Path> files = new ArrayList<>();
+    final String glob = PREFIX + "*{" + CONTACTS_SUFFIX + "," + MEETINGS_SUFFIX + "}";
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, glob)) {
+      stream.forEach(files::add);
+    }
+    return files;
+  }
+
+  /**
+   * Work out the generation a shard file was written in from its name.
+   * @param file the file
+   * @return the generation, or -1 if the name holds none
+   */
+  private static long shardGeneration(final Path file) {
+    final String name = file.getFileName().toString();
+    final int start = name.indexOf('.') + 1;
+    final int end = name.lastIndexOf('.');
+    try {
+      return end > start ? Long.parseLong(name.substring(start, end)) : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Build the path of a shard file.
+   * @param index the index of the shard
+   * @param fileGeneration the generation the file is written in
+   * @param suffix the suffix of the file
+   * @return the path
+   */
+  private Path shardFile(final int index, final long fileGeneration, final String suffix) {
+    return this.directory.resolve(
+        String.format("%s%03d.%d%s", PREFIX, index, fileGeneration, suffix));
+  }
+}
@@ -0,0 +1,187 @@
+package impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SnapshotLock coordinates the managers of any number of processes that share a snapshot
+ * file, through {@link FileChannel} locks on a lock file beside it.
+ *
+ * <p>The lock file holds two locks. The writer lock is exclusive and held for as long as a
+ * manager may write the snapshot, so only one manager at a time does and none overwrites
+ * another's changes. The snapshot lock is held only while the snapshot is read or written:
+ * shared by readers, exclusive for the writer, so no reader sees part of a snapshot.
+ *
+ * <p>File locks are held on behalf of the whole JVM and a second lock on the same region from
+ * the same JVM fails, so managers in one JVM are coordinated here instead: the OS lock is taken
+ * by the first and released by the last. The lock file is kept open while any lock on it is
+ * held, since closing a channel to it may release every lock the JVM holds on it.
+ *
+ * @author Alexander Worton.
+ */
+final class SnapshotLock {
+
+  private static final long WRITER_REGION = 0;
+  private static final long SNAPSHOT_REGION = 1;
+  private static final Map<Path, SnapshotLock> OPEN = new HashMap<>();
+
+  private final Path file;
+  private final FileChannel channel;
+  private FileLock writer;
+  private FileLock snapshot;
+  private int readers;
+  private boolean writing;
+
+  /**
+   * Constructor for the locks of an open lock file.
+   * @param suppliedFile the lock file
+   * @param suppliedChannel the channel it is open on
+   */
+  private SnapshotLock(final Path suppliedFile, final FileChannel suppliedChannel) {
+    this.file = suppliedFile;
+    this.channel = suppliedChannel;
+  }
+
+  /**
+   * Getter for the lock file of a snapshot.
+   * @param snapshotFile the snapshot file
+   * @return the lock file beside it
+   */
+  static Path lockFileFor(final Path snapshotFile) {
+    final Path absolute = snapshotFile.toAbsolutePath().normalize();
+    return absolute.resolveSibling(absolute.getFileName() + ".lock");
+  }
+
+  /**
+   * Take the writer lock if no other manager, in this process or another, holds it.
+   * @param lockFile the lock file, which is created if needed
+   * @return true if it was taken
+   * @throws IOException if the lock file cannot be opened or locked
+   */
+  static synchronized boolean tryLockWriter(final Path lockFile) throws IOException {
+    final SnapshotLock lock = open(lockFile);
+    if (lock.writer != null) {
+      //held by another manager in this JVM
+      return false;
+    }
+    try {
+      lock.writer = lock.channel.tryLock(WRITER_REGION, 1, false);
+    } catch (OverlappingFileLockException e) {
+      //locked through a channel this class did not open
+      lock.writer = null;
+    }
+    final boolean taken = lock.writer != null;
+    lock.closeIfIdle();
+    return taken;
+  }
+
+  /**
+   * Release the writer lock.
+   * @param lockFile the lock file
+   * @throws IOException if the lock cannot be released
+   */
+  static synchronized void unlockWriter(final Path lockFile) throws IOException {
+    final SnapshotLock lock = OPEN.get(lockFile);
+    if (lock == null || lock.writer == null) {
+      return;
+    }
+    lock.writer.release();
+    lock.writer = null;
+    lock.closeIfIdle();
+  }
+
+  /**
+   * Take the snapshot lock, waiting for a writer or for every reader to finish with it.
+   * @param lockFile the lock file, which is created if needed
+   * @param shared true to read the snapshot, false to write it
+   * @throws IOException if the lock file cannot be opened or locked
+   */
+  static synchronized void lockSnapshot(final Path lockFile, final boolean shared)
+      throws IOException {
+    SnapshotLock lock = open(lockFile);
+    try {
+      while (lock.writing || (!shared && lock.readers > 0)) {
+        SnapshotLock.class.wait();
+        //the file is closed if the last lock on it was released meanwhile
+        lock = open(lockFile);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      lock.closeIfIdle();
+      throw new InterruptedIOException("Interrupted waiting for the snapshot lock");
+    }
+    if (lock.snapshot == null) {
+      try {
+        lock.snapshot = lock.channel.lock(SNAPSHOT_REGION, 1, shared);
+      } catch (IOException e) {
+        lock.closeIfIdle();
+        throw e;
+      }
+    }
+    if (shared) {
+      lock.readers++;
+    } else {
+      lock.writing = true;
+    }
+  }
+
+  /**
+   * Release the snapshot lock taken by {@link #lockSnapshot(Path, boolean)}.
+   * @param lockFile the lock file
+   * @param shared true if it was taken to read the snapshot
+   * @throws IOException if the lock cannot be released
+   */
+  static synchronized void unlockSnapshot(final Path lockFile, final boolean shared)
+      throws IOException {
+    final SnapshotLock lock = OPEN.get(lockFile);
+    if (lock == null) {
+      return;
+    }
+    if (shared) {
+      lock.readers--;
+    } else {
+      lock.writing = false;
+    }
+    if (lock.readers == 0 && !lock.writing && lock.snapshot != null) {
+      lock.snapshot.release();
+      lock.snapshot = null;
+    }
+    SnapshotLock.class.notifyAll();
+    lock.closeIfIdle();
+  }
+
+  /**
+   * Open a lock file, or find it already open.
+   * @param lockFile the lock file
+   * @return its locks
+   * @throws IOException if it cannot be opened
+   */
+  private static SnapshotLock open(final Path lockFile) throws IOException {
+    SnapshotLock lock = OPEN.get(lockFile);
+    if (lock == null) {
+      lock = new SnapshotLock(lockFile, FileChannel.open(lockFile, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE));
+      OPEN.put(lockFile, lock);
+    }
+    return lock;
+  }
+
+  /**
+   * Close the lock file once no lock on it is held or awaited, so it may be deleted or
+   * replaced.
+   * @throws IOException if it cannot be closed
+   */
+  private void closeIfIdle() throws IOException {
+    if (this.writer == null && this.snapshot == null) {
+      OPEN.remove(this.file);
+      this.channel.close();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package impl;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * StringStore deduplicates the names and notes held by contacts and past meetings.
+ *
+ * <p>Text up to {@link #COMPACT_LENGTH} characters, which covers names, placeholder notes and
+ * most boilerplate, is kept as a String and interned, so every copy shares one instance. Longer
+ * text is kept as UTF-8 bytes in a {@link CompactText}, interned in the same way and decoded
+ * only when it is read; in Java 8 this halves the memory of Latin text, and a long note that is
+ * rarely read is rarely decoded. Both pools hold their values weakly, so text no longer used by
+ * any contact or meeting is released.
+ *
+ * <p>A store created with a {@link NotesArena} instead appends long text to the arena, off heap
+ * or in a mapped file, and contacts and meetings hold only an {@link ArenaText} handle to it.
+ * Only a manager's own store has an arena, so the arena is released with the manager; the
+ * {@link #shared()} store, used by contacts and meetings created outside a manager or read from
+ * a stream, keeps long text on the heap.
+ *
+ * <p>Because copies share one instance, a snapshot writes each distinct value once and refers
+ * back to it everywhere else it appears, so the serialization handle table acts as the string
+ * dictionary for the file. Values are interned again as they are read back.
+ *
+ * <p>The store is thread safe. Values are split by hash across {@value #SEGMENTS} segments,
+ * each locked on its own, so threads storing different values seldom wait for each other.
+ *
+ * @author Alexander Worton.
+ */
+public final class StringStore {
+
+  /** The longest text kept as a String rather than as UTF-8 bytes. */
+  public static final int COMPACT_LENGTH = 64;
+
+  private static final int SEGMENTS = 16;
+  private static final StringStore SHARED = new StringStore();
+
+  private final Segment[] segments;
+  private final NotesArena arena;
+
+  /**
+   * The values whose hash falls in one segment, guarded by the segment's lock.
+   */
+  private static final class Segment {
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+    private final Map<EncodedText, WeakReference<EncodedText>> texts = new WeakHashMap<>();
+  }
+
+  /**
+   * Constructor for an empty store that keeps long text on the heap.
+   */
+  public StringStore() {
+    this(null);
+  }
+
+  /**
+   * Constructor for an empty store that keeps long text in an arena.
+   * @param suppliedArena the arena, or null to keep long text on the heap
+   */
+  public StringStore(final NotesArena suppliedArena) {
+    this.arena = suppliedArena;
+    this.segments = new Segment[SEGMENTS];
+    for (int index = 0; index < SEGMENTS; index++) {
+      this.segments[index] = new Segment();
+    }
+  }
+
+  /**
+   * Getter for the store shared by every contact and meeting not created by a manager.
+   * @return the shared store
+   */
+  public static StringStore shared() {
+    return SHARED;
+  }
+
+  /**
+   * Find the shared copy of some text, adding it if there is none.
+   * @param text the text
+   * @return a String for short text or an encoded copy for long text; call toString to read it
+   */
+  public CharSequence store(final String text) {
+    Validation.validateObjectNotNull(text, "Text");
+    if (text.length() <= COMPACT_LENGTH) {
+      final Segment segment = segmentFor(text.hashCode());
+      synchronized (segment) {
+        return intern(segment.strings, text);
+      }
+    }
+    return storeEncoded(new CompactText(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Find the shared copy of text already held by a store, such as a value read from a snapshot.
+   * @param text the text
+   * @return the shared copy
+   */
+  public CharSequence store(final CharSequence text) {
+    Validation.validateObjectNotNull(text, "Text");
+    if (text instanceof EncodedText) {
+      return storeEncoded((EncodedText) text);
+    }
+    return store(text.toString());
+  }
+
+  /**
+   * Getter for the number of distinct values held.
+   * @return the number of interned values not yet collected
+   */
+  public int size() {
+    int size = 0;
+    for (final Segment segment : this.segments) {
+      synchronized (segment) {
+        size += segment.strings.size() + segment.texts.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Find the segment holding values with a hash.
+   * @param hash the hash of the value
+   * @return the segment
+   */
+  private Segment segmentFor(final int hash) {
+    return this.segments[(hash ^ hash >>> 16) & SEGMENTS - 1];
+  }
+
+  /**
+   * Find the shared copy of long text, moving it into the arena if one is set and the text is
+   * not already there.
+   * @param text the text
+   * @return the shared copy
+   */
+  private EncodedText storeEncoded(final EncodedText text) {
+    final Segment segment = segmentFor(text.hashCode());
+    synchronized (segment) {
+      final WeakReference<EncodedText> reference = segment.texts.get(text);
+      final EncodedText held = reference == null ? null : reference.get();
+      if (held != null) {
+        return held;
+      }
+      final EncodedText kept = this.arena == null || text instanceof ArenaText
+          ? text : this.arena.append(text.getEncoded());
+      segment.texts.put(kept, new WeakReference<>(kept));
+      return kept;
+    }
+  }
+
+  /**
+   * Return the pooled value equal to the supplied one, pooling it if there is none.
+   * @param pool the pool
+   * @param value the value
+   * @param <T> the type of value
+   * @return the pooled value
+   */
+  private static <T> T intern(final Map<T, WeakReference<T>> pool, final T value) {
+    final WeakReference<T> reference = pool.get(value);
+    final T held = reference == null ? null : reference.get();
+    if (held != null) {
+      return held;
+    }
+    pool.put(value, new WeakReference<>(value));
+    return value;
+  }
+}
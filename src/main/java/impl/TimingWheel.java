@@ -0,0 +1,182 @@
+package impl;
+
+import java.util.function.IntConsumer;
+
+/**
+ * TimingWheel is a hierarchical timing wheel with a resolution of one millisecond. Ids are
+ * scheduled against a deadline and handed back once the wheel has been advanced past it.
+ *
+ * <p>Scheduling is O(1). Each level holds 64 slots, each slot on a level spanning 64 times the
+ * slots of the level beneath it, so seven levels cover well over a century. Entries cascade to
+ * a finer level as their slot comes round, and empty levels are skipped rather than ticked
+ * through one millisecond at a time.
+ *
+ * <p>The wheel is not thread safe; callers must provide their own locking.
+ *
+ * @author Alexander Worton.
+ */
+public final class TimingWheel {
+
+  private static final int BITS = 6;
+  private static final int SLOTS = 1 << BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 7;
+
+  private final Entry[][] wheel;
+  private final int[] levelSizes;
+  private long currentTick;
+  private int size;
+
+  /**
+   * A scheduled id and the tick at which it becomes due.
+   */
+  private static final class Entry {
+    private final int id;
+    private final long deadline;
+    private Entry next;
+
+    Entry(final int suppliedId, final long suppliedDeadline) {
+      this.id = suppliedId;
+      this.deadline = suppliedDeadline;
+    }
+  }
+
+  /**
+   * Constructor for the wheel.
+   * @param startMillis the time in milliseconds the wheel starts from
+   */
+  public TimingWheel(final long startMillis) {
+    this.wheel = new Entry[LEVELS][SLOTS];
+    this.levelSizes = new int[LEVELS];
+    this.currentTick = startMillis;
+    this.size = 0;
+  }
+
+  /**
+   * Schedule an id to be returned once the wheel advances past the supplied time.
+   * @param id the id to schedule
+   * @param timeMillis the time in milliseconds, the id is due at any later time
+   */
+  public void schedule(final int id, final long timeMillis) {
+    insert(new Entry(id, Math.max(timeMillis + 1, this.currentTick + 1)));
+    this.size++;
+  }
+
+  /**
+   * Advance the wheel to the supplied time, passing every id that has become due to the
+   * consumer in deadline order.
+   * @param nowMillis the current time in milliseconds
+   * @param expired the consumer of due ids
+   */
+  public void advanceTo(final long nowMillis, final IntConsumer expired) {
+    while (this.currentTick < nowMillis) {
+      if (this.size == 0) {
+        this.currentTick = nowMillis;
+        return;
+      }
+      this.currentTick = Math.min(nowMillis, nextInterestingTick());
+      cascade();
+      fire(expired);
+    }
+  }
+
+  /**
+   * Getter for the number of ids still waiting on the wheel.
+   * @return the number of scheduled ids
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Getter for the time the wheel has advanced to.
+   * @return the current time of the wheel in milliseconds
+   */
+  public long getCurrentMillis() {
+    return this.currentTick;
+  }
+
+  /**
+   * Find the next tick at which anything can happen. If the lowest levels are empty nothing can
+   * fire before the next boundary of the first populated level.
+   * @return the next tick worth processing
+   */
+  private long nextInterestingTick() {
+    int level = 0;
+    while (level < LEVELS - 1 && this.levelSizes[level] == 0) {
+      level++;
+    }
+    final long span = 1L << (BITS * level);
+    return (this.currentTick + span) & -span;
+  }
+
+  /**
+   * Place an entry on the level whose range covers its distance from the current tick.
+   * @param entry the entry to place
+   */
+  private void insert(final Entry entry) {
+    final long delta = entry.deadline - this.currentTick;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+      level++;
+    }
+    final int slot = (int) ((entry.deadline >>> (BITS * level)) & MASK);
+    entry.next = this.wheel[level][slot];
+    this.wheel[level][slot] = entry;
+    this.levelSizes[level]++;
+  }
+
+  /**
+   * Redistribute the slots of every level whose boundary the current tick sits on, from the
+   * highest level down so entries always land on a slot that is still to be processed.
+   */
+  private void cascade() {
+    int top = 0;
+    while (top < LEVELS - 1 && (this.currentTick & ((1L << (BITS * (top + 1))) - 1)) == 0) {
+      top++;
+    }
+    for (int level = top; level > 0; level--) {
+      final int slot = (int) ((this.currentTick >>> (BITS * level)) & MASK);
+      Entry entry = detach(level, slot);
+      while (entry != null) {
+        final Entry next = entry.next;
+        insert(entry);
+        entry = next;
+      }
+    }
+  }
+
+  /**
+   * Hand every due entry in the current finest slot to the consumer.
+   * @param expired the consumer of due ids
+   */
+  private void fire(final IntConsumer expired) {
+    final int slot = (int) (this.currentTick & MASK);
+    Entry entry = detach(0, slot);
+    while (entry != null) {
+      final Entry next = entry.next;
+      if (entry.deadline <= this.currentTick) {
+        this.size--;
+        expired.accept(entry.id);
+      } else {
+        insert(entry);
+      }
+      entry = next;
+    }
+  }
+
+  /**
+   * Remove and return the chain of entries held in a slot.
+   * @param level the level of the slot
+   * @param slot the slot index
+   * @return the first entry of the chain, or null if the slot was empty
+   */
+  private Entry detach(final int level, final int slot) {
+    Entry entry = this.wheel[level][slot];
+    this.wheel[level][slot] = null;
+    for (Entry counted = entry; counted != null; counted = counted.next) {
+      this.levelSizes[level]--;
+    }
+    return entry;
+  }
+}
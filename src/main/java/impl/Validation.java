@@ -1,5 +1,6 @@
 package impl;
 
+import java.time.Duration;
 import java.util.Calendar;
 import java.util.Map;
 import java.util.Set;
@@ -149,6 +150,28 @@ final class Validation {
     }
   }
 
+  /**
+   * throws a state exception if the supplied meeting id is still held as a future meeting.
+   * @param id the meeting id to check
+   * @param futureMeetingIds the ids of meetings whose date has not yet passed
+   */
+  public static void validateMeetingElapsed(final int id, final Set<Integer> futureMeetingIds) {
+    if (futureMeetingIds.contains(id)) {
+      throw new IllegalStateException("Supplied date is not in the past");
+    }
+  }
+
+  /**
+   * throws a state exception if the supplied meeting id is not held as a future meeting.
+   * @param id the meeting id to check
+   * @param futureMeetingIds the ids of meetings whose date has not yet passed
+   */
+  public static void validateMeetingUpcoming(final int id, final Set<Integer> futureMeetingIds) {
+    if (!futureMeetingIds.contains(id)) {
+      throw new IllegalStateException("Supplied date is not in the future");
+    }
+  }
+
   /**
    * throws an argument exception if the supplied object is null.
    * @param obj the supplied object
@@ -172,4 +195,38 @@ final class Validation {
       throw new IllegalArgumentException("Contact not known");
     }
   }
+
+  /**
+   * throws a state exception if the supplied value has already been set.
+   * @param obj the current value
+   * @param variableName a String used in the exception description
+   */
+  public static void validateStateNotSet(final Object obj, final String variableName) {
+    if (obj != null) {
+      throw new IllegalStateException(variableName + " has already been set");
+    }
+  }
+
+  /**
+   * throws a state exception if the supplied value has not been set.
+   * @param obj the current value
+   * @param variableName a String used in the exception description
+   */
+  public static void validateStateSet(final Object obj, final String variableName) {
+    if (obj == null) {
+      throw new IllegalStateException(variableName + " has not been set");
+    }
+  }
+
+  /**
+   * throws an argument exception if the supplied duration is negative.
+   * @param duration the supplied duration
+   * @param variableName a String used in the exception description
+   */
+  public static void validateDurationNotNegative(final Duration duration,
+                                                 final String variableName) {
+    if (duration.isNegative()) {
+      throw new IllegalArgumentException(variableName + " supplied is negative");
+    }
+  }
 }
@@ -0,0 +1,43 @@
+package impl;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * WriteFuture is the result of a write made through an {@link AsyncContactManager}. It is
+ * completed once the write has been applied in memory, when it is visible to later reads;
+ * {@link #durable()} is completed once the write would also survive a restart.
+ *
+ * <p>If the write is rejected both are completed exceptionally with the same exception.
+ *
+ * @param <T> the type of the write's result
+ * @author Alexander Worton.
+ */
+public final class WriteFuture<T> extends CompletableFuture<T> {
+
+  private final CompletableFuture<T> durable;
+
+  /**
+   * Constructor for an incomplete write.
+   */
+  WriteFuture() {
+    this.durable = new CompletableFuture<>();
+  }
+
+  /**
+   * Getter for the future completed with the write's result once the write is durable.
+   * @return the durable future
+   */
+  public CompletableFuture<T> durable() {
+    return this.durable;
+  }
+
+  /**
+   * Complete the write and its durable future exceptionally.
+   * @param failure the reason the write failed
+   */
+  void fail(final Throwable failure) {
+    //durable first, so a caller woken by this future never sees its durable future pending
+    this.durable.completeExceptionally(failure);
+    completeExceptionally(failure);
+  }
+}
@@ -0,0 +1,134 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import impl.AsyncContactManager;
+import impl.AsyncContactManagerImpl;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.MutationJournal;
+import impl.WriteFuture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class AsyncContactManagerTest {
+
+  private static final int WRITES = 200;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient ExecutorService readers;
+  private transient ContactManagerImpl manager;
+  private transient AsyncContactManager async;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("async");
+    this.directory = this.files.getDirectory();
+    this.readers = Executors.newFixedThreadPool(2);
+    this.manager = new ContactManagerImpl();
+    this.async = new AsyncContactManagerImpl(this.manager, this.readers);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.async.close();
+    this.readers.shutdown();
+    if (this.manager.getJournal() != null) {
+      this.manager.getJournal().close();
+    }
+    this.files.close();
+  }
+
+  @Test
+  public void testWritesVisibleOnceApplied() {
+    final int contactId = this.async.addNewContact("Async", "notes").join();
+    final Set<Contact> attendees = this.async.getContacts(contactId).join();
+    final int past = this.async.addNewPastMeeting(attendees, DateFns.getPastDate(), "first")
+        .join();
+    final int future = this.async.addFutureMeeting(attendees, DateFns.getFutureDate()).join();
+    assertEquals("second", this.async.addMeetingNotes(past, "second").join().getNotes());
+
+    assertEquals("second", this.async.getPastMeeting(past).join().getNotes());
+    assertEquals(future, this.async.getFutureMeeting(future).join().getId());
+    assertEquals(future, this.async.getMeeting(future).join().getId());
+    final Contact contact = attendees.iterator().next();
+    assertEquals(1, this.async.getFutureMeetingList(contact).join().size());
+    assertEquals(1, this.async.getPastMeetingListFor(contact).join().size());
+    assertEquals(1, this.async.getMeetingListOn(DateFns.getPastDate()).join().size());
+    assertEquals(1, this.async.getContacts("Async").join().size());
+  }
+
+  @Test
+  public void testWritesAppliedInOrder() {
+    WriteFuture<Integer> last = null;
+    for (int index = 0; index < WRITES; index++) {
+      last = this.async.addNewContact("Ordered " + index, "notes");
+    }
+    assertEquals(WRITES, (int) last.join());
+    assertEquals(WRITES, this.async.getContacts("").join().size());
+  }
+
+  @Test
+  public void testDurableAfterFlushWithoutJournal() throws Exception {
+    final WriteFuture<Integer> write = this.async.addNewContact("Unflushed", "notes");
+    write.join();
+    assertFalse(write.durable().isDone());
+    this.async.flush().join();
+    assertEquals(write.join(), write.durable().get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDurableWithJournal() throws Exception {
+    this.manager.enableJournal(this.directory.resolve("async.journal"),
+                               MutationJournal.DEFAULT_MAX_DELAY,
+                               MutationJournal.DEFAULT_MAX_BATCH_RECORDS);
+    WriteFuture<Integer> last = null;
+    for (int index = 0; index < WRITES; index++) {
+      last = this.async.addNewContact("Journaled " + index, "notes");
+    }
+    assertEquals(WRITES, (int) last.durable().get(5, TimeUnit.SECONDS));
+    assertTrue(this.manager.getJournal().getLastDurable() >= WRITES);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectedWriteFailsBoth() throws Throwable {
+    final WriteFuture<Integer> write = this.async.addNewContact("", "notes");
+    try {
+      write.join();
+    } catch (CompletionException e) {
+      assertTrue(write.durable().isCompletedExceptionally());
+      throw e.getCause();
+    }
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testWriteAfterClose() throws Throwable {
+    this.async.close();
+    try {
+      this.async.addNewContact("Closed", "notes").join();
+    } catch (CompletionException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import impl.AttendeeSet;
+import impl.AttendeeSetPool;
+import impl.ContactImpl;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class AttendeeSetPoolTest {
+
+  private transient TestFiles files;
+  private transient Map<Integer, Contact> directory;
+  private transient AttendeeSetPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("pool");
+    this.directory = new HashMap<>();
+    for (int id = 1; id <= 4; id++) {
+      this.directory.put(id, new ContactImpl(id, "Pooled " + id, "notes"));
+    }
+    this.pool = new AttendeeSetPool(this.directory);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  private Set<Contact> contacts(final int... ids) {
+    final Set<Contact> result = new HashSet<>();
+    for (final int id : ids) {
+      result.add(this.directory.get(id));
+    }
+    return result;
+  }
+
+  @Test
+  public void testEqualSetsShareInstance() {
+    final AttendeeSet first = this.pool.intern(contacts(1, 2, 3));
+    final AttendeeSet second = this.pool.intern(contacts(3, 2, 1));
+    assertSame(first, second);
+    assertSame(first, this.pool.intern(first));
+    assertEquals(contacts(1, 2, 3), first);
+    assertEquals(1, this.pool.size());
+  }
+
+  @Test
+  public void testDifferentSetsKeptApart() {
+    final AttendeeSet first = this.pool.intern(contacts(1, 2));
+    final AttendeeSet second = this.pool.intern(contacts(1, 2, 4));
+    assertNotSame(first, second);
+    assertEquals(2, this.pool.size());
+    assertTrue(second.contains(this.directory.get(4)));
+  }
+
+  @Test
+  public void testManagerMeetingsShareAttendees() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int first = manager.addNewContact("Standup One", "notes");
+    final int second = manager.addNewContact("Standup Two", "notes");
+    final int[] meetingIds = new int[3];
+    for (int week = 0; week < meetingIds.length; week++) {
+      meetingIds[week] = manager.addFutureMeeting(manager.getContacts(first, second),
+                                                  DateFns.getFutureDate(week + 1));
+    }
+    final int review = manager.addNewPastMeeting(manager.getContacts(second, first),
+                                                 DateFns.getPastDate(), "retro");
+    final Set<Contact> shared = manager.getMeeting(meetingIds[0]).getContacts();
+    assertSame(shared, manager.getMeeting(meetingIds[2]).getContacts());
+    assertSame(shared, manager.getMeeting(review).getContacts());
+    manager.flush();
+
+    final ContactManagerImpl restored = new ContactManagerImpl();
+    final Set<Contact> restoredShared = restored.getMeeting(meetingIds[0]).getContacts();
+    assertSame(restoredShared, restored.getMeeting(meetingIds[1]).getContacts());
+    assertSame(restoredShared, restored.getPastMeeting(review).getContacts());
+  }
+}
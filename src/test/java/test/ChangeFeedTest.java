@@ -0,0 +1,134 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ChangeEvent;
+import impl.ChangeFeed;
+import impl.ChangeListener;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.ContactManagerImplTestFns;
+
+/**
+ * @author Alexander Worton.
+ */
+public class ChangeFeedTest {
+
+  private static final long TIMEOUT_SECONDS = 10L;
+  private static final String NOTES = "Feed Notes";
+  private transient ContactManagerImpl manager;
+  private transient List<ChangeEvent> received;
+
+  @Before
+  public void before() {
+    manager = new ContactManagerImpl();
+    received = new CopyOnWriteArrayList<>();
+  }
+
+  private ChangeFeed.Subscription subscribe(final long from, final CountDownLatch latch) {
+    return manager.subscribe(from, batch -> {
+      received.addAll(batch);
+      batch.forEach(event -> latch.countDown());
+    });
+  }
+
+  @Test
+  public void testAllMutationTypesDelivered() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(5);
+    final ChangeFeed.Subscription subscription =
+        subscribe(manager.getLastChangeSequence() + 1, latch);
+
+    final int contactId = manager.addNewContact("Feed Contact", NOTES);
+    final Set<Contact> attendees = manager.getContacts(contactId);
+    manager.addFutureMeeting(attendees, DateFns.getFutureDate());
+    manager.addNewPastMeeting(attendees, DateFns.getPastDate(), NOTES);
+    attendees.iterator().next().addNotes("Changed");
+    final int pendingId = manager.addFutureMeeting(attendees, DateFns.getSlightlyFutureDate());
+    ContactManagerImplTestFns.wait2Secs();
+    manager.addMeetingNotes(pendingId, NOTES);
+
+    assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    subscription.cancel();
+
+    assertEquals(ChangeEvent.Type.CONTACT_ADDED, received.get(0).getType());
+    assertEquals(contactId, received.get(0).getId());
+    assertEquals(ChangeEvent.Type.MEETING_ADDED, received.get(1).getType());
+    assertEquals(ChangeEvent.Type.MEETING_ADDED, received.get(2).getType());
+    assertEquals(NOTES, received.get(2).getNotes());
+    assertEquals(ChangeEvent.Type.CONTACT_NOTES_CHANGED, received.get(3).getType());
+    assertEquals("Changed", received.get(3).getNotes());
+    assertEquals(ChangeEvent.Type.MEETING_ADDED, received.get(4).getType());
+    for (int index = 1; index < received.size(); index++) {
+      assertEquals(received.get(index - 1).getSequence() + 1, received.get(index).getSequence());
+    }
+  }
+
+  @Test
+  public void testResumeFromSequence() throws InterruptedException {
+    manager.addNewContact("Before", NOTES);
+    final long resumeFrom = manager.getLastChangeSequence() + 1;
+    final int first = manager.addNewContact("After 1", NOTES);
+    final int second = manager.addNewContact("After 2", NOTES);
+
+    final CountDownLatch latch = new CountDownLatch(2);
+    final ChangeFeed.Subscription subscription = subscribe(resumeFrom, latch);
+    assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    subscription.cancel();
+
+    assertEquals(2, received.size());
+    assertEquals(first, received.get(0).getId());
+    assertEquals(second, received.get(1).getId());
+    assertEquals(resumeFrom + 1, subscription.getLastDelivered());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testResumeFromUnpublishedSequence() {
+    manager.subscribe(manager.getLastChangeSequence() + 2, batch -> { });
+  }
+
+  @Test
+  public void testSlowSubscriberOverflowsWithoutBlockingWriters() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch overflowed = new CountDownLatch(1);
+    final AtomicLong resumedAt = new AtomicLong();
+    final ChangeFeed.Subscription subscription = manager.subscribe(
+        manager.getLastChangeSequence() + 1, 1, new ChangeListener() {
+          @Override
+          public void onChanges(final List<ChangeEvent> batch) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+
+          @Override
+          public void onOverflow(final long firstMissed, final long resumed) {
+            resumedAt.set(resumed);
+            overflowed.countDown();
+          }
+        });
+
+    final int writes = ChangeFeed.DEFAULT_CAPACITY * 2;
+    ContactManagerImplTestFns.createValidContacts(writes, manager);
+    release.countDown();
+
+    assertTrue(overflowed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertTrue(resumedAt.get() > ChangeFeed.DEFAULT_CAPACITY);
+    subscription.cancel();
+  }
+}
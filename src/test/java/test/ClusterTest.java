@@ -0,0 +1,337 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.ClusterContactManager;
+import impl.ClusterNode;
+import impl.ConsistentHashRing;
+import impl.DateFns;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class ClusterTest {
+
+  private static final int NODES = 3;
+  private static final int IDS = 10_000;
+  private static final long WAIT_MILLIS = 10_000;
+  private static final int ANSWER = 42;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient List<InetSocketAddress> addresses;
+  private transient List<ClusterNode> nodes;
+  private transient List<Process> processes;
+  private transient ClusterContactManager client;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("cluster");
+    this.directory = this.files.getDirectory();
+    this.addresses = new ArrayList<>();
+    for (int node = 0; node < NODES; node++) {
+      try (ServerSocket free = new ServerSocket(0)) {
+        this.addresses.add(new InetSocketAddress("127.0.0.1", free.getLocalPort()));
+      }
+    }
+    this.nodes = new ArrayList<>();
+    this.processes = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() throws IOException, InterruptedException {
+    if (this.client != null) {
+      this.client.close();
+    }
+    this.nodes.forEach(ClusterNode::close);
+    for (final Process process : this.processes) {
+      process.destroy();
+      process.waitFor();
+    }
+    this.files.close();
+  }
+
+  /**
+   * Start every node in this JVM and connect a client to them.
+   * @throws IOException if a node cannot be started
+   */
+  private void startNodes() throws IOException {
+    for (int node = 0; node < NODES; node++) {
+      this.nodes.add(new ClusterNode(this.directory.resolve("node" + node), this.addresses,
+                                     node));
+    }
+    this.client = new ClusterContactManager(this.addresses);
+  }
+
+  /**
+   * Start every node in a process of its own, waiting until each is serving.
+   * @throws IOException if a process cannot be started
+   */
+  private void startProcesses() throws IOException {
+    final String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    for (int node = 0; node < NODES; node++) {
+      final List<String> command = new ArrayList<>(Arrays.asList(java, "-cp",
+          System.getProperty("java.class.path"), ClusterNode.class.getName(),
+          this.directory.resolve("node" + node).toString(), Integer.toString(node)));
+      this.addresses.forEach(address -> command.add("127.0.0.1:" + address.getPort()));
+      final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+      this.processes.add(process);
+      final BufferedReader reader = new BufferedReader(
+          new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+      final String line = reader.readLine();
+      assertTrue(line, line != null && line.startsWith("Serving"));
+    }
+  }
+
+  /**
+   * Stop every node process, which flushes its partition.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private void stopProcesses() throws InterruptedException {
+    for (final Process process : this.processes) {
+      process.destroy();
+      process.waitFor();
+    }
+    this.processes.clear();
+  }
+
+  /**
+   * Add a contact to each node and return them all.
+   * @return the contacts
+   */
+  private Set<Contact> contactOnEveryNode() {
+    for (int node = 0; node < NODES; node++) {
+      this.client.addNewContact("Contact" + node, "notes");
+    }
+    return this.client.getContacts("");
+  }
+
+  @Test
+  public void testRingAgreesAndBalances() {
+    final List<String> names = Arrays.asList("a:1", "b:2", "c:3");
+    final ConsistentHashRing ring = new ConsistentHashRing(names);
+    final ConsistentHashRing same = new ConsistentHashRing(new ArrayList<>(names));
+    final int[] owned = new int[names.size()];
+    for (int id = 1; id <= IDS; id++) {
+      assertEquals(ring.nodeFor(id), same.nodeFor(id));
+      owned[ring.nodeFor(id)]++;
+    }
+    for (final int count : owned) {
+      assertTrue(count > IDS / names.size() / 2);
+    }
+  }
+
+  @Test
+  public void testAddingNodeMovesOnlyItsShare() {
+    final ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a:1", "b:2", "c:3"));
+    final ConsistentHashRing after = new ConsistentHashRing(
+        Arrays.asList("a:1", "b:2", "c:3", "d:4"));
+    int moved = 0;
+    for (int id = 1; id <= IDS; id++) {
+      if (before.nodeFor(id) != after.nodeFor(id)) {
+        assertEquals(3, after.nodeFor(id));
+        moved++;
+      }
+    }
+    assertTrue(moved < IDS / 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRingRejectsDuplicateNames() {
+    new ConsistentHashRing(Arrays.asList("a:1", "a:1"));
+  }
+
+  @Test
+  public void testMeetingsAcrossNodes() throws IOException {
+    startNodes();
+    final Set<Contact> attendees = contactOnEveryNode();
+    assertEquals(NODES, attendees.size());
+    for (final ClusterNode node : this.nodes) {
+      assertEquals(1, node.getContactCount());
+    }
+    final Set<Integer> ids = new HashSet<>();
+    for (final Contact contact : attendees) {
+      ids.add(contact.getId());
+    }
+    assertEquals(NODES, ids.size());
+
+    final int future = this.client.addFutureMeeting(attendees, DateFns.getFutureDate());
+    final int past = this.client.addNewPastMeeting(attendees, DateFns.getPastDate(), "done");
+    for (final Contact contact : attendees) {
+      assertEquals(future, this.client.getFutureMeetingList(contact).get(0).getId());
+      assertEquals(past, this.client.getPastMeetingListFor(contact).get(0).getId());
+    }
+    assertEquals(NODES, this.client.getFutureMeeting(future).getContacts().size());
+    assertEquals("done", this.client.getPastMeeting(past).getNotes());
+    assertNull(this.client.getMeeting(past + future + 1));
+  }
+
+  @Test
+  public void testMeetingListOnGathersNodes() throws IOException {
+    startNodes();
+    final Set<Contact> attendees = contactOnEveryNode();
+    final Calendar date = DateFns.getFutureDate();
+    for (int index = 0; index < NODES * 2; index++) {
+      final Calendar time = (Calendar) date.clone();
+      time.set(Calendar.HOUR_OF_DAY, NODES * 2 - index);
+      this.client.addFutureMeeting(attendees, time);
+    }
+
+    final List<Meeting> meetings = this.client.getMeetingListOn(date);
+    assertEquals(NODES * 2, meetings.size());
+    for (int index = 1; index < meetings.size(); index++) {
+      assertTrue(meetings.get(index).getDate().after(meetings.get(index - 1).getDate()));
+    }
+    int total = 0;
+    for (final ClusterNode node : this.nodes) {
+      total += node.getMeetingCount();
+    }
+    assertEquals(NODES * 2, total);
+  }
+
+  /**
+   * Wait for a future meeting's date to pass on the node that owns it.
+   * @param id the meeting id
+   * @return the past meeting, which is null until notes are added
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private PastMeeting awaitElapsed(final int id) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (true) {
+      try {
+        return this.client.getPastMeeting(id);
+      } catch (IllegalStateException e) {
+        //still in the future
+        if (System.currentTimeMillis() > deadline) {
+          throw e;
+        }
+      }
+      Thread.sleep(50);
+    }
+  }
+
+  @Test
+  public void testNotesAddedOnOwner() throws IOException, InterruptedException {
+    startNodes();
+    final Set<Contact> attendees = contactOnEveryNode();
+    final Calendar soon = Calendar.getInstance();
+    //far enough ahead to still be in the future once the request reaches its node
+    soon.add(Calendar.SECOND, 2);
+    final int id = this.client.addFutureMeeting(attendees, soon);
+
+    assertNull(awaitElapsed(id));
+    assertEquals("later", this.client.addMeetingNotes(id, "later").getNotes());
+    assertEquals("later", this.client.getPastMeeting(id).getNotes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownContactRejected() throws IOException {
+    startNodes();
+    final Set<Contact> attendees = contactOnEveryNode();
+    attendees.add(new impl.ContactImpl(IDS, "Stranger", "notes"));
+    this.client.addFutureMeeting(attendees, DateFns.getFutureDate());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownContactPastMeetingsRejected() throws IOException {
+    startNodes();
+    contactOnEveryNode();
+    this.client.getPastMeetingListFor(new impl.ContactImpl(IDS, "Stranger", "notes"));
+  }
+
+  @Test
+  public void testFailedCallReconnects() throws Exception {
+    try (ServerSocket node = new ServerSocket(0)) {
+      final Thread serving = new Thread(() -> {
+        try {
+          //the first connection breaks off halfway through its answer
+          try (Socket first = node.accept()) {
+            first.getInputStream().read();
+            first.getOutputStream().write(new byte[] {0, 0, 0});
+          }
+          try (Socket second = node.accept()) {
+            second.getInputStream().read();
+            final DataOutputStream out = new DataOutputStream(second.getOutputStream());
+            out.writeByte(0);
+            out.writeInt(ANSWER);
+            out.flush();
+            second.getInputStream().read();
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+      serving.start();
+      this.client = new ClusterContactManager(Collections.singletonList(
+          new InetSocketAddress("127.0.0.1", node.getLocalPort())));
+      try {
+        this.client.addNewContact("Broken", "notes");
+        throw new AssertionError("Answer read from a connection that broke off");
+      } catch (UncheckedIOException e) {
+        //expected
+      }
+      assertEquals(ANSWER, this.client.addNewContact("Next", "notes"));
+      this.client.close();
+      this.client = null;
+      serving.join(WAIT_MILLIS);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNodeRejectionThrownByClient() throws IOException {
+    startNodes();
+    final int id = this.client.addFutureMeeting(contactOnEveryNode(), DateFns.getFutureDate());
+    this.client.addMeetingNotes(id, "early");
+  }
+
+  @Test
+  public void testProcessesRestoreAfterRestart() throws IOException, InterruptedException {
+    startProcesses();
+    this.client = new ClusterContactManager(this.addresses);
+    final Set<Contact> attendees = contactOnEveryNode();
+    final int meeting = this.client.addNewPastMeeting(attendees, DateFns.getPastDate(), "done");
+    this.client.close();
+    stopProcesses();
+
+    startProcesses();
+    this.client = new ClusterContactManager(this.addresses);
+    assertEquals(NODES, this.client.getContacts("").size());
+    assertEquals("done", this.client.getPastMeeting(meeting).getNotes());
+    final int next = this.client.addNewContact("Next", "notes");
+    for (final Contact contact : attendees) {
+      assertTrue(next != contact.getId());
+    }
+  }
+}
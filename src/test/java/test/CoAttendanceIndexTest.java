@@ -0,0 +1,102 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import impl.CoAttendanceIndex;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+
+import test.library.ContactManagerImplTestFns;
+
+/**
+ * @author Alexander Worton.
+ */
+public class CoAttendanceIndexTest {
+
+  private transient CoAttendanceIndex index;
+
+  @Before
+  public void before() {
+    index = new CoAttendanceIndex();
+    index.add(1, new int[] {1, 2, 3});
+    index.add(2, new int[] {1, 2});
+    index.add(3, new int[] {1, 3});
+    index.add(4, new int[] {1, 2});
+  }
+
+  @Test
+  public void testCommonMeetings() {
+    assertArrayEquals(new int[] {1, 2, 4}, index.getCommonMeetingIds(1, 2));
+    assertArrayEquals(new int[] {1}, index.getCommonMeetingIds(2, 3));
+    assertArrayEquals(new int[0], index.getCommonMeetingIds(2, 99));
+  }
+
+  @Test
+  public void testTopCollaborators() {
+    assertArrayEquals(new int[] {2, 3}, index.getTopCollaborators(1, 5));
+    assertArrayEquals(new int[] {2}, index.getTopCollaborators(1, 1));
+    assertEquals(3, index.getWeight(2, 1));
+  }
+
+  @Test
+  public void testDuplicateMeetingIgnored() {
+    assertFalse(index.add(4, new int[] {1, 2}));
+    assertEquals(3, index.getWeight(1, 2));
+  }
+
+  @Test
+  public void testOutOfOrderInsertKeepsSorted() {
+    assertTrue(index.add(10, new int[] {5}));
+    assertTrue(index.add(7, new int[] {5}));
+    assertTrue(index.add(9, new int[] {5}));
+    assertArrayEquals(new int[] {7, 9, 10}, index.getMeetingIds(5));
+  }
+
+  @Test
+  public void testGallopingMatchesNaiveIntersection() {
+    final CoAttendanceIndex large = new CoAttendanceIndex();
+    for (int meeting = 1; meeting <= 10_000; meeting++) {
+      final int[] attendees = meeting % 3 == 0 ? new int[] {1, 2} : new int[] {1};
+      large.add(meeting, meeting % 997 == 0 ? new int[] {1, 2, 3} : attendees);
+    }
+    final int[] expected = IntStream.rangeClosed(1, 10_000)
+        .filter(meeting -> meeting % 997 == 0)
+        .toArray();
+    assertArrayEquals(expected, large.getCommonMeetingIds(1, 3));
+    assertArrayEquals(expected, large.getCommonMeetingIds(3, 2));
+  }
+
+  @Test
+  public void testManagerQueries() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int[] ids = ContactManagerImplTestFns.createValidContacts(3, manager);
+    final Set<Contact> all = manager.getContacts(ids);
+    final Set<Contact> pair = manager.getContacts(ids[0], ids[1]);
+    final int first = manager.addNewPastMeeting(all, DateFns.getPastDate(), "");
+    final int second = manager.addFutureMeeting(pair, DateFns.getFutureDate());
+    final Contact contact0 = manager.getContacts(ids[0]).iterator().next();
+    final Contact contact1 = manager.getContacts(ids[1]).iterator().next();
+
+    final List<Meeting> common = manager.getCommonMeetings(contact0, contact1);
+    assertEquals(2, common.size());
+    assertEquals(first, common.get(0).getId());
+    assertEquals(second, common.get(1).getId());
+
+    final List<Contact> top = manager.getTopCollaborators(contact0, 1);
+    assertEquals(1, top.size());
+    assertEquals(ids[1], top.get(0).getId());
+  }
+}
@@ -0,0 +1,97 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.ContactNameIndex;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+/**
+ * @author Alexander Worton.
+ */
+public class ContactNameIndexTest {
+
+  private static final int LIMIT = 10;
+  private transient ContactNameIndex index;
+
+  @Before
+  public void before() {
+    index = new ContactNameIndex();
+    index.add(1, "John Smith");
+    index.add(2, "Johnny Cash");
+    index.add(3, "Jane Smithson");
+    index.add(4, "Alexander Worton");
+    index.add(5, "john");
+  }
+
+  @Test
+  public void testPrefixCaseInsensitive() {
+    assertArrayEquals(new int[] {5, 1, 2}, index.search("JOH", LIMIT));
+  }
+
+  @Test
+  public void testExactFirst() {
+    assertEquals(5, index.search("john", LIMIT)[0]);
+  }
+
+  @Test
+  public void testLaterWordPrefix() {
+    assertArrayEquals(new int[] {1, 3}, index.search("smith", LIMIT));
+  }
+
+  @Test
+  public void testOneTypo() {
+    assertTrue(IntStream.of(index.search("jahn", LIMIT)).anyMatch(id -> id == 1));
+  }
+
+  @Test
+  public void testTwoTypos() {
+    assertArrayEquals(new int[] {4}, index.search("alexzndr w", LIMIT));
+  }
+
+  @Test
+  public void testTypoBeyondIndexedStart() {
+    index.add(6, "Bartholomew Featherstonehaugh");
+    assertArrayEquals(new int[] {6}, index.search("bartholomew feathersronehaugh", LIMIT));
+    //the start of the query matches, but the whole of it is too far from the key
+    assertEquals(0, index.search("bartholomew fxxxxxxxx", LIMIT).length);
+  }
+
+  @Test
+  public void testTooManyTypos() {
+    assertEquals(0, index.search("xyzzyqqq", LIMIT).length);
+  }
+
+  @Test
+  public void testShortQueryNotFuzzy() {
+    assertEquals(0, index.search("jxn", LIMIT).length);
+  }
+
+  @Test
+  public void testLimit() {
+    assertEquals(2, index.search("j", 2).length);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullQuery() {
+    index.search(null, LIMIT);
+  }
+
+  @Test
+  public void testManagerSearchContacts() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int id = manager.addNewContact("Quentin Zebediah", "Notes");
+    final List<Contact> found = manager.searchContacts("zebediax", LIMIT);
+    assertEquals(1, found.size());
+    assertEquals(id, found.get(0).getId());
+  }
+}
@@ -0,0 +1,261 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactClient;
+import impl.ContactServer;
+import impl.DateFns;
+import impl.ShardedContactManager;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.ContactManager;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class ContactServerTest {
+
+  private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
+  private static final int THREADS = 8;
+  private static final int REQUESTS_PER_THREAD = 500;
+  private static final int SLOW_MEETING = 999;
+  private static final int LARGE_NOTES = 200_000;
+  private static final byte GET_CONTACTS_BY_NAME = 11;
+  private static final byte ILLEGAL_ARGUMENT = 1;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient ShardedContactManager manager;
+  private transient ContactServer server;
+  private transient ContactClient client;
+  private transient ExecutorService workers;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("server");
+    this.directory = this.files.getDirectory();
+    this.manager = new ShardedContactManager(this.directory, 2, ZoneId.systemDefault());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (this.client != null) {
+      this.client.close();
+    }
+    if (this.server != null) {
+      this.server.close();
+    }
+    if (this.workers != null) {
+      this.workers.shutdownNow();
+    }
+    this.files.close();
+  }
+
+  /**
+   * Serve a manager and connect a client to it.
+   * @param served the manager to serve
+   * @throws IOException if the server cannot be started
+   */
+  private void serve(final ContactManager served) throws IOException {
+    this.server = new ContactServer(served, ANY_PORT);
+    this.client = new ContactClient(this.server.getLocalAddress());
+  }
+
+  @Test
+  public void testEveryOperationRoundTrips() throws IOException {
+    serve(this.manager);
+    final int first = this.client.addNewContact("Remote", "notes");
+    this.client.addNewContact("Other", "notes");
+    final Set<Contact> attendees = this.client.getContacts(first);
+    assertEquals("Remote", attendees.iterator().next().getName());
+    assertEquals(2, this.client.getContacts("").size());
+
+    final int future = this.client.addFutureMeeting(attendees, DateFns.getFutureDate());
+    final int past = this.client.addNewPastMeeting(attendees, DateFns.getPastDate(), "first");
+    assertEquals(future, this.client.getFutureMeeting(future).getId());
+    assertEquals("first", this.client.getPastMeeting(past).getNotes());
+    assertEquals("second", this.client.addMeetingNotes(past, "second").getNotes());
+    assertEquals(past, this.client.getMeeting(past).getId());
+    assertNull(this.client.getMeeting(future + past + 1));
+
+    final Contact contact = attendees.iterator().next();
+    assertEquals(future, this.client.getFutureMeetingList(contact).get(0).getId());
+    assertEquals("second", this.client.getPastMeetingListFor(contact).get(0).getNotes());
+    assertEquals(1, this.client.getMeetingListOn(DateFns.getFutureDate()).size());
+    this.client.flush();
+    assertEquals(2, new ShardedContactManager(this.directory, 1, ZoneId.systemDefault())
+        .getContacts("").size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testArgumentRejectionThrownByClient() throws IOException {
+    serve(this.manager);
+    this.client.getContacts(1, 2);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullArgumentThrownByClient() throws IOException {
+    serve(this.manager);
+    this.client.addNewContact(null, "notes");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testStateRejectionThrownByClient() throws IOException {
+    serve(this.manager);
+    final Set<Contact> attendees = this.client.getContacts(this.client.addNewContact("A", "n"));
+    this.client.addMeetingNotes(this.client.addFutureMeeting(attendees,
+                                                             DateFns.getFutureDate()), "early");
+  }
+
+  @Test
+  public void testLargeFramesGrowBuffers() throws IOException {
+    serve(this.manager);
+    final char[] notes = new char[LARGE_NOTES];
+    Arrays.fill(notes, 'x');
+    final int id = this.client.addNewContact("Large", new String(notes));
+    assertEquals(LARGE_NOTES, this.client.getContacts(id).iterator().next().getNotes().length());
+  }
+
+  @Test
+  public void testPipelinedThreadsShareConnection() throws Exception {
+    serve(this.manager);
+    final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      threads.add(new Thread(() -> {
+        for (int index = 0; index < REQUESTS_PER_THREAD; index++) {
+          final int id = this.client.addNewContact("Pipelined", "notes");
+          assertEquals(id, this.client.getContacts(id).iterator().next().getId());
+          ids.add(id);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(THREADS * REQUESTS_PER_THREAD, ids.size());
+    assertEquals(THREADS * REQUESTS_PER_THREAD, this.manager.getContacts("Pipelined").size());
+    assertEquals(THREADS * REQUESTS_PER_THREAD * 2, this.server.getRequestCount());
+  }
+
+  @Test
+  public void testResponsesAnsweredOutOfOrder() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final ContactManager slow = (ContactManager) Proxy.newProxyInstance(
+        ContactManager.class.getClassLoader(), new Class<?>[] {ContactManager.class},
+        (proxy, method, args) -> {
+          if ("getMeeting".equals(method.getName()) && (Integer) args[0] == SLOW_MEETING) {
+            release.await();
+          }
+          try {
+            return method.invoke(this.manager, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+    this.workers = Executors.newFixedThreadPool(2);
+    this.server = new ContactServer(slow, ANY_PORT, this.workers);
+    this.client = new ContactClient(this.server.getLocalAddress());
+
+    final Thread waiting = new Thread(() -> assertNull(this.client.getMeeting(SLOW_MEETING)));
+    waiting.start();
+    //answered while the request sent before it on the same connection is still running
+    assertEquals(1, this.client.addNewContact("Quick", "notes"));
+    assertTrue(waiting.isAlive());
+    release.countDown();
+    waiting.join();
+    assertFalse(waiting.isAlive());
+  }
+
+  @Test
+  public void testFailedEncodingAnswered() throws IOException {
+    final Contact broken = (Contact) Proxy.newProxyInstance(
+        Contact.class.getClassLoader(), new Class<?>[] {Contact.class},
+        (proxy, method, args) -> {
+          if ("getName".equals(method.getName())) {
+            throw new IllegalStateException("Name unavailable");
+          }
+          return "getId".equals(method.getName()) ? 1 : null;
+        });
+    final ContactManager failing = (ContactManager) Proxy.newProxyInstance(
+        ContactManager.class.getClassLoader(), new Class<?>[] {ContactManager.class},
+        (proxy, method, args) -> {
+          if ("getContacts".equals(method.getName()) && args[0] instanceof int[]) {
+            return Collections.singleton(broken);
+          }
+          try {
+            return method.invoke(this.manager, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+    serve(failing);
+    try {
+      this.client.getContacts(1);
+      throw new AssertionError("Response encoded from a contact without a name");
+    } catch (IllegalStateException e) {
+      assertEquals("Name unavailable", e.getMessage());
+    }
+    //the connection is still answered once the failure has been sent
+    assertEquals(1, this.client.addNewContact("After", "notes"));
+  }
+
+  @Test
+  public void testMalformedFrameRefused() throws IOException {
+    serve(this.manager);
+    try (Socket socket = new Socket(ANY_PORT.getAddress(),
+                                    this.server.getLocalAddress().getPort())) {
+      final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      //a request for contacts by a name claimed to be nearly 2 GB long, in a 13 byte frame
+      out.writeInt(Integer.BYTES + 1 + Integer.BYTES);
+      out.writeInt(7);
+      out.writeByte(GET_CONTACTS_BY_NAME);
+      out.writeInt(Integer.MAX_VALUE - 8);
+      out.flush();
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+      in.readInt();
+      assertEquals(7, in.readInt());
+      assertEquals(ILLEGAL_ARGUMENT, in.readByte());
+    }
+    //the server still answers
+    assertEquals(1, this.client.addNewContact("After", "notes"));
+  }
+
+  @Test(expected = java.io.UncheckedIOException.class)
+  public void testCallAfterServerClosed() throws IOException, InterruptedException {
+    serve(this.manager);
+    this.client.addNewContact("Before", "notes");
+    this.server.close();
+    this.server = null;
+    this.client.addNewContact("After", "notes");
+  }
+}
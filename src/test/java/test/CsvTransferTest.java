@@ -0,0 +1,232 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class CsvTransferTest {
+
+  private static final String PAST = "2015-06-01T09:30:00Z";
+  private static final String FUTURE = "2099-06-01T09:30:00Z";
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient ContactManagerImpl manager;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("csv");
+    this.directory = this.files.getDirectory();
+    this.manager = new ContactManagerImpl();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  /**
+   * Write lines to a file in the test's directory.
+   * @param name the file name
+   * @param lines the lines
+   * @return the file
+   * @throws IOException if the file cannot be written
+   */
+  private Path csv(final String name, final String... lines) throws IOException {
+    return Files.write(this.directory.resolve(name), Arrays.asList(lines),
+                       StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Import two contacts and a past, a future and a pending meeting between them.
+   * @throws IOException if the files cannot be read
+   */
+  private void importSample() throws IOException {
+    assertEquals(2, this.manager.importContactsCsv(csv("contacts.csv",
+        "id,name,notes",
+        "7,\"Smith, Jane\",\"said \"\"hello\"\"\"",
+        "9,Joe,\"first line",
+        "second line\"")));
+    assertEquals(3, this.manager.importMeetingsCsv(csv("meetings.csv",
+        "id,date,attendees,notes",
+        "3," + PAST + ",7;9,\"agreed, finally\"",
+        "5," + FUTURE + ",9,",
+        "6," + PAST + ",7,")));
+  }
+
+  @Test
+  public void testImport() throws IOException {
+    importSample();
+    final Contact jane = this.manager.getContacts(7).iterator().next();
+    assertEquals("Smith, Jane", jane.getName());
+    assertEquals("said \"hello\"", jane.getNotes());
+    assertEquals("first line\nsecond line",
+                 this.manager.getContacts(9).iterator().next().getNotes());
+
+    final PastMeeting past = this.manager.getPastMeeting(3);
+    assertEquals("agreed, finally", past.getNotes());
+    assertEquals(Instant.parse(PAST).toEpochMilli(), past.getDate().getTimeInMillis());
+    assertEquals(2, past.getContacts().size());
+    assertNotNull(this.manager.getFutureMeeting(5));
+    assertNotNull(this.manager.getMeeting(6));
+    assertNull(this.manager.getPastMeeting(6));
+    assertEquals(1, this.manager.searchContacts("Jane", 5).size());
+  }
+
+  @Test
+  public void testImportedIdsNotReused() throws IOException {
+    importSample();
+    assertTrue(this.manager.addNewContact("New", "notes") > 9);
+    final int meeting = this.manager.addFutureMeeting(this.manager.getContacts(7),
+                                                      DateFns.getFutureDate());
+    assertTrue(meeting > 6);
+  }
+
+  @Test
+  public void testImportSurvivesRestart() throws IOException {
+    importSample();
+    final ContactManagerImpl restored = new ContactManagerImpl();
+    assertEquals("Smith, Jane", restored.getContacts(7).iterator().next().getName());
+    assertEquals("agreed, finally", restored.getPastMeeting(3).getNotes());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    importSample();
+    final Path contacts = this.directory.resolve("contacts-out.csv");
+    final Path meetings = this.directory.resolve("meetings-out.csv");
+    assertEquals(2, this.manager.exportContactsCsv(contacts));
+    assertEquals(3, this.manager.exportMeetingsCsv(meetings));
+
+    Files.delete(TestFiles.SNAPSHOT);
+    final ContactManagerImpl copy = new ContactManagerImpl();
+    assertEquals(2, copy.importContactsCsv(contacts));
+    assertEquals(3, copy.importMeetingsCsv(meetings));
+    assertEquals("first line\nsecond line", copy.getContacts(9).iterator().next().getNotes());
+    assertEquals("agreed, finally", copy.getPastMeeting(3).getNotes());
+    assertNotNull(copy.getFutureMeeting(5));
+    //a meeting without notes stays without them, rather than gaining empty notes
+    assertNull(copy.getPastMeeting(6));
+    assertEquals(1, copy.getPastMeetingListFor(copy.getContacts(7).iterator().next()).size());
+  }
+
+  @Test
+  public void testLargeImport() throws IOException {
+    final int rows = 100_000;
+    final StringBuilder contacts = new StringBuilder("id,name,notes\n");
+    final StringBuilder meetings = new StringBuilder("id,date,attendees,notes\n");
+    for (int id = 1; id <= rows; id++) {
+      contacts.append(id).append(",\"Contact ").append(id).append("\",\"notes, ")
+          .append(id).append("\"\n");
+      meetings.append(id).append(',').append(PAST).append(',').append(id).append(';')
+          .append(rows + 1 - id).append(",\"meeting ").append(id).append("\"\n");
+    }
+    final Path contactFile = this.directory.resolve("large-contacts.csv");
+    final Path meetingFile = this.directory.resolve("large-meetings.csv");
+    Files.write(contactFile, contacts.toString().getBytes(StandardCharsets.UTF_8));
+    Files.write(meetingFile, meetings.toString().getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(rows, this.manager.importContactsCsv(contactFile));
+    assertEquals(rows, this.manager.importMeetingsCsv(meetingFile));
+    assertEquals("notes, " + rows, this.manager.getContacts(rows).iterator().next().getNotes());
+    assertEquals("meeting " + rows, this.manager.getPastMeeting(rows).getNotes());
+    assertEquals(rows, this.manager.exportMeetingsCsv(this.directory.resolve("out.csv")));
+  }
+
+  @Test
+  public void testArchivedMeetingExportedOnce() throws IOException {
+    final int contact = this.manager.addNewContact("Archived", "notes");
+    final int meeting = this.manager.addNewPastMeeting(this.manager.getContacts(contact),
+                                                       DateFns.getPastDate(), "first");
+    this.manager.enableArchive(this.directory.resolve("archive"), Duration.ofDays(1), 4);
+    this.manager.addMeetingNotes(meeting, "second");
+    this.manager.archivePastMeetings();
+    //the meeting's first record is still in the older segment
+    assertEquals(1, this.manager.getArchivedMeetingCount());
+
+    final Path exported = this.directory.resolve("archived.csv");
+    assertEquals(1, this.manager.exportMeetingsCsv(exported));
+    final List<String> rows = Files.readAllLines(exported, StandardCharsets.UTF_8);
+    assertEquals(2, rows.size());
+    assertTrue(rows.get(1).endsWith(",\"second\""));
+    //exporting leaves what the archive holds as it was
+    assertEquals(1, this.manager.getArchivedMeetingCount());
+    assertEquals("second", this.manager.getPastMeeting(meeting).getNotes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownAttendee() throws IOException {
+    importSample();
+    this.manager.importMeetingsCsv(csv("unknown.csv",
+        "id,date,attendees,notes",
+        "10," + PAST + ",7;8,notes"));
+  }
+
+  @Test
+  public void testFailedImportAddsNothing() throws IOException {
+    try {
+      this.manager.importContactsCsv(csv("duplicate.csv",
+          "id,name,notes",
+          "1,First,notes",
+          "1,Second,notes"));
+    } catch (IllegalArgumentException e) {
+      assertTrue(this.manager.getContacts("First").isEmpty());
+      return;
+    }
+    throw new AssertionError("Duplicate id accepted");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIdAlreadyHeld() throws IOException {
+    importSample();
+    this.manager.importContactsCsv(csv("held.csv", "id,name,notes", "7,Again,notes"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNotesOnFutureMeeting() throws IOException {
+    importSample();
+    this.manager.importMeetingsCsv(csv("future.csv",
+        "id,date,attendees,notes",
+        "10," + FUTURE + ",7,notes"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingHeader() throws IOException {
+    this.manager.importContactsCsv(csv("headless.csv", "1,Name,notes"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingField() throws IOException {
+    this.manager.importContactsCsv(csv("short.csv", "id,name,notes", "1,Name"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnterminatedQuotes() throws IOException {
+    this.manager.importContactsCsv(csv("open.csv", "id,name,notes", "1,\"Name,notes"));
+  }
+}
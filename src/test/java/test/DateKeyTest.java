@@ -0,0 +1,109 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateKey;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+
+/**
+ * @author Alexander Worton.
+ */
+public class DateKeyTest {
+
+  private static final ZoneId UTC = ZoneOffset.UTC;
+  private static final ZoneId PLUS_TWO = ZoneOffset.ofHours(2);
+  private static final ZoneId NULL_ZONE = null;
+  private static final Calendar NULL_DATE = null;
+  private static final int LATE_HOUR = 23;
+  private static final int LATE_MINUTE = 30;
+  private static final long EPOCH_DAY_2000_01_01 = 10_957L;
+
+  private Calendar getUtcDate(final int year, final int month, final int day,
+                              final int hour, final int minute) {
+    final Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    cal.clear();
+    cal.set(year, month, day, hour, minute);
+    return cal;
+  }
+
+  @Test
+  public void testEpochDayAndMinute() {
+    final DateKey key = DateKey.of(getUtcDate(2000, Calendar.JANUARY, 1, LATE_HOUR, LATE_MINUTE),
+                                   UTC);
+    assertEquals(EPOCH_DAY_2000_01_01, key.getEpochDay());
+    assertEquals(LATE_HOUR * 60 + LATE_MINUTE, key.getMinuteOfDay());
+  }
+
+  @Test
+  public void testZoneMovesDayBoundary() {
+    final Calendar date = getUtcDate(2000, Calendar.JANUARY, 1, LATE_HOUR, LATE_MINUTE);
+    final DateKey utcKey = DateKey.of(date, UTC);
+    final DateKey shiftedKey = DateKey.of(date, PLUS_TWO);
+    assertEquals(utcKey.getEpochDay() + 1, shiftedKey.getEpochDay());
+    assertEquals(LATE_MINUTE + 60, shiftedKey.getMinuteOfDay());
+    assertFalse(utcKey.isSameDay(shiftedKey));
+  }
+
+  @Test
+  public void testBeforeEpoch() {
+    final DateKey key = DateKey.of(getUtcDate(1969, Calendar.DECEMBER, 31, LATE_HOUR, 0), UTC);
+    assertEquals(-1L, key.getEpochDay());
+    assertEquals(LATE_HOUR * 60, key.getMinuteOfDay());
+  }
+
+  @Test
+  public void testSameDay() {
+    final DateKey morning = DateKey.of(getUtcDate(2000, Calendar.JANUARY, 1, 1, 0), UTC);
+    final DateKey evening = DateKey.of(getUtcDate(2000, Calendar.JANUARY, 1, LATE_HOUR, 0), UTC);
+    assertTrue(morning.isSameDay(evening));
+    assertFalse(morning.equals(evening));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullZone() {
+    DateKey.of(Calendar.getInstance(), NULL_ZONE);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullDate() {
+    DateKey.of(NULL_DATE, UTC);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testManagerNullZone() {
+    new ContactManagerImpl(NULL_ZONE);
+  }
+
+  @Test
+  public void testManagerUsesSuppliedZone() {
+    final ContactManagerImpl manager = new ContactManagerImpl(PLUS_TWO);
+    final int contactId = manager.addNewContact("Zone Contact", "Zone Notes");
+    final Set<Contact> attendees = manager.getContacts(contactId);
+    final int year = Calendar.getInstance().get(Calendar.YEAR) + 1;
+    final Calendar late = getUtcDate(year, Calendar.MARCH, 1, LATE_HOUR, LATE_MINUTE);
+    final int id = manager.addFutureMeeting(attendees, late);
+
+    final List<Meeting> nextDay = manager.getMeetingListOn(
+        getUtcDate(year, Calendar.MARCH, 2, 10, 0));
+    assertTrue(nextDay.stream().anyMatch(m -> m.getId() == id));
+
+    final List<Meeting> sameUtcDay = manager.getMeetingListOn(
+        getUtcDate(year, Calendar.MARCH, 1, 1, 0));
+    assertFalse(sameUtcDay.stream().anyMatch(m -> m.getId() == id));
+    assertEquals(PLUS_TWO, manager.getZone());
+  }
+}
@@ -0,0 +1,248 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.AttendeeSetPool;
+import impl.ContactImpl;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.DiskMeetingStore;
+import impl.FutureMeetingImpl;
+import impl.PastMeetingImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class DiskMeetingStoreTest {
+
+  private static final int POOL_PAGES = 16;
+  private static final int MEETINGS = 5_000;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient Map<Integer, Contact> contacts;
+  private transient AttendeeSetPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("store");
+    this.directory = this.files.getDirectory();
+    this.contacts = new HashMap<>();
+    for (int id = 1; id <= 3; id++) {
+      this.contacts.put(id, new ContactImpl(id, "Stored " + id, "notes"));
+    }
+    this.pool = new AttendeeSetPool(this.contacts);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  private DiskMeetingStore open() throws IOException {
+    final DiskMeetingStore store = new DiskMeetingStore(this.directory, POOL_PAGES);
+    store.bind(this.pool);
+    return store;
+  }
+
+  private Set<Contact> attendees(final int id) {
+    final Set<Contact> attendees = new HashSet<>();
+    attendees.add(this.contacts.get(1 + id % 3));
+    return attendees;
+  }
+
+  private Meeting meeting(final int id) {
+    if (id % 2 == 0) {
+      return new FutureMeetingImpl(id, DateFns.getFutureDate(id), attendees(id));
+    }
+    return new PastMeetingImpl(id, DateFns.getPastDate(id), attendees(id), "notes " + id);
+  }
+
+  @Test
+  public void testPutAndGetBeyondPool() throws IOException {
+    try (DiskMeetingStore store = open()) {
+      for (int id = 1; id <= MEETINGS; id++) {
+        store.put(meeting(id));
+      }
+      assertEquals(MEETINGS, store.size());
+      for (int id = 1; id <= MEETINGS; id += 7) {
+        final Meeting meeting = store.get(id);
+        assertEquals(id, meeting.getId());
+        assertEquals(attendees(id), meeting.getContacts());
+        if (id % 2 == 1) {
+          assertEquals("notes " + id, ((PastMeeting) meeting).getNotes());
+        }
+      }
+      assertNull(store.get(MEETINGS + 1));
+    }
+  }
+
+  @Test
+  public void testReplaceAndRemove() throws IOException {
+    try (DiskMeetingStore store = open()) {
+      for (int id = 1; id <= MEETINGS; id++) {
+        store.put(meeting(id));
+      }
+      store.put(new PastMeetingImpl(2, DateFns.getPastDate(), attendees(2), "replaced"));
+      for (int id = 3; id <= MEETINGS; id += 2) {
+        store.remove(id);
+      }
+      assertEquals(MEETINGS / 2 + 1, store.size());
+      assertEquals("replaced", ((PastMeeting) store.get(2)).getNotes());
+      assertFalse(store.contains(3));
+      assertTrue(store.contains(4));
+      assertTrue(store.contains(1));
+    }
+  }
+
+  @Test
+  public void testReopenedInIdOrder() throws IOException {
+    try (DiskMeetingStore store = open()) {
+      for (int id = MEETINGS; id >= 1; id--) {
+        store.put(meeting(id));
+      }
+    }
+    try (DiskMeetingStore store = open()) {
+      final List<Integer> ids = new ArrayList<>();
+      store.forEach(meeting -> ids.add(meeting.getId()));
+      assertEquals(MEETINGS, ids.size());
+      for (int index = 0; index < MEETINGS; index++) {
+        assertEquals(index + 1, (int) ids.get(index));
+      }
+    }
+  }
+
+  /**
+   * Copy the store's files as they are on disk, as a crash would leave them.
+   * @return the directory holding the copy
+   * @throws IOException if the files cannot be copied
+   */
+  private Path crashCopy() throws IOException {
+    final Path copy = Files.createDirectory(this.directory.resolve("crashed"));
+    try (Stream<Path> stored = Files.list(this.directory)) {
+      for (final Path file : stored.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        Files.copy(file, copy.resolve(file.getFileName()));
+      }
+    }
+    return copy;
+  }
+
+  @Test
+  public void testChangesAfterFlushReplayed() throws IOException {
+    final Path copy;
+    try (DiskMeetingStore store = open()) {
+      for (int id = 1; id <= MEETINGS; id++) {
+        store.put(meeting(id));
+      }
+      store.flush();
+      //a few changes that stay in the pool, so only the record file holds them
+      store.put(new PastMeetingImpl(1, DateFns.getPastDate(), attendees(1), "after flush"));
+      store.put(meeting(MEETINGS + 1));
+      store.remove(3);
+      copy = crashCopy();
+    }
+    try (DiskMeetingStore store = new DiskMeetingStore(copy, POOL_PAGES)) {
+      store.bind(this.pool);
+      assertEquals(MEETINGS, store.size());
+      assertEquals("after flush", ((PastMeeting) store.get(1)).getNotes());
+      assertEquals(MEETINGS + 1, store.get(MEETINGS + 1).getId());
+      assertFalse(store.contains(3));
+    }
+  }
+
+  @Test
+  public void testTornIndexRebuilt() throws IOException {
+    final Path copy;
+    try (DiskMeetingStore store = open()) {
+      for (int id = 1; id <= MEETINGS; id++) {
+        store.put(meeting(id));
+      }
+      store.flush();
+      //enough changes to evict pages, so the index on disk is no longer the flushed one
+      for (int id = 2; id <= MEETINGS; id += 2) {
+        store.remove(id);
+      }
+      store.put(new PastMeetingImpl(1, DateFns.getPastDate(), attendees(1), "rebuilt"));
+      copy = crashCopy();
+    }
+    //the last record was cut short by the crash
+    try (FileChannel records = FileChannel.open(copy.resolve("meetings.dat"),
+             StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      records.write(ByteBuffer.wrap(new byte[] {0, 0, 1, 0, 7}));
+    }
+    try (DiskMeetingStore store = new DiskMeetingStore(copy, POOL_PAGES)) {
+      store.bind(this.pool);
+      assertEquals(MEETINGS / 2, store.size());
+      assertEquals("rebuilt", ((PastMeeting) store.get(1)).getNotes());
+      assertFalse(store.contains(2));
+      assertEquals("notes 7", ((PastMeeting) store.get(7)).getNotes());
+      store.put(meeting(MEETINGS + 1));
+      assertEquals(MEETINGS + 1, store.get(MEETINGS + 1).getId());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReadWithoutPool() throws IOException {
+    try (DiskMeetingStore store = new DiskMeetingStore(this.directory, POOL_PAGES)) {
+      store.put(meeting(1));
+      store.get(1);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPoolTooSmall() throws IOException {
+    new DiskMeetingStore(this.directory, 1).close();
+  }
+
+  @Test
+  public void testManagerKeepsMeetingsInStore() throws IOException {
+    final Path storeDirectory = this.directory.resolve("meetings");
+    final int past;
+    final int future;
+    try (DiskMeetingStore store = new DiskMeetingStore(storeDirectory, POOL_PAGES)) {
+      final ContactManagerImpl manager = new ContactManagerImpl(ZoneId.systemDefault(), store);
+      final Set<Contact> attendees = manager.getContacts(manager.addNewContact("Kept", "n"));
+      past = manager.addNewPastMeeting(attendees, DateFns.getPastDate(), "kept notes");
+      future = manager.addFutureMeeting(attendees, DateFns.getFutureDate());
+      assertEquals(2, store.size());
+      manager.flush();
+    }
+    try (DiskMeetingStore store = new DiskMeetingStore(storeDirectory, POOL_PAGES)) {
+      final ContactManagerImpl manager = new ContactManagerImpl(ZoneId.systemDefault(), store);
+      assertEquals("kept notes", manager.getPastMeeting(past).getNotes());
+      assertEquals(future, manager.getFutureMeeting(future).getId());
+      final Contact contact = manager.getContacts("Kept").iterator().next();
+      assertEquals(1, manager.getFutureMeetingList(contact).size());
+      assertEquals(1, manager.searchNotes("kept", 10).size());
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class HotReloadTest {
+
+  private static final Duration DELAY = Duration.ofMillis(2);
+  private static final long WAIT_MILLIS = 10_000;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient Path journal;
+  private transient ContactManagerImpl writer;
+  private transient ContactManagerImpl reader;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("reload");
+    this.directory = this.files.getDirectory();
+    this.journal = this.directory.resolve("mutations.journal");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (this.reader != null) {
+      try {
+        this.reader.disableHotReload();
+      } catch (IllegalStateException e) {
+        //already disabled by the test
+      }
+    }
+    if (this.writer != null && this.writer.getJournal() != null) {
+      this.writer.getJournal().close();
+    }
+    this.files.close();
+  }
+
+  /**
+   * Start a writer journaling to the test's directory, and a reader reloading from it.
+   * @throws IOException if the journal or the reload cannot be started
+   */
+  private void startJournaled() throws IOException {
+    this.writer = new ContactManagerImpl();
+    this.writer.enableJournal(this.journal, DELAY, 1);
+    this.writer.addNewContact("Before", "notes");
+    this.reader = new ContactManagerImpl();
+    this.reader.enableHotReload();
+  }
+
+  /**
+   * Wait for a change to be reloaded.
+   * @param condition true once it has been
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testJournalRecordsReloaded() throws IOException, InterruptedException {
+    startJournaled();
+    assertEquals(1, this.reader.getContacts("Before").size());
+    final int contact = this.writer.addNewContact("Journaled", "first");
+    await(() -> this.reader.getContacts("Journaled").size() == 1);
+
+    this.writer.getContacts(contact).iterator().next().addNotes("second");
+    await(() -> this.reader.getContacts(contact).iterator().next().getNotes()
+        .contains("second"));
+    //the indexes are kept current as well as the maps
+    assertEquals(1, this.reader.searchNotes("second", 1).size());
+  }
+
+  @Test
+  public void testMeetingsReloaded() throws IOException, InterruptedException {
+    startJournaled();
+    final int contact = this.writer.addNewContact("Attendee", "notes");
+    final int meeting = this.writer.addNewPastMeeting(this.writer.getContacts(contact),
+                                                      DateFns.getPastDate(), "first");
+    await(() -> this.reader.getPastMeeting(meeting) != null);
+    this.writer.addMeetingNotes(meeting, "more");
+    await(() -> this.reader.getPastMeeting(meeting).getNotes().contains("more"));
+    final PastMeeting reloaded = this.reader.getPastMeetingListFor(
+        this.reader.getContacts(contact).iterator().next()).get(0);
+    assertEquals(meeting, reloaded.getId());
+  }
+
+  @Test
+  public void testChangesAfterCheckpointReloaded() throws IOException, InterruptedException {
+    startJournaled();
+    this.writer.addNewContact("Checkpointed", "notes");
+    this.writer.flush();
+    this.writer.addNewContact("After", "notes");
+    await(() -> this.reader.getContacts("After").size() == 1);
+    assertEquals(1, this.reader.getContacts("Checkpointed").size());
+    assertEquals(3, this.reader.getContacts("").size());
+  }
+
+  @Test
+  public void testSnapshotWithoutJournalReloaded() throws IOException, InterruptedException {
+    this.writer = new ContactManagerImpl();
+    this.writer.addNewContact("First", "notes");
+    this.writer.flush();
+    this.reader = new ContactManagerImpl();
+    this.reader.enableHotReload();
+    assertEquals(0, this.reader.getHotReloadCount());
+
+    this.writer.addNewContact("Second", "notes");
+    this.writer.flush();
+    await(() -> this.reader.getContacts("Second").size() == 1);
+    assertTrue(this.reader.getHotReloadCount() > 0);
+  }
+
+  @Test
+  public void testReaderLeavesFilesToWriter() throws IOException, InterruptedException {
+    startJournaled();
+    this.writer.addNewContact("Written", "notes");
+    this.writer.flush();
+    await(() -> this.reader.getContacts("Written").size() == 1);
+    this.writer.addNewContact("Later", "notes");
+    this.writer.flush();
+    this.reader.flush();
+    assertEquals(1, new ContactManagerImpl().getContacts("Later").size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReaderRejectsWrites() throws IOException {
+    startJournaled();
+    this.reader.addNewContact("Rejected", "notes");
+  }
+
+  @Test
+  public void testDisabledReaderAcceptsWrites() throws IOException {
+    startJournaled();
+    this.reader.disableHotReload();
+    this.reader.addNewContact("Accepted", "notes");
+    assertEquals(1, this.reader.getContacts("Accepted").size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEnableTwice() throws IOException {
+    startJournaled();
+    this.reader.enableHotReload();
+  }
+}
@@ -0,0 +1,142 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.IdAllocator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class IdAllocatorTest {
+
+  private static final int BLOCK = 8;
+  private static final int LEASE = 32;
+  private static final int THREADS = 4;
+  private static final int IDS_PER_THREAD = 5_000;
+
+  private transient TestFiles files;
+
+  /**
+   * Records every limit stored, checking each id handed out is under the last one.
+   */
+  private static final class RecordingStore implements IdAllocator.LeaseStore {
+    private final List<Integer> limits = new ArrayList<>();
+    private volatile int stored;
+
+    @Override
+    public synchronized void store(final int limit) {
+      this.limits.add(limit);
+      this.stored = limit;
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("ids");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  @Test
+  public void testSingleThreadIdsAreConsecutive() {
+    final IdAllocator allocator = new IdAllocator(0, BLOCK, LEASE, limit -> { });
+    for (int id = 1; id <= LEASE * 3; id++) {
+      assertEquals(id, allocator.next());
+    }
+  }
+
+  @Test
+  public void testLeaseStoredBeforeIdsHandedOut() {
+    final RecordingStore store = new RecordingStore();
+    final IdAllocator allocator = new IdAllocator(0, BLOCK, LEASE, store);
+    for (int index = 0; index < LEASE * 3; index++) {
+      assertTrue(allocator.next() <= store.stored);
+    }
+    assertEquals(3, store.limits.size());
+    assertEquals(LEASE * 3, allocator.getLeased());
+  }
+
+  @Test
+  public void testConcurrentIdsAreUnique() throws InterruptedException {
+    final RecordingStore store = new RecordingStore();
+    final IdAllocator allocator = new IdAllocator(0, BLOCK, LEASE, store);
+    final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      threads.add(new Thread(() -> {
+        for (int index = 0; index < IDS_PER_THREAD; index++) {
+          final int id = allocator.next();
+          assertTrue(id <= store.stored);
+          ids.add(id);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+    //each lease serves several blocks, so most allocations never stored a lease
+    assertTrue(store.limits.size() <= THREADS * IDS_PER_THREAD / LEASE + THREADS);
+  }
+
+  @Test
+  public void testRestartFromLeaseSkipsHandedOutIds() {
+    final RecordingStore store = new RecordingStore();
+    final IdAllocator crashed = new IdAllocator(0, BLOCK, LEASE, store);
+    int last = 0;
+    for (int index = 0; index < BLOCK + 1; index++) {
+      last = crashed.next();
+    }
+    final IdAllocator restarted = new IdAllocator(store.stored, BLOCK, LEASE, limit -> { });
+    assertTrue(restarted.next() > last);
+    assertEquals(LEASE + 1, new IdAllocator(store.stored, BLOCK, LEASE, limit -> { }).next());
+  }
+
+  @Test
+  public void testRestartWithoutJournalContinuesFromLastId() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int contact = manager.addNewContact("Before restart", "notes");
+    manager.flush();
+    //without a journal no lease was stored, so no ids are skipped
+    assertEquals(contact + 1, new ContactManagerImpl().addNewContact("After", "notes"));
+  }
+
+  @Test
+  public void testAdvancePastAbandonsBlock() {
+    final IdAllocator allocator = new IdAllocator(0, BLOCK, LEASE, limit -> { });
+    assertEquals(1, allocator.next());
+    allocator.advancePast(2);
+    assertEquals(BLOCK + 1, allocator.next());
+    allocator.advancePast(LEASE * 2);
+    assertEquals(LEASE * 2 + 1, allocator.next());
+    assertTrue(allocator.getLeased() >= LEASE * 2 + 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLeaseSmallerThanBlock() {
+    new IdAllocator(0, LEASE, BLOCK, limit -> { });
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeLease() {
+    new IdAllocator(-1, BLOCK, LEASE, limit -> { });
+  }
+}
@@ -0,0 +1,154 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.IdBitmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class IdBitmapTest {
+
+  private static final int SPREAD = 300_000;
+
+  private transient TestFiles files;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("bitmap");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  private static IdBitmap randomBitmap(final Random random, final int count,
+                                       final Set<Integer> expected) {
+    final IdBitmap bitmap = new IdBitmap();
+    for (int index = 0; index < count; index++) {
+      final int id = random.nextInt(SPREAD);
+      bitmap.add(id);
+      expected.add(id);
+    }
+    return bitmap;
+  }
+
+  private static int[] toArray(final Set<Integer> ids) {
+    return ids.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  @Test
+  public void testAddAndContains() {
+    final IdBitmap bitmap = IdBitmap.of(7, 3, 70_000, 3);
+    assertEquals(3, bitmap.cardinality());
+    assertTrue(bitmap.contains(70_000));
+    assertFalse(bitmap.contains(4));
+    assertArrayEquals(new int[] {3, 7, 70_000}, bitmap.toArray());
+    assertTrue(new IdBitmap().isEmpty());
+  }
+
+  @Test
+  public void testAndOrMatchSets() {
+    final Random random = new Random(42);
+    //sparse and dense sets so array and bitmap containers meet each other
+    for (final int[] counts : new int[][] {{50, 60}, {50, 200_000}, {150_000, 200_000}}) {
+      final Set<Integer> first = new TreeSet<>();
+      final Set<Integer> second = new TreeSet<>();
+      final IdBitmap left = randomBitmap(random, counts[0], first);
+      final IdBitmap right = randomBitmap(random, counts[1], second);
+
+      final Set<Integer> union = new TreeSet<>(first);
+      union.addAll(second);
+      final Set<Integer> intersection = new TreeSet<>(first);
+      intersection.retainAll(second);
+
+      assertArrayEquals(toArray(first), left.toArray());
+      assertArrayEquals(toArray(intersection), left.and(right).toArray());
+      assertArrayEquals(toArray(union), left.or(right).toArray());
+      assertArrayEquals(toArray(intersection), right.runOptimize().and(left).toArray());
+    }
+  }
+
+  @Test
+  public void testRunOptimizeShrinksConsecutiveIds() {
+    final IdBitmap bitmap = new IdBitmap();
+    IntStream.range(1, 100_000).forEach(bitmap::add);
+    final long before = bitmap.getSizeInBytes();
+    bitmap.runOptimize();
+    assertTrue(bitmap.getSizeInBytes() < before / 100);
+    assertEquals(99_999, bitmap.cardinality());
+    assertTrue(bitmap.contains(65_536));
+    assertFalse(bitmap.contains(100_000));
+
+    //adding to a run keeps every id
+    bitmap.add(200_000);
+    bitmap.add(0);
+    assertEquals(100_001, bitmap.cardinality());
+    assertTrue(bitmap.contains(99_999));
+  }
+
+  @Test
+  public void testSerializationRoundTrip() throws IOException, ClassNotFoundException {
+    final IdBitmap bitmap = new IdBitmap();
+    IntStream.range(10, 5_000).forEach(bitmap::add);
+    IntStream.range(0, 70).forEach(id -> bitmap.add(id * 1_000 + 80_000));
+    bitmap.runOptimize();
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(bitmap);
+    }
+    try (ObjectInputStream in =
+             new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(bitmap, in.readObject());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeId() {
+    new IdBitmap().add(-1);
+  }
+
+  @Test
+  public void testAttendeeSetsSurviveRestore() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int first = manager.addNewContact("Bitmap One", "notes");
+    final int second = manager.addNewContact("Bitmap Two", "notes");
+    final Set<Contact> attendees = manager.getContacts(first, second);
+    final int meetingId = manager.addFutureMeeting(attendees, DateFns.getFutureDate());
+    manager.flush();
+
+    final ContactManagerImpl restored = new ContactManagerImpl();
+    final Meeting meeting = restored.getMeeting(meetingId);
+    assertEquals(2, meeting.getContacts().size());
+    final Contact contact = restored.getContacts(first).iterator().next();
+    assertTrue(meeting.getContacts().contains(contact));
+    assertFalse(meeting.getContacts().contains(attendees.iterator().next()));
+    assertEquals(1, restored.getFutureMeetingList(contact).size());
+  }
+}
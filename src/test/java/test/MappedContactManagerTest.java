@@ -0,0 +1,172 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.MappedContactManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class MappedContactManagerTest {
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient Path file;
+  private transient ContactManagerImpl writer;
+  private transient int alice;
+  private transient int bob;
+  private transient int future;
+  private transient int past;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("mapped");
+    this.directory = this.files.getDirectory();
+    this.file = this.directory.resolve("contacts.map");
+    this.writer = new ContactManagerImpl();
+    this.alice = this.writer.addNewContact("Alice", "first notes");
+    this.bob = this.writer.addNewContact("Bob \u00e9", "other notes");
+    final Set<Contact> both = this.writer.getContacts(this.alice, this.bob);
+    this.future = this.writer.addFutureMeeting(both, DateFns.getFutureDate());
+    this.past = this.writer.addNewPastMeeting(this.writer.getContacts(this.alice),
+                                              DateFns.getPastDate(), "minutes");
+    this.writer.writeMappedSnapshot(this.file);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  @Test
+  public void testReadsMatchWriter() throws IOException {
+    final MappedContactManager reader = new MappedContactManager(this.file);
+    final Contact mappedAlice = reader.getContacts(this.alice).iterator().next();
+    assertEquals("Alice", mappedAlice.getName());
+    assertEquals("first notes", mappedAlice.getNotes());
+    assertEquals(2, reader.getContacts("").size());
+    assertEquals(this.bob, reader.getContacts("Bob \u00e9").iterator().next().getId());
+    assertTrue(reader.getContacts("Bob").isEmpty());
+
+    assertEquals(2, reader.getFutureMeeting(this.future).getContacts().size());
+    assertEquals("minutes", reader.getPastMeeting(this.past).getNotes());
+    assertNull(reader.getMeeting(999));
+
+    final List<Meeting> futureList = reader.getFutureMeetingList(mappedAlice);
+    assertEquals(1, futureList.size());
+    assertEquals(this.future, futureList.get(0).getId());
+    final List<PastMeeting> pastList = reader.getPastMeetingListFor(mappedAlice);
+    assertEquals(1, pastList.size());
+    assertEquals(this.past, pastList.get(0).getId());
+
+    final Calendar day = this.writer.getMeeting(this.past).getDate();
+    final List<Meeting> on = reader.getMeetingListOn(day);
+    assertEquals(this.writer.getMeetingListOn(day).size(), on.size());
+    assertTrue(on.stream().anyMatch(meeting -> meeting.getId() == this.past));
+  }
+
+  @Test
+  public void testArchivedMeetingWrittenOnce() throws IOException {
+    this.writer.enableArchive(this.directory.resolve("archive"), Duration.ofDays(1), 4);
+    this.writer.addMeetingNotes(this.past, "revised");
+    this.writer.archivePastMeetings();
+    this.writer.writeMappedSnapshot(this.file);
+    final MappedContactManager reader = new MappedContactManager(this.file);
+    final List<PastMeeting> pastList = reader.getPastMeetingListFor(
+        reader.getContacts(this.alice).iterator().next());
+    assertEquals(1, pastList.size());
+    assertEquals("revised", reader.getPastMeeting(this.past).getNotes());
+    //writing the snapshot leaves what the archive holds as it was
+    assertEquals(1, this.writer.getArchivedMeetingCount());
+  }
+
+  @Test
+  public void testReturnsCopies() throws IOException {
+    final MappedContactManager reader = new MappedContactManager(this.file);
+    reader.getContacts(this.alice).iterator().next().addNotes("changed");
+    assertEquals("first notes", reader.getContacts(this.alice).iterator().next().getNotes());
+  }
+
+  @Test
+  public void testPicksUpReplacedSnapshot() throws IOException {
+    final MappedContactManager reader =
+        new MappedContactManager(this.file, ZoneId.systemDefault(), Duration.ZERO);
+    final List<Meeting> before = reader.getFutureMeetingList(
+        reader.getContacts(this.bob).iterator().next());
+    final int added = this.writer.addNewContact("Carol", "new notes");
+    this.writer.writeMappedSnapshot(this.file);
+    assertEquals("Carol", reader.getContacts(added).iterator().next().getName());
+    assertEquals(1, reader.getReloadCount());
+    //a list read from the old snapshot stays readable
+    assertEquals(this.future, before.get(0).getId());
+  }
+
+  @Test
+  public void testRefreshOnlyWhenReplaced() throws IOException {
+    final MappedContactManager reader =
+        new MappedContactManager(this.file, ZoneId.systemDefault(), Duration.ofHours(1));
+    assertFalse(reader.refresh());
+    this.writer.addNewContact("Carol", "new notes");
+    this.writer.writeMappedSnapshot(this.file);
+    assertEquals(2, reader.getContacts("").size());
+    assertTrue(reader.refresh());
+    assertEquals(3, reader.getContacts("").size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownContactIds() throws IOException {
+    new MappedContactManager(this.file).getContacts(this.alice, 999);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testContactNotInSnapshot() throws IOException {
+    final int added = this.writer.addNewContact("Dave", "notes");
+    new MappedContactManager(this.file).getFutureMeetingList(
+        this.writer.getContacts(added).iterator().next());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFutureMeetingAsPast() throws IOException {
+    new MappedContactManager(this.file).getPastMeeting(this.future);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testAddContactRejected() throws IOException {
+    new MappedContactManager(this.file).addNewContact("Eve", "notes");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testAddMeetingNotesRejected() throws IOException {
+    new MappedContactManager(this.file).addMeetingNotes(this.past, "more");
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotASnapshot() throws IOException {
+    Files.write(this.file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+    new MappedContactManager(this.file);
+  }
+}
@@ -0,0 +1,134 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.MeetingArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class MeetingArchiveTest {
+
+  private static final Duration HORIZON = Duration.ofDays(365);
+  private static final int OLD_MEETINGS = 150;
+  private static final int CACHE = 16;
+
+  private transient TestFiles files;
+  private transient Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("archive");
+    this.directory = this.files.getDirectory();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  private static String notes(final int index) {
+    return "quarterly review " + index + " of the widget account";
+  }
+
+  @Test
+  public void testArchivedMeetingsStillReadable() throws IOException {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int contactId = manager.addNewContact("Archived Attendee", "notes");
+    final Set<Contact> attendees = manager.getContacts(contactId);
+    final Contact contact = attendees.iterator().next();
+    final int[] ids = new int[OLD_MEETINGS];
+    for (int index = 0; index < OLD_MEETINGS; index++) {
+      ids[index] = manager.addNewPastMeeting(attendees, DateFns.getPastDate(index),
+                                             notes(index));
+    }
+    final int recentId = manager.addNewPastMeeting(attendees, DateFns.getSlightlyPastDate(),
+                                                   "recent");
+
+    manager.enableArchive(this.directory, HORIZON, CACHE);
+    assertEquals(OLD_MEETINGS, manager.getArchivedMeetingCount());
+    assertEquals(notes(42), manager.getPastMeeting(ids[42]).getNotes());
+    assertEquals("recent", manager.getPastMeeting(recentId).getNotes());
+    assertTrue(manager.getPastMeeting(ids[7]).getContacts().contains(contact));
+
+    final List<PastMeeting> history = manager.getPastMeetingListFor(contact);
+    assertEquals(OLD_MEETINGS + 1, history.size());
+    assertEquals(ids[0], history.get(0).getId());
+    assertEquals(recentId, history.get(OLD_MEETINGS).getId());
+    assertEquals(OLD_MEETINGS, manager.getMeetingListOn(DateFns.getPastDate()).size());
+    assertEquals(1, manager.searchNotes("\"review 99\"", 10).size());
+  }
+
+  @Test
+  public void testNotesReplacedAndRestored() throws IOException {
+    ContactManagerImpl manager = new ContactManagerImpl();
+    final int contactId = manager.addNewContact("Restored Attendee", "notes");
+    final Set<Contact> attendees = manager.getContacts(contactId);
+    final int first = manager.addNewPastMeeting(attendees, DateFns.getPastDate(), notes(1));
+    final int second = manager.addNewPastMeeting(attendees, DateFns.getPastDate(1), notes(2));
+    manager.enableArchive(this.directory, HORIZON, CACHE);
+    assertEquals(2, manager.getArchivedMeetingCount());
+
+    manager.addMeetingNotes(first, "revised");
+    assertEquals(1, manager.getArchivedMeetingCount());
+    manager.flush();
+    assertEquals(2, manager.getArchivedMeetingCount());
+    try (Stream<Path> segments = Files.list(this.directory)) {
+      assertEquals(2, segments.count());
+    }
+
+    manager = new ContactManagerImpl();
+    assertEquals(2, manager.getArchivedMeetingCount());
+    assertEquals("revised", manager.getPastMeeting(first).getNotes());
+    assertEquals(notes(2), manager.getPastMeeting(second).getNotes());
+    assertEquals(1, manager.searchNotes("revised", 10).size());
+    assertTrue(manager.searchNotes("\"review 1\"", 10).isEmpty());
+  }
+
+  @Test
+  public void testReadsBeyondCacheCapacity() throws IOException {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int contactId = manager.addNewContact("Cached Attendee", "notes");
+    final Set<Contact> attendees = manager.getContacts(contactId);
+    final int count = MeetingArchive.RECORDS_PER_BLOCK * 3;
+    for (int index = 0; index < count; index++) {
+      manager.addNewPastMeeting(attendees, DateFns.getPastDate(index), notes(index));
+    }
+    manager.enableArchive(this.directory, HORIZON, CACHE);
+    final Contact contact = attendees.iterator().next();
+    assertEquals(count, manager.getPastMeetingListFor(contact).size());
+    assertEquals(count, manager.getPastMeetingListFor(contact).size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEnableTwice() throws IOException {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    manager.enableArchive(this.directory, HORIZON, CACHE);
+    manager.enableArchive(this.directory, HORIZON, CACHE);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeHorizon() throws IOException {
+    new ContactManagerImpl().enableArchive(this.directory, HORIZON.negated(), CACHE);
+  }
+}
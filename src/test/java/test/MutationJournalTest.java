@@ -0,0 +1,147 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.IdAllocator;
+import impl.MutationJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class MutationJournalTest {
+
+  private static final Duration DELAY = Duration.ofMillis(2);
+  private static final int THREADS = 8;
+  private static final int CONTACTS_PER_THREAD = 250;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient Path file;
+  private final transient List<ContactManagerImpl> managers = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("journal");
+    this.directory = this.files.getDirectory();
+    this.file = this.directory.resolve("mutations.journal");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (final ContactManagerImpl manager : this.managers) {
+      if (manager.getJournal() != null) {
+        manager.getJournal().close();
+      }
+    }
+    this.files.close();
+  }
+
+  private ContactManagerImpl restart() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    this.managers.add(manager);
+    return manager;
+  }
+
+  private ContactManagerImpl journaled() throws IOException {
+    final ContactManagerImpl manager = restart();
+    manager.enableJournal(this.file, DELAY, MutationJournal.DEFAULT_MAX_BATCH_RECORDS);
+    return manager;
+  }
+
+  @Test
+  public void testMutationsSurviveWithoutFlush() throws IOException {
+    ContactManagerImpl manager = journaled();
+    final Set<Contact> attendees = manager.getContacts(manager.addNewContact("Journaled", "n"));
+    final int past = manager.addNewPastMeeting(attendees, DateFns.getPastDate(), "first");
+    final int future = manager.addFutureMeeting(attendees, DateFns.getFutureDate());
+    manager.addMeetingNotes(past, "second");
+    attendees.iterator().next().addNotes("replaced");
+    //five mutations, after the lease of contact ids and the lease of meeting ids
+    assertEquals(7, manager.getJournal().getLastDurable());
+
+    manager = restart();
+    final Contact contact = manager.getContacts("Journaled").iterator().next();
+    assertEquals("replaced", contact.getNotes());
+    assertEquals("second", manager.getPastMeeting(past).getNotes());
+    assertEquals(future, manager.getFutureMeeting(future).getId());
+    assertEquals(1, manager.getFutureMeetingList(contact).size());
+    assertEquals(1, manager.searchNotes("second", 10).size());
+    //ids continue after the lease replayed from the journal, never reusing one handed out
+    assertEquals(IdAllocator.DEFAULT_LEASE_SIZE + 1,
+                 manager.addFutureMeeting(manager.getContacts(contact.getId()),
+                                          DateFns.getFutureDate()));
+  }
+
+  @Test
+  public void testConcurrentWritesShareSyncs() throws Exception {
+    final ContactManagerImpl manager = journaled();
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      final int offset = thread * CONTACTS_PER_THREAD;
+      threads.add(new Thread(() -> {
+        for (int index = 0; index < CONTACTS_PER_THREAD; index++) {
+          manager.addNewContact("Concurrent " + (offset + index), "notes");
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    final MutationJournal journal = manager.getJournal();
+    final int total = THREADS * CONTACTS_PER_THREAD;
+    assertEquals(total + 1, journal.getLastDurable());
+    assertTrue(journal.getSyncCount() < total);
+
+    assertEquals(total, restart().getContacts("").size());
+  }
+
+  @Test
+  public void testTornRecordTruncated() throws IOException {
+    final ContactManagerImpl manager = journaled();
+    manager.addNewContact("Torn", "notes");
+    final long size = Files.size(this.file);
+    Files.write(this.file, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+    assertEquals(1, restart().getContacts("Torn").size());
+    assertEquals(size, Files.size(this.file));
+  }
+
+  @Test
+  public void testFlushEmptiesJournal() throws IOException {
+    final ContactManagerImpl manager = journaled();
+    manager.addNewContact("Checkpointed", "notes");
+    assertTrue(Files.size(this.file) > 0);
+    manager.flush();
+    assertEquals(0, Files.size(this.file));
+
+    final ContactManagerImpl restored = restart();
+    assertEquals(1, restored.getContacts("Checkpointed").size());
+    assertEquals(this.file.toAbsolutePath(), restored.getJournal().getFile());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEnableTwice() throws IOException {
+    journaled().enableJournal(this.file, DELAY, 1);
+  }
+}
@@ -0,0 +1,217 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.MutationCallback;
+import impl.MutationJournal;
+import impl.MutationPipeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class MutationPipelineTest {
+
+  private static final int THREADS = 4;
+  private static final int WRITES_PER_THREAD = 2_500;
+  private static final int SMALL_CAPACITY = 8;
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient ContactManagerImpl manager;
+  private transient MutationPipeline pipeline;
+
+  /**
+   * Counts the outcomes reported to it.
+   */
+  private static final class Counter implements MutationCallback {
+    private final AtomicInteger applied = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicLong lastSequence = new AtomicLong();
+
+    @Override
+    public void applied(final long sequence, final int id) {
+      this.applied.incrementAndGet();
+      this.lastSequence.set(sequence);
+    }
+
+    @Override
+    public void rejected(final long sequence, final RuntimeException failure) {
+      this.rejected.incrementAndGet();
+      this.lastSequence.set(sequence);
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("pipeline");
+    this.directory = this.files.getDirectory();
+    this.manager = new ContactManagerImpl();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (this.pipeline != null) {
+      this.pipeline.close();
+    }
+    if (this.manager.getJournal() != null) {
+      this.manager.getJournal().close();
+    }
+    this.files.close();
+  }
+
+  @Test
+  public void testConcurrentProducersThroughSmallRing() throws InterruptedException {
+    this.pipeline = new MutationPipeline(this.manager, SMALL_CAPACITY);
+    final Counter counter = new Counter();
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      threads.add(new Thread(() -> {
+        for (int index = 0; index < WRITES_PER_THREAD; index++) {
+          this.pipeline.addNewContact("Piped", "notes", counter);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    final int total = THREADS * WRITES_PER_THREAD;
+    this.pipeline.awaitApplied(total);
+    assertEquals(total, counter.applied.get());
+    assertEquals(total, counter.lastSequence.get());
+    assertEquals(total, this.manager.getContacts("Piped").size());
+  }
+
+  @Test
+  public void testEveryWriteApplied() {
+    this.pipeline = new MutationPipeline(this.manager, MutationPipeline.DEFAULT_CAPACITY);
+    final Counter counter = new Counter();
+    this.pipeline.addNewContact("Attendee", "notes", counter);
+    this.pipeline.awaitApplied(1);
+    final Set<Contact> attendees = this.manager.getContacts("Attendee");
+    this.pipeline.addFutureMeeting(attendees, DateFns.getFutureDate(), counter);
+    this.pipeline.addNewPastMeeting(attendees, DateFns.getPastDate(), "first", counter);
+    final long sequence = this.pipeline.addMeetingNotes(2, "second", counter);
+    this.pipeline.awaitApplied(sequence);
+
+    assertEquals(4, counter.applied.get());
+    assertEquals(1, this.manager.getFutureMeeting(1).getId());
+    assertEquals("second", this.manager.getPastMeeting(2).getNotes());
+  }
+
+  @Test
+  public void testRejectedWriteLeavesBatch() {
+    this.pipeline = new MutationPipeline(this.manager, MutationPipeline.DEFAULT_CAPACITY);
+    final Counter counter = new Counter();
+    this.pipeline.addNewContact("Before", "notes", counter);
+    this.pipeline.addNewContact("", "notes", counter);
+    this.pipeline.awaitApplied(this.pipeline.addNewContact("After", "notes", counter));
+
+    assertEquals(2, counter.applied.get());
+    assertEquals(1, counter.rejected.get());
+    assertEquals(2, this.manager.getContacts("").size());
+  }
+
+  @Test
+  public void testDurableThroughJournal() throws IOException {
+    this.manager.enableJournal(this.directory.resolve("pipeline.journal"),
+                               MutationJournal.DEFAULT_MAX_DELAY,
+                               MutationJournal.DEFAULT_MAX_BATCH_RECORDS);
+    this.pipeline = new MutationPipeline(this.manager, MutationPipeline.DEFAULT_CAPACITY);
+    long sequence = 0;
+    for (int index = 0; index < WRITES_PER_THREAD; index++) {
+      sequence = this.pipeline.addNewContact("Durable", "notes", null);
+    }
+    this.pipeline.awaitDurable(sequence);
+    assertEquals(sequence, this.pipeline.getDurableSequence());
+    assertTrue(this.manager.getJournal().getLastDurable() >= WRITES_PER_THREAD);
+  }
+
+  @Test
+  public void testDurableAfterFlushWithoutJournal() {
+    this.pipeline = new MutationPipeline(this.manager, MutationPipeline.DEFAULT_CAPACITY);
+    final long sequence = this.pipeline.addNewContact("Flushed", "notes", null);
+    this.pipeline.awaitApplied(sequence);
+    assertEquals(0, this.pipeline.getDurableSequence());
+    this.manager.flush();
+    this.pipeline.awaitDurable(sequence);
+  }
+
+  @Test
+  public void testThrowingCallbackContained() {
+    this.pipeline = new MutationPipeline(this.manager, SMALL_CAPACITY);
+    this.pipeline.addNewContact("Thrown", "notes", new MutationCallback() {
+      @Override
+      public void applied(final long sequence, final int id) {
+        throw new IllegalStateException("callback failed");
+      }
+
+      @Override
+      public void rejected(final long sequence, final RuntimeException failure) {
+        throw failure;
+      }
+    });
+    //the writer survives to apply the writes after it
+    this.pipeline.awaitApplied(this.pipeline.addNewContact("After", "notes", null));
+    assertEquals(2, this.manager.getContacts("").size());
+  }
+
+  @Test
+  public void testCloseAppliesEveryWriteAccepted() throws InterruptedException {
+    this.pipeline = new MutationPipeline(this.manager, SMALL_CAPACITY);
+    final AtomicInteger accepted = new AtomicInteger();
+    final List<Thread> producers = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      final Thread producer = new Thread(() -> {
+        try {
+          while (true) {
+            this.pipeline.addNewContact("Racing", "notes", null);
+            accepted.incrementAndGet();
+          }
+        } catch (IllegalStateException e) {
+          //closed
+        }
+      });
+      producers.add(producer);
+      producer.start();
+    }
+    Thread.sleep(20);
+    this.pipeline.close();
+    for (final Thread producer : producers) {
+      producer.join();
+    }
+    assertEquals(accepted.get(), this.manager.getContacts("Racing").size());
+    assertEquals(accepted.get(), this.pipeline.getAppliedSequence());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityNotPowerOfTwo() {
+    new MutationPipeline(this.manager, 12);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWriteAfterClose() {
+    this.pipeline = new MutationPipeline(this.manager, SMALL_CAPACITY);
+    this.pipeline.close();
+    this.pipeline.addNewContact("Closed", "notes", null);
+  }
+}
@@ -0,0 +1,158 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactClient;
+import impl.ContactManagerImpl;
+import impl.ContactServer;
+import impl.DateFns;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.PastMeeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class NearCacheTest {
+
+  private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
+  private static final int CAPACITY = 64;
+  private static final long WAIT_MILLIS = 5_000;
+
+  private transient TestFiles files;
+  private transient ContactManagerImpl manager;
+  private transient ContactServer server;
+  private transient ContactClient reader;
+  private transient ContactClient writer;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("nearcache");
+    this.manager = new ContactManagerImpl();
+    this.server = new ContactServer(this.manager, ANY_PORT);
+    this.reader = new ContactClient(this.server.getLocalAddress(), CAPACITY);
+    this.writer = new ContactClient(this.server.getLocalAddress());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.reader.close();
+    this.writer.close();
+    this.server.close();
+    this.files.close();
+  }
+
+  /**
+   * Wait for a pushed invalidation to be applied.
+   * @param condition true once it has been
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testRepeatedReadsServedWithoutRoundTrip() {
+    final int contact = this.writer.addNewContact("Cached", "notes");
+    final Set<Contact> attendees = this.writer.getContacts(contact);
+    final int meeting = this.writer.addFutureMeeting(attendees, DateFns.getFutureDate());
+
+    //the invalidations pushed for the writes above may arrive after the first reads and stop
+    //them being cached, so read until a whole round is served from the cache
+    final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    int requests;
+    do {
+      requests = this.server.getRequestCount();
+      readCached(contact, meeting);
+    } while (this.server.getRequestCount() != requests
+        && System.currentTimeMillis() < deadline);
+    final long hits = this.reader.getNearCacheHits();
+    for (int read = 0; read < 10; read++) {
+      readCached(contact, meeting);
+    }
+    assertEquals(requests, this.server.getRequestCount());
+    assertEquals(hits + 30, this.reader.getNearCacheHits());
+  }
+
+  /**
+   * Read a contact, a meeting and the contact's future meetings through the caching client.
+   * @param contact the contact id
+   * @param meeting the id of the contact's only future meeting
+   */
+  private void readCached(final int contact, final int meeting) {
+    final Contact read = this.reader.getContacts(contact).iterator().next();
+    assertEquals("Cached", read.getName());
+    assertEquals(meeting, this.reader.getMeeting(meeting).getId());
+    assertEquals(meeting, this.reader.getFutureMeetingList(read).get(0).getId());
+  }
+
+  @Test
+  public void testChangeByAnotherClientInvalidates() throws InterruptedException {
+    final int contact = this.writer.addNewContact("Changed", "notes");
+    final int meeting = this.writer.addNewPastMeeting(this.writer.getContacts(contact),
+                                                      DateFns.getPastDate(), "before");
+    assertEquals("before", this.reader.getPastMeeting(meeting).getNotes());
+    assertEquals("before", ((PastMeeting) this.reader.getMeeting(meeting)).getNotes());
+    this.writer.addMeetingNotes(meeting, "after");
+    await(() -> ((PastMeeting) this.reader.getMeeting(meeting)).getNotes().contains("after"));
+  }
+
+  @Test
+  public void testOwnChangeSeenImmediately() {
+    final int contact = this.reader.addNewContact("Own", "notes");
+    final Contact attendee = this.reader.getContacts(contact).iterator().next();
+    assertEquals(0, this.reader.getFutureMeetingList(attendee).size());
+    this.reader.addFutureMeeting(this.reader.getContacts(contact), DateFns.getFutureDate());
+    assertEquals(1, this.reader.getFutureMeetingList(attendee).size());
+  }
+
+  @Test
+  public void testChangeMadeDirectlyToManagerInvalidates() throws InterruptedException {
+    final int contact = this.writer.addNewContact("Direct", "first");
+    assertEquals("first", this.reader.getContacts(contact).iterator().next().getNotes());
+    this.manager.getContacts(contact).iterator().next().addNotes("second");
+    await(() -> this.reader.getContacts(contact).iterator().next().getNotes()
+        .contains("second"));
+  }
+
+  @Test
+  public void testCachedCopiesCannotBeChangedByCaller() {
+    final int contact = this.writer.addNewContact("Copied", "notes");
+    this.reader.getContacts(contact).iterator().next().addNotes("local");
+    assertEquals("notes", this.reader.getContacts(contact).iterator().next().getNotes());
+  }
+
+  @Test
+  public void testCacheBounded() throws IOException {
+    try (ContactClient small = new ContactClient(this.server.getLocalAddress(), 1)) {
+      final int first = this.writer.addNewContact("First", "notes");
+      final int second = this.writer.addNewContact("Second", "notes");
+      for (int read = 0; read < 5; read++) {
+        small.getContacts(first);
+        small.getContacts(second);
+      }
+      assertEquals(0, small.getNearCacheHits());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeCapacity() throws IOException {
+    new ContactClient(this.server.getLocalAddress(), -1);
+  }
+}
@@ -0,0 +1,139 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactImpl;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.NotesArena;
+import impl.StringStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class NotesArenaTest {
+
+  private transient TestFiles files;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("arena");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  private static String longNotes(final String seed) {
+    return String.join(" ", Collections.nCopies(40, seed));
+  }
+
+  @Test
+  public void testOffHeapStoreAndShare() {
+    final NotesArena arena = NotesArena.offHeap();
+    final StringStore store = new StringStore(arena);
+    final String notes = longNotes("off heap ✓");
+
+    final CharSequence first = store.store(notes);
+    assertFalse(first instanceof String);
+    final long used = arena.getUsedBytes();
+    assertSame(first, store.store(new String(notes)));
+    assertEquals(used, arena.getUsedBytes());
+    assertEquals(notes, first.toString());
+  }
+
+  @Test
+  public void testChunksFilled() {
+    final NotesArena arena = NotesArena.offHeap();
+    final StringStore store = new StringStore(arena);
+    final String big = String.join("", Collections.nCopies(NotesArena.DEFAULT_CHUNK_SIZE, "x"));
+    final CharSequence[] held = new CharSequence[20];
+    for (int index = 0; index < held.length; index++) {
+      held[index] = store.store(longNotes("entry " + index));
+    }
+    final CharSequence oversized = store.store(big);
+    final CharSequence after = store.store(longNotes("after"));
+    for (int index = 0; index < held.length; index++) {
+      assertEquals(longNotes("entry " + index), held[index].toString());
+    }
+    assertEquals(big.length(), oversized.length());
+    assertEquals(longNotes("after"), after.toString());
+  }
+
+  @Test
+  public void testMappedArena() throws IOException {
+    final Path file = Files.createTempFile("notes", ".arena");
+    try (NotesArena arena = NotesArena.mapped(file)) {
+      final StringStore store = new StringStore(arena);
+      final CharSequence stored = store.store(longNotes("mapped"));
+      assertEquals(longNotes("mapped"), stored.toString());
+      assertEquals(NotesArena.DEFAULT_CHUNK_SIZE, Files.size(file));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testManagerArenaOwnText() throws IOException {
+    final NotesArena arena = NotesArena.offHeap();
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int before = manager.addNewContact("Before", longNotes("before"));
+    manager.enableNotesArena(arena);
+    assertEquals(0, arena.getUsedBytes());
+
+    final int id = manager.addNewContact("Arena", longNotes("contact"));
+    final long used = arena.getUsedBytes();
+    assertTrue(used > 0);
+    manager.getContacts(before).iterator().next().addNotes(longNotes("changed"));
+    final Set<Contact> attendees = manager.getContacts(id);
+    final int meeting = manager.addNewPastMeeting(attendees, DateFns.getPastDate(),
+                                                  longNotes("meeting"));
+    assertTrue(arena.getUsedBytes() > used);
+    assertEquals(longNotes("changed"), manager.getContacts(before).iterator().next().getNotes());
+    assertEquals(longNotes("meeting"), manager.getPastMeeting(meeting).getNotes());
+
+    //a manager without an arena, and contacts made outside a manager, keep text on the heap
+    final long managed = arena.getUsedBytes();
+    new ContactImpl(1, "Heap", longNotes("outside"));
+    new ContactManagerImpl().addNewContact("Heap", longNotes("other manager"));
+    assertEquals(managed, arena.getUsedBytes());
+  }
+
+  @Test
+  public void testSnapshotHoldsText() throws IOException, ClassNotFoundException {
+    final String notes = longNotes("serialized");
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    manager.enableNotesArena(NotesArena.offHeap());
+    final int id = manager.addNewContact("Arena", notes);
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(manager.getContacts(id).iterator().next());
+    }
+    try (ObjectInputStream in =
+             new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(notes, ((Contact) in.readObject()).getNotes());
+    }
+  }
+}
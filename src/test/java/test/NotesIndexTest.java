@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.NotesIndex;
+import impl.NotesSearchHit;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import spec.Contact;
+
+/**
+ * @author Alexander Worton.
+ */
+public class NotesIndexTest {
+
+  private static final NotesSearchHit.Source MEETING = NotesSearchHit.Source.MEETING;
+  private static final NotesSearchHit.Source CONTACT = NotesSearchHit.Source.CONTACT;
+  private static final int LIMIT = 10;
+
+  private NotesIndex populatedIndex() {
+    final NotesIndex index = new NotesIndex();
+    index.index(MEETING, 1, "We discussed pricing for the enterprise plan.");
+    index.index(MEETING, 2, "Pricing, pricing and more pricing. Price sensitive client.");
+    index.index(MEETING, 3, "Discussed the roadmap; no mention of cost.");
+    index.index(CONTACT, 1, "Prefers email. Asked about enterprise pricing");
+    return index;
+  }
+
+  @Test
+  public void testTermRankedByFrequency() {
+    final List<NotesSearchHit> hits = populatedIndex().search("pricing", LIMIT);
+    assertEquals(3, hits.size());
+    assertEquals(MEETING, hits.get(0).getSource());
+    assertEquals(2, hits.get(0).getId());
+    assertTrue(hits.get(0).getScore() >= hits.get(1).getScore());
+  }
+
+  @Test
+  public void testAllClausesRequired() {
+    final List<NotesSearchHit> hits = populatedIndex().search("Discussed PRICING", LIMIT);
+    assertEquals(1, hits.size());
+    assertEquals(1, hits.get(0).getId());
+  }
+
+  @Test
+  public void testPhrase() {
+    final List<NotesSearchHit> hits = populatedIndex().search("\"enterprise pricing\"", LIMIT);
+    assertEquals(1, hits.size());
+    assertEquals(CONTACT, hits.get(0).getSource());
+  }
+
+  @Test
+  public void testPrefix() {
+    final List<NotesSearchHit> hits = populatedIndex().search("pric*", LIMIT);
+    assertEquals(3, hits.size());
+    assertEquals(1, populatedIndex().search("road*", LIMIT).size());
+  }
+
+  @Test
+  public void testLimit() {
+    assertEquals(2, populatedIndex().search("pricing", 2).size());
+  }
+
+  @Test
+  public void testReplaceAndRemove() {
+    final NotesIndex index = populatedIndex();
+    index.index(MEETING, 2, "Nothing about money");
+    assertEquals(2, index.search("pricing", LIMIT).size());
+    assertEquals(1, index.search("money", LIMIT).size());
+    index.remove(CONTACT, 1);
+    assertEquals(1, index.search("pricing", LIMIT).size());
+    assertEquals(3, index.size());
+  }
+
+  @Test
+  public void testCompactionKeepsLiveDocuments() {
+    final NotesIndex index = new NotesIndex();
+    final int count = 3_000;
+    for (int round = 0; round < 3; round++) {
+      for (int id = 1; id <= count; id++) {
+        index.index(MEETING, id, "round" + round + " shared notes " + id);
+      }
+    }
+    assertEquals(count, index.size());
+    assertEquals(0, index.search("round0", LIMIT).size());
+    assertEquals(LIMIT, index.search("round2 shared", LIMIT).size());
+    assertEquals(1, index.search("\"notes 42\"", LIMIT).size());
+  }
+
+  @Test
+  public void testNoMatchAndEmptyQuery() {
+    assertTrue(populatedIndex().search("absent", LIMIT).isEmpty());
+    assertTrue(populatedIndex().search("  ", LIMIT).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLimitZero() {
+    populatedIndex().search("pricing", 0);
+  }
+
+  @Test
+  public void testManagerMaintainsIndex() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int contactId = manager.addNewContact("Indexed", "likes zebrafish");
+    final Set<Contact> attendees = manager.getContacts(contactId);
+    final int meetingId = manager.addNewPastMeeting(attendees, DateFns.getPastDate(),
+                                                    "talked zebrafish logistics");
+
+    List<NotesSearchHit> hits = manager.searchNotes("zebrafish", LIMIT);
+    assertEquals(2, hits.size());
+
+    attendees.iterator().next().addNotes("prefers cats");
+    hits = manager.searchNotes("zebrafish", LIMIT);
+    assertEquals(1, hits.size());
+    assertEquals(meetingId, hits.get(0).getId());
+    assertEquals(1, manager.searchNotes("cats", LIMIT).size());
+  }
+}
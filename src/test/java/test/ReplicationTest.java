@@ -0,0 +1,327 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactClient;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.ReplicaFollower;
+import impl.ReplicationLeader;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class ReplicationTest {
+
+  private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
+  private static final Duration WAIT = Duration.ofSeconds(10);
+  private static final Duration HEARTBEAT = Duration.ofMillis(20);
+  private static final int CONTACTS = 50;
+  private static final int BIND_ATTEMPTS = 100;
+  private static final byte SNAPSHOT_FRAME = 1;
+  private static final byte RECORD_FRAME = 2;
+  private static final byte[] BAD_CONTACT_RECORD = {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient ContactManagerImpl leaderManager;
+  private transient ReplicationLeader leader;
+  private transient ReplicaFollower follower;
+  private transient Process process;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("replication");
+    this.directory = this.files.getDirectory();
+  }
+
+  @After
+  public void tearDown() throws IOException, InterruptedException {
+    if (this.follower != null) {
+      this.follower.close();
+    }
+    if (this.leader != null) {
+      this.leader.close();
+    }
+    if (this.process != null) {
+      this.process.destroy();
+      this.process.waitFor();
+    }
+    this.files.close();
+  }
+
+  /**
+   * Start a leader in this JVM.
+   * @throws IOException if it cannot be started
+   */
+  private void startLeader() throws IOException {
+    this.leaderManager = new ContactManagerImpl();
+    this.leader = new ReplicationLeader(this.leaderManager, ANY_PORT, HEARTBEAT);
+  }
+
+  /**
+   * Wait for the follower to apply everything the leader in this JVM has done.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private void awaitCaughtUp() throws InterruptedException {
+    assertTrue(this.follower.awaitSequence(this.leaderManager.getLastChangeSequence(), WAIT));
+  }
+
+  /**
+   * Start a leader again on the address of one that was closed, which may briefly be taken by
+   * a connection in the ephemeral range.
+   * @param address the address
+   * @return the leader
+   * @throws IOException if the address stays taken
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private ReplicationLeader restartLeader(final InetSocketAddress address)
+      throws IOException, InterruptedException {
+    for (int attempt = 1; true; attempt++) {
+      try {
+        return new ReplicationLeader(this.leaderManager, address, HEARTBEAT);
+      } catch (BindException e) {
+        if (attempt == BIND_ATTEMPTS) {
+          throw e;
+        }
+        Thread.sleep(HEARTBEAT.toMillis());
+      }
+    }
+  }
+
+  @Test
+  public void testFollowerStartsFromSnapshot() throws IOException, InterruptedException {
+    startLeader();
+    for (int contact = 0; contact < CONTACTS; contact++) {
+      this.leaderManager.addNewContact("Contact" + contact, "notes");
+    }
+    final Set<Contact> attendees = this.leaderManager.getContacts(1, 2);
+    final int meeting = this.leaderManager.addNewPastMeeting(attendees, DateFns.getPastDate(),
+                                                             "minutes");
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    awaitCaughtUp();
+
+    final ContactManagerImpl replica = this.follower.getManager();
+    assertEquals(CONTACTS, replica.getContacts("").size());
+    assertEquals("minutes", replica.getPastMeeting(meeting).getNotes());
+    assertEquals(2, replica.getPastMeetingListFor(replica.getContacts(1).iterator().next())
+        .get(0).getContacts().size());
+    assertEquals(CONTACTS + 1, this.follower.getAppliedRecords());
+  }
+
+  @Test
+  public void testFollowerAppliesChangesAsTheyHappen() throws IOException,
+      InterruptedException {
+    startLeader();
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    final int contact = this.leaderManager.addNewContact("Live", "first");
+    final Set<Contact> attendees = this.leaderManager.getContacts(contact);
+    final int future = this.leaderManager.addFutureMeeting(attendees, DateFns.getFutureDate());
+    final int past = this.leaderManager.addNewPastMeeting(attendees, DateFns.getPastDate(), "a");
+    this.leaderManager.addMeetingNotes(past, "b");
+    attendees.iterator().next().addNotes("second");
+    awaitCaughtUp();
+
+    final ContactManagerImpl replica = this.follower.getManager();
+    final Contact replicated = replica.getContacts(contact).iterator().next();
+    assertEquals("second", replicated.getNotes());
+    assertEquals(future, replica.getFutureMeetingList(replicated).get(0).getId());
+    assertEquals("b", replica.getPastMeeting(past).getNotes());
+    //attendees of replicated meetings are the replica's own contacts, so see the new notes
+    assertEquals("second", replica.getMeeting(future).getContacts().iterator().next()
+        .getNotes());
+    assertEquals(1, replica.searchNotes("second", 1).size());
+  }
+
+  @Test
+  public void testMetricsReportLagAndThroughput() throws IOException, InterruptedException {
+    startLeader();
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    for (int contact = 0; contact < CONTACTS; contact++) {
+      this.leaderManager.addNewContact("Contact" + contact, "notes");
+    }
+    awaitCaughtUp();
+    Thread.sleep(HEARTBEAT.toMillis() * 3);
+    assertEquals(0, this.follower.getLagRecords());
+    assertEquals(this.leaderManager.getLastChangeSequence(), this.follower.getLeaderSequence());
+    assertNotNull(this.follower.getStaleness());
+    assertTrue(this.follower.getStaleness().compareTo(WAIT) < 0);
+    assertEquals(CONTACTS, this.follower.getAppliedRecords());
+    assertTrue(this.follower.getApplyThroughput() > 0);
+    assertEquals(CONTACTS, this.leader.getShippedRecords());
+    assertEquals(1, this.leader.getFollowerCount());
+  }
+
+  @Test
+  public void testFollowerResumesWithoutSnapshot() throws IOException, InterruptedException {
+    startLeader();
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    this.leaderManager.addNewContact("Before", "notes");
+    awaitCaughtUp();
+    final InetSocketAddress address = this.leader.getLocalAddress();
+    this.leader.close();
+    this.leaderManager.addNewContact("While away", "notes");
+    this.leader = restartLeader(address);
+    awaitCaughtUp();
+    assertEquals(2, this.follower.getManager().getContacts("").size());
+    //only the change it missed was shipped
+    assertEquals(1, this.leader.getShippedRecords());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFollowerRejectsWrites() throws IOException {
+    startLeader();
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    this.follower.getManager().addNewContact("Written", "notes");
+  }
+
+  @Test
+  public void testFollowerRejectsNotesOnContact() throws IOException, InterruptedException {
+    startLeader();
+    final int id = this.leaderManager.addNewContact("Replicated", "leader notes");
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    awaitCaughtUp();
+    final ContactManagerImpl replica = this.follower.getManager();
+    final Contact contact = replica.getContacts(id).iterator().next();
+    try {
+      contact.addNotes("replica notes");
+      throw new AssertionError("Notes changed on a follower");
+    } catch (IllegalStateException e) {
+      //the replica stays as the leader left it
+      assertEquals("leader notes", contact.getNotes());
+      assertEquals(0, replica.searchNotes("replica", 10).size());
+    }
+  }
+
+  @Test
+  public void testClosedFollowerTakesOver() throws IOException, InterruptedException {
+    startLeader();
+    this.follower = new ReplicaFollower(new ContactManagerImpl(), this.leader.getLocalAddress());
+    final int last = this.leaderManager.addNewContact("Leader", "notes");
+    awaitCaughtUp();
+    this.follower.close();
+    assertTrue(this.follower.getManager().addNewContact("Promoted", "notes") > last);
+  }
+
+  @Test
+  public void testFollowerSurvivesBadFrames() throws IOException, InterruptedException {
+    final List<Long> resumedFrom = new CopyOnWriteArrayList<>();
+    try (ServerSocket fake = new ServerSocket(0)) {
+      final Thread leading = new Thread(() -> {
+        try {
+          for (int connection = 0; connection < 3; connection++) {
+            final Socket socket = fake.accept();
+            resumedFrom.add(new DataInputStream(socket.getInputStream()).readLong());
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(connection == 2 ? SNAPSHOT_FRAME : RECORD_FRAME);
+            out.writeLong(1);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(1);
+            if (connection == 0) {
+              //a contact with id 0, which the replica cannot hold
+              out.writeInt(BAD_CONTACT_RECORD.length);
+              out.write(BAD_CONTACT_RECORD);
+            } else if (connection == 1) {
+              out.writeInt(-1);
+            } else {
+              out.writeInt(0);
+            }
+            out.flush();
+          }
+        } catch (IOException e) {
+          //the test has finished with the fake leader
+        }
+      });
+      leading.start();
+      this.follower = new ReplicaFollower(new ContactManagerImpl(),
+          new InetSocketAddress("127.0.0.1", fake.getLocalPort()));
+      assertTrue(this.follower.awaitSequence(1, WAIT));
+      leading.join();
+    }
+    assertEquals(Arrays.asList(-1L, -1L, -1L), resumedFrom);
+  }
+
+  @Test
+  public void testFollowerOfLeaderProcess() throws IOException, InterruptedException {
+    final int replicationPort;
+    final int serverPort;
+    try (ServerSocket first = new ServerSocket(0); ServerSocket second = new ServerSocket(0)) {
+      replicationPort = first.getLocalPort();
+      serverPort = second.getLocalPort();
+    }
+    final String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    //the leader process keeps its snapshot in a directory of its own
+    this.process = new ProcessBuilder(Arrays.asList(java, "-cp", absoluteClassPath(),
+        ReplicationLeader.class.getName(), Integer.toString(replicationPort),
+        Integer.toString(serverPort)))
+        .directory(this.directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8));
+    String line = reader.readLine();
+    while (line != null && !line.startsWith("Serving")) {
+      line = reader.readLine();
+    }
+    assertNotNull(line);
+
+    this.follower = new ReplicaFollower(new ContactManagerImpl(),
+                                        new InetSocketAddress("127.0.0.1", replicationPort));
+    try (ContactClient client = new ContactClient(
+        new InetSocketAddress("127.0.0.1", serverPort))) {
+      for (int contact = 0; contact < CONTACTS; contact++) {
+        client.addNewContact("Remote" + contact, "notes");
+      }
+      final int meeting = client.addFutureMeeting(client.getContacts(1, 2),
+                                                  DateFns.getFutureDate());
+      //each contact and the meeting is one change on the leader
+      assertTrue(this.follower.awaitSequence(CONTACTS + 1, WAIT));
+      assertEquals(CONTACTS, this.follower.getManager().getContacts("").size());
+      assertEquals(meeting, this.follower.getManager().getFutureMeeting(meeting).getId());
+    }
+  }
+
+  /**
+   * Make every entry of the class path absolute, since the leader process runs elsewhere.
+   * @return the class path
+   */
+  private static String absoluteClassPath() {
+    final StringBuilder path = new StringBuilder();
+    for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (path.length() > 0) {
+        path.append(File.pathSeparator);
+      }
+      path.append(new File(entry).getAbsolutePath());
+    }
+    return path.toString();
+  }
+}
@@ -0,0 +1,275 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.DateFns;
+import impl.IdAllocator;
+import impl.ShardedContactManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class ShardedContactManagerTest {
+
+  private static final int SHARDS = 4;
+  private static final int THREADS = 4;
+  private static final int WRITES_PER_THREAD = 500;
+  private static final ZoneId ZONE = ZoneId.systemDefault();
+
+  private transient TestFiles files;
+  private transient Path directory;
+  private transient ShardedContactManager manager;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("sharded");
+    this.directory = this.files.getDirectory();
+    this.manager = new ShardedContactManager(this.directory, SHARDS, ZONE);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  /**
+   * Add a contact to each shard and return them all.
+   * @return the contacts
+   */
+  private Set<Contact> contactInEveryShard() {
+    for (int index = 0; index < SHARDS; index++) {
+      this.manager.addNewContact("Contact" + index, "notes");
+    }
+    return this.manager.getContacts("");
+  }
+
+  @Test
+  public void testMeetingAcrossShards() {
+    final Set<Contact> attendees = contactInEveryShard();
+    final int future = this.manager.addFutureMeeting(attendees, DateFns.getFutureDate());
+    final int past = this.manager.addNewPastMeeting(attendees, DateFns.getPastDate(), "done");
+
+    for (final Contact contact : attendees) {
+      assertEquals(future, this.manager.getFutureMeetingList(contact).get(0).getId());
+      assertEquals(past, this.manager.getPastMeetingListFor(contact).get(0).getId());
+    }
+    assertEquals(attendees, this.manager.getFutureMeeting(future).getContacts());
+    assertEquals("done", this.manager.getPastMeeting(past).getNotes());
+  }
+
+  @Test
+  public void testMeetingListOnMergesShards() {
+    final Set<Contact> attendees = contactInEveryShard();
+    final Calendar date = DateFns.getFutureDate();
+    final List<Integer> ids = new ArrayList<>();
+    for (int index = 0; index < SHARDS * 2; index++) {
+      final Calendar time = (Calendar) date.clone();
+      time.set(Calendar.HOUR_OF_DAY, SHARDS * 2 - index);
+      ids.add(this.manager.addFutureMeeting(attendees, time));
+    }
+
+    final List<Meeting> meetings = this.manager.getMeetingListOn(date);
+    assertEquals(SHARDS * 2, meetings.size());
+    for (int index = 1; index < meetings.size(); index++) {
+      assertFalse(meetings.get(index).getDate().before(meetings.get(index - 1).getDate()));
+    }
+    assertEquals(ids.get(ids.size() - 1).intValue(), meetings.get(0).getId());
+  }
+
+  @Test
+  public void testConcurrentWriters() throws InterruptedException {
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      threads.add(new Thread(() -> {
+        for (int index = 0; index < WRITES_PER_THREAD; index++) {
+          final int id = this.manager.addNewContact("Writer", "notes");
+          this.manager.addFutureMeeting(this.manager.getContacts(id), DateFns.getFutureDate());
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    final Set<Contact> contacts = this.manager.getContacts("Writer");
+    assertEquals(THREADS * WRITES_PER_THREAD, contacts.size());
+    final Set<Integer> meetingIds = new HashSet<>();
+    for (final Contact contact : contacts) {
+      final List<Meeting> meetings = this.manager.getFutureMeetingList(contact);
+      assertEquals(1, meetings.size());
+      meetingIds.add(meetings.get(0).getId());
+    }
+    assertEquals(THREADS * WRITES_PER_THREAD, meetingIds.size());
+  }
+
+  @Test
+  public void testRestoreWithDifferentShardCount() throws IOException {
+    final Set<Contact> attendees = contactInEveryShard();
+    final int future = this.manager.addFutureMeeting(attendees, DateFns.getFutureDate());
+    final int past = this.manager.addNewPastMeeting(attendees, DateFns.getPastDate(), "done");
+    this.manager.flush();
+
+    final ShardedContactManager fewer = new ShardedContactManager(this.directory, 2, ZONE);
+    assertEquals(SHARDS, fewer.getContacts("").size());
+    assertEquals(SHARDS, fewer.getFutureMeeting(future).getContacts().size());
+    assertEquals("done", fewer.getPastMeeting(past).getNotes());
+    for (final Contact contact : fewer.getContacts("")) {
+      assertEquals(1, fewer.getFutureMeetingList(contact).size());
+    }
+    //ids continue after the stored lease, never reusing one handed out
+    final int next = fewer.addNewContact("Next", "notes");
+    assertEquals(IdAllocator.DEFAULT_LEASE_SIZE + 1, next);
+    fewer.flush();
+
+    //two shards of two files each, the manifest and the lease
+    try (Stream<Path> files = Files.list(this.directory)) {
+      assertEquals(6, files.count());
+    }
+    final ShardedContactManager reloaded = new ShardedContactManager(this.directory, 3, ZONE);
+    assertEquals(SHARDS + 1, reloaded.getContacts("").size());
+  }
+
+  @Test
+  public void testInterruptedFlushNotRestored() throws IOException {
+    final Set<Contact> attendees = contactInEveryShard();
+    final int past = this.manager.addNewPastMeeting(attendees, DateFns.getPastDate(), "done");
+    this.manager.flush();
+    //a later flush that died before publishing its manifest leaves files of its generation
+    final List<Path> partial = new ArrayList<>();
+    try (Stream<Path> files = Files.list(this.directory)) {
+      files.filter(file -> file.getFileName().toString().startsWith("shard-"))
+          .forEach(file -> partial.add(file.resolveSibling(
+              file.getFileName().toString().replaceFirst("\\.\\d+\\.", ".99."))));
+    }
+    for (final Path file : partial) {
+      Files.write(file, new byte[] {1});
+    }
+
+    final ShardedContactManager restored = new ShardedContactManager(this.directory, 2, ZONE);
+    assertEquals(SHARDS, restored.getContacts("").size());
+    assertEquals("done", restored.getPastMeeting(past).getNotes());
+    restored.flush();
+    for (final Path file : partial) {
+      assertFalse(Files.exists(file));
+    }
+  }
+
+  @Test
+  public void testFlushWhileWriting() throws IOException, InterruptedException {
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      threads.add(new Thread(() -> {
+        for (int index = 0; index < WRITES_PER_THREAD; index++) {
+          final int first = this.manager.addNewContact("Writer", "notes");
+          final int second = this.manager.addNewContact("Writer", "notes");
+          this.manager.addFutureMeeting(this.manager.getContacts(first, second),
+                                        DateFns.getFutureDate());
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    while (threads.stream().anyMatch(Thread::isAlive)) {
+      this.manager.flush();
+      //every flush, taken while writers add contacts and meetings, can be opened again
+      final ShardedContactManager restored =
+          new ShardedContactManager(this.directory, SHARDS, ZONE);
+      for (final Contact contact : restored.getContacts("Writer")) {
+        for (final Meeting meeting : restored.getFutureMeetingList(contact)) {
+          assertFalse(meeting.getContacts().contains(null));
+        }
+      }
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    this.manager.flush();
+    final ShardedContactManager restored = new ShardedContactManager(this.directory, 2, ZONE);
+    assertEquals(THREADS * WRITES_PER_THREAD * 2, restored.getContacts("Writer").size());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingAttendeeRejected() throws IOException {
+    final ShardedContactManager single = new ShardedContactManager(this.directory, 1, ZONE);
+    final int contact = single.addNewContact("Missing", "notes");
+    single.addFutureMeeting(single.getContacts(contact), DateFns.getFutureDate());
+    single.flush();
+    //the saved contacts lose the meeting's attendee
+    try (Stream<Path> files = Files.list(this.directory)) {
+      for (final Path file : files.filter(file -> file.toString().endsWith(".contacts"))
+          .collect(Collectors.toList())) {
+        Files.write(file, new byte[Integer.BYTES]);
+      }
+    }
+    new ShardedContactManager(this.directory, 1, ZONE);
+  }
+
+  @Test
+  public void testPendingMeetingHasNoPastMeeting() throws InterruptedException {
+    final Set<Contact> attendees = contactInEveryShard();
+    final Calendar soon = Calendar.getInstance();
+    soon.add(Calendar.MILLISECOND, 50);
+    final int id = this.manager.addFutureMeeting(attendees, soon);
+    Thread.sleep(100);
+
+    assertNull(this.manager.getPastMeeting(id));
+    assertTrue(this.manager.getFutureMeetingList(attendees.iterator().next()).isEmpty());
+    assertEquals("later", this.manager.addMeetingNotes(id, "later").getNotes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMeetingWithUnknownContact() {
+    final Set<Contact> attendees = contactInEveryShard();
+    final ShardedContactManager other;
+    try {
+      other = new ShardedContactManager(Files.createTempDirectory(this.directory, "other"),
+                                        SHARDS, ZONE);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    other.addFutureMeeting(attendees, DateFns.getFutureDate());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testContactsWithUnknownId() {
+    contactInEveryShard();
+    this.manager.getContacts(1, SHARDS + 1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNotesForFutureMeeting() {
+    final int id = this.manager.addFutureMeeting(contactInEveryShard(), DateFns.getFutureDate());
+    this.manager.addMeetingNotes(id, "early");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFutureMeetingForPastMeeting() {
+    final int id = this.manager.addNewPastMeeting(contactInEveryShard(), DateFns.getPastDate(),
+                                                  "done");
+    this.manager.getFutureMeeting(id);
+  }
+}
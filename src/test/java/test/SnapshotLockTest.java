@@ -0,0 +1,164 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class SnapshotLockTest {
+
+  private static final Path LOCK = Paths.get("contacts.txt.lock");
+
+  private transient TestFiles files;
+  private transient Process process;
+  private final transient List<ContactManagerImpl> locked = new ArrayList<>();
+
+  /**
+   * Holds the writer lock in a process of its own until its input is closed.
+   */
+  public static final class Holder {
+
+    /**
+     * Take the lock, report it and wait.
+     * @param args unused
+     * @throws IOException if the lock cannot be taken
+     */
+    public static void main(final String[] args) throws IOException {
+      final ContactManagerImpl manager = new ContactManagerImpl();
+      System.out.println(manager.enableSnapshotLock(false) ? "Locked" : "Not locked");
+      while (System.in.read() >= 0) {
+        //wait for the test to finish
+      }
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("snapshotlock");
+  }
+
+  @After
+  public void tearDown() throws IOException, InterruptedException {
+    for (final ContactManagerImpl manager : this.locked) {
+      manager.releaseSnapshotLock();
+    }
+    if (this.process != null) {
+      this.process.destroy();
+      this.process.waitFor();
+    }
+    Files.deleteIfExists(LOCK);
+    this.files.close();
+  }
+
+  /**
+   * Create a manager and enable its snapshot lock, to be released after the test.
+   * @param readOnlyFallback true to become a reader if the lock is held
+   * @return the manager
+   * @throws IOException if the lock cannot be taken
+   */
+  private ContactManagerImpl lockedManager(final boolean readOnlyFallback) throws IOException {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    manager.enableSnapshotLock(readOnlyFallback);
+    this.locked.add(manager);
+    return manager;
+  }
+
+  @Test
+  public void testOneWriter() throws IOException {
+    final ContactManagerImpl writer = new ContactManagerImpl();
+    assertTrue(writer.enableSnapshotLock(false));
+    this.locked.add(writer);
+    final ContactManagerImpl reader = new ContactManagerImpl();
+    assertFalse(reader.enableSnapshotLock(true));
+    this.locked.add(reader);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSecondWriterFails() throws IOException {
+    lockedManager(false);
+    new ContactManagerImpl().enableSnapshotLock(false);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReaderRejectsWrites() throws IOException {
+    lockedManager(false);
+    lockedManager(true).addNewContact("Rejected", "notes");
+  }
+
+  @Test
+  public void testReaderDoesNotOverwriteWriter() throws IOException {
+    final ContactManagerImpl writer = lockedManager(false);
+    final ContactManagerImpl reader = lockedManager(true);
+    writer.addNewContact("Kept", "notes");
+    writer.flush();
+    reader.flush();
+    assertEquals(1, new ContactManagerImpl().getContacts("Kept").size());
+  }
+
+  @Test
+  public void testReleasedLockCanBeTaken() throws IOException {
+    final ContactManagerImpl first = new ContactManagerImpl();
+    assertTrue(first.enableSnapshotLock(false));
+    first.releaseSnapshotLock();
+    final ContactManagerImpl second = new ContactManagerImpl();
+    assertTrue(second.enableSnapshotLock(false));
+    this.locked.add(second);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testStaleManagerCannotBecomeWriter() throws IOException {
+    final ContactManagerImpl stale = new ContactManagerImpl();
+    final ContactManagerImpl first = new ContactManagerImpl();
+    assertTrue(first.enableSnapshotLock(false));
+    first.addNewContact("Written", "notes");
+    first.flush();
+    first.releaseSnapshotLock();
+    //taking the lock would let the stale manager overwrite the contact written
+    stale.enableSnapshotLock(false);
+  }
+
+  @Test
+  public void testWriterInAnotherProcess() throws IOException {
+    final String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    this.process = new ProcessBuilder(Arrays.asList(java, "-cp",
+        System.getProperty("java.class.path"), Holder.class.getName()))
+        .redirectErrorStream(true)
+        .start();
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8));
+    String line = reader.readLine();
+    while (line != null && !line.equals("Locked") && !line.equals("Not locked")) {
+      line = reader.readLine();
+    }
+    assertNotNull(line);
+    assertEquals("Locked", line);
+
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    assertFalse(manager.enableSnapshotLock(true));
+    this.locked.add(manager);
+  }
+}
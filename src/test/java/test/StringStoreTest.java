@@ -0,0 +1,130 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactImpl;
+import impl.ContactManagerImpl;
+import impl.DateFns;
+import impl.StringStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spec.Contact;
+
+import test.library.TestFiles;
+
+/**
+ * @author Alexander Worton.
+ */
+public class StringStoreTest {
+
+  private static final String BOILERPLATE = String.join("",
+      Collections.nCopies(20, "Met at the quarterly review; follow up by email. "));
+
+  private transient TestFiles files;
+
+  @Before
+  public void setUp() throws IOException {
+    this.files = new TestFiles("strings");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    this.files.close();
+  }
+
+  @Test
+  public void testShortTextInterned() {
+    final StringStore store = new StringStore();
+    final CharSequence first = store.store(new String("placeholder"));
+    assertSame(first, store.store(new String("placeholder")));
+    assertTrue(first instanceof String);
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void testLongTextCompactAndShared() {
+    final StringStore store = new StringStore();
+    final CharSequence first = store.store(new String(BOILERPLATE));
+    assertFalse(first instanceof String);
+    assertSame(first, store.store(new String(BOILERPLATE)));
+    assertEquals(BOILERPLATE, first.toString());
+    assertEquals(BOILERPLATE.length(), first.length());
+  }
+
+  @Test
+  public void testConcurrentStoresShareOneCopy() throws InterruptedException {
+    final StringStore store = new StringStore();
+    final int values = 200;
+    final CharSequence[][] held = new CharSequence[4][values];
+    final List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < held.length; thread++) {
+      final CharSequence[] kept = held[thread];
+      threads.add(new Thread(() -> {
+        for (int value = 0; value < values; value++) {
+          kept[value] = store.store(value % 2 == 0 ? "short " + value : BOILERPLATE + value);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    for (int value = 0; value < values; value++) {
+      for (final CharSequence[] kept : held) {
+        assertSame(held[0][value], kept[value]);
+      }
+    }
+    assertEquals(values, store.size());
+  }
+
+  @Test
+  public void testUnicodeRoundTrip() {
+    final String text = String.join("", Collections.nCopies(10, "Zoë met 東京 team ✓ "));
+    assertEquals(text, new StringStore().store(text).toString());
+    assertEquals(text, new ContactImpl(1, "Zoë", text).getNotes());
+  }
+
+  @Test
+  public void testContactNotesReplaced() {
+    final ContactImpl contact = new ContactImpl(1, "Name", BOILERPLATE);
+    contact.addNotes(" ");
+    assertEquals(" ", contact.getNotes());
+    assertEquals("Name", contact.getName());
+  }
+
+  @Test
+  public void testSnapshotStoresSharedNotesOnce() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final File file = TestFiles.SNAPSHOT.toFile();
+    manager.flush();
+    final long before = file.length();
+    final int contacts = 200;
+    int lastId = 0;
+    for (int index = 0; index < contacts; index++) {
+      lastId = manager.addNewContact("Imported " + index, BOILERPLATE);
+    }
+    final Set<Contact> attendees = manager.getContacts(lastId);
+    final int meetingId = manager.addNewPastMeeting(attendees, DateFns.getPastDate(),
+                                                    BOILERPLATE);
+    manager.flush();
+    //each contact adds its name and id, not another copy of the notes
+    assertTrue(file.length() - before < (long) contacts * BOILERPLATE.length() / 4);
+
+    final ContactManagerImpl restored = new ContactManagerImpl();
+    assertEquals(BOILERPLATE, restored.getContacts(lastId).iterator().next().getNotes());
+    assertEquals(BOILERPLATE, restored.getPastMeeting(meetingId).getNotes());
+  }
+}
@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import impl.ContactManagerImpl;
+import impl.TimingWheel;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import spec.Contact;
+import spec.Meeting;
+
+import test.library.ContactManagerImplTestFns;
+
+/**
+ * @author Alexander Worton.
+ */
+public class TimingWheelTest {
+
+  private static final long START = 1_000_000L;
+  private static final long ONE_HOUR = 3_600_000L;
+  private static final long ONE_YEAR = 365L * 24L * ONE_HOUR;
+
+  @Test
+  public void testNotFiredBeforeDeadline() {
+    final TimingWheel wheel = new TimingWheel(START);
+    final List<Integer> fired = new ArrayList<>();
+    wheel.schedule(1, START + 10);
+    wheel.advanceTo(START + 10, fired::add);
+    assertTrue(fired.isEmpty());
+    wheel.advanceTo(START + 11, fired::add);
+    assertEquals(1, fired.size());
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testFiredInDeadlineOrderAcrossLevels() {
+    final TimingWheel wheel = new TimingWheel(START);
+    final List<Integer> fired = new ArrayList<>();
+    wheel.schedule(3, START + ONE_YEAR);
+    wheel.schedule(1, START + 5);
+    wheel.schedule(2, START + ONE_HOUR);
+    wheel.advanceTo(START + ONE_HOUR, fired::add);
+    assertEquals(1, fired.size());
+    wheel.advanceTo(START + 2 * ONE_YEAR, fired::add);
+    assertEquals(3, fired.size());
+    assertEquals(Integer.valueOf(1), fired.get(0));
+    assertEquals(Integer.valueOf(2), fired.get(1));
+    assertEquals(Integer.valueOf(3), fired.get(2));
+  }
+
+  @Test
+  public void testPastDeadlineFiresOnNextAdvance() {
+    final TimingWheel wheel = new TimingWheel(START);
+    final List<Integer> fired = new ArrayList<>();
+    wheel.schedule(1, START - ONE_HOUR);
+    wheel.advanceTo(START + 1, fired::add);
+    assertEquals(1, fired.size());
+  }
+
+  @Test
+  public void testRandomDeadlinesNeverEarlyNorLost() {
+    final TimingWheel wheel = new TimingWheel(START);
+    final Random random = new Random(42);
+    final int count = 5_000;
+    final long[] deadlines = new long[count];
+    for (int id = 0; id < count; id++) {
+      deadlines[id] = START + (long) (random.nextDouble() * ONE_YEAR);
+      wheel.schedule(id, deadlines[id]);
+    }
+    final long[] now = {START};
+    final int[] firedCount = {0};
+    while (wheel.size() > 0) {
+      now[0] += random.nextInt((int) ONE_HOUR);
+      wheel.advanceTo(now[0], id -> {
+        assertTrue(deadlines[id] < now[0]);
+        firedCount[0]++;
+      });
+    }
+    assertEquals(count, firedCount[0]);
+  }
+
+  @Test
+  public void testManagerMovesElapsedMeeting() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int[] contactIds = ContactManagerImplTestFns.createValidContacts(2, manager);
+    final Set<Contact> attendees = manager.getContacts(contactIds);
+    final List<Meeting> elapsed = new CopyOnWriteArrayList<>();
+    manager.addMeetingStateListener(elapsed::add);
+
+    final Calendar soon = Calendar.getInstance();
+    soon.add(Calendar.MILLISECOND, 300);
+    final int id = manager.addFutureMeeting(attendees, soon);
+    final Contact attendee = attendees.iterator().next();
+    assertTrue(manager.getFutureMeetingList(attendee).stream().anyMatch(m -> m.getId() == id));
+
+    ContactManagerImplTestFns.wait2Secs();
+
+    assertEquals(1, elapsed.size());
+    assertEquals(id, elapsed.get(0).getId());
+    assertTrue(manager.getFutureMeetingList(attendee).stream().noneMatch(m -> m.getId() == id));
+    assertEquals(null, manager.getPastMeeting(id));
+    manager.addMeetingNotes(id, "Notes");
+    assertTrue(manager.getPastMeetingListFor(attendee).stream().anyMatch(m -> m.getId() == id));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testManagerElapsedMeetingNotFuture() {
+    final ContactManagerImpl manager = new ContactManagerImpl();
+    final int[] contactIds = ContactManagerImplTestFns.createValidContacts(1, manager);
+    final Calendar soon = Calendar.getInstance();
+    soon.add(Calendar.MILLISECOND, 100);
+    final int id = manager.addFutureMeeting(manager.getContacts(contactIds), soon);
+    ContactManagerImplTestFns.wait2Secs();
+    manager.getFutureMeeting(id);
+  }
+}
@@ -0,0 +1,68 @@
+package test.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * TestFiles gives a test a scratch directory of its own and keeps the snapshot that every
+ * {@code ContactManagerImpl} shares in the working directory out of it. The snapshot is moved
+ * aside when it is created and put back by {@link #close()}, which also deletes anything the
+ * test left in the snapshot's place or in the directory, so no test sees another's data.
+ *
+ * @author Alexander Worton.
+ */
+public final class TestFiles {
+
+  /**
+   * The snapshot every manager constructed without a file of its own reads and flushes to.
+   */
+  public static final Path SNAPSHOT = Paths.get("contacts.txt");
+
+  private final Path directory;
+  private final Path saved;
+
+  /**
+   * Constructor, which moves the shared snapshot aside and creates the scratch directory.
+   * Must be called from a method annotated with {@code @Before}.
+   * @param prefix the prefix of the scratch directory's name
+   * @throws IOException if the snapshot cannot be moved or the directory created
+   */
+  public TestFiles(final String prefix) throws IOException {
+    this.saved = Files.createTempFile("contacts", ".txt");
+    if (Files.exists(SNAPSHOT)) {
+      Files.move(SNAPSHOT, this.saved, StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      Files.delete(this.saved);
+    }
+    this.directory = Files.createTempDirectory(prefix);
+  }
+
+  /**
+   * Getter for the scratch directory.
+   * @return the directory, deleted with everything in it by {@link #close()}
+   */
+  public Path getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Delete the snapshot the test wrote and the scratch directory, and put the shared snapshot
+   * back. Must be called from a method annotated with {@code @After}, once everything writing
+   * to the files has been closed.
+   * @throws IOException if the files cannot be deleted or moved
+   */
+  public void close() throws IOException {
+    Files.deleteIfExists(SNAPSHOT);
+    if (Files.exists(this.saved)) {
+      Files.move(this.saved, SNAPSHOT);
+    }
+    try (Stream<Path> files = Files.walk(this.directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+}